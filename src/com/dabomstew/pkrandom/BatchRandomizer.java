@@ -0,0 +1,416 @@
+package com.dabomstew.pkrandom;
+
+/*----------------------------------------------------------------------------*/
+/*--  BatchRandomizer.java - randomizes one base ROM with many seeds at     --*/
+/*--                         once, spread over a pool of worker threads.    --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2012.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.dabomstew.pkrandom.exceptions.RandomizationException;
+import com.dabomstew.pkrandom.romhandlers.AbstractDSRomHandler;
+import com.dabomstew.pkrandom.romhandlers.Gen1RomHandler;
+import com.dabomstew.pkrandom.romhandlers.Gen2RomHandler;
+import com.dabomstew.pkrandom.romhandlers.Gen3RomHandler;
+import com.dabomstew.pkrandom.romhandlers.Gen4RomHandler;
+import com.dabomstew.pkrandom.romhandlers.Gen5RomHandler;
+import com.dabomstew.pkrandom.romhandlers.RomHandler;
+
+// Headless randomization of many seeds from one base ROM & settings.
+// The base ROM is loaded once and every seed gets its own fork of it; seeds
+// run in parallel, one worker thread per core unless told otherwise.
+public class BatchRandomizer {
+
+    private static final RomHandler.Factory[] checkHandlers = new RomHandler.Factory[] { new Gen1RomHandler.Factory(),
+            new Gen2RomHandler.Factory(), new Gen3RomHandler.Factory(), new Gen4RomHandler.Factory(),
+            new Gen5RomHandler.Factory() };
+
+    private final Settings settings;
+    private final String sourceRom;
+    private final int threads;
+    private boolean writeLogs;
+    private boolean jsonLogs;
+    private boolean gzipLogs;
+    private RandomSource.Algorithm algorithm;
+
+    private RomHandler baseHandler;
+    private String defaultExtension;
+
+    public BatchRandomizer(Settings settings, String sourceRom) {
+        this(settings, sourceRom, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchRandomizer(Settings settings, String sourceRom, int threads) {
+        this.settings = settings;
+        this.sourceRom = sourceRom;
+        this.threads = Math.max(1, threads);
+        this.writeLogs = false;
+        this.algorithm = RandomSource.Algorithm.LEGACY;
+    }
+
+    public BatchRandomizer setWriteLogs(boolean writeLogs) {
+        this.writeLogs = writeLogs;
+        return this;
+    }
+
+    // Writes each seed's log as JSON lines records (.log.jsonl) instead of
+    // the text log
+    public BatchRandomizer setJsonLogs(boolean jsonLogs) {
+        this.jsonLogs = jsonLogs;
+        return this;
+    }
+
+    // Gzips the logs (adds .gz to their filenames)
+    public BatchRandomizer setGzipLogs(boolean gzipLogs) {
+        this.gzipLogs = gzipLogs;
+        return this;
+    }
+
+    // FAST seeds won't reproduce in the GUI, which always uses LEGACY
+    public BatchRandomizer setAlgorithm(RandomSource.Algorithm algorithm) {
+        this.algorithm = algorithm;
+        return this;
+    }
+
+    public BatchResult randomize(String outputFolder, int seedCount) throws IOException {
+        long[] seeds = new long[seedCount];
+        for (int i = 0; i < seedCount; i++) {
+            seeds[i] = RandomSource.pickSeed();
+        }
+        return randomize(outputFolder, seeds);
+    }
+
+    public BatchResult randomize(String outputFolder, long[] seeds) throws IOException {
+        prepare();
+        File outFolder = new File(outputFolder);
+        if (!outFolder.isDirectory() && !outFolder.mkdirs()) {
+            throw new IOException("Could not create output folder " + outputFolder);
+        }
+        String rawFilename = new File(sourceRom).getName();
+        int extStart = rawFilename.lastIndexOf('.');
+        String baseName = extStart > 0 ? rawFilename.substring(0, extStart) : rawFilename;
+
+        final long startTime = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, seeds.length)));
+        List<Future<SeedResult>> pending = new ArrayList<Future<SeedResult>>();
+        try {
+            for (long seed : seeds) {
+                String filename = new File(outFolder, String.format("%s_%d.%s", baseName, seed, defaultExtension))
+                        .getAbsolutePath();
+                pending.add(pool.submit(new SeedTask(seed, filename)));
+            }
+            List<SeedResult> results = new ArrayList<SeedResult>();
+            for (Future<SeedResult> future : pending) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException ex) {
+                    // SeedTask catches everything itself, so this is unexpected
+                    throw new RandomizationException("Batch worker failed: " + ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new RandomizationException("Batch randomization was interrupted");
+                }
+            }
+            return new BatchResult(results, System.currentTimeMillis() - startTime);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Loads the base ROM and fits the settings to it once, so the workers can
+    // share them read-only.
+    private void prepare() throws IOException {
+        if (baseHandler != null) {
+            return;
+        }
+        RomHandler.Factory factory = null;
+        for (RomHandler.Factory rhf : checkHandlers) {
+            if (rhf.isLoadable(sourceRom)) {
+                factory = rhf;
+                break;
+            }
+        }
+        if (factory == null) {
+            throw new RandomizationException(sourceRom + " is not a supported ROM.");
+        }
+        RomHandler base = factory.create(new RandomSource(algorithm));
+        if (!base.loadRom(sourceRom)) {
+            throw new RandomizationException("Could not load " + sourceRom);
+        }
+        settings.tweakForRom(base);
+        if (settings.getCustomNames() == null) {
+            settings.setCustomNames(FileFunctions.getCustomNames());
+        }
+        // parts the settings don't touch are left for the seeds that turn
+        // out to need them
+        base.preload(LoadPlan.forSettings(settings));
+        defaultExtension = base.getDefaultExtension();
+        baseHandler = base;
+    }
+
+    // Releases the loaded base ROM. The next randomize call loads it again.
+    public void close() throws IOException {
+        if (baseHandler instanceof AbstractDSRomHandler) {
+            ((AbstractDSRomHandler) baseHandler).deleteInnerRomTmpFolder();
+        }
+        baseHandler = null;
+    }
+
+    private class SeedTask implements Callable<SeedResult> {
+
+        private final long seed;
+        private final String filename;
+
+        public SeedTask(long seed, String filename) {
+            this.seed = seed;
+            this.filename = filename;
+        }
+
+        @Override
+        public SeedResult call() {
+            final long startTime = System.currentTimeMillis();
+            PrintStream log = null;
+            SpoilerLog records = null;
+            RomHandler romHandler = null;
+            RandomizationMetrics metrics = null;
+            try {
+                if (writeLogs && jsonLogs) {
+                    records = SpoilerLog.openJsonLines(logFilename(".log.jsonl"), gzipLogs);
+                } else if (writeLogs) {
+                    log = SpoilerLog.openText(logFilename(".log"), gzipLogs);
+                }
+                RandomSource random = new RandomSource(algorithm);
+                romHandler = baseHandler.fork(random, log);
+                Randomizer randomizer = new Randomizer(settings, romHandler, random);
+                randomizer.setSpoilerLog(records);
+                int checkValue = randomizer.randomize(filename, log, seed);
+                metrics = randomizer.getMetrics();
+                if (records != null) {
+                    records.close();
+                    records = null;
+                }
+                if (log != null) {
+                    // a gzip log only gets its last block and trailer on
+                    // close, and PrintStream keeps close's failure for
+                    // checkError rather than throwing it
+                    PrintStream textLog = log;
+                    log = null;
+                    textLog.close();
+                    if (textLog.checkError()) {
+                        throw new IOException("Could not write " + logFilename(".log"));
+                    }
+                }
+                return new SeedResult(seed, filename, checkValue, System.currentTimeMillis() - startTime, metrics,
+                        null);
+            } catch (Exception ex) {
+                return new SeedResult(seed, filename, 0, System.currentTimeMillis() - startTime, metrics, ex);
+            } finally {
+                if (log != null) {
+                    log.close();
+                }
+                if (records != null) {
+                    try {
+                        records.close();
+                    } catch (IOException ex) {
+                        // the seed has failed already
+                    }
+                }
+                if (romHandler instanceof AbstractDSRomHandler) {
+                    try {
+                        ((AbstractDSRomHandler) romHandler).deleteInnerRomTmpFolder();
+                    } catch (IOException ex) {
+                        // leftovers get removed on exit anyway
+                    }
+                }
+            }
+        }
+
+        private String logFilename(String extension) {
+            return filename + extension + (gzipLogs ? ".gz" : "");
+        }
+    }
+
+    public static class SeedResult {
+
+        private final long seed;
+        private final String filename;
+        private final int checkValue;
+        private final long elapsedMillis;
+        private final RandomizationMetrics metrics;
+        private final Exception error;
+
+        public SeedResult(long seed, String filename, int checkValue, long elapsedMillis,
+                RandomizationMetrics metrics, Exception error) {
+            this.seed = seed;
+            this.filename = filename;
+            this.checkValue = checkValue;
+            this.elapsedMillis = elapsedMillis;
+            this.metrics = metrics;
+            this.error = error;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public String getFilename() {
+            return filename;
+        }
+
+        public int getCheckValue() {
+            return checkValue;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        // null if the seed failed before randomizing started
+        public RandomizationMetrics getMetrics() {
+            return metrics;
+        }
+
+        public Exception getError() {
+            return error;
+        }
+
+        public boolean succeeded() {
+            return error == null;
+        }
+    }
+
+    public static class BatchResult {
+
+        private final List<SeedResult> results;
+        private final long elapsedMillis;
+
+        public BatchResult(List<SeedResult> results, long elapsedMillis) {
+            this.results = Collections.unmodifiableList(results);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public List<SeedResult> getResults() {
+            return results;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public int getSucceededCount() {
+            int count = 0;
+            for (SeedResult result : results) {
+                if (result.succeeded()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public double getSeedsPerSecond() {
+            if (elapsedMillis <= 0) {
+                return 0;
+            }
+            return getSucceededCount() * 1000.0 / elapsedMillis;
+        }
+
+        public double getAverageSeedMillis() {
+            int count = 0;
+            long total = 0;
+            for (SeedResult result : results) {
+                if (result.succeeded()) {
+                    count++;
+                    total += result.getElapsedMillis();
+                }
+            }
+            return count == 0 ? 0 : (double) total / count;
+        }
+    }
+
+    // Usage: BatchRandomizer <rom> <settings.rnqs> <output folder> <seeds>
+    // [threads] [-logs] [-jsonlogs] [-gzip] [-fast]
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.err.println("Usage: BatchRandomizer <rom> <settings.rnqs> <output folder> <seeds> [threads] [-logs] [-jsonlogs] [-gzip] [-fast]");
+            System.exit(1);
+        }
+        try {
+            Utils.testForRequiredConfigs();
+            FileInputStream fis = new FileInputStream(args[1]);
+            Settings settings = Settings.read(fis);
+            fis.close();
+            int seedCount = Integer.parseInt(args[3]);
+            int threads = Runtime.getRuntime().availableProcessors();
+            boolean logs = false, jsonLogs = false, gzipLogs = false;
+            RandomSource.Algorithm algorithm = RandomSource.Algorithm.LEGACY;
+            for (int i = 4; i < args.length; i++) {
+                if (args[i].equals("-logs")) {
+                    logs = true;
+                } else if (args[i].equals("-jsonlogs")) {
+                    logs = true;
+                    jsonLogs = true;
+                } else if (args[i].equals("-gzip")) {
+                    gzipLogs = true;
+                } else if (args[i].equals("-fast")) {
+                    algorithm = RandomSource.Algorithm.FAST;
+                } else {
+                    threads = Integer.parseInt(args[i]);
+                }
+            }
+
+            BatchRandomizer batch = new BatchRandomizer(settings, args[0], threads).setWriteLogs(logs).setJsonLogs(jsonLogs)
+                    .setGzipLogs(gzipLogs).setAlgorithm(algorithm);
+            BatchResult result = batch.randomize(args[2], seedCount);
+            batch.close();
+            for (SeedResult sr : result.getResults()) {
+                if (sr.succeeded()) {
+                    RandomizationMetrics.StageMetrics slowest = sr.getMetrics().getSlowestStage();
+                    System.out.printf("%d: %s (check value %08X) in %dms, slowest stage %s (%.0fms)%n", sr.getSeed(),
+                            sr.getFilename(), sr.getCheckValue(), sr.getElapsedMillis(), slowest.getStage()
+                                    .getDisplayName(), slowest.getElapsedMillis());
+                } else {
+                    System.out.printf("%d: FAILED after %dms - %s%n", sr.getSeed(), sr.getElapsedMillis(),
+                            sr.getError());
+                }
+            }
+            System.out.printf("%d/%d seeds in %dms on %d threads: %.2f seeds/sec, %.0fms per seed%n",
+                    result.getSucceededCount(), result.getResults().size(), result.getElapsedMillis(), threads,
+                    result.getSeedsPerSecond(), result.getAverageSeedMillis());
+            System.exit(result.getSucceededCount() == result.getResults().size() ? 0 : 2);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+package com.dabomstew.pkrandom;
+
+/*----------------------------------------------------------------------------*/
+/*--  FreeSpaceAllocator.java - hands out free space in a ROM image from an --*/
+/*--                            index of free runs built once, instead of   --*/
+/*--                            rescanning the ROM for every repoint.       --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2012.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Allocations follow the same rules as RomFunctions.freeSpaceFinder: the
+// leftmost run that fits wins, and the same padding is kept in front of the
+// returned offset, so a fresh allocator picks the offsets a rescan would.
+// Space handed out is never offered again, even when the data written into
+// it ends in free-space bytes (string and moveset terminators).
+//
+// Every run found while indexing becomes a slot. A segment tree over the
+// slots holds the largest free run inside each, so the leftmost slot that can
+// fit an allocation is found in O(log n). Space given back by release() is
+// merged back into the slot it was carved from. Once a slot has been split,
+// it also keeps a count of its runs by length, so its largest run is found
+// without going over all of them.
+public class FreeSpaceAllocator {
+
+    // shortest run any allocation could use (1 byte + 2 bytes of padding)
+    private static final int MIN_RUN = 3;
+
+    private final byte freeSpace;
+    private final int[] slotStart;
+    private final int[] slotEnd;
+    private final int[] largest;
+    private final int leaves;
+    private final TreeMap<Integer, Integer> runs = new TreeMap<Integer, Integer>();
+    // run length -> how many runs of it, per slot; null until a slot changes
+    private final TreeMap<Integer, Integer>[] slotLengths;
+    private final Map<Integer, Integer> allocations = new HashMap<Integer, Integer>();
+    private long freeBytes;
+    private long allocatedBytes;
+
+    public FreeSpaceAllocator(byte[] rom, byte freeSpace, int offset) {
+        this.freeSpace = freeSpace;
+        List<Integer> starts = new ArrayList<Integer>();
+        List<Integer> ends = new ArrayList<Integer>();
+        int i = Math.max(offset, 0);
+        while (i < rom.length) {
+            if (rom[i] != freeSpace) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < rom.length && rom[i] == freeSpace) {
+                i++;
+            }
+            if (i - start >= MIN_RUN) {
+                starts.add(start);
+                ends.add(i);
+                runs.put(start, i);
+                freeBytes += i - start;
+            }
+        }
+
+        slotStart = new int[starts.size()];
+        slotLengths = newLengthTable(starts.size());
+        slotEnd = new int[starts.size()];
+        for (int s = 0; s < slotStart.length; s++) {
+            slotStart[s] = starts.get(s);
+            slotEnd[s] = ends.get(s);
+        }
+        int size = 1;
+        while (size < slotStart.length) {
+            size <<= 1;
+        }
+        leaves = size;
+        largest = new int[size * 2];
+        for (int s = 0; s < slotStart.length; s++) {
+            largest[size + s] = slotEnd[s] - slotStart[s];
+        }
+        for (int node = size - 1; node > 0; node--) {
+            largest[node] = Math.max(largest[node * 2], largest[node * 2 + 1]);
+        }
+    }
+
+    /**
+     * Reserves space for the given number of bytes and returns its offset, or
+     * -1 if no free run is big enough. Longword-aligned allocations keep the
+     * start on a 4-byte boundary.
+     */
+    public int allocate(int amount, boolean longAligned) {
+        int needed = amount + (longAligned ? 5 : 2);
+        if (amount <= 0 || largest[1] < needed) {
+            return -1;
+        }
+        // leftmost slot that can fit it
+        int node = 1;
+        while (node < leaves) {
+            node = (largest[node * 2] >= needed) ? node * 2 : node * 2 + 1;
+        }
+        int slot = node - leaves;
+
+        for (Map.Entry<Integer, Integer> run : runs.subMap(slotStart[slot], slotEnd[slot]).entrySet()) {
+            int start = run.getKey();
+            int end = run.getValue();
+            if (end - start < needed) {
+                continue;
+            }
+            int offset = longAligned ? (start + 5) & ~3 : start + 2;
+            int usedEnd = offset + amount;
+            removeRun(slot, start, end);
+            // alignment can leave enough padding in front for a tiny block
+            if (offset - start >= MIN_RUN) {
+                addRun(slot, start, offset);
+            }
+            if (end - usedEnd >= MIN_RUN) {
+                addRun(slot, usedEnd, end);
+            }
+            allocations.put(offset, amount);
+            allocatedBytes += amount;
+            updateSlot(slot);
+            return offset;
+        }
+        // can't happen while the tree is in sync with the runs
+        return -1;
+    }
+
+    public int allocate(int amount) {
+        // by default align to 4 bytes to make sure things don't break
+        return allocate(amount, true);
+    }
+
+    /**
+     * Gives back space from an earlier allocate() whose data has been
+     * abandoned (e.g. repointed again). The bytes are reset to free space in
+     * the ROM. Offsets this allocator didn't hand out are left alone, as
+     * original data may still be referenced from elsewhere.
+     */
+    public boolean release(byte[] rom, int offset) {
+        Integer amount = allocations.remove(offset);
+        if (amount == null) {
+            return false;
+        }
+        Arrays.fill(rom, offset, offset + amount, freeSpace);
+        allocatedBytes -= amount;
+
+        int start = offset;
+        int end = offset + amount;
+        int slot = Arrays.binarySearch(slotStart, start);
+        if (slot < 0) {
+            slot = -slot - 2;
+        }
+        Map.Entry<Integer, Integer> before = runs.floorEntry(start);
+        if (before != null && before.getValue() == start && before.getKey() >= slotStart[slot]) {
+            start = before.getKey();
+            removeRun(slot, start, before.getValue());
+        }
+        Integer afterEnd = runs.get(end);
+        if (afterEnd != null && afterEnd <= slotEnd[slot]) {
+            removeRun(slot, end, afterEnd);
+            end = afterEnd;
+        }
+        addRun(slot, start, end);
+        updateSlot(slot);
+        return true;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static TreeMap<Integer, Integer>[] newLengthTable(int slots) {
+        return new TreeMap[slots];
+    }
+
+    // the slot's runs before its first change: just the one it was found as
+    private TreeMap<Integer, Integer> lengthsOf(int slot) {
+        if (slotLengths[slot] == null) {
+            slotLengths[slot] = new TreeMap<Integer, Integer>();
+            slotLengths[slot].put(slotEnd[slot] - slotStart[slot], 1);
+        }
+        return slotLengths[slot];
+    }
+
+    private void addRun(int slot, int start, int end) {
+        runs.put(start, end);
+        freeBytes += end - start;
+        TreeMap<Integer, Integer> lengths = lengthsOf(slot);
+        Integer count = lengths.get(end - start);
+        lengths.put(end - start, count == null ? 1 : count + 1);
+    }
+
+    private void removeRun(int slot, int start, int end) {
+        runs.remove(start);
+        freeBytes -= end - start;
+        TreeMap<Integer, Integer> lengths = lengthsOf(slot);
+        int count = lengths.get(end - start);
+        if (count == 1) {
+            lengths.remove(end - start);
+        } else {
+            lengths.put(end - start, count - 1);
+        }
+    }
+
+    private void updateSlot(int slot) {
+        TreeMap<Integer, Integer> lengths = lengthsOf(slot);
+        int node = leaves + slot;
+        largest[node] = lengths.isEmpty() ? 0 : lengths.lastKey();
+        for (node >>= 1; node > 0; node >>= 1) {
+            largest[node] = Math.max(largest[node * 2], largest[node * 2 + 1]);
+        }
+    }
+
+    public long getFreeBytes() {
+        return freeBytes;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public int getLargestFreeRun() {
+        return largest[1];
+    }
+
+    public int getFreeRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * 0 when all free space is one run, approaching 1 as it gets split into
+     * many small ones.
+     */
+    public double getFragmentation() {
+        if (freeBytes == 0) {
+            return 0;
+        }
+        return 1.0 - (double) largest[1] / freeBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d bytes allocated, %d bytes free in %d runs (largest %d, fragmentation %.1f%%)",
+                allocatedBytes, freeBytes, runs.size(), largest[1], getFragmentation() * 100);
+    }
+}
@@ -0,0 +1,114 @@
+package com.dabomstew.pkrandom;
+
+/*----------------------------------------------------------------------------*/
+/*--  LoadPlan.java - which parts of a ROM a randomization run is going to  --*/
+/*--                  change, worked out from its Settings.                 --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2012.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+// ROM handlers load what every run needs (Pokemon, moves, names) up front and
+// the rest (scripts, story text, arm9, map data) when it's first used. A plan
+// is a hint on top of that: RomHandler.preload(plan) loads the planned parts
+// straight away, which matters for a handler that's about to be forked, as
+// its forks then share what it loaded instead of each decoding it again.
+// A part left out of the plan still works; it's just loaded by whoever uses
+// it first.
+public class LoadPlan {
+
+    public enum Part {
+        STARTERS, STATIC_POKEMON, TRAINERS, WILD_POKEMON, TMS, MOVE_TUTORS, TRADES, FIELD_ITEMS, MISC_TWEAKS
+    }
+
+    public static final LoadPlan EVERYTHING = new LoadPlan(EnumSet.allOf(Part.class));
+    public static final LoadPlan TRAINERS_ONLY = new LoadPlan(EnumSet.of(Part.TRAINERS));
+    public static final LoadPlan WILD_POKEMON_ONLY = new LoadPlan(EnumSet.of(Part.WILD_POKEMON));
+
+    private final Set<Part> parts;
+
+    private LoadPlan(EnumSet<Part> parts) {
+        this.parts = Collections.unmodifiableSet(parts);
+    }
+
+    public static LoadPlan of(Part first, Part... rest) {
+        return new LoadPlan(EnumSet.of(first, rest));
+    }
+
+    public static LoadPlan forSettings(Settings settings) {
+        EnumSet<Part> parts = EnumSet.noneOf(Part.class);
+        boolean metronome = settings.getMovesetsMod() == Settings.MovesetsMod.METRONOME_ONLY;
+        // rivals carrying their starter need the starters too
+        if (settings.getStartersMod() != Settings.StartersMod.UNCHANGED
+                || settings.isRandomizeStartersHeldItems() || settings.isRivalCarriesStarterThroughout()) {
+            parts.add(Part.STARTERS);
+        }
+        if (settings.getStaticPokemonMod() != Settings.StaticPokemonMod.UNCHANGED) {
+            parts.add(Part.STATIC_POKEMON);
+        }
+        if (settings.getTrainersMod() != Settings.TrainersMod.UNCHANGED
+                || settings.isRivalCarriesStarterThroughout() || settings.isTrainersForceFullyEvolved()
+                || settings.isTrainersLevelModified() || settings.isRandomizeTrainerNames()
+                || settings.isRandomizeTrainerClassNames() || metronome) {
+            parts.add(Part.TRAINERS);
+        }
+        if (settings.getWildPokemonMod() != Settings.WildPokemonMod.UNCHANGED || settings.isUseMinimumCatchRate()
+                || settings.isRandomizeWildPokemonHeldItems()) {
+            parts.add(Part.WILD_POKEMON);
+        }
+        if (settings.getTmsMod() != Settings.TMsMod.UNCHANGED
+                || settings.getTmsHmsCompatibilityMod() != Settings.TMsHMsCompatibilityMod.UNCHANGED
+                || settings.isTmLevelUpMoveSanity() || settings.isFullHMCompat() || metronome) {
+            parts.add(Part.TMS);
+        }
+        if (settings.getMoveTutorMovesMod() != Settings.MoveTutorMovesMod.UNCHANGED
+                || settings.getMoveTutorsCompatibilityMod() != Settings.MoveTutorsCompatibilityMod.UNCHANGED
+                || settings.isTutorLevelUpMoveSanity() || metronome) {
+            parts.add(Part.MOVE_TUTORS);
+        }
+        if (settings.getInGameTradesMod() != Settings.InGameTradesMod.UNCHANGED) {
+            parts.add(Part.TRADES);
+        }
+        if (settings.getFieldItemsMod() != Settings.FieldItemsMod.UNCHANGED) {
+            parts.add(Part.FIELD_ITEMS);
+        }
+        if (settings.getCurrentMiscTweaks() != 0) {
+            parts.add(Part.MISC_TWEAKS);
+        }
+        return new LoadPlan(parts);
+    }
+
+    public boolean needs(Part part) {
+        return parts.contains(part);
+    }
+
+    public Set<Part> getParts() {
+        return parts;
+    }
+
+    @Override
+    public String toString() {
+        return parts.toString();
+    }
+
+}
@@ -1,8 +1,8 @@
 package com.dabomstew.pkrandom;
 
 /*----------------------------------------------------------------------------*/
-/*--  RandomSource.java - functions as a centralized source of randomness   --*/
-/*--                      to allow the same seed to produce the same random --*/
+/*--  RandomSource.java - the source of randomness for one randomization    --*/
+/*--                      run, so the same seed produces the same random    --*/
 /*--                      ROM consistently.                                 --*/
 /*--                                                                        --*/
 /*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
@@ -28,135 +28,207 @@ package com.dabomstew.pkrandom;
 import java.security.SecureRandom;
 import java.util.Random;
 
-public class RandomSource {
+// One of these is made per randomization run and handed to both the
+// RomHandler.Factory and the Randomizer. It is not thread-safe, and doesn't
+// need to be: runs never share one.
+//
+// LEGACY reimplements java.util.Random's generator without the atomic
+// updates, so existing seeds still produce the exact same ROM. FAST uses
+// xoshiro256** instead, for batch jobs that don't need old seeds to match.
+public class RandomSource extends Random {
 
-    private static Random source = new Random();
-    private static int calls = 0;
-    private static Random instance = new RandomSourceInstance();
+    private static final long serialVersionUID = -4876737183441746322L;
 
-    public static void reset() {
-        source = new Random();
-        calls = 0;
+    public enum Algorithm {
+        LEGACY, FAST
+    }
+
+    private static final long multiplier = 0x5DEECE66DL;
+    private static final long addend = 0xBL;
+    private static final long mask = (1L << 48) - 1;
+    private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+    private final Algorithm algorithm;
+    private final boolean legacy;
+
+    // LEGACY state
+    private long seed;
+    // FAST state
+    private long s0, s1, s2, s3;
+
+    private double nextNextGaussian;
+    private boolean haveNextNextGaussian;
+    private int calls;
+
+    // Randomizer reseeds before every run, so these don't need SecureRandom
+    public RandomSource() {
+        this(Algorithm.LEGACY, System.nanoTime());
     }
 
-    public static void seed(long seed) {
-        source.setSeed(seed);
+    public RandomSource(Algorithm algorithm) {
+        this(algorithm, System.nanoTime());
+    }
+
+    public RandomSource(Algorithm algorithm, long seed) {
+        super(0L);
+        this.algorithm = algorithm;
+        this.legacy = algorithm == Algorithm.LEGACY;
+        setSeed(seed);
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        if (algorithm == null) {
+            // called from Random's constructor before we're set up
+            return;
+        }
+        if (legacy) {
+            this.seed = (seed ^ multiplier) & mask;
+        } else {
+            // expand the seed with splitmix64 as xoshiro's authors recommend
+            long x = seed;
+            x += 0x9E3779B97F4A7C15L;
+            s0 = mix64(x);
+            x += 0x9E3779B97F4A7C15L;
+            s1 = mix64(x);
+            x += 0x9E3779B97F4A7C15L;
+            s2 = mix64(x);
+            x += 0x9E3779B97F4A7C15L;
+            s3 = mix64(x);
+        }
+        haveNextNextGaussian = false;
         calls = 0;
     }
 
-    public static double random() {
-        calls++;
-        return source.nextDouble();
+    public int callsSinceSeed() {
+        return calls;
     }
 
-    public static int nextInt(int size) {
-        calls++;
-        return source.nextInt(size);
+    @Override
+    protected int next(int bits) {
+        if (legacy) {
+            seed = (seed * multiplier + addend) & mask;
+            return (int) (seed >>> (48 - bits));
+        } else {
+            return (int) (nextFast() >>> (64 - bits));
+        }
     }
 
-    public static void nextBytes(byte[] bytes) {
+    // The public methods below match java.util.Random's algorithms exactly,
+    // but count one call each and never call each other (Random's own
+    // nextBytes and nextGaussian do, which would inflate the count).
+
+    @Override
+    public void nextBytes(byte[] bytes) {
         calls++;
-        source.nextBytes(bytes);
+        for (int i = 0, len = bytes.length; i < len;) {
+            for (int rnd = next(32), n = Math.min(len - i, 4); n-- > 0; rnd >>= 8) {
+                bytes[i++] = (byte) rnd;
+            }
+        }
     }
 
-    public static int nextInt() {
+    @Override
+    public int nextInt() {
         calls++;
-        return source.nextInt();
+        return next(32);
     }
 
-    public static long nextLong() {
+    @Override
+    public int nextInt(int n) {
         calls++;
-        return source.nextLong();
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be positive");
+        }
+        if ((n & -n) == n) {
+            // n is a power of 2
+            return (int) ((n * (long) next(31)) >> 31);
+        }
+        int bits, val;
+        do {
+            bits = next(31);
+            val = bits % n;
+        } while (bits - val + (n - 1) < 0);
+        return val;
     }
 
-    public static boolean nextBoolean() {
+    @Override
+    public long nextLong() {
         calls++;
-        return source.nextBoolean();
+        return ((long) (next(32)) << 32) + next(32);
     }
 
-    public static float nextFloat() {
+    @Override
+    public boolean nextBoolean() {
         calls++;
-        return source.nextFloat();
+        return next(1) != 0;
     }
 
-    public static double nextDouble() {
+    @Override
+    public float nextFloat() {
         calls++;
-        return source.nextDouble();
+        return next(24) / ((float) (1 << 24));
     }
 
-    public static synchronized double nextGaussian() {
+    @Override
+    public double nextDouble() {
         calls++;
-        return source.nextGaussian();
+        return uncountedNextDouble();
     }
 
-    public static long pickSeed() {
-        long value = 0;
-        byte[] by = SecureRandom.getSeed(6);
-        for (int i = 0; i < by.length; i++) {
-            value |= ((long) by[i] & 0xffL) << (8 * i);
+    @Override
+    public double nextGaussian() {
+        calls++;
+        if (haveNextNextGaussian) {
+            haveNextNextGaussian = false;
+            return nextNextGaussian;
         }
-        return value;
+        double v1, v2, s;
+        do {
+            v1 = 2 * uncountedNextDouble() - 1;
+            v2 = 2 * uncountedNextDouble() - 1;
+            s = v1 * v1 + v2 * v2;
+        } while (s >= 1 || s == 0);
+        double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+        nextNextGaussian = v2 * multiplier;
+        haveNextNextGaussian = true;
+        return v1 * multiplier;
     }
 
-    public static Random instance() {
-        return instance;
+    private double uncountedNextDouble() {
+        return (((long) (next(26)) << 27) + next(27)) * DOUBLE_UNIT;
     }
 
-    public static int callsSinceSeed() {
-        return calls;
+    // xoshiro256** by Blackman & Vigna
+    private long nextFast() {
+        long result = Long.rotateLeft(s1 * 5, 7) * 9;
+        long t = s1 << 17;
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+        return result;
     }
 
-    private static class RandomSourceInstance extends Random {
-
-        /**
-         * 
-         */
-        private static final long serialVersionUID = -4876737183441746322L;
-
-        @Override
-        public synchronized void setSeed(long seed) {
-            RandomSource.seed(seed);
-        }
-
-        @Override
-        public void nextBytes(byte[] bytes) {
-            RandomSource.nextBytes(bytes);
-        }
-
-        @Override
-        public int nextInt() {
-            return RandomSource.nextInt();
-        }
-
-        @Override
-        public int nextInt(int n) {
-            return RandomSource.nextInt(n);
-        }
-
-        @Override
-        public long nextLong() {
-            return RandomSource.nextLong();
-        }
-
-        @Override
-        public boolean nextBoolean() {
-            return RandomSource.nextBoolean();
-        }
-
-        @Override
-        public float nextFloat() {
-            return RandomSource.nextFloat();
-        }
-
-        @Override
-        public double nextDouble() {
-            return RandomSource.nextDouble();
-        }
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
 
-        @Override
-        public synchronized double nextGaussian() {
-            return RandomSource.nextGaussian();
+    public static long pickSeed() {
+        long value = 0;
+        byte[] by = SecureRandom.getSeed(6);
+        for (int i = 0; i < by.length; i++) {
+            value |= ((long) by[i] & 0xffL) << (8 * i);
         }
-
+        return value;
     }
+
 }
@@ -0,0 +1,209 @@
+package com.dabomstew.pkrandom;
+
+/*----------------------------------------------------------------------------*/
+/*--  RandomizationMetrics.java - time, RNG draws and sizes of each stage   --*/
+/*--                              of one randomization run.                 --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2012.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Randomizer splits a run into the stages below, back to back, and records
+// one StageMetrics for each as it finishes; a Listener sees them as they come.
+// The stages cover the whole run, so their times add up to (almost) the total.
+//
+// "Objects" is what the stage worked through: Pokemon for the per-Pokemon
+// stages, evolutions, trainer Pokemon, encounters, TMs and so on. It is 0 when
+// a stage was switched off in the settings, and always for field items, which
+// would have to be scanned again to count. Only saving writes bytes: the size
+// of the saved ROM.
+public class RandomizationMetrics {
+
+    public enum Stage {
+        SETUP("Setup"),
+        MOVES("Move updates & data"),
+        MISC_TWEAKS("Misc tweaks"),
+        STATS("Base stats"),
+        ABILITIES("Abilities"),
+        TYPES("Types & held items"),
+        EVOLUTIONS("Evolutions"),
+        STARTERS("Starters"),
+        MOVESETS("Movesets"),
+        TRAINERS("Trainers"),
+        STATIC_POKEMON("Static Pokemon"),
+        WILD_ENCOUNTERS("Wild Pokemon"),
+        TMS("TMs"),
+        TUTORS("Move tutors"),
+        TRADES("In-game trades"),
+        FIELD_ITEMS("Field items"),
+        SAVE("Save");
+
+        private final String displayName;
+
+        private Stage(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    public interface Listener {
+
+        // Called on the randomizing thread right after each stage
+        public void stageFinished(StageMetrics stage);
+    }
+
+    public static class StageMetrics {
+
+        private final Stage stage;
+        private final long elapsedNanos;
+        private final int rngCalls;
+        private final int objects;
+        private final long bytesWritten;
+
+        public StageMetrics(Stage stage, long elapsedNanos, int rngCalls, int objects, long bytesWritten) {
+            this.stage = stage;
+            this.elapsedNanos = elapsedNanos;
+            this.rngCalls = rngCalls;
+            this.objects = objects;
+            this.bytesWritten = bytesWritten;
+        }
+
+        public Stage getStage() {
+            return stage;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public double getElapsedMillis() {
+            return elapsedNanos / 1000000.0;
+        }
+
+        public int getRngCalls() {
+            return rngCalls;
+        }
+
+        public int getObjects() {
+            return objects;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %.1fms, %d RNG calls, %d objects, %d bytes", stage.getDisplayName(),
+                    getElapsedMillis(), rngCalls, objects, bytesWritten);
+        }
+    }
+
+    private final RandomSource random;
+    private final Listener listener;
+    private final List<StageMetrics> stages = new ArrayList<StageMetrics>();
+
+    private Stage current;
+    private long stageStart;
+    private int stageRngStart;
+
+    public RandomizationMetrics(RandomSource random, Listener listener) {
+        this.random = random;
+        this.listener = listener;
+    }
+
+    public void start(Stage stage) {
+        current = stage;
+        stageRngStart = random.callsSinceSeed();
+        stageStart = System.nanoTime();
+    }
+
+    public void finish(int objects) {
+        finish(objects, 0);
+    }
+
+    public void finish(int objects, long bytesWritten) {
+        if (current == null) {
+            throw new IllegalStateException("No stage started");
+        }
+        StageMetrics done = new StageMetrics(current, System.nanoTime() - stageStart, random.callsSinceSeed()
+                - stageRngStart, objects, bytesWritten);
+        current = null;
+        stages.add(done);
+        if (listener != null) {
+            listener.stageFinished(done);
+        }
+    }
+
+    public List<StageMetrics> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    public StageMetrics getStage(Stage stage) {
+        for (StageMetrics sm : stages) {
+            if (sm.stage == stage) {
+                return sm;
+            }
+        }
+        return null;
+    }
+
+    public StageMetrics getSlowestStage() {
+        StageMetrics slowest = null;
+        for (StageMetrics sm : stages) {
+            if (slowest == null || sm.elapsedNanos > slowest.elapsedNanos) {
+                slowest = sm;
+            }
+        }
+        return slowest;
+    }
+
+    public long getElapsedNanos() {
+        long total = 0;
+        for (StageMetrics sm : stages) {
+            total += sm.elapsedNanos;
+        }
+        return total;
+    }
+
+    public int getRngCalls() {
+        int total = 0;
+        for (StageMetrics sm : stages) {
+            total += sm.rngCalls;
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (StageMetrics sm : stages) {
+            sb.append(sm).append(System.getProperty("line.separator"));
+        }
+        return sb.toString();
+    }
+
+}
@@ -24,6 +24,7 @@ package com.dabomstew.pkrandom;
 /*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
 /*----------------------------------------------------------------------------*/
 
+import java.io.File;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayList;
@@ -33,11 +34,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import com.dabomstew.pkrandom.RandomizationMetrics.Stage;
 import com.dabomstew.pkrandom.pokemon.Encounter;
 import com.dabomstew.pkrandom.pokemon.EncounterSet;
 import com.dabomstew.pkrandom.pokemon.IngameTrade;
 import com.dabomstew.pkrandom.pokemon.Move;
-import com.dabomstew.pkrandom.pokemon.MoveLearnt;
+import com.dabomstew.pkrandom.pokemon.Movesets;
 import com.dabomstew.pkrandom.pokemon.Pokemon;
 import com.dabomstew.pkrandom.pokemon.Trainer;
 import com.dabomstew.pkrandom.pokemon.TrainerPokemon;
@@ -52,18 +54,39 @@ public class Randomizer {
 
     private final Settings settings;
     private final RomHandler romHandler;
-
-    public Randomizer(Settings settings, RomHandler romHandler) {
+    private final RandomSource random;
+    private SpoilerLog records;
+    private boolean textLog;
+    private RandomizationMetrics.Listener metricsListener;
+    private RandomizationMetrics metrics;
+    // how many statics maybeChangeAndLogStaticPokemon changed, for the metrics
+    private int staticPokemonChanged;
+
+    // random must be the same RandomSource the RomHandler was created with
+    public Randomizer(Settings settings, RomHandler romHandler, RandomSource random) {
         this.settings = settings;
         this.romHandler = romHandler;
+        this.random = random;
+    }
+
+    // Also sends typed records of the changes to records, if not null. Has to
+    // be set before randomizing, as the ROM handler gets it too.
+    public void setSpoilerLog(SpoilerLog records) {
+        this.records = records;
+        romHandler.setSpoilerLog(records);
+    }
+
+    public void setMetricsListener(RandomizationMetrics.Listener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    // Per-stage metrics of the last randomize call, or null before the first
+    public RandomizationMetrics getMetrics() {
+        return metrics;
     }
 
     public int randomize(final String filename) {
-        return randomize(filename, new PrintStream(new OutputStream() {
-            @Override
-            public void write(int b) {
-            }
-        }));
+        return randomize(filename, null);
     }
 
     public int randomize(final String filename, final PrintStream log) {
@@ -71,12 +94,27 @@ public class Randomizer {
         return randomize(filename, log, seed);
     }
 
-    public int randomize(final String filename, final PrintStream log, long seed) {
+    // A null log skips the text log, including formatting the sections that
+    // only report changes.
+    public int randomize(final String filename, PrintStream log, long seed) {
         final long startTime = System.currentTimeMillis();
-        RandomSource.seed(seed);
+        random.setSeed(seed);
+        textLog = log != null;
+        if (!textLog) {
+            log = new PrintStream(new OutputStream() {
+                @Override
+                public void write(int b) {
+                }
+            });
+        }
+        if (records != null) {
+            records.run(romHandler.getROMName(), romHandler.getROMCode(), seed);
+        }
         final boolean raceMode = settings.isRaceMode();
 
         int checkValue = 0;
+        metrics = new RandomizationMetrics(random, metricsListener);
+        metrics.start(Stage.SETUP);
 
         // limit pokemon?
         if (settings.isLimitPokemon()) {
@@ -85,8 +123,16 @@ public class Randomizer {
         } else {
             romHandler.setPokemonPool(null);
         }
+        int pokemonCount = 0;
+        for (Pokemon pkmn : romHandler.getPokemon()) {
+            if (pkmn != null) {
+                pokemonCount++;
+            }
+        }
+        metrics.finish(pokemonCount);
 
         // Move updates & data changes
+        metrics.start(Stage.MOVES);
         if (settings.isUpdateMoves()) {
             romHandler.initMoveUpdates();
             if (!(romHandler instanceof Gen5RomHandler)) {
@@ -119,8 +165,14 @@ public class Randomizer {
         }
 
         List<Move> moves = romHandler.getMoves();
+        boolean movesChanged = settings.isUpdateMoves() || settings.isRandomizeMovePowers()
+                || settings.isRandomizeMoveAccuracies() || settings.isRandomizeMovePPs()
+                || settings.isRandomizeMoveTypes() || settings.isRandomizeMoveCategory();
+        metrics.finish(movesChanged ? moves.size() - 1 : 0);
 
         // Misc Tweaks?
+        metrics.start(Stage.MISC_TWEAKS);
+        int tweaksApplied = 0;
         int currentMiscTweaks = settings.getCurrentMiscTweaks();
         if (romHandler.miscTweaksAvailable() != 0) {
             int codeTweaksAvailable = romHandler.miscTweaksAvailable();
@@ -139,8 +191,11 @@ public class Randomizer {
             for (MiscTweak mt : tweaksToApply) {
                 romHandler.applyMiscTweak(mt);
             }
+            tweaksApplied = tweaksToApply.size();
         }
+        metrics.finish(tweaksApplied);
 
+        metrics.start(Stage.STATS);
         if (settings.isUpdateBaseStats()) {
             romHandler.updatePokemonStats();
         }
@@ -160,14 +215,23 @@ public class Randomizer {
         if (settings.isStandardizeEXPCurves()) {
             romHandler.standardizeEXPCurves();
         }
+        boolean statsChanged = settings.isUpdateBaseStats()
+                || settings.getBaseStatisticsMod() != Settings.BaseStatisticsMod.UNCHANGED
+                || settings.isStandardizeEXPCurves();
+        metrics.finish(statsChanged ? pokemonCount : 0);
 
         // Abilities? (new 1.0.2)
+        metrics.start(Stage.ABILITIES);
+        boolean abilitiesChanged = false;
         if (romHandler.abilitiesPerPokemon() > 0 && settings.getAbilitiesMod() == Settings.AbilitiesMod.RANDOMIZE) {
             romHandler.randomizeAbilities(settings.isAbilitiesFollowEvolutions(), settings.isAllowWonderGuard(),
                     settings.isBanTrappingAbilities(), settings.isBanNegativeAbilities());
+            abilitiesChanged = true;
         }
+        metrics.finish(abilitiesChanged ? pokemonCount : 0);
 
         // Pokemon Types
+        metrics.start(Stage.TYPES);
         switch (settings.getTypesMod()) {
         case RANDOM_FOLLOW_EVOLUTIONS:
             romHandler.randomizePokemonTypes(true);
@@ -191,8 +255,12 @@ public class Randomizer {
                         pkmn.spdef, pkmn.ability1, pkmn.ability2, pkmn.ability3);
             }
         }
+        boolean typesChanged = settings.getTypesMod() != Settings.TypesMod.UNCHANGED
+                || settings.isRandomizeWildPokemonHeldItems();
+        metrics.finish(typesChanged ? pokemonCount : 0);
 
         // Random Evos
+        metrics.start(Stage.EVOLUTIONS);
         // Applied after type to pick new evos based on new types.
         if (settings.getEvolutionsMod() == Settings.EvolutionsMod.RANDOM) {
             romHandler.randomizeEvolutions(settings.isEvosSimilarStrength(), settings.isEvosSameTyping(),
@@ -203,7 +271,10 @@ public class Randomizer {
             for (Pokemon pk : allPokes) {
                 if (pk != null) {
                     int numEvos = pk.evolutionsFrom.size();
-                    if (numEvos > 0) {
+                    if (numEvos > 0 && records != null) {
+                        records.evolutions(pk);
+                    }
+                    if (numEvos > 0 && textLog) {
                         StringBuilder evoStr = new StringBuilder(pk.evolutionsFrom.get(0).to.name);
                         for (int i = 1; i < numEvos; i++) {
                             if (i == numEvos - 1) {
@@ -229,14 +300,28 @@ public class Randomizer {
         if (settings.isMakeEvolutionsEasier()) {
             romHandler.condenseLevelEvolutions(40, 30);
         }
+        int evolutionCount = 0;
+        if (settings.getEvolutionsMod() != Settings.EvolutionsMod.UNCHANGED
+                || settings.isChangeImpossibleEvolutions() || settings.isMakeEvolutionsEasier()) {
+            for (Pokemon pkmn : romHandler.getPokemon()) {
+                if (pkmn != null) {
+                    evolutionCount += pkmn.evolutionsFrom.size();
+                }
+            }
+        }
+        metrics.finish(evolutionCount);
 
         // Starter Pokemon
         // Applied after type to update the strings correctly based on new types
-        maybeChangeAndLogStarters(log, romHandler);
+        metrics.start(Stage.STARTERS);
+        metrics.finish(maybeChangeAndLogStarters(log, romHandler));
 
         // Move Data Log
+        metrics.start(Stage.MOVESETS);
         // Placed here so it matches its position in the randomizer interface
-        maybeLogMoveChanges(log, romHandler);
+        if (textLog) {
+            maybeLogMoveChanges(log, romHandler);
+        }
 
         // Movesets
         boolean noBrokenMoves = settings.doBlockBrokenMoves();
@@ -258,25 +343,24 @@ public class Randomizer {
             log.println("Pokemon Movesets: Unchanged." + NEWLINE);
         } else if (settings.getMovesetsMod() == Settings.MovesetsMod.METRONOME_ONLY) {
             log.println("Pokemon Movesets: Metronome Only." + NEWLINE);
-        } else {
+        } else if (textLog) {
             log.println("--Pokemon Movesets--");
             List<String> movesets = new ArrayList<String>();
-            Map<Pokemon, List<MoveLearnt>> moveData = romHandler.getMovesLearnt();
-            for (Pokemon pkmn : moveData.keySet()) {
+            Movesets moveData = romHandler.getMovesLearnt();
+            for (int row = 0; row < moveData.size(); row++) {
+                Pokemon pkmn = moveData.getPokemon(row);
                 StringBuilder sb = new StringBuilder();
                 sb.append(String.format("%03d %-10s : ", pkmn.number, pkmn.name));
-                List<MoveLearnt> data = moveData.get(pkmn);
-                boolean first = true;
-                for (MoveLearnt ml : data) {
-                    if (!first) {
+                for (int i = 0; i < moveData.count(row); i++) {
+                    if (i > 0) {
                         sb.append(", ");
                     }
+                    int level = moveData.getLevel(row, i);
                     try {
-                        sb.append(moves.get(ml.move).name).append(" at level ").append(ml.level);
+                        sb.append(moves.get(moveData.getMove(row, i)).name).append(" at level ").append(level);
                     } catch (NullPointerException ex) {
-                        sb.append("invalid move at level" + ml.level);
+                        sb.append("invalid move at level" + level);
                     }
-                    first = false;
                 }
                 movesets.add(sb.toString());
             }
@@ -286,8 +370,13 @@ public class Randomizer {
             }
             log.println();
         }
+        boolean movesetsChanged = settings.getMovesetsMod() == Settings.MovesetsMod.RANDOM_PREFER_SAME_TYPE
+                || settings.getMovesetsMod() == Settings.MovesetsMod.COMPLETELY_RANDOM
+                || settings.isReorderDamagingMoves();
+        metrics.finish(movesetsChanged ? pokemonCount : 0);
 
         // Trainer Pokemon
+        metrics.start(Stage.TRAINERS);
         if (settings.getTrainersMod() == Settings.TrainersMod.RANDOM) {
             romHandler.randomizeTrainerPokes(settings.isTrainersUsePokemonOfSimilarStrength(),
                     settings.isTrainersBlockLegendaries(), settings.isTrainersBlockEarlyWonderGuard(),
@@ -329,16 +418,25 @@ public class Randomizer {
         }
 
         List<Trainer> trainers = romHandler.getTrainers();
+        int trainerPokemonCount = 0;
         for (Trainer t : trainers) {
             for (TrainerPokemon tpk : t.pokemon) {
                 checkValue = addToCV(checkValue, tpk.level, tpk.pokemon.number);
             }
+            trainerPokemonCount += t.pokemon.size();
         }
+        boolean trainersChanged = settings.getTrainersMod() != Settings.TrainersMod.UNCHANGED
+                || settings.isRivalCarriesStarterThroughout() || settings.isTrainersForceFullyEvolved()
+                || settings.getMovesetsMod() == Settings.MovesetsMod.METRONOME_ONLY;
+        metrics.finish(trainersChanged ? trainerPokemonCount : 0);
 
         // Static Pokemon
+        metrics.start(Stage.STATIC_POKEMON);
         checkValue = maybeChangeAndLogStaticPokemon(log, romHandler, raceMode, checkValue);
+        metrics.finish(staticPokemonChanged);
 
         // Wild Pokemon
+        metrics.start(Stage.WILD_ENCOUNTERS);
         if (settings.isUseMinimumCatchRate()) {
             boolean gen5 = romHandler instanceof Gen5RomHandler;
             int normalMin, legendaryMin;
@@ -389,13 +487,20 @@ public class Randomizer {
 
         maybeLogWildPokemonChanges(log, romHandler);
         List<EncounterSet> encounters = romHandler.getEncounters(settings.isUseTimeBasedEncounters());
+        int encounterCount = 0;
         for (EncounterSet es : encounters) {
             for (Encounter e : es.encounters) {
                 checkValue = addToCV(checkValue, e.level, e.pokemon.number);
             }
+            encounterCount += es.encounters.size();
         }
+        boolean wildChanged = settings.getWildPokemonMod() != Settings.WildPokemonMod.UNCHANGED
+                || settings.isUseMinimumCatchRate();
+        metrics.finish(wildChanged ? encounterCount : 0);
 
         // TMs
+        metrics.start(Stage.TMS);
+        int tmsChanged = 0;
         if (!(settings.getMovesetsMod() == Settings.MovesetsMod.METRONOME_ONLY)
                 && settings.getTmsMod() == Settings.TMsMod.RANDOM) {
             double goodDamagingProb = settings.isTmsForceGoodDamaging() ? settings.getTmsGoodDamagingPercent() / 100.0
@@ -407,6 +512,7 @@ public class Randomizer {
                 log.printf("TM%02d %s" + NEWLINE, i + 1, moves.get(tmMoves.get(i)).name);
                 checkValue = addToCV(checkValue, tmMoves.get(i));
             }
+            tmsChanged = tmMoves.size();
             log.println();
         } else if (settings.getMovesetsMod() == Settings.MovesetsMod.METRONOME_ONLY) {
             log.println("TM Moves: Metronome Only." + NEWLINE);
@@ -436,8 +542,11 @@ public class Randomizer {
         if (settings.isFullHMCompat()) {
             romHandler.fullHMCompatibility();
         }
+        metrics.finish(tmsChanged);
 
         // Move Tutors (new 1.0.3)
+        metrics.start(Stage.TUTORS);
+        int tutorsChanged = 0;
         if (romHandler.hasMoveTutors()) {
             if (!(settings.getMovesetsMod() == Settings.MovesetsMod.METRONOME_ONLY)
                     && settings.getMoveTutorMovesMod() == Settings.MoveTutorMovesMod.RANDOM) {
@@ -452,6 +561,7 @@ public class Randomizer {
                             moves.get(newMtMoves.get(i)).name);
                     checkValue = addToCV(checkValue, newMtMoves.get(i));
                 }
+                tutorsChanged = newMtMoves.size();
                 log.println();
             } else if (settings.getMovesetsMod() == Settings.MovesetsMod.METRONOME_ONLY) {
                 log.println("Move Tutor Moves: Metronome Only." + NEWLINE);
@@ -478,8 +588,10 @@ public class Randomizer {
                 romHandler.ensureMoveTutorCompatSanity();
             }
         }
+        metrics.finish(tutorsChanged);
 
         // In-game trades
+        metrics.start(Stage.TRADES);
         List<IngameTrade> oldTrades = romHandler.getIngameTrades();
         if (settings.getInGameTradesMod() == Settings.InGameTradesMod.RANDOMIZE_GIVEN) {
             romHandler.randomizeIngameTrades(false, settings.isRandomizeInGameTradesNicknames(),
@@ -504,15 +616,19 @@ public class Randomizer {
             }
             log.println();
         }
+        metrics.finish(settings.getInGameTradesMod() != Settings.InGameTradesMod.UNCHANGED ? oldTrades.size() : 0);
 
         // Field Items
+        metrics.start(Stage.FIELD_ITEMS);
         if (settings.getFieldItemsMod() == Settings.FieldItemsMod.SHUFFLE) {
             romHandler.shuffleFieldItems();
         } else if (settings.getFieldItemsMod() == Settings.FieldItemsMod.RANDOM) {
             romHandler.randomizeFieldItems(settings.isBanBadRandomFieldItems());
         }
+        metrics.finish(0);
 
         // Signature...
+        metrics.start(Stage.SAVE);
         romHandler.applySignature();
 
         // Record check value?
@@ -520,13 +636,18 @@ public class Randomizer {
 
         // Save
         romHandler.saveRom(filename);
+        metrics.finish(0, new File(filename).length());
 
         // Log tail
+        long elapsed = System.currentTimeMillis() - startTime;
         log.println("------------------------------------------------------------------");
         log.println("Randomization of " + romHandler.getROMName() + " completed.");
-        log.println("Time elapsed: " + (System.currentTimeMillis() - startTime) + "ms");
-        log.println("RNG Calls: " + RandomSource.callsSinceSeed());
+        log.println("Time elapsed: " + elapsed + "ms");
+        log.println("RNG Calls: " + random.callsSinceSeed());
         log.println("------------------------------------------------------------------");
+        if (records != null) {
+            records.done(checkValue, elapsed, random.callsSinceSeed());
+        }
 
         return checkValue;
     }
@@ -540,7 +661,17 @@ public class Randomizer {
                 && settings.getAbilitiesMod() == Settings.AbilitiesMod.UNCHANGED
                 && !settings.isRandomizeWildPokemonHeldItems()) {
             log.println("Pokemon base stats & type: unchanged" + NEWLINE);
-        } else {
+            return;
+        }
+        if (records != null) {
+            boolean gen1 = romHandler instanceof Gen1RomHandler;
+            for (Pokemon pkmn : allPokes) {
+                if (pkmn != null) {
+                    records.stats(pkmn, gen1);
+                }
+            }
+        }
+        if (textLog) {
             log.println("--Pokemon Base Stats & Types--");
             if (romHandler instanceof Gen1RomHandler) {
                 log.println("NUM|NAME      |TYPE             |  HP| ATK| DEF| SPE|SPEC");
@@ -611,7 +742,9 @@ public class Randomizer {
         }
     }
 
-    private void maybeChangeAndLogStarters(final PrintStream log, final RomHandler romHandler) {
+    // Returns how many starters were changed
+    private int maybeChangeAndLogStarters(final PrintStream log, final RomHandler romHandler) {
+        int changed = 0;
         if (romHandler.canChangeStarters()) {
             if (settings.getStartersMod() == Settings.StartersMod.CUSTOM) {
                 log.println("--Custom Starters--");
@@ -623,10 +756,12 @@ public class Randomizer {
                 log.println("Set starter 2 to " + pkmn2.name);
                 if (romHandler.isYellow()) {
                     romHandler.setStarters(Arrays.asList(pkmn1, pkmn2));
+                    changed = 2;
                 } else {
                     Pokemon pkmn3 = romPokemon.get(customStarters[2]);
                     log.println("Set starter 3 to " + pkmn3.name);
                     romHandler.setStarters(Arrays.asList(pkmn1, pkmn2, pkmn3));
+                    changed = 3;
                 }
                 log.println();
 
@@ -647,6 +782,7 @@ public class Randomizer {
                     starters.add(pkmn);
                 }
                 romHandler.setStarters(starters);
+                changed = starters.size();
                 log.println();
             } else if (settings.getStartersMod() == Settings.StartersMod.RANDOM_WITH_TWO_EVOLUTIONS) {
                 // Randomise
@@ -665,20 +801,31 @@ public class Randomizer {
                     starters.add(pkmn);
                 }
                 romHandler.setStarters(starters);
+                changed = starters.size();
                 log.println();
             }
             if (settings.isRandomizeStartersHeldItems() && !(romHandler instanceof Gen1RomHandler)) {
                 romHandler.randomizeStarterHeldItems(settings.isBanBadRandomStarterHeldItems());
             }
         }
+        return changed;
     }
 
     private void maybeLogWildPokemonChanges(final PrintStream log, final RomHandler romHandler) {
         if (settings.getWildPokemonMod() == Settings.WildPokemonMod.UNCHANGED) {
             log.println("Wild Pokemon: Unchanged." + NEWLINE);
         } else {
-            log.println("--Wild Pokemon--");
             List<EncounterSet> encounters = romHandler.getEncounters(settings.isUseTimeBasedEncounters());
+            if (records != null) {
+                int idx = 0;
+                for (EncounterSet es : encounters) {
+                    records.area(++idx, es);
+                }
+            }
+            if (!textLog) {
+                return;
+            }
+            log.println("--Wild Pokemon--");
             int idx = 0;
             for (EncounterSet es : encounters) {
                 idx++;
@@ -711,8 +858,17 @@ public class Randomizer {
         if (settings.getTrainersMod() == Settings.TrainersMod.UNCHANGED && !settings.isRivalCarriesStarterThroughout()) {
             log.println("Trainers: Unchanged." + NEWLINE);
         } else {
-            log.println("--Trainers Pokemon--");
             List<Trainer> trainers = romHandler.getTrainers();
+            if (records != null) {
+                int idx = 0;
+                for (Trainer t : trainers) {
+                    records.trainer(++idx, t);
+                }
+            }
+            if (!textLog) {
+                return;
+            }
+            log.println("--Trainers Pokemon--");
             int idx = 0;
             for (Trainer t : trainers) {
                 idx++;
@@ -742,23 +898,30 @@ public class Randomizer {
 
     private int maybeChangeAndLogStaticPokemon(final PrintStream log, final RomHandler romHandler, boolean raceMode,
             int checkValue) {
+        staticPokemonChanged = 0;
         if (romHandler.canChangeStaticPokemon()) {
-            List<Pokemon> oldStatics = romHandler.getStaticPokemon();
-            if (settings.getStaticPokemonMod() == Settings.StaticPokemonMod.RANDOM_MATCHING) {
-                romHandler.randomizeStaticPokemon(true);
-            } else if (settings.getStaticPokemonMod() == Settings.StaticPokemonMod.COMPLETELY_RANDOM) {
-                romHandler.randomizeStaticPokemon(false);
-            }
-            List<Pokemon> newStatics = romHandler.getStaticPokemon();
+            // unchanged statics aren't read at all, which saves loading the
+            // scripts they live in
             if (settings.getStaticPokemonMod() == Settings.StaticPokemonMod.UNCHANGED) {
                 log.println("Static Pokemon: Unchanged." + NEWLINE);
             } else {
+                List<Pokemon> oldStatics = romHandler.getStaticPokemon();
+                if (settings.getStaticPokemonMod() == Settings.StaticPokemonMod.RANDOM_MATCHING) {
+                    romHandler.randomizeStaticPokemon(true);
+                } else if (settings.getStaticPokemonMod() == Settings.StaticPokemonMod.COMPLETELY_RANDOM) {
+                    romHandler.randomizeStaticPokemon(false);
+                }
+                List<Pokemon> newStatics = romHandler.getStaticPokemon();
+                staticPokemonChanged = newStatics.size();
                 log.println("--Static Pokemon--");
                 Map<Pokemon, Integer> seenPokemon = new TreeMap<Pokemon, Integer>();
                 for (int i = 0; i < oldStatics.size(); i++) {
                     Pokemon oldP = oldStatics.get(i);
                     Pokemon newP = newStatics.get(i);
                     checkValue = addToCV(checkValue, newP.number);
+                    if (records != null) {
+                        records.staticPokemon(i, oldP, newP);
+                    }
                     log.print(oldP.name);
                     if (seenPokemon.containsKey(oldP)) {
                         int amount = seenPokemon.get(oldP);
@@ -29,9 +29,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.dabomstew.pkrandom.pokemon.Evolution;
-import com.dabomstew.pkrandom.pokemon.MoveLearnt;
+import com.dabomstew.pkrandom.pokemon.Movesets;
 import com.dabomstew.pkrandom.pokemon.Pokemon;
 import com.dabomstew.pkrandom.romhandlers.RomHandler;
 
@@ -95,49 +103,12 @@ public class RomFunctions {
      * @param level
      * @return
      */
-    public static int[] getMovesAtLevel(Pokemon pkmn, Map<Pokemon, List<MoveLearnt>> movesets, int level) {
+    public static int[] getMovesAtLevel(Pokemon pkmn, Movesets movesets, int level) {
         return getMovesAtLevel(pkmn, movesets, level, 0);
     }
 
-    public static int[] getMovesAtLevel(Pokemon pkmn, Map<Pokemon, List<MoveLearnt>> movesets, int level, int emptyValue) {
-        int[] curMoves = new int[4];
-
-        if (emptyValue != 0) {
-            Arrays.fill(curMoves, emptyValue);
-        }
-
-        int moveCount = 0;
-        List<MoveLearnt> movepool = movesets.get(pkmn);
-        for (MoveLearnt ml : movepool) {
-            if (ml.level > level) {
-                // we're done
-                break;
-            }
-
-            boolean alreadyKnownMove = false;
-            for (int i = 0; i < moveCount; i++) {
-                if (curMoves[i] == ml.move) {
-                    alreadyKnownMove = true;
-                    break;
-                }
-            }
-
-            if (!alreadyKnownMove) {
-                // add this move to the moveset
-                if (moveCount == 4) {
-                    // shift moves up and add to last slot
-                    for (int i = 0; i < 3; i++) {
-                        curMoves[i] = curMoves[i + 1];
-                    }
-                    curMoves[3] = ml.move;
-                } else {
-                    // add to next available slot
-                    curMoves[moveCount++] = ml.move;
-                }
-            }
-        }
-
-        return curMoves;
+    public static int[] getMovesAtLevel(Pokemon pkmn, Movesets movesets, int level, int emptyValue) {
+        return movesets.movesAtLevel(movesets.rowOf(pkmn), level, emptyValue);
     }
 
     public static String camelCase(String original) {
@@ -290,6 +261,222 @@ public class RomFunctions {
         return stable;
     }
 
+    public static List<List<Integer>> searchAll(byte[] haystack, byte[][] needles) {
+        return new MultiSearcher(needles).search(haystack);
+    }
+
+    /**
+     * Aho-Corasick automaton over a fixed set of byte needles, so that any
+     * number of signatures can be located with a single pass over the
+     * haystack. Results follow the same rules as search(): for each needle the
+     * list holds its non-overlapping occurrences, leftmost first.
+     * 
+     * A built searcher is immutable and can be shared between threads.
+     */
+    public static class MultiSearcher {
+
+        // chunks smaller than this aren't worth handing to another thread
+        private static final int MIN_CHUNK_SIZE = 0x100000;
+
+        // shared by every chunked search; its daemon threads go away once
+        // they've been idle for a while, so ROM detection leaves none behind
+        private static ThreadPoolExecutor chunkPool;
+
+        private final int[] lengths;
+        private final int maxLength;
+        private final int[] delta;
+        private final int[][] outputs;
+
+        public MultiSearcher(byte[][] needles) {
+            int total = 1;
+            int longest = 0;
+            lengths = new int[needles.length];
+            for (int i = 0; i < needles.length; i++) {
+                if (needles[i].length == 0) {
+                    throw new IllegalArgumentException("empty search needle");
+                }
+                lengths[i] = needles[i].length;
+                longest = Math.max(longest, lengths[i]);
+                total += lengths[i];
+            }
+            maxLength = longest;
+
+            // build the trie; -1 marks a missing edge until it gets resolved
+            int[] trie = new int[total * 256];
+            Arrays.fill(trie, -1);
+            List<List<Integer>> found = new ArrayList<List<Integer>>();
+            found.add(new ArrayList<Integer>());
+            int states = 1;
+            for (int i = 0; i < needles.length; i++) {
+                int state = 0;
+                for (byte b : needles[i]) {
+                    int edge = (state << 8) | (b & 0xFF);
+                    if (trie[edge] == -1) {
+                        trie[edge] = states++;
+                        found.add(new ArrayList<Integer>());
+                    }
+                    state = trie[edge];
+                }
+                found.get(state).add(i);
+            }
+
+            // breadth-first pass turns it into a full DFA and merges the
+            // outputs of each state's failure link into its own
+            int[] fail = new int[states];
+            int[] queue = new int[states];
+            int head = 0, tail = 0;
+            for (int c = 0; c < 256; c++) {
+                if (trie[c] == -1) {
+                    trie[c] = 0;
+                } else {
+                    queue[tail++] = trie[c];
+                }
+            }
+            while (head < tail) {
+                int state = queue[head++];
+                found.get(state).addAll(found.get(fail[state]));
+                for (int c = 0; c < 256; c++) {
+                    int edge = (state << 8) | c;
+                    int next = trie[edge];
+                    if (next == -1) {
+                        trie[edge] = trie[(fail[state] << 8) | c];
+                    } else {
+                        fail[next] = trie[(fail[state] << 8) | c];
+                        queue[tail++] = next;
+                    }
+                }
+            }
+
+            delta = Arrays.copyOf(trie, states * 256);
+            outputs = new int[states][];
+            for (int i = 0; i < states; i++) {
+                List<Integer> out = found.get(i);
+                if (!out.isEmpty()) {
+                    outputs[i] = new int[out.size()];
+                    for (int j = 0; j < outputs[i].length; j++) {
+                        outputs[i][j] = out.get(j);
+                    }
+                }
+            }
+        }
+
+        public List<List<Integer>> search(byte[] haystack) {
+            return search(haystack, 1);
+        }
+
+        /**
+         * Searches the haystack split into up to the given number of chunks,
+         * scanned in parallel on a thread pool shared by all searchers. Chunks
+         * are extended by the longest needle so matches straddling a boundary
+         * are still found, but only matches starting inside a chunk are
+         * reported by it.
+         */
+        public List<List<Integer>> search(final byte[] haystack, int threads) {
+            int chunks = Math.max(1, Math.min(threads, haystack.length / MIN_CHUNK_SIZE));
+            List<List<List<Integer>>> partials = new ArrayList<List<List<Integer>>>();
+            if (chunks == 1) {
+                partials.add(scan(haystack, 0, haystack.length));
+            } else {
+                int chunkSize = (haystack.length + chunks - 1) / chunks;
+                List<Future<List<List<Integer>>>> pending = new ArrayList<Future<List<List<Integer>>>>();
+                for (int i = 0; i < chunks; i++) {
+                    final int begin = i * chunkSize;
+                    final int end = Math.min(haystack.length, begin + chunkSize);
+                    pending.add(chunkPool().submit(new Callable<List<List<Integer>>>() {
+                        @Override
+                        public List<List<Integer>> call() {
+                            return scan(haystack, begin, end);
+                        }
+                    }));
+                }
+                for (Future<List<List<Integer>>> chunk : pending) {
+                    partials.add(awaitChunk(chunk));
+                }
+            }
+
+            // drop overlapping occurrences the same way the KMP search skips
+            // past each match
+            List<List<Integer>> results = new ArrayList<List<Integer>>();
+            for (int n = 0; n < lengths.length; n++) {
+                List<Integer> needleResults = new ArrayList<Integer>();
+                int nextAllowed = 0;
+                for (List<List<Integer>> partial : partials) {
+                    for (int offset : partial.get(n)) {
+                        if (offset >= nextAllowed) {
+                            needleResults.add(offset);
+                            nextAllowed = offset + lengths[n];
+                        }
+                    }
+                }
+                results.add(needleResults);
+            }
+            return results;
+        }
+
+        private static synchronized ThreadPoolExecutor chunkPool() {
+            if (chunkPool == null) {
+                int size = Runtime.getRuntime().availableProcessors();
+                chunkPool = new ThreadPoolExecutor(size, size, 10, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                            private final AtomicInteger created = new AtomicInteger();
+
+                            @Override
+                            public Thread newThread(Runnable task) {
+                                Thread thread = new Thread(task, "MultiSearcher-" + created.getAndIncrement());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+                chunkPool.allowCoreThreadTimeOut(true);
+            }
+            return chunkPool;
+        }
+
+        private static List<List<Integer>> awaitChunk(Future<List<List<Integer>>> chunk) {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return chunk.get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof RuntimeException) {
+                            throw (RuntimeException) e.getCause();
+                        }
+                        throw new RuntimeException(e.getCause());
+                    }
+                }
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private List<List<Integer>> scan(byte[] haystack, int begin, int end) {
+            List<List<Integer>> results = new ArrayList<List<Integer>>();
+            for (int n = 0; n < lengths.length; n++) {
+                results.add(new ArrayList<Integer>());
+            }
+            int scanEnd = (int) Math.min(haystack.length, (long) end + maxLength - 1);
+            int state = 0;
+            for (int i = begin; i < scanEnd; i++) {
+                state = delta[(state << 8) | (haystack[i] & 0xFF)];
+                int[] out = outputs[state];
+                if (out != null) {
+                    for (int n : out) {
+                        int start = i - lengths[n] + 1;
+                        if (start < end) {
+                            results.get(n).add(start);
+                        }
+                    }
+                }
+            }
+            return results;
+        }
+    }
+
     public static String rewriteDescriptionForNewLineSize(String moveDesc, String newline, int lineSize,
             StringSizeDeterminer ssd) {
         // We rewrite the description we're given based on some new chars per
@@ -623,11 +623,15 @@ public class Settings {
 
         // starters
         List<Pokemon> romPokemon = rh.getPokemon();
-        List<Pokemon> romStarters = rh.getStarters();
+        List<Pokemon> romStarters = null;
         for (int starter = 0; starter < 3; starter++) {
             if (this.customStarters[starter] < 0 || this.customStarters[starter] >= romPokemon.size()) {
                 // invalid starter for this game
                 feedback.setChangedStarter(true);
+                if (romStarters == null) {
+                    // only read when needed, as it can load the game's scripts
+                    romStarters = rh.getStarters();
+                }
                 if (starter >= romStarters.size()) {
                     this.customStarters[starter] = 1;
                 } else {
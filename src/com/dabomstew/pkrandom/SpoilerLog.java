@@ -0,0 +1,287 @@
+package com.dabomstew.pkrandom;
+
+/*----------------------------------------------------------------------------*/
+/*--  SpoilerLog.java - machine-readable spoiler log records, plus the      --*/
+/*--                    buffered (optionally gzipped) log file streams.     --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2012.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import com.dabomstew.pkrandom.exceptions.RandomizerIOException;
+import com.dabomstew.pkrandom.pokemon.Encounter;
+import com.dabomstew.pkrandom.pokemon.EncounterSet;
+import com.dabomstew.pkrandom.pokemon.Evolution;
+import com.dabomstew.pkrandom.pokemon.Pokemon;
+import com.dabomstew.pkrandom.pokemon.Trainer;
+import com.dabomstew.pkrandom.pokemon.TrainerPokemon;
+
+// Writes the spoiler log as JSON lines: one self-contained object per line,
+// each with a "type" field, so tools can index a log without parsing the
+// text tables. Records go straight to the (buffered) output as they are made,
+// so a seed's log never has to sit in memory.
+//
+// Record types:
+// run - rom & seed, first line of every log
+// stats - a Pokemon's types, base stats & abilities
+// evolutions - what a Pokemon evolves into after evolution randomization
+// evoChange - an evolution method changed by the impossible/easier evo fixes
+// trainer - a trainer's team
+// area - a wild encounter area
+// static - a static Pokemon replacement
+// done - check value, elapsed time & RNG calls, last line of every log
+public class SpoilerLog implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder(256);
+    private boolean firstField;
+
+    public SpoilerLog(Writer out) {
+        this.out = out;
+    }
+
+    // Opens a JSON lines log at filename, gzipped if asked to.
+    public static SpoilerLog openJsonLines(String filename, boolean gzip) throws IOException {
+        return new SpoilerLog(new BufferedWriter(new OutputStreamWriter(openFile(filename, gzip), "UTF-8"),
+                BUFFER_SIZE));
+    }
+
+    // Opens a text log at filename the same way the GUI writes it (UTF-8 with
+    // a BOM), but streamed through a buffer instead of collected in memory.
+    public static PrintStream openText(String filename, boolean gzip) throws IOException {
+        OutputStream os = openFile(filename, gzip);
+        os.write(0xEF);
+        os.write(0xBB);
+        os.write(0xBF);
+        return new PrintStream(os, false, "UTF-8");
+    }
+
+    public static OutputStream openFile(String filename, boolean gzip) throws IOException {
+        OutputStream os = new FileOutputStream(filename);
+        if (gzip) {
+            // GZIPOutputStream buffers on its own input side only
+            return new GZIPOutputStream(new BufferedOutputStream(os, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        return new BufferedOutputStream(os, BUFFER_SIZE);
+    }
+
+    public void run(String romName, String romCode, long seed) {
+        begin("run");
+        field("rom", romName);
+        field("code", romCode);
+        field("seed", seed);
+        end();
+    }
+
+    public void stats(Pokemon pk, boolean gen1) {
+        begin("stats");
+        pokemon(pk);
+        field("primaryType", pk.primaryType == null ? null : pk.primaryType.toString());
+        field("secondaryType", pk.secondaryType == null ? null : pk.secondaryType.toString());
+        field("hp", pk.hp);
+        field("attack", pk.attack);
+        field("defense", pk.defense);
+        field("speed", pk.speed);
+        if (gen1) {
+            field("special", pk.special);
+        } else {
+            field("spatk", pk.spatk);
+            field("spdef", pk.spdef);
+            field("ability1", pk.ability1);
+            field("ability2", pk.ability2);
+            field("ability3", pk.ability3);
+        }
+        end();
+    }
+
+    public void evolutions(Pokemon pk) {
+        begin("evolutions");
+        pokemon(pk);
+        key("into");
+        line.append('[');
+        List<Evolution> evos = pk.evolutionsFrom;
+        for (int i = 0; i < evos.size(); i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append(evos.get(i).to.number);
+        }
+        line.append(']');
+        end();
+    }
+
+    public void evoChange(String from, String to, String method, String requirement) {
+        begin("evoChange");
+        field("from", from);
+        field("to", to);
+        field("method", method);
+        field("requirement", requirement);
+        end();
+    }
+
+    public void trainer(int index, Trainer t) {
+        begin("trainer");
+        field("index", index);
+        field("name", t.fullDisplayName != null ? t.fullDisplayName : t.name);
+        field("offset", t.offset);
+        key("team");
+        line.append('[');
+        boolean first = true;
+        for (TrainerPokemon tpk : t.pokemon) {
+            if (!first) {
+                line.append(',');
+            }
+            line.append("{\"number\":").append(tpk.pokemon.number).append(",\"level\":").append(tpk.level)
+                    .append('}');
+            first = false;
+        }
+        line.append(']');
+        end();
+    }
+
+    public void area(int index, EncounterSet es) {
+        begin("area");
+        field("index", index);
+        field("name", es.displayName);
+        field("rate", es.rate);
+        key("encounters");
+        line.append('[');
+        boolean first = true;
+        for (Encounter e : es.encounters) {
+            if (!first) {
+                line.append(',');
+            }
+            line.append("{\"number\":").append(e.pokemon.number).append(",\"level\":").append(e.level);
+            if (e.maxLevel > 0 && e.maxLevel != e.level) {
+                line.append(",\"maxLevel\":").append(e.maxLevel);
+            }
+            line.append('}');
+            first = false;
+        }
+        line.append(']');
+        end();
+    }
+
+    public void staticPokemon(int index, Pokemon oldP, Pokemon newP) {
+        begin("static");
+        field("index", index);
+        field("old", oldP.number);
+        field("new", newP.number);
+        end();
+    }
+
+    public void done(int checkValue, long elapsedMillis, long rngCalls) {
+        begin("done");
+        field("checkValue", checkValue);
+        field("elapsedMillis", elapsedMillis);
+        field("rngCalls", rngCalls);
+        end();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void pokemon(Pokemon pk) {
+        field("number", pk.number);
+        field("name", pk.name);
+    }
+
+    private void begin(String type) {
+        line.setLength(0);
+        line.append('{');
+        firstField = true;
+        field("type", type);
+    }
+
+    private void end() {
+        line.append('}').append('\n');
+        try {
+            out.append(line);
+        } catch (IOException ex) {
+            throw new RandomizerIOException(ex);
+        }
+    }
+
+    private void key(String name) {
+        if (!firstField) {
+            line.append(',');
+        }
+        firstField = false;
+        line.append('"').append(name).append("\":");
+    }
+
+    private void field(String name, long value) {
+        key(name);
+        line.append(value);
+    }
+
+    private void field(String name, String value) {
+        key(name);
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                line.append("\\\"");
+                break;
+            case '\\':
+                line.append("\\\\");
+                break;
+            case '\n':
+                line.append("\\n");
+                break;
+            case '\r':
+                line.append("\\r");
+                break;
+            case '\t':
+                line.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    line.append("\\u00");
+                    line.append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+                } else {
+                    line.append(c);
+                }
+            }
+        }
+        line.append('"');
+    }
+
+}
@@ -0,0 +1,272 @@
+package com.dabomstew.pkrandom;
+
+/*----------------------------------------------------------------------------*/
+/*--  TextTable.java - a GB/GBC/GBA character table (.tbl) compiled into a  --*/
+/*--                   trie, for longest-match encoding without building    --*/
+/*--                   substrings.                                          --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2012.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.io.FileNotFoundException;
+import java.util.Arrays;
+import java.util.Scanner;
+
+// Encoding follows the old substring/HashMap loops exactly: at each position
+// an escape (\xNN, and \vNN where the game has a text variable byte) is taken
+// first, then the longest token in the table, and a character that starts no
+// token is dropped. Reading a table again over an existing one replaces codes
+// the way the GBC handlers always have: a redefined code below 0x80 stops
+// encoding its old token, while from 0x80 up the old token still encodes to
+// it (the old loader compared a signed byte with the code). That is what
+// keeps Japanese characters encodable once an English table is read over
+// gameboy_jap.
+//
+// The trie's nodes are ints; the edges (node, char) -> node live in one open
+// addressing table, so a step is a multiply, a mask and usually one probe.
+// Each node holds the code of the token ending there, or -1.
+//
+// A table is only written while loading; after that it can be shared by any
+// number of threads (forks share their parent's).
+public class TextTable {
+
+    private static final String[] ESCAPES = new String[256];
+    private static final String[] HEX = new String[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            HEX[i] = String.format("%02X", i);
+            ESCAPES[i] = "\\x" + HEX[i];
+        }
+    }
+
+    private final int variableCode;
+    private final String[] tokens;
+
+    private int[] nodeCodes = new int[64];
+    private int nodeCount = 1;
+    private long[] edgeKeys = new long[128];
+    private int[] edgeTargets = new int[128];
+    private int edgeCount;
+
+    public TextTable() {
+        this(-1);
+    }
+
+    // variableCode is the byte written for \vNN escapes, followed by NN
+    public TextTable(int variableCode) {
+        this(256, variableCode);
+    }
+
+    // A table of codes 0 to codes-1 (at most 0x10000). Tables wider than a
+    // byte are for match() only; encode() writes single byte codes.
+    public TextTable(int codes, int variableCode) {
+        this.tokens = new String[codes];
+        this.variableCode = variableCode;
+        Arrays.fill(nodeCodes, -1);
+    }
+
+    public void readTable(String name) throws FileNotFoundException {
+        Scanner sc = new Scanner(FileFunctions.openConfig(name + ".tbl"), "UTF-8");
+        while (sc.hasNextLine()) {
+            String q = sc.nextLine();
+            if (!q.trim().isEmpty()) {
+                String[] r = q.split("=", 2);
+                if (r[1].endsWith("\r\n")) {
+                    r[1] = r[1].substring(0, r[1].length() - 2);
+                }
+                put(Integer.parseInt(r[0], 16), r[1]);
+            }
+        }
+        sc.close();
+    }
+
+    public void put(int code, String token) {
+        if (tokens[code] != null) {
+            int oldNode = find(tokens[code]);
+            if (code < 0x80 && oldNode >= 0 && nodeCodes[oldNode] == code) {
+                nodeCodes[oldNode] = -1;
+            }
+        }
+        tokens[code] = token;
+        if (token.isEmpty()) {
+            return;
+        }
+        int node = 0;
+        for (int i = 0; i < token.length(); i++) {
+            int next = child(node, token.charAt(i));
+            if (next < 0) {
+                next = addNode();
+                addEdge(node, token.charAt(i), next);
+            }
+            node = next;
+        }
+        nodeCodes[node] = code;
+    }
+
+    // The token for code, or null if it has none
+    public String token(int code) {
+        return tokens[code];
+    }
+
+    // How an unmapped code is written out: \xNN
+    public static String escape(int code) {
+        return ESCAPES[code];
+    }
+
+    public static String hex(int value) {
+        return HEX[value];
+    }
+
+    public byte[] encode(String text) {
+        byte[] out = new byte[text.length()];
+        int length = encode(text, out, 0);
+        return length == out.length ? out : Arrays.copyOf(out, length);
+    }
+
+    // Encodes text into out from offset and returns the number of bytes
+    // written, which is never more than text.length().
+    public int encode(String text, byte[] out, int offset) {
+        return encode(text, out, offset, true);
+    }
+
+    public int encodedLength(String text) {
+        return encode(text, null, 0, false);
+    }
+
+    private int encode(String text, byte[] out, int offset, boolean write) {
+        int length = text.length();
+        int written = 0;
+        int pos = 0;
+        while (pos < length) {
+            char c = text.charAt(pos);
+            if (c == '\\' && pos + 3 < length) {
+                char kind = text.charAt(pos + 1);
+                if (kind == 'x' || (kind == 'v' && variableCode >= 0)) {
+                    if (write) {
+                        if (kind == 'v') {
+                            out[offset + written++] = (byte) variableCode;
+                        }
+                        out[offset + written++] = (byte) Integer.parseInt(text.substring(pos + 2, pos + 4), 16);
+                    } else {
+                        written += kind == 'v' ? 2 : 1;
+                    }
+                    pos += 4;
+                    continue;
+                }
+            }
+            int match = match(text, pos);
+            if (match >= 0) {
+                if (write) {
+                    out[offset + written] = (byte) match;
+                }
+                written++;
+                pos += match >>> 16;
+            } else {
+                pos++;
+            }
+        }
+        return written;
+    }
+
+    // The longest token in text starting at pos, as (length << 16) | code,
+    // or -1 if no token starts there.
+    public int match(String text, int pos) {
+        int length = text.length();
+        int node = 0, match = -1;
+        for (int i = pos; i < length; i++) {
+            node = child(node, text.charAt(i));
+            if (node < 0) {
+                break;
+            }
+            if (nodeCodes[node] >= 0) {
+                match = ((i + 1 - pos) << 16) | nodeCodes[node];
+            }
+        }
+        return match;
+    }
+
+    private int find(String token) {
+        int node = 0;
+        for (int i = 0; i < token.length() && node >= 0; i++) {
+            node = child(node, token.charAt(i));
+        }
+        return node;
+    }
+
+    private int addNode() {
+        if (nodeCount == nodeCodes.length) {
+            int oldLength = nodeCodes.length;
+            nodeCodes = Arrays.copyOf(nodeCodes, oldLength * 2);
+            Arrays.fill(nodeCodes, oldLength, nodeCodes.length, -1);
+        }
+        return nodeCount++;
+    }
+
+    // keys are stored +1 so that 0 can mark an empty slot
+    private static long edgeKey(int node, char c) {
+        return (((long) node << 16) | c) + 1;
+    }
+
+    private static int slot(long key, int mask) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    private int child(int node, char c) {
+        long key = edgeKey(node, c);
+        int mask = edgeKeys.length - 1;
+        for (int i = slot(key, mask);; i = (i + 1) & mask) {
+            if (edgeKeys[i] == key) {
+                return edgeTargets[i];
+            }
+            if (edgeKeys[i] == 0) {
+                return -1;
+            }
+        }
+    }
+
+    private void addEdge(int node, char c, int target) {
+        if ((edgeCount + 1) * 2 > edgeKeys.length) {
+            long[] oldKeys = edgeKeys;
+            int[] oldTargets = edgeTargets;
+            edgeKeys = new long[oldKeys.length * 2];
+            edgeTargets = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    insertEdge(oldKeys[i], oldTargets[i]);
+                }
+            }
+        }
+        insertEdge(edgeKey(node, c), target);
+        edgeCount++;
+    }
+
+    private void insertEdge(long key, int target) {
+        int mask = edgeKeys.length - 1;
+        int i = slot(key, mask);
+        while (edgeKeys[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        edgeKeys[i] = key;
+        edgeTargets[i] = target;
+    }
+
+}
@@ -0,0 +1,554 @@
+package com.dabomstew.pkrandom.benchmark;
+
+/*----------------------------------------------------------------------------*/
+/*--  Benchmarks.java - times the compressors, archive & text codecs, ROM   --*/
+/*--                    searches and randomization stages on synthetic      --*/
+/*--                    data, for a baseline that needs no game files.      --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2012.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import pptxt.PPTxtHandler;
+import thenewpoketext.PokeTextData;
+import thenewpoketext.TextToPoke;
+
+import com.dabomstew.pkrandom.FreeSpaceAllocator;
+import com.dabomstew.pkrandom.RandomSource;
+import com.dabomstew.pkrandom.RomFunctions;
+import com.dabomstew.pkrandom.TextTable;
+import com.dabomstew.pkrandom.constants.Gen3Constants;
+import com.dabomstew.pkrandom.newnds.NARCArchive;
+import com.dabomstew.pkrandom.romhandlers.Gen1RomHandler;
+import com.dabomstew.pkrandom.romhandlers.Gen3RomHandler;
+
+import compressors.DSDecmp;
+import compressors.Gen1Decmp;
+import compressors.Gen2Decmp;
+import cuecompressors.BLZCoder;
+import cuecompressors.BLZFastEncoder;
+
+// A small harness in the spirit of JMH, without the dependency: each case is
+// warmed up for a while, then run over and over for a fixed time, and the
+// mean and best time per call are printed. Work that a case needs redone
+// before every call (fresh data to randomize, say) goes in prepare() and is
+// not timed. Results are fed to a sink so the JIT can't drop the calls.
+//
+// All input comes from SyntheticData/SyntheticRomHandler with fixed seeds, so
+// numbers from two builds on the same machine are directly comparable.
+public class Benchmarks {
+
+    private static final long SEED = 0x5EEDL;
+
+    private static int sink;
+
+    private abstract static class Case {
+
+        private final String name;
+
+        public Case(String name) {
+            this.name = name;
+        }
+
+        // once, before warming up
+        protected void setUp() throws Exception {
+        }
+
+        // before every call to run, not timed
+        protected void prepare() throws Exception {
+        }
+
+        protected abstract Object run() throws Exception;
+    }
+
+    // Usage: Benchmarks [-warmup ms] [-time ms] [name prefix ...]
+    public static void main(String[] args) throws Exception {
+        long warmupMillis = 2000, measureMillis = 5000;
+        List<String> prefixes = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-warmup")) {
+                warmupMillis = Long.parseLong(args[++i]);
+            } else if (args[i].equals("-time")) {
+                measureMillis = Long.parseLong(args[++i]);
+            } else {
+                prefixes.add(args[i]);
+            }
+        }
+
+        System.out.printf("%-28s %12s %12s %8s%n", "benchmark", "mean us/op", "best us/op", "ops");
+        for (Case c : allCases()) {
+            if (!prefixes.isEmpty() && !matches(c.name, prefixes)) {
+                continue;
+            }
+            c.setUp();
+            measure(c, warmupMillis);
+            long[] result = measure(c, measureMillis);
+            System.out.printf("%-28s %12.1f %12.1f %8d%n", c.name, result[0] / 1000.0 / result[2],
+                    result[1] / 1000.0, result[2]);
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private static boolean matches(String name, List<String> prefixes) {
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns { total nanos, best nanos, calls }
+    private static long[] measure(Case c, long millis) throws Exception {
+        long end = System.currentTimeMillis() + millis;
+        long total = 0, best = Long.MAX_VALUE, calls = 0;
+        do {
+            c.prepare();
+            long start = System.nanoTime();
+            Object result = c.run();
+            long elapsed = System.nanoTime() - start;
+            sink += System.identityHashCode(result);
+            total += elapsed;
+            best = Math.min(best, elapsed);
+            calls++;
+        } while (System.currentTimeMillis() < end);
+        return new long[] { total, best, calls };
+    }
+
+    private static List<Case> allCases() {
+        List<Case> cases = new ArrayList<Case>();
+
+        // BLZ on an overlay-sized image (BLZCoder prints a line per encode)
+        cases.add(new Case("blz.encode.legacy") {
+            private byte[] image;
+            private PrintStream console;
+
+            @Override
+            protected void setUp() {
+                image = SyntheticData.codeImage(0x20000, SEED);
+            }
+
+            @Override
+            protected Object run() {
+                console = System.out;
+                System.setOut(new PrintStream(new ByteArrayOutputStream()));
+                try {
+                    return new BLZCoder(null).BLZ_EncodePub(image, false, false, "overlay");
+                } finally {
+                    System.setOut(console);
+                }
+            }
+        });
+        cases.add(new Case("blz.encode.fast") {
+            private byte[] image;
+
+            @Override
+            protected void setUp() {
+                image = SyntheticData.codeImage(0x20000, SEED);
+            }
+
+            @Override
+            protected Object run() {
+                return BLZFastEncoder.encode(image, false, false);
+            }
+        });
+        cases.add(new Case("blz.decode") {
+            private byte[] encoded;
+
+            @Override
+            protected void setUp() {
+                encoded = BLZFastEncoder.encode(SyntheticData.codeImage(0x20000, SEED), false, false);
+            }
+
+            @Override
+            protected Object run() {
+                return new BLZCoder(null).BLZ_DecodePub(encoded, "overlay");
+            }
+        });
+
+        cases.add(new Case("lz10.decode") {
+            private byte[] compressed;
+
+            @Override
+            protected void setUp() {
+                compressed = SyntheticData.lz10(SyntheticData.codeImage(0x20000, SEED));
+            }
+
+            @Override
+            protected Object run() {
+                return DSDecmp.Decompress(compressed);
+            }
+        });
+
+        // front sprites: 7x7 tiles in both gens
+        cases.add(new Case("gen1.sprite.decode") {
+            private byte[] compressed;
+
+            @Override
+            protected void setUp() {
+                compressed = SyntheticData.gen1Sprite(7, 7, SEED);
+            }
+
+            @Override
+            protected Object run() {
+                Gen1Decmp decmp = new Gen1Decmp(compressed, 0);
+                decmp.decompress();
+                decmp.transpose();
+                return decmp.getFlattenedData();
+            }
+        });
+        cases.add(new Case("gen2.sprite.decode") {
+            private byte[] compressed;
+
+            @Override
+            protected void setUp() {
+                compressed = SyntheticData.gen2Sprite(7, 7, SEED);
+            }
+
+            @Override
+            protected Object run() {
+                return new Gen2Decmp(compressed, 0, 7, 7).getFlattenedData();
+            }
+        });
+
+        // a personal-data sized NARC: one small member per Pokemon & forme
+        cases.add(new Case("narc.parse") {
+            private byte[] image;
+
+            @Override
+            protected void setUp() throws Exception {
+                image = SyntheticData.narc(700, 76, SEED).getBytes();
+            }
+
+            @Override
+            protected Object run() throws Exception {
+                NARCArchive narc = new NARCArchive(image);
+                int total = 0;
+                for (byte[] file : narc.files) {
+                    total += file.length;
+                }
+                return total;
+            }
+        });
+        cases.add(new Case("narc.serialize") {
+            private NARCArchive narc;
+
+            @Override
+            protected void setUp() {
+                narc = SyntheticData.narc(700, 76, SEED);
+            }
+
+            @Override
+            protected Object run() throws Exception {
+                return narc.getBytes();
+            }
+        });
+
+        // GBA ROM scans
+        final byte[] needle = { (byte) 0x8C, 0x45, 0x23, 0x08, 0x00, 0x00, 0x0F, 0x01 };
+        cases.add(new Case("rom.search") {
+            private byte[] rom;
+
+            @Override
+            protected void setUp() {
+                rom = SyntheticData.gbaImage(SEED, needle);
+            }
+
+            @Override
+            protected Object run() {
+                return RomFunctions.search(rom, needle);
+            }
+        });
+        cases.add(new Case("rom.searchAll") {
+            private byte[] rom;
+            private byte[][] needles;
+
+            @Override
+            protected void setUp() {
+                Random random = new Random(SEED);
+                needles = new byte[8][];
+                for (int i = 0; i < needles.length; i++) {
+                    needles[i] = new byte[8 + random.nextInt(16)];
+                    random.nextBytes(needles[i]);
+                }
+                rom = SyntheticData.gbaImage(SEED, needles);
+            }
+
+            @Override
+            protected Object run() {
+                return RomFunctions.searchAll(rom, needles);
+            }
+        });
+        // repointing 500 blocks the way a Gen 3 randomization does
+        cases.add(new Case("rom.freeSpaceFinder") {
+            private byte[] base, rom;
+
+            @Override
+            protected void setUp() {
+                base = SyntheticData.gbaImage(SEED);
+            }
+
+            @Override
+            protected void prepare() {
+                rom = base.clone();
+            }
+
+            @Override
+            protected Object run() {
+                int last = 0;
+                for (int i = 0; i < 500; i++) {
+                    int size = 16 + (i * 37) % 400;
+                    last = RomFunctions.freeSpaceFinder(rom, (byte) 0xFF, size, SyntheticData.GBA_FREE_SPACE_START);
+                    for (int j = 0; j < size; j++) {
+                        rom[last + j] = (byte) j;
+                    }
+                }
+                return last;
+            }
+        });
+        cases.add(new Case("rom.freeSpaceAllocator") {
+            private byte[] base, rom;
+
+            @Override
+            protected void setUp() {
+                base = SyntheticData.gbaImage(SEED);
+            }
+
+            @Override
+            protected void prepare() {
+                rom = base.clone();
+            }
+
+            @Override
+            protected Object run() {
+                FreeSpaceAllocator allocator = new FreeSpaceAllocator(rom, (byte) 0xFF,
+                        SyntheticData.GBA_FREE_SPACE_START);
+                int last = 0;
+                for (int i = 0; i < 500; i++) {
+                    int size = 16 + (i * 37) % 400;
+                    last = allocator.allocate(size);
+                    for (int j = 0; j < size; j++) {
+                        rom[last + j] = (byte) j;
+                    }
+                }
+                return last;
+            }
+        });
+
+        // text: a message file's worth of dialogue lines
+        final List<String> texts = SyntheticData.texts(400, SEED);
+        cases.add(new Case("text.gen4.decode") {
+            private byte[] file;
+
+            @Override
+            protected void setUp() {
+                PokeTextData encrypt = new PokeTextData(SyntheticData.gen4TextFile(texts));
+                encrypt.SetKey(0xD00E);
+                encrypt.encrypt();
+                file = encrypt.get();
+            }
+
+            @Override
+            protected Object run() {
+                PokeTextData pt = new PokeTextData(file);
+                pt.decrypt();
+                return pt.strlist;
+            }
+        });
+        cases.add(new Case("text.gen4.encode") {
+            @Override
+            protected Object run() {
+                PokeTextData encrypt = new PokeTextData(TextToPoke.MakeFile(texts, false));
+                encrypt.SetKey(0xD00E);
+                encrypt.encrypt();
+                return encrypt.get();
+            }
+        });
+        cases.add(new Case("text.gen5.decode") {
+            private byte[] file;
+
+            @Override
+            protected void setUp() {
+                file = SyntheticData.gen5TextFile(texts);
+            }
+
+            @Override
+            protected Object run() {
+                return PPTxtHandler.readTexts(file);
+            }
+        });
+        cases.add(new Case("text.gen5.encode") {
+            private byte[] file;
+            private List<String> gen5Texts;
+
+            @Override
+            protected void setUp() {
+                file = SyntheticData.gen5TextFile(texts);
+                gen5Texts = SyntheticData.gen5Texts(texts);
+            }
+
+            @Override
+            protected Object run() {
+                return PPTxtHandler.saveEntry(file, gen5Texts);
+            }
+        });
+        cases.add(new Case("text.gb.translate") {
+            private GBTextHandler handler;
+
+            @Override
+            protected void setUp() {
+                handler = new GBTextHandler("rby_english");
+            }
+
+            @Override
+            protected Object run() {
+                int total = 0;
+                for (String text : texts) {
+                    total += handler.internalStringLength(text);
+                }
+                return total;
+            }
+        });
+        cases.add(new Case("text.gba.translate") {
+            private Gen3RomHandler handler;
+
+            @Override
+            protected void setUp() {
+                handler = gbaTextHandler("gba_english");
+            }
+
+            @Override
+            protected Object run() {
+                int total = 0;
+                for (String text : texts) {
+                    total += handler.internalStringLength(text);
+                }
+                return total;
+            }
+        });
+
+        // randomization stages, each on freshly made data
+        cases.add(new StageCase("stage.stats") {
+            @Override
+            protected void randomize(SyntheticRomHandler rom) {
+                rom.randomizePokemonStats(true);
+            }
+        });
+        cases.add(new StageCase("stage.types") {
+            @Override
+            protected void randomize(SyntheticRomHandler rom) {
+                rom.randomizePokemonTypes(true);
+            }
+        });
+        cases.add(new StageCase("stage.abilities") {
+            @Override
+            protected void randomize(SyntheticRomHandler rom) {
+                rom.randomizeAbilities(true, false, true, true);
+            }
+        });
+        cases.add(new StageCase("stage.evolutions") {
+            @Override
+            protected void randomize(SyntheticRomHandler rom) {
+                rom.randomizeEvolutions(true, true, true, true);
+            }
+        });
+        cases.add(new StageCase("stage.movesets") {
+            @Override
+            protected void randomize(SyntheticRomHandler rom) {
+                rom.randomizeMovesLearnt(true, true, true, 0.25);
+            }
+        });
+        cases.add(new StageCase("stage.trainers") {
+            @Override
+            protected void randomize(SyntheticRomHandler rom) {
+                rom.randomizeTrainerPokes(true, false, true, 0);
+            }
+        });
+        cases.add(new StageCase("stage.wild") {
+            @Override
+            protected void randomize(SyntheticRomHandler rom) {
+                rom.randomEncounters(false, false, false, true, false);
+            }
+        });
+        cases.add(new StageCase("stage.tms") {
+            @Override
+            protected void randomize(SyntheticRomHandler rom) {
+                rom.randomizeTMMoves(true, false, 0.25);
+                rom.randomizeTMHMCompatibility(true);
+            }
+        });
+
+        return cases;
+    }
+
+    private abstract static class StageCase extends Case {
+
+        private SyntheticRomHandler rom;
+
+        public StageCase(String name) {
+            super(name);
+        }
+
+        @Override
+        protected void prepare() {
+            RandomSource random = new RandomSource(RandomSource.Algorithm.LEGACY, SEED);
+            rom = new SyntheticRomHandler(random, SEED);
+            rom.setPokemonPool(null);
+        }
+
+        @Override
+        protected Object run() {
+            randomize(rom);
+            return rom;
+        }
+
+        protected abstract void randomize(SyntheticRomHandler rom);
+    }
+
+    // Just enough of a Gen 1 handler to encode text with one of its tables
+    private static class GBTextHandler extends Gen1RomHandler {
+
+        public GBTextHandler(String table) {
+            super(new Random(SEED));
+            clearTextTables();
+            readTextTable(table);
+        }
+    }
+
+    private static Gen3RomHandler gbaTextHandler(String table) {
+        Gen3RomHandler handler = new Gen3RomHandler(new Random(SEED));
+        handler.textTable = new TextTable(Gen3Constants.textVariable);
+        try {
+            handler.textTable.readTable(table);
+        } catch (FileNotFoundException ex) {
+            throw new IllegalStateException("Could not read " + table + ".tbl", ex);
+        }
+        return handler;
+    }
+
+}
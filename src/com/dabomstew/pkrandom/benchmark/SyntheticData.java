@@ -0,0 +1,350 @@
+package com.dabomstew.pkrandom.benchmark;
+
+/*----------------------------------------------------------------------------*/
+/*--  SyntheticData.java - generated stand-ins for ROM images, archives,    --*/
+/*--                       compressed graphics and text, so the benchmarks  --*/
+/*--                       can run without any game files.                  --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2012.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import pptxt.PPTxtHandler;
+import thenewpoketext.TextToPoke;
+
+import com.dabomstew.pkrandom.newnds.NARCArchive;
+
+// Everything here is built from a seed, so a benchmark sees the same input on
+// every run and every machine. None of it is real game data; it only has the
+// shape of it - sizes, how well it compresses, where the free space is - as
+// far as the code being measured cares.
+public class SyntheticData {
+
+    // A GBA ROM: 16MB, the last quarter of it 0xFF free space
+    public static final int GBA_ROM_SIZE = 0x1000000;
+    public static final int GBA_FREE_SPACE_START = 0xC00000;
+
+    // Looks like ARM/Thumb code & tables: instruction words drawn from a small
+    // vocabulary, zeroed tables and some noise. BLZ gets it down to about the
+    // same ratio as a real arm9 or overlay.
+    public static byte[] codeImage(int size, long seed) {
+        Random random = new Random(seed);
+        int[] vocabulary = new int[512];
+        for (int i = 0; i < vocabulary.length; i++) {
+            vocabulary[i] = random.nextInt();
+        }
+        byte[] image = new byte[size];
+        int pos = 0;
+        while (pos < size) {
+            int kind = random.nextInt(10);
+            int run = 4 + random.nextInt(64);
+            for (int i = 0; i < run && pos < size; i++) {
+                int word;
+                if (kind < 6) {
+                    word = vocabulary[random.nextInt(kind < 3 ? 32 : vocabulary.length)];
+                } else if (kind < 8) {
+                    word = 0;
+                } else {
+                    word = random.nextInt();
+                }
+                for (int b = 0; b < 4 && pos < size; b++) {
+                    image[pos++] = (byte) (word >>> (b * 8));
+                }
+            }
+        }
+        return image;
+    }
+
+    // A GBA ROM with code-like data up to the free space, and the given needles
+    // planted once each at random places before it.
+    public static byte[] gbaImage(long seed, byte[]... needles) {
+        byte[] rom = new byte[GBA_ROM_SIZE];
+        System.arraycopy(codeImage(GBA_FREE_SPACE_START, seed), 0, rom, 0, GBA_FREE_SPACE_START);
+        for (int i = GBA_FREE_SPACE_START; i < GBA_ROM_SIZE; i++) {
+            rom[i] = (byte) 0xFF;
+        }
+        Random random = new Random(seed ^ 0x5EED);
+        for (byte[] needle : needles) {
+            int at = random.nextInt(GBA_FREE_SPACE_START - needle.length) & ~3;
+            System.arraycopy(needle, 0, rom, at, needle.length);
+        }
+        return rom;
+    }
+
+    // A NARC of count members, sized like the per-Pokemon/per-trainer data
+    // archives (tens to hundreds of bytes each).
+    public static NARCArchive narc(int count, int averageSize, long seed) {
+        Random random = new Random(seed);
+        NARCArchive narc = new NARCArchive();
+        for (int i = 0; i < count; i++) {
+            int size = Math.max(4, averageSize / 2 + random.nextInt(averageSize + 1)) & ~3;
+            narc.files.add(codeImage(size, random.nextLong()));
+        }
+        return narc;
+    }
+
+    // LZ10 compression for DSDecmp, greedy over a hash of the last position
+    // of each 3 byte prefix. Decompresses to exactly data.
+    public static byte[] lz10(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+        out.write(0x10);
+        out.write(data.length & 0xFF);
+        out.write((data.length >>> 8) & 0xFF);
+        out.write((data.length >>> 16) & 0xFF);
+        int[] lastSeen = new int[1 << 16];
+        Arrays.fill(lastSeen, -1);
+        byte[] block = new byte[16];
+        int pos = 0;
+        while (pos < data.length) {
+            int flags = 0, blockLength = 0;
+            for (int i = 0; i < 8 && pos < data.length; i++) {
+                int match = -1, length = 0;
+                if (pos + 3 <= data.length) {
+                    int key = ((data[pos] & 0xFF) << 8 ^ (data[pos + 1] & 0xFF) << 4 ^ (data[pos + 2] & 0xFF)) & 0xFFFF;
+                    match = lastSeen[key];
+                    lastSeen[key] = pos;
+                    if (match >= 0 && pos - match <= 0x1000) {
+                        while (length < 18 && pos + length < data.length && data[match + length] == data[pos + length]) {
+                            length++;
+                        }
+                    }
+                }
+                if (length >= 3) {
+                    int disp = pos - match - 1;
+                    flags |= 0x80 >> i;
+                    block[blockLength++] = (byte) (((length - 3) << 4) | (disp >>> 8));
+                    block[blockLength++] = (byte) disp;
+                    pos += length;
+                } else {
+                    block[blockLength++] = data[pos++];
+                }
+            }
+            out.write(flags);
+            out.write(block, 0, blockLength);
+        }
+        // the decoder reads a whole flag block, so the last one's unused
+        // entries need zero literals behind them, as in real files
+        do {
+            out.write(0);
+        } while (out.size() % 4 != 0);
+        return out.toByteArray();
+    }
+
+    // A compressed Gen 2 sprite of tilesWide x tilesHigh tiles in the pret lz
+    // format: literals, fills, alternations, zero runs and back references.
+    public static byte[] gen2Sprite(int tilesWide, int tilesHigh, long seed) {
+        Random random = new Random(seed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int size = tilesWide * tilesHigh * 16;
+        int written = 0;
+        while (written < size) {
+            int len = Math.min(size - written, 1 + random.nextInt(32));
+            int cmd = written == 0 ? 0 : random.nextInt(5);
+            if (cmd == 4 && len > written) {
+                cmd = 3;
+            }
+            out.write((cmd << 5) | (len - 1));
+            switch (cmd) {
+            case 0:
+                for (int i = 0; i < len; i++) {
+                    out.write(random.nextInt(256));
+                }
+                break;
+            case 1:
+                out.write(random.nextInt(256));
+                break;
+            case 2:
+                out.write(random.nextInt(256));
+                out.write(random.nextInt(256));
+                break;
+            case 4:
+                // negative offset: copy from len..0x80 bytes back
+                int back = len + random.nextInt(Math.min(written, 0x80) - len + 1);
+                out.write(0x80 | (back - 1));
+                break;
+            default:
+                break;
+            }
+            written += len;
+        }
+        out.write(0xFF);
+        return out.toByteArray();
+    }
+
+    // A compressed Gen 1 sprite of width x height tiles (at most 15 each):
+    // both bitplanes alternate between zero runs and raw bit groups.
+    public static byte[] gen1Sprite(int width, int height, long seed) {
+        Random random = new Random(seed);
+        BitWriter bits = new BitWriter();
+        bits.write(width, 4);
+        bits.write(height, 4);
+        bits.write(random.nextInt(2), 1);
+        int groups = width * 8 * height * 4;
+        writeGen1Plane(bits, groups, random);
+        int mode = random.nextInt(3);
+        if (mode == 0) {
+            bits.write(0, 1);
+        } else {
+            bits.write(1, 1);
+            bits.write(mode - 1, 1);
+        }
+        writeGen1Plane(bits, groups, random);
+        return bits.toByteArray();
+    }
+
+    private static void writeGen1Plane(BitWriter bits, int groups, Random random) {
+        boolean rle = random.nextBoolean();
+        bits.write(rle ? 0 : 1, 1);
+        int written = 0;
+        while (written < groups) {
+            int left = groups - written;
+            if (rle) {
+                int n = Math.min(left, 1 + random.nextInt(40));
+                // n = 2^(i+1) - 1 + a, where a has i+1 bits
+                int i = 0;
+                while ((2 << (i + 1)) - 1 <= n) {
+                    i++;
+                }
+                for (int k = 0; k < i; k++) {
+                    bits.write(1, 1);
+                }
+                bits.write(0, 1);
+                bits.write(n - ((2 << i) - 1), i + 1);
+                written += n;
+            } else {
+                int n = Math.min(left, random.nextInt(40));
+                for (int k = 0; k < n; k++) {
+                    bits.write(1 + random.nextInt(3), 2);
+                }
+                written += n;
+                if (written < groups) {
+                    bits.write(0, 2);
+                }
+            }
+            rle = !rle;
+        }
+    }
+
+    // Dialogue-like lines: words, punctuation, the odd newline and control
+    // code, all within what the GB/GBA and DS text tables can encode.
+    public static List<String> texts(int count, long seed) {
+        String[] words = { "the", "POKEMON", "you", "a", "trainer", "battle", "is", "to", "my", "and", "Oh", "Hey",
+                "great", "PROF.", "OAK", "can't", "wild", "appeared", "used", "It's", "super", "effective", "TM",
+                "caught", "BALL", "item", "route", "CENTER", "heal", "team" };
+        Random random = new Random(seed);
+        List<String> texts = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = 3 + random.nextInt(20);
+            for (int w = 0; w < length; w++) {
+                if (w > 0) {
+                    sb.append(random.nextInt(8) == 0 ? "\\n" : " ");
+                }
+                sb.append(words[random.nextInt(words.length)]);
+                int punctuation = random.nextInt(12);
+                if (punctuation == 0) {
+                    sb.append('!');
+                } else if (punctuation == 1) {
+                    sb.append('.');
+                } else if (punctuation == 2) {
+                    sb.append(',');
+                }
+            }
+            texts.add(sb.toString());
+        }
+        return texts;
+    }
+
+    // A Gen 4 message file holding texts, encrypted like the ones in msg.narc
+    public static byte[] gen4TextFile(List<String> texts) {
+        return TextToPoke.MakeFile(texts, false);
+    }
+
+    // A Gen 5 message file holding texts: a one entry per line skeleton,
+    // filled in by PPTxtHandler itself.
+    public static byte[] gen5TextFile(List<String> texts) {
+        int entries = texts.size();
+        int sectionSize = 4 + 8 * entries + 2 * entries;
+        sectionSize += sectionSize % 4;
+        byte[] file = new byte[0x10 + sectionSize];
+        writeWord(file, 0, 1);
+        writeWord(file, 2, entries);
+        writeLong(file, 4, sectionSize);
+        writeLong(file, 0xC, 0x10);
+        writeLong(file, 0x10, sectionSize);
+        for (int i = 0; i < entries; i++) {
+            writeLong(file, 0x14 + i * 8, 4 + 8 * entries + 2 * i);
+            writeWord(file, 0x18 + i * 8, 1);
+            writeWord(file, 0x10 + 4 + 8 * entries + 2 * i, 0xFFFF);
+        }
+        return PPTxtHandler.saveEntry(file, gen5Texts(texts));
+    }
+
+    // texts with line breaks escaped the way the Gen 5 handler writes them
+    public static List<String> gen5Texts(List<String> texts) {
+        List<String> converted = new ArrayList<String>(texts.size());
+        for (String text : texts) {
+            converted.add(text.replace("\\n", "\\xFFFE"));
+        }
+        return converted;
+    }
+
+    private static void writeWord(byte[] data, int offset, int value) {
+        data[offset] = (byte) value;
+        data[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private static void writeLong(byte[] data, int offset, int value) {
+        writeWord(data, offset, value);
+        writeWord(data, offset + 2, value >>> 16);
+    }
+
+    private static class BitWriter {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int current, used;
+
+        public void write(int value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                current = (current << 1) | ((value >>> i) & 1);
+                if (++used == 8) {
+                    out.write(current);
+                    current = used = 0;
+                }
+            }
+        }
+
+        public byte[] toByteArray() {
+            if (used > 0) {
+                out.write(current << (8 - used));
+                current = used = 0;
+            }
+            // the decompressor may peek a byte past the end
+            out.write(0);
+            return out.toByteArray();
+        }
+    }
+
+}
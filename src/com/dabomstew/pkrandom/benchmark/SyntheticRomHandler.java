@@ -0,0 +1,592 @@
+package com.dabomstew.pkrandom.benchmark;
+
+/*----------------------------------------------------------------------------*/
+/*--  SyntheticRomHandler.java - an in-memory "ROM" with Gen 5 sized data,  --*/
+/*--                             for benchmarking the randomization stages. --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2012.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.awt.image.BufferedImage;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import com.dabomstew.pkrandom.constants.Gen5Constants;
+import com.dabomstew.pkrandom.pokemon.CompatibilityMatrix;
+import com.dabomstew.pkrandom.pokemon.Encounter;
+import com.dabomstew.pkrandom.pokemon.EncounterSet;
+import com.dabomstew.pkrandom.pokemon.Evolution;
+import com.dabomstew.pkrandom.pokemon.EvolutionType;
+import com.dabomstew.pkrandom.pokemon.ExpCurve;
+import com.dabomstew.pkrandom.pokemon.IngameTrade;
+import com.dabomstew.pkrandom.pokemon.ItemList;
+import com.dabomstew.pkrandom.pokemon.Move;
+import com.dabomstew.pkrandom.pokemon.MoveCategory;
+import com.dabomstew.pkrandom.pokemon.Movesets;
+import com.dabomstew.pkrandom.pokemon.Pokemon;
+import com.dabomstew.pkrandom.pokemon.Trainer;
+import com.dabomstew.pkrandom.pokemon.TrainerPokemon;
+import com.dabomstew.pkrandom.pokemon.Type;
+import com.dabomstew.pkrandom.romhandlers.AbstractRomHandler;
+import com.dabomstew.pkrandom.romhandlers.RomHandler;
+
+// Everything AbstractRomHandler randomizes, made up from a seed and kept in
+// plain lists, in the numbers a Black/White ROM has: 649 Pokemon in
+// evolution families of one to three, 559 moves, 95 TMs & 6 HMs, about 600
+// trainers and 300 encounter areas. Nothing is read from or written to a file;
+// loadRom/saveRom do nothing, and fork() makes the same data again.
+public class SyntheticRomHandler extends AbstractRomHandler {
+
+    public static final int POKEMON = 649;
+    public static final int MOVES = 559;
+    public static final int TMS = 95;
+    public static final int TRAINERS = 616;
+    public static final int ENCOUNTER_AREAS = 300;
+    public static final int ENCOUNTERS_PER_AREA = 12;
+
+    private static final List<Integer> hmMoves = Arrays.asList(15, 19, 57, 70, 127, 291);
+
+    private final long seed;
+    private final List<Pokemon> pokemon = new ArrayList<Pokemon>();
+    private final List<Move> moves = new ArrayList<Move>();
+    private Movesets movesets;
+    private CompatibilityMatrix tmhmCompatibility;
+    private List<Trainer> trainers = new ArrayList<Trainer>();
+    private List<EncounterSet> encounters = new ArrayList<EncounterSet>();
+    private List<Integer> tmMoves = new ArrayList<Integer>();
+    private List<Pokemon> starters = new ArrayList<Pokemon>();
+    private List<Pokemon> statics = new ArrayList<Pokemon>();
+    private List<IngameTrade> trades = new ArrayList<IngameTrade>();
+    private List<String> trainerNames = new ArrayList<String>();
+    private List<String> trainerClassNames = new ArrayList<String>();
+    private List<Integer> fieldItems = new ArrayList<Integer>();
+    private List<Integer> fieldTMs = new ArrayList<Integer>();
+    private List<Integer> starterHeldItems = new ArrayList<Integer>();
+
+    public SyntheticRomHandler(Random random, long seed) {
+        super(random, null);
+        this.seed = seed;
+        generate(new Random(seed));
+    }
+
+    private void generate(Random data) {
+        pokemon.add(null);
+        int number = 1;
+        while (number <= POKEMON) {
+            // a family of 1-3 stages, sharing a type, getting stronger
+            int stages = Math.min(POKEMON - number + 1, 1 + data.nextInt(3));
+            Type type = randomRealType(data);
+            int baseTotal = 200 + data.nextInt(150);
+            Pokemon previous = null;
+            for (int stage = 0; stage < stages; stage++) {
+                Pokemon pk = makePokemon(number++, type, baseTotal + stage * (80 + data.nextInt(80)), data);
+                if (previous != null) {
+                    Evolution evo = new Evolution(previous, pk, true, EvolutionType.LEVEL, 16 + stage * 16
+                            + data.nextInt(10));
+                    previous.evolutionsFrom.add(evo);
+                    pk.evolutionsTo.add(evo);
+                }
+                pokemon.add(pk);
+                previous = pk;
+            }
+        }
+
+        moves.add(null);
+        for (int i = 1; i <= MOVES; i++) {
+            Move mv = new Move();
+            mv.name = "MOVE" + i;
+            mv.number = i;
+            mv.internalId = i;
+            mv.type = randomRealType(data);
+            mv.category = MoveCategory.values()[data.nextInt(3)];
+            mv.power = mv.category == MoveCategory.STATUS ? 0 : 20 + data.nextInt(24) * 5;
+            mv.pp = 5 + data.nextInt(7) * 5;
+            mv.hitratio = mv.category == MoveCategory.STATUS ? 100 : 70 + data.nextInt(7) * 5;
+            moves.add(mv);
+        }
+
+        movesets = new Movesets(pokemon.subList(1, POKEMON + 1), 20);
+        tmhmCompatibility = new CompatibilityMatrix(pokemon.subList(1, POKEMON + 1), TMS + hmMoves.size());
+        for (int i = 1; i <= POKEMON; i++) {
+            int count = 8 + data.nextInt(12);
+            for (int j = 0; j < count; j++) {
+                int move = 1 + data.nextInt(MOVES);
+                movesets.add(i - 1, j == 0 ? 1 : Math.min(100, j * 5 + data.nextInt(5)), move);
+            }
+            for (int j = 1; j <= tmhmCompatibility.machineCount(); j++) {
+                tmhmCompatibility.setCompatible(i - 1, j, data.nextInt(3) == 0);
+            }
+        }
+
+        for (int i = 0; i < TMS; i++) {
+            tmMoves.add(1 + data.nextInt(MOVES));
+        }
+
+        for (int i = 0; i < TRAINERS; i++) {
+            Trainer t = new Trainer();
+            t.offset = i;
+            t.name = "TRAINER" + i;
+            t.trainerclass = data.nextInt(60);
+            if (i % 40 == 0) {
+                t.tag = "GYM" + (i / 40 + 1);
+                t.importantTrainer = true;
+            }
+            int level = 5 + i * 60 / TRAINERS;
+            int size = 1 + data.nextInt(i % 40 == 0 ? 6 : 3);
+            for (int j = 0; j < size; j++) {
+                TrainerPokemon tp = new TrainerPokemon();
+                tp.pokemon = pokemon.get(1 + data.nextInt(POKEMON));
+                tp.level = level + data.nextInt(4);
+                t.pokemon.add(tp);
+            }
+            trainers.add(t);
+            trainerNames.add(t.name);
+        }
+        for (int i = 0; i < 60; i++) {
+            trainerClassNames.add("CLASS" + i);
+        }
+
+        for (int i = 0; i < ENCOUNTER_AREAS; i++) {
+            EncounterSet es = new EncounterSet();
+            es.displayName = "AREA" + i;
+            es.rate = 10 + data.nextInt(20);
+            int level = 2 + i * 60 / ENCOUNTER_AREAS;
+            for (int j = 0; j < ENCOUNTERS_PER_AREA; j++) {
+                Encounter enc = new Encounter();
+                enc.pokemon = pokemon.get(1 + data.nextInt(POKEMON));
+                enc.level = level;
+                enc.maxLevel = level + data.nextInt(3);
+                es.encounters.add(enc);
+            }
+            encounters.add(es);
+        }
+
+        for (int i = 0; i < 3; i++) {
+            starters.add(pokemon.get(1 + i * 3));
+            starterHeldItems.add(0);
+        }
+        for (int i = 0; i < 40; i++) {
+            statics.add(pokemon.get(1 + data.nextInt(POKEMON)));
+        }
+        for (int i = 0; i < 8; i++) {
+            IngameTrade trade = new IngameTrade();
+            trade.id = i;
+            trade.requestedPokemon = pokemon.get(1 + data.nextInt(POKEMON));
+            trade.givenPokemon = pokemon.get(1 + data.nextInt(POKEMON));
+            trade.nickname = "NICK" + i;
+            trade.otName = "OT" + i;
+            trade.otId = data.nextInt(65536);
+            trade.ivs = new int[6];
+            trades.add(trade);
+        }
+        for (int i = 0; i < 250; i++) {
+            fieldItems.add(1 + data.nextInt(400));
+        }
+        for (int i = 0; i < 30; i++) {
+            fieldTMs.add(328 + data.nextInt(TMS));
+        }
+    }
+
+    private static Pokemon makePokemon(int number, Type type, int total, Random data) {
+        Pokemon pk = new Pokemon();
+        pk.number = number;
+        pk.name = "POKE" + number;
+        pk.primaryType = type;
+        if (data.nextInt(2) == 0) {
+            pk.secondaryType = randomRealType(data);
+            if (pk.secondaryType == type) {
+                pk.secondaryType = null;
+            }
+        }
+        int[] stats = new int[6];
+        for (int i = 0; i < 6; i++) {
+            stats[i] = 10 + data.nextInt(40);
+        }
+        int spread = total - 60;
+        for (int i = 0; i < spread; i++) {
+            stats[data.nextInt(6)]++;
+        }
+        pk.hp = stats[0];
+        pk.attack = stats[1];
+        pk.defense = stats[2];
+        pk.spatk = stats[3];
+        pk.spdef = stats[4];
+        pk.speed = stats[5];
+        pk.ability1 = 1 + data.nextInt(Gen5Constants.highestAbilityIndex);
+        pk.ability2 = data.nextInt(2) == 0 ? 0 : 1 + data.nextInt(Gen5Constants.highestAbilityIndex);
+        pk.ability3 = 1 + data.nextInt(Gen5Constants.highestAbilityIndex);
+        pk.catchRate = 45 + data.nextInt(211);
+        pk.expYield = 50 + data.nextInt(200);
+        pk.growthCurve = ExpCurve.MEDIUM_FAST;
+        return pk;
+    }
+
+    private static Type randomRealType(Random data) {
+        Type type;
+        do {
+            type = Type.values()[data.nextInt(Type.values().length)];
+        } while (type.isHackOnly);
+        return type;
+    }
+
+    @Override
+    public RomHandler fork(Random random, PrintStream log) {
+        SyntheticRomHandler forked = new SyntheticRomHandler(random, seed);
+        forked.setLog(log);
+        return forked;
+    }
+
+    @Override
+    public boolean loadRom(String filename) {
+        return true;
+    }
+
+    @Override
+    public boolean saveRom(String filename) {
+        writeBackAll();
+        return true;
+    }
+
+    @Override
+    public String loadedFilename() {
+        return "synthetic";
+    }
+
+    @Override
+    public List<Pokemon> getPokemon() {
+        return pokemon;
+    }
+
+    @Override
+    public void removeEvosForPokemonPool() {
+    }
+
+    @Override
+    public List<Pokemon> getStarters() {
+        return starters;
+    }
+
+    @Override
+    public boolean setStarters(List<Pokemon> newStarters) {
+        starters = new ArrayList<Pokemon>(newStarters);
+        return true;
+    }
+
+    @Override
+    public List<Integer> getStarterHeldItems() {
+        return starterHeldItems;
+    }
+
+    @Override
+    public void setStarterHeldItems(List<Integer> items) {
+        starterHeldItems = new ArrayList<Integer>(items);
+    }
+
+    @Override
+    public int abilitiesPerPokemon() {
+        return 3;
+    }
+
+    @Override
+    public int highestAbilityIndex() {
+        return Gen5Constants.highestAbilityIndex;
+    }
+
+    @Override
+    protected List<EncounterSet> readEncounters(boolean useTimeOfDay) {
+        return encounters;
+    }
+
+    @Override
+    protected void writeEncounters(boolean useTimeOfDay, List<EncounterSet> encounters) {
+        this.encounters = encounters;
+    }
+
+    @Override
+    public boolean hasDVs() {
+        return false;
+    }
+
+    @Override
+    public int generationOfPokemon() {
+        return 5;
+    }
+
+    @Override
+    protected List<Trainer> readTrainers() {
+        return trainers;
+    }
+
+    @Override
+    protected void writeTrainers(List<Trainer> trainerData) {
+        trainers = trainerData;
+    }
+
+    @Override
+    public boolean hasPhysicalSpecialSplit() {
+        return true;
+    }
+
+    @Override
+    public List<Move> getMoves() {
+        return moves;
+    }
+
+    @Override
+    protected Movesets readMovesLearnt() {
+        return movesets;
+    }
+
+    @Override
+    protected void writeMovesLearnt(Movesets movesets) {
+        this.movesets = movesets;
+    }
+
+    @Override
+    public boolean supportsFourStartingMoves() {
+        return true;
+    }
+
+    @Override
+    public List<Pokemon> getStaticPokemon() {
+        return statics;
+    }
+
+    @Override
+    public boolean setStaticPokemon(List<Pokemon> staticPokemon) {
+        statics = new ArrayList<Pokemon>(staticPokemon);
+        return true;
+    }
+
+    @Override
+    public boolean canChangeStaticPokemon() {
+        return true;
+    }
+
+    @Override
+    public List<Integer> getTMMoves() {
+        return new ArrayList<Integer>(tmMoves);
+    }
+
+    @Override
+    public List<Integer> getHMMoves() {
+        return hmMoves;
+    }
+
+    @Override
+    public void setTMMoves(List<Integer> moveIndexes) {
+        tmMoves = new ArrayList<Integer>(moveIndexes);
+    }
+
+    @Override
+    public int getTMCount() {
+        return TMS;
+    }
+
+    @Override
+    public int getHMCount() {
+        return hmMoves.size();
+    }
+
+    @Override
+    protected CompatibilityMatrix readTMHMCompatibility() {
+        return tmhmCompatibility;
+    }
+
+    @Override
+    protected void writeTMHMCompatibility(CompatibilityMatrix compatData) {
+        tmhmCompatibility = compatData;
+    }
+
+    @Override
+    public boolean hasMoveTutors() {
+        return false;
+    }
+
+    @Override
+    public List<Integer> getMoveTutorMoves() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void setMoveTutorMoves(List<Integer> moves) {
+    }
+
+    @Override
+    protected CompatibilityMatrix readMoveTutorCompatibility() {
+        return new CompatibilityMatrix(Collections.<Pokemon> emptyList(), 0);
+    }
+
+    @Override
+    protected void writeMoveTutorCompatibility(CompatibilityMatrix compatData) {
+    }
+
+    @Override
+    public boolean canChangeTrainerText() {
+        return true;
+    }
+
+    @Override
+    public List<String> getTrainerNames() {
+        return new ArrayList<String>(trainerNames);
+    }
+
+    @Override
+    public void setTrainerNames(List<String> trainerNames) {
+        this.trainerNames = new ArrayList<String>(trainerNames);
+    }
+
+    @Override
+    public TrainerNameMode trainerNameMode() {
+        return TrainerNameMode.MAX_LENGTH;
+    }
+
+    @Override
+    public List<Integer> getTCNameLengthsByTrainer() {
+        return new ArrayList<Integer>();
+    }
+
+    @Override
+    public List<String> getTrainerClassNames() {
+        return new ArrayList<String>(trainerClassNames);
+    }
+
+    @Override
+    public void setTrainerClassNames(List<String> trainerClassNames) {
+        this.trainerClassNames = new ArrayList<String>(trainerClassNames);
+    }
+
+    @Override
+    public boolean fixedTrainerClassNamesLength() {
+        return false;
+    }
+
+    @Override
+    public List<Integer> getDoublesTrainerClasses() {
+        return new ArrayList<Integer>();
+    }
+
+    @Override
+    public ItemList getAllowedItems() {
+        return Gen5Constants.allowedItems;
+    }
+
+    @Override
+    public ItemList getNonBadItems() {
+        return Gen5Constants.nonBadItems;
+    }
+
+    @Override
+    public List<Integer> getRequiredFieldTMs() {
+        return new ArrayList<Integer>();
+    }
+
+    @Override
+    public List<Integer> getCurrentFieldTMs() {
+        return new ArrayList<Integer>(fieldTMs);
+    }
+
+    @Override
+    public void setFieldTMs(List<Integer> fieldTMs) {
+        this.fieldTMs = new ArrayList<Integer>(fieldTMs);
+    }
+
+    @Override
+    public List<Integer> getRegularFieldItems() {
+        return new ArrayList<Integer>(fieldItems);
+    }
+
+    @Override
+    public void setRegularFieldItems(List<Integer> items) {
+        fieldItems = new ArrayList<Integer>(items);
+    }
+
+    @Override
+    protected List<IngameTrade> readIngameTrades() {
+        return trades;
+    }
+
+    @Override
+    protected void writeIngameTrades(List<IngameTrade> trades) {
+        this.trades = trades;
+    }
+
+    @Override
+    public void removeTradeEvolutions(boolean changeMoveEvos) {
+    }
+
+    @Override
+    public List<Integer> getFieldMoves() {
+        return Gen5Constants.fieldMoves;
+    }
+
+    @Override
+    public List<Integer> getEarlyRequiredHMMoves() {
+        return Gen5Constants.bw1EarlyRequiredHMMoves;
+    }
+
+    @Override
+    public String getROMName() {
+        return "Synthetic";
+    }
+
+    @Override
+    public String getROMCode() {
+        return "SYNT";
+    }
+
+    @Override
+    public String getSupportLevel() {
+        return "Complete";
+    }
+
+    @Override
+    public String getDefaultExtension() {
+        return "bin";
+    }
+
+    @Override
+    public int internalStringLength(String string) {
+        return string.length();
+    }
+
+    @Override
+    public void applySignature() {
+    }
+
+    @Override
+    public BufferedImage getMascotImage() {
+        return null;
+    }
+
+    @Override
+    public String[] getItemNames() {
+        String[] names = new String[639];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "ITEM" + i;
+        }
+        return names;
+    }
+
+}
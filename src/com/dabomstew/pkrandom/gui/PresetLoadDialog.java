@@ -60,6 +60,7 @@ public class PresetLoadDialog extends javax.swing.JDialog {
     private static final long serialVersionUID = -7898067118947765260L;
     private RandomizerGUI parentGUI;
     private RomHandler currentROM;
+    private RandomSource currentRandom;
     private boolean completed = false;
     private String requiredName = null;
     private volatile boolean changeFieldsWithoutCheck = false;
@@ -244,6 +245,10 @@ public class PresetLoadDialog extends javax.swing.JDialog {
         return currentROM;
     }
 
+    public RandomSource getROMRandom() {
+        return currentRandom;
+    }
+
     public long getSeed() {
         return Long.parseLong(this.randomSeedField.getText());
     }
@@ -303,7 +308,8 @@ public class PresetLoadDialog extends javax.swing.JDialog {
             final File fh = romFileChooser.getSelectedFile();
             for (RomHandler.Factory rhf : parentGUI.checkHandlers) {
                 if (rhf.isLoadable(fh.getAbsolutePath())) {
-                    final RomHandler checkHandler = rhf.create(RandomSource.instance());
+                    final RandomSource checkRandom = new RandomSource();
+                    final RomHandler checkHandler = rhf.create(checkRandom);
                     final JDialog opDialog = new OperationDialog(bundle.getString("RandomizerGUI.loadingText"), this,
                             true);
                     Thread t = new Thread() {
@@ -329,6 +335,7 @@ public class PresetLoadDialog extends javax.swing.JDialog {
                                         // Got it
                                         romFileField.setText(fh.getAbsolutePath());
                                         currentROM = checkHandler;
+                                        currentRandom = checkRandom;
                                         acceptButton.setEnabled(true);
                                         return;
                                     } else {
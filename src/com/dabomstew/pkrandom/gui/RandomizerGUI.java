@@ -97,6 +97,7 @@ public class RandomizerGUI extends javax.swing.JFrame {
      */
     private static final long serialVersionUID = 637989089525556154L;
     private RomHandler romHandler;
+    private RandomSource romRandom;
     protected RomHandler.Factory[] checkHandlers;
 
     private OperationDialog opDialog;
@@ -987,7 +988,8 @@ public class RandomizerGUI extends javax.swing.JFrame {
 
             for (RomHandler.Factory rhf : checkHandlers) {
                 if (rhf.isLoadable(fh.getAbsolutePath())) {
-                    this.romHandler = rhf.create(RandomSource.instance());
+                    this.romRandom = new RandomSource();
+                    this.romHandler = rhf.create(this.romRandom);
                     opDialog = new OperationDialog(bundle.getString("RandomizerGUI.loadingText"), this, true);
                     Thread t = new Thread() {
                         @Override
@@ -1590,8 +1592,6 @@ public class RandomizerGUI extends javax.swing.JFrame {
             if (allowed) {
                 // Get a seed
                 long seed = RandomSource.pickSeed();
-                // Apply it
-                RandomSource.seed(seed);
                 presetMode = false;
 
                 try {
@@ -1954,7 +1954,8 @@ public class RandomizerGUI extends javax.swing.JFrame {
                     boolean succeededSave = false;
                     try {
                         RandomizerGUI.this.romHandler.setLog(verboseLog);
-                        finishedCV.set(new Randomizer(settings, RandomizerGUI.this.romHandler).randomize(filename,
+                        finishedCV.set(new Randomizer(settings, RandomizerGUI.this.romHandler,
+                                RandomizerGUI.this.romRandom).randomize(filename,
                                 verboseLog, seed));
                         succeededSave = true;
                     } catch (RandomizationException ex) {
@@ -2055,6 +2056,7 @@ public class RandomizerGUI extends javax.swing.JFrame {
             long seed = pld.getSeed();
             String config = pld.getConfigString();
             this.romHandler = pld.getROM();
+            this.romRandom = pld.getROMRandom();
             this.romLoaded();
             Settings settings;
             try {
@@ -2083,8 +2085,6 @@ public class RandomizerGUI extends javax.swing.JFrame {
                     }
                 }
                 if (allowed) {
-                    // Apply the seed we were given
-                    RandomSource.seed(seed);
                     presetMode = true;
                     performRandomization(fh.getAbsolutePath(), seed, pld.getCustomNames());
                 } else {
@@ -1,13 +1,12 @@
-package com.dabomstew.pkrandom.pokemon;
+package com.dabomstew.pkrandom.newnds;
+
+import java.io.IOException;
 
 /*----------------------------------------------------------------------------*/
-/*--  MoveLearnt.java - represents a move learnt by a Pokemon at a level.   --*/
+/*--  CachedContents.java - something that keeps its contents in the       --*/
+/*--                        in-memory cache of its NDSRom.                  --*/
 /*--                                                                        --*/
 /*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
-/*--  Pokemon and any associated names and the like are                     --*/
-/*--  trademark and (C) Nintendo 1996-2012.                                 --*/
-/*--                                                                        --*/
-/*--  The custom code written here is licensed under the terms of the GPL:  --*/
 /*--                                                                        --*/
 /*--  This program is free software: you can redistribute it and/or modify  --*/
 /*--  it under the terms of the GNU General Public License as published by  --*/
@@ -23,13 +22,13 @@ package com.dabomstew.pkrandom.pokemon;
 /*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
 /*----------------------------------------------------------------------------*/
 
-public class MoveLearnt {
+interface CachedContents {
 
-    public int move;
-    public int level;
+    // bytes currently held in memory
+    public int cachedSize();
 
-    public String toString() {
-        return "move " + move + " at level " + level;
-    }
+    // Drops the in-memory contents, spilling them to the tmp folder if they
+    // can't be read from the ROM again. Returns false if they have to stay.
+    public boolean evict() throws IOException;
 
 }
@@ -1,6 +1,9 @@
 package com.dabomstew.pkrandom.newnds;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -18,36 +21,43 @@ public class NARCArchive {
     }
 
     public NARCArchive(byte[] data) throws IOException {
-        Map<String, byte[]> frames = readNitroFrames(data);
+        this(ByteBuffer.wrap(data));
+    }
+
+    // Files are left as slices of data until they're first accessed through
+    // files, so data must not be changed while this NARC is in use.
+    public NARCArchive(ByteBuffer data) throws IOException {
+        Map<String, ByteBuffer> frames = readNitroFrames(data);
         if (!frames.containsKey("FATB") || !frames.containsKey("FNTB") || !frames.containsKey("FIMG")) {
             throw new IOException("Not a valid narc file");
         }
 
         // File contents
-        byte[] fatbframe = frames.get("FATB");
-        byte[] fimgframe = frames.get("FIMG");
-        int fileCount = readLong(fatbframe, 0);
+        ByteBuffer fatbframe = frames.get("FATB");
+        ByteBuffer fimgframe = frames.get("FIMG");
+        int fileCount = fatbframe.getInt(0);
+        FileList fileList = new FileList(fileCount);
         for (int i = 0; i < fileCount; i++) {
-            int startOffset = readLong(fatbframe, 4 + i * 8);
-            int endOffset = readLong(fatbframe, 8 + i * 8);
-            int length = (endOffset - startOffset);
-            byte[] thisFile = new byte[length];
-            System.arraycopy(fimgframe, startOffset, thisFile, 0, length);
-            files.add(thisFile);
+            int startOffset = fatbframe.getInt(4 + i * 8);
+            int endOffset = fatbframe.getInt(8 + i * 8);
+            fileList.members.add(slice(fimgframe, startOffset, endOffset - startOffset).asReadOnlyBuffer());
         }
+        files = fileList;
 
         // Filenames?
-        byte[] fntbframe = frames.get("FNTB");
-        int unk1 = readLong(fntbframe, 0);
+        ByteBuffer fntbframe = frames.get("FNTB");
+        int unk1 = fntbframe.getInt(0);
         if (unk1 == 8) {
             // Filenames exist
             hasFilenames = true;
             int offset = 8;
             for (int i = 0; i < fileCount; i++) {
-                int fnLength = (fntbframe[offset] & 0xFF);
+                int fnLength = (fntbframe.get(offset) & 0xFF);
                 offset++;
                 byte[] filenameBA = new byte[fnLength];
-                System.arraycopy(fntbframe, offset, filenameBA, 0, fnLength);
+                ByteBuffer fnBuf = fntbframe.duplicate();
+                fnBuf.position(offset);
+                fnBuf.get(filenameBA);
                 String filename = new String(filenameBA, "US-ASCII");
                 filenames.add(filename);
             }
@@ -59,140 +69,220 @@ public class NARCArchive {
         }
     }
 
-    public byte[] getBytes() throws IOException {
-        // Get bytes required for FIMG frame
-        int bytesRequired = 0;
-        for (byte[] file : files) {
-            bytesRequired += Math.ceil(file.length / 4.0) * 4;
-        }
-        // FIMG frame & FATB frame build
-
-        // 4 for numentries, 8*size for entries, 8 for nitro header
-        byte[] fatbFrame = new byte[4 + files.size() * 8 + 8];
-        // bytesRequired + 8 for nitro header
-        byte[] fimgFrame = new byte[bytesRequired + 8];
-
-        // Nitro headers
-        fatbFrame[0] = 'B';
-        fatbFrame[1] = 'T';
-        fatbFrame[2] = 'A';
-        fatbFrame[3] = 'F';
-        writeLong(fatbFrame, 4, fatbFrame.length);
-
-        fimgFrame[0] = 'G';
-        fimgFrame[1] = 'M';
-        fimgFrame[2] = 'I';
-        fimgFrame[3] = 'F';
-        writeLong(fimgFrame, 4, fimgFrame.length);
-        int offset = 0;
-
-        writeLong(fatbFrame, 8, files.size());
+    // Returns a copy of this NARC which shares its files with this one until
+    // they are accessed. A file is copied the first time the fork hands it
+    // out, so in-place edits to the fork never reach this NARC. This NARC
+    // must not be modified itself while forks of it are in use.
+    public NARCArchive fork() {
+        NARCArchive forked = new NARCArchive();
+        forked.filenames.addAll(filenames);
+        FileList forkedFiles = new FileList(files.size());
         for (int i = 0; i < files.size(); i++) {
-            byte[] file = files.get(i);
-            int bytesRequiredForFile = (int) (Math.ceil(file.length / 4.0) * 4);
-            System.arraycopy(file, 0, fimgFrame, offset + 8, file.length);
-            for (int filler = file.length; filler < bytesRequiredForFile; filler++) {
-                fimgFrame[offset + 8 + filler] = (byte) 0xFF;
+            Object member = files instanceof FileList ? ((FileList) files).members.get(i) : files.get(i);
+            if (member instanceof byte[]) {
+                member = ByteBuffer.wrap((byte[]) member).asReadOnlyBuffer();
             }
-            writeLong(fatbFrame, 12 + i * 8, offset);
-            writeLong(fatbFrame, 16 + i * 8, offset + file.length);
-            offset += bytesRequiredForFile;
+            forkedFiles.members.add(member);
         }
+        forked.files = forkedFiles;
+        forked.hasFilenames = hasFilenames;
+        return forked;
+    }
 
-        // FNTB Frame
-        int bytesForFNTBFrame = 16;
+    // Read-only view of a file, without copying it out of the source data.
+    public ByteBuffer getFileView(int index) {
+        if (files instanceof FileList) {
+            return ((FileList) files).view(index);
+        }
+        return ByteBuffer.wrap(files.get(index)).asReadOnlyBuffer();
+    }
+
+    public byte[] getBytes() throws IOException {
+        int fileCount = files.size();
+        // 4 for numentries, 8*size for entries, 8 for nitro header
+        int fatbLength = 4 + fileCount * 8 + 8;
+        int fntbLength = 16;
         if (hasFilenames) {
             for (String filename : filenames) {
-                bytesForFNTBFrame += filename.getBytes("US-ASCII").length + 1;
+                fntbLength += filename.getBytes("US-ASCII").length + 1;
             }
         }
-        byte[] fntbFrame = new byte[bytesForFNTBFrame];
+        // bytes required for FIMG frame + 8 for nitro header
+        int fimgLength = 8;
+        for (int i = 0; i < fileCount; i++) {
+            fimgLength += (fileLength(i) + 3) & ~3;
+        }
+
+        // everything is written straight into the finished file
+        int nitrolength = 16 + fatbLength + fntbLength + fimgLength;
+        byte[] nitroFile = new byte[nitrolength];
+        ByteBuffer out = ByteBuffer.wrap(nitroFile).order(ByteOrder.LITTLE_ENDIAN);
+        out.put((byte) 'N').put((byte) 'A').put((byte) 'R').put((byte) 'C');
+        out.putShort((short) 0xFFFE);
+        out.putShort((short) 0x0100);
+        out.putInt(nitrolength);
+        out.putShort((short) 0x10);
+        out.putShort((short) 3);
 
-        fntbFrame[0] = 'B';
-        fntbFrame[1] = 'T';
-        fntbFrame[2] = 'N';
-        fntbFrame[3] = 'F';
-        writeLong(fntbFrame, 4, fntbFrame.length);
+        // FATB frame
+        out.put((byte) 'B').put((byte) 'T').put((byte) 'A').put((byte) 'F');
+        out.putInt(fatbLength);
+        out.putInt(fileCount);
+        int offset = 0;
+        for (int i = 0; i < fileCount; i++) {
+            int length = fileLength(i);
+            out.putInt(offset);
+            out.putInt(offset + length);
+            offset += (length + 3) & ~3;
+        }
 
+        // FNTB frame
+        out.put((byte) 'B').put((byte) 'T').put((byte) 'N').put((byte) 'F');
+        out.putInt(fntbLength);
         if (hasFilenames) {
-            writeLong(fntbFrame, 8, 8);
-            writeLong(fntbFrame, 12, 0x10000);
-            int fntbOffset = 16;
+            out.putInt(8);
+            out.putInt(0x10000);
             for (String filename : filenames) {
                 byte[] fntbfilename = filename.getBytes("US-ASCII");
-                fntbFrame[fntbOffset] = (byte) fntbfilename.length;
-                System.arraycopy(fntbfilename, 0, fntbFrame, fntbOffset + 1, fntbfilename.length);
-                fntbOffset += 1 + fntbfilename.length;
+                out.put((byte) fntbfilename.length);
+                out.put(fntbfilename);
             }
         } else {
-            writeLong(fntbFrame, 8, 4);
-            writeLong(fntbFrame, 12, 0x10000);
+            out.putInt(4);
+            out.putInt(0x10000);
         }
 
-        // Now for the actual Nitro file
-        int nitrolength = 16 + fatbFrame.length + fntbFrame.length + fimgFrame.length;
-        byte[] nitroFile = new byte[nitrolength];
-        nitroFile[0] = 'N';
-        nitroFile[1] = 'A';
-        nitroFile[2] = 'R';
-        nitroFile[3] = 'C';
-        writeWord(nitroFile, 4, 0xFFFE);
-        writeWord(nitroFile, 6, 0x0100);
-        writeLong(nitroFile, 8, nitrolength);
-        writeWord(nitroFile, 12, 0x10);
-        writeWord(nitroFile, 14, 3);
-        System.arraycopy(fatbFrame, 0, nitroFile, 16, fatbFrame.length);
-        System.arraycopy(fntbFrame, 0, nitroFile, 16 + fatbFrame.length, fntbFrame.length);
-        System.arraycopy(fimgFrame, 0, nitroFile, 16 + fatbFrame.length + fntbFrame.length, fimgFrame.length);
+        // FIMG frame
+        out.put((byte) 'G').put((byte) 'M').put((byte) 'I').put((byte) 'F');
+        out.putInt(fimgLength);
+        for (int i = 0; i < fileCount; i++) {
+            int length = fileLength(i);
+            copyFile(i, out);
+            for (int filler = length; filler < ((length + 3) & ~3); filler++) {
+                out.put((byte) 0xFF);
+            }
+        }
 
         return nitroFile;
     }
 
-    private Map<String, byte[]> readNitroFrames(byte[] data) throws IOException {
+    private int fileLength(int index) {
+        if (files instanceof FileList) {
+            return ((FileList) files).length(index);
+        }
+        return files.get(index).length;
+    }
+
+    // copies a file to out without making a private copy of it first
+    private void copyFile(int index, ByteBuffer out) {
+        if (files instanceof FileList) {
+            out.put(((FileList) files).view(index));
+        } else {
+            out.put(files.get(index));
+        }
+    }
+
+    private Map<String, ByteBuffer> readNitroFrames(ByteBuffer source) throws IOException {
+        ByteBuffer data = source.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int dataLength = data.limit();
 
         // Read the number of frames
-        int frameCount = readWord(data, 0x0E);
+        int frameCount = data.getShort(0x0E) & 0xFFFF;
 
         // each frame
         int offset = 0x10;
-        Map<String, byte[]> frames = new TreeMap<String, byte[]>();
+        Map<String, ByteBuffer> frames = new TreeMap<String, ByteBuffer>();
         for (int i = 0; i < frameCount; i++) {
-            byte[] magic = new byte[] { data[offset + 3], data[offset + 2], data[offset + 1], data[offset] };
+            byte[] magic = new byte[] { data.get(offset + 3), data.get(offset + 2), data.get(offset + 1),
+                    data.get(offset) };
             String magicS = new String(magic, "US-ASCII");
 
-            int frame_size = readLong(data, offset + 4);
+            int frame_size = data.getInt(offset + 4);
             // Patch for BB/VW and other DS hacks which don't update
             // the size of their expanded NARCs correctly
-            if (i == frameCount - 1 && offset + frame_size < data.length) {
-                frame_size = data.length - offset;
+            if (i == frameCount - 1 && offset + frame_size < dataLength) {
+                frame_size = dataLength - offset;
+            }
+            if (offset + frame_size > dataLength) {
+                throw new IOException("Not a valid narc file");
             }
-            byte[] frame = new byte[frame_size - 8];
-            System.arraycopy(data, offset + 8, frame, 0, frame_size - 8);
-            frames.put(magicS, frame);
+            frames.put(magicS, slice(data, offset + 8, frame_size - 8).order(ByteOrder.LITTLE_ENDIAN));
             offset += frame_size;
         }
         return frames;
     }
 
-    private int readWord(byte[] data, int offset) {
-        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+    private static ByteBuffer slice(ByteBuffer buf, int offset, int length) {
+        ByteBuffer dup = buf.duplicate();
+        dup.position(offset);
+        dup.limit(offset + length);
+        return dup.slice();
     }
 
-    private int readLong(byte[] data, int offset) {
-        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) | ((data[offset + 2] & 0xFF) << 16)
-                | ((data[offset + 3] & 0xFF) << 24);
-    }
+    // Keeps files as read-only slices of storage shared with the source data
+    // (or the NARC this one was forked from) until they're handed out, at
+    // which point they get a copy of their own.
+    private static class FileList extends AbstractList<byte[]> {
 
-    private void writeWord(byte[] data, int offset, int value) {
-        data[offset] = (byte) (value & 0xFF);
-        data[offset + 1] = (byte) ((value >> 8) & 0xFF);
-    }
+        // each member is either a byte[] owned by this list or a read-only
+        // ByteBuffer; ByteBuffers are shared, so their position must never
+        // be moved
+        private List<Object> members;
+
+        public FileList(int capacity) {
+            members = new ArrayList<Object>(capacity);
+        }
+
+        @Override
+        public byte[] get(int index) {
+            Object member = members.get(index);
+            if (member instanceof byte[]) {
+                return (byte[]) member;
+            }
+            ByteBuffer shared = ((ByteBuffer) member).duplicate();
+            byte[] file = new byte[shared.remaining()];
+            shared.get(file);
+            members.set(index, file);
+            return file;
+        }
 
-    private void writeLong(byte[] data, int offset, int value) {
-        data[offset] = (byte) (value & 0xFF);
-        data[offset + 1] = (byte) ((value >> 8) & 0xFF);
-        data[offset + 2] = (byte) ((value >> 16) & 0xFF);
-        data[offset + 3] = (byte) ((value >> 24) & 0xFF);
+        public ByteBuffer view(int index) {
+            Object member = members.get(index);
+            if (member instanceof byte[]) {
+                return ByteBuffer.wrap((byte[]) member).asReadOnlyBuffer();
+            }
+            return ((ByteBuffer) member).duplicate();
+        }
+
+        public int length(int index) {
+            Object member = members.get(index);
+            if (member instanceof byte[]) {
+                return ((byte[]) member).length;
+            }
+            return ((ByteBuffer) member).remaining();
+        }
+
+        @Override
+        public int size() {
+            return members.size();
+        }
+
+        @Override
+        public byte[] set(int index, byte[] file) {
+            Object old = members.set(index, file);
+            return old instanceof byte[] ? (byte[]) old : null;
+        }
+
+        @Override
+        public void add(int index, byte[] file) {
+            members.add(index, file);
+        }
+
+        @Override
+        public byte[] remove(int index) {
+            Object old = members.remove(index);
+            return old instanceof byte[] ? (byte[]) old : null;
+        }
     }
 
 }
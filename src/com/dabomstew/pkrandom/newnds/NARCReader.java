@@ -0,0 +1,117 @@
+package com.dabomstew.pkrandom.newnds;
+
+/*----------------------------------------------------------------------------*/
+/*--  NARCReader.java - random access to the files of a NARC inside an      --*/
+/*--                    NDS rom, without reading the whole archive.         --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.io.IOException;
+
+// Only the frame headers and the FATB table are read up front; each file is
+// then fetched on its own with a positioned read of the NDS file, which
+// comes straight from the ROM unless the NDS file is already in memory.
+// Good for lookups that want a handful of files out of a big archive (one
+// Pokemon's sprite and palette out of thousands).
+//
+// The reader remembers where the files are, so it must be thrown away if the
+// NDS file is written to. Filenames aren't read; use NARCArchive for those.
+public class NARCReader {
+
+    private final NDSRom rom;
+    private final String filename;
+    private final int[] fileOffsets;
+    private final int[] fileLengths;
+
+    public NARCReader(NDSRom rom, String filename) throws IOException {
+        this.rom = rom;
+        this.filename = filename;
+        int narcLength = rom.getFileSize(filename);
+        if (narcLength < 0x10) {
+            throw new IOException("Not a valid narc file");
+        }
+        byte[] header = rom.getFileRange(filename, 0, 0x10);
+        int frameCount = readWord(header, 0x0E);
+
+        int fatbOffset = -1, fimgOffset = -1, fntbOffset = -1;
+        int fatbLength = 0;
+        int offset = 0x10;
+        for (int i = 0; i < frameCount && offset + 8 <= narcLength; i++) {
+            byte[] frameHeader = rom.getFileRange(filename, offset, 8);
+            String magic = new String(new byte[] { frameHeader[3], frameHeader[2], frameHeader[1], frameHeader[0] },
+                    "US-ASCII");
+            int frameSize = readLong(frameHeader, 4);
+            if (magic.equals("FATB")) {
+                fatbOffset = offset + 8;
+                fatbLength = frameSize - 8;
+            } else if (magic.equals("FNTB")) {
+                fntbOffset = offset + 8;
+            } else if (magic.equals("FIMG")) {
+                fimgOffset = offset + 8;
+            }
+            // the last frame's size isn't always right in hacked ROMs, but
+            // nothing after it is needed
+            if (i < frameCount - 1 && (frameSize < 8 || offset + frameSize > narcLength)) {
+                throw new IOException("Not a valid narc file");
+            }
+            offset += frameSize;
+        }
+        if (fatbOffset < 0 || fntbOffset < 0 || fimgOffset < 0 || fatbLength < 4) {
+            throw new IOException("Not a valid narc file");
+        }
+
+        byte[] fatb = rom.getFileRange(filename, fatbOffset, fatbLength);
+        int fileCount = readLong(fatb, 0);
+        if (fileCount < 0 || 4 + fileCount * 8 > fatbLength) {
+            throw new IOException("Not a valid narc file");
+        }
+        fileOffsets = new int[fileCount];
+        fileLengths = new int[fileCount];
+        for (int i = 0; i < fileCount; i++) {
+            int startOffset = readLong(fatb, 4 + i * 8);
+            int endOffset = readLong(fatb, 8 + i * 8);
+            fileOffsets[i] = fimgOffset + startOffset;
+            fileLengths[i] = endOffset - startOffset;
+            if (fileLengths[i] < 0 || fileOffsets[i] + fileLengths[i] > narcLength) {
+                throw new IOException("Not a valid narc file");
+            }
+        }
+    }
+
+    public int size() {
+        return fileOffsets.length;
+    }
+
+    public int fileLength(int index) {
+        return fileLengths[index];
+    }
+
+    // a fresh copy of the file, which the caller is free to change
+    public byte[] getFile(int index) throws IOException {
+        return rom.getFileRange(filename, fileOffsets[index], fileLengths[index]);
+    }
+
+    private static int readWord(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8);
+    }
+
+    private static int readLong(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8) | ((data[offset + 2] & 0xFF) << 16)
+                | ((data[offset + 3] & 0xFF) << 24);
+    }
+
+}
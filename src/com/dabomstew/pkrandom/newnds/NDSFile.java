@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 import com.dabomstew.pkrandom.FileFunctions;
 
@@ -28,7 +29,7 @@ import com.dabomstew.pkrandom.FileFunctions;
 /*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
 /*----------------------------------------------------------------------------*/
 
-public class NDSFile {
+public class NDSFile implements CachedContents {
 
     private NDSRom parent;
     public int offset, size;
@@ -36,80 +37,118 @@ public class NDSFile {
     public String fullPath;
     public Extracted status = Extracted.NOT;
     public String extFilename;
+    // contents while this file is in parent's cache (status TO_RAM)
     public byte[] data;
+    // only files that have been written to are saved; files that were just
+    // read get copied straight from the original ROM
+    private boolean modified = false;
 
     public NDSFile(NDSRom parent) {
         this.parent = parent;
     }
 
     public byte[] getContents() throws IOException {
+        byte[] buf = readContents();
+        byte[] newcopy = new byte[buf.length];
+        System.arraycopy(buf, 0, newcopy, 0, buf.length);
+        return newcopy;
+    }
+
+    // read-only view of the contents, for callers that won't change them
+    public ByteBuffer getContentsView() throws IOException {
+        return ByteBuffer.wrap(readContents()).asReadOnlyBuffer();
+    }
+
+    // Reads length bytes from position in the file into buf. A file that
+    // isn't in memory is read straight from the ROM and isn't cached, so
+    // picking a few bytes out of a big file doesn't load all of it.
+    public void read(int position, byte[] buf, int bufOffset, int length) throws IOException {
+        if (position < 0 || length < 0 || position + length > fileSize()) {
+            throw new IOException("Read past the end of " + fullPath);
+        }
+        if (this.status == Extracted.NOT) {
+            parent.reopenROM();
+            RandomAccessFile rom = parent.getBaseRom();
+            rom.seek(this.offset + position);
+            rom.readFully(buf, bufOffset, length);
+        } else {
+            System.arraycopy(readContents(), position, buf, bufOffset, length);
+        }
+    }
+
+    public int fileSize() {
+        return this.status == Extracted.TO_RAM ? this.data.length : this.status == Extracted.NOT ? this.size
+                : (int) new File(parent.getTmpFolder() + this.extFilename).length();
+    }
+
+    // returns the cached array itself, so it must not be modified
+    private byte[] readContents() throws IOException {
+        if (this.status == Extracted.TO_RAM) {
+            parent.touchCached(this);
+            return this.data;
+        }
+        byte[] buf;
         if (this.status == Extracted.NOT) {
             // extract file
             parent.reopenROM();
             RandomAccessFile rom = parent.getBaseRom();
-            byte[] buf = new byte[this.size];
+            buf = new byte[this.size];
             rom.seek(this.offset);
             rom.readFully(buf);
-            if (parent.isWritingEnabled()) {
-                // make a file
-                String tmpDir = parent.getTmpFolder();
-                String tmpFilename = fullPath.replaceAll("[^A-Za-z0-9_]+", "");
-                this.extFilename = tmpFilename;
-                File tmpFile = new File(tmpDir + extFilename);
-                FileOutputStream fos = new FileOutputStream(tmpFile);
-                fos.write(buf);
-                fos.close();
-                tmpFile.deleteOnExit();
-                this.status = Extracted.TO_FILE;
-                this.data = null;
-                return buf;
-            } else {
-                this.status = Extracted.TO_RAM;
-                this.data = buf;
-                byte[] newcopy = new byte[buf.length];
-                System.arraycopy(buf, 0, newcopy, 0, buf.length);
-                return newcopy;
-            }
-        } else if (this.status == Extracted.TO_RAM) {
-            byte[] newcopy = new byte[this.data.length];
-            System.arraycopy(this.data, 0, newcopy, 0, this.data.length);
-            return newcopy;
         } else {
             String tmpDir = parent.getTmpFolder();
-            byte[] file = FileFunctions.readFileFullyIntoBuffer(tmpDir + this.extFilename);
-            return file;
+            buf = FileFunctions.readFileFullyIntoBuffer(tmpDir + this.extFilename);
         }
+        this.status = Extracted.TO_RAM;
+        this.data = buf;
+        parent.storeCached(this);
+        return buf;
     }
 
     public void writeOverride(byte[] data) throws IOException {
-        if (status == Extracted.NOT) {
-            // temp extract
-            getContents();
-        }
-        if (status == Extracted.TO_FILE) {
-            String tmpDir = parent.getTmpFolder();
-            FileOutputStream fos = new FileOutputStream(new File(tmpDir + this.extFilename));
-            fos.write(data);
-            fos.close();
-        } else {
-            if (this.data.length == data.length) {
-                // copy new in
-                System.arraycopy(data, 0, this.data, 0, data.length);
-            } else {
-                // make new array
-                this.data = null;
-                this.data = new byte[data.length];
-                System.arraycopy(data, 0, this.data, 0, data.length);
-            }
-        }
+        modified = true;
+        // always a new array, so views handed out earlier don't change
+        byte[] newcopy = new byte[data.length];
+        System.arraycopy(data, 0, newcopy, 0, data.length);
+        this.status = Extracted.TO_RAM;
+        this.data = newcopy;
+        parent.storeCached(this);
     }
 
     // returns null if no override
     public byte[] getOverrideContents() throws IOException {
-        if (status == Extracted.NOT) {
+        if (status == Extracted.NOT || !modified) {
             return null;
         }
-        return getContents();
+        return readContents();
+    }
+
+    @Override
+    public int cachedSize() {
+        return data == null ? 0 : data.length;
+    }
+
+    @Override
+    public boolean evict() throws IOException {
+        if (modified) {
+            if (!parent.isWritingEnabled()) {
+                // nowhere else to keep the changes
+                return false;
+            }
+            String tmpDir = parent.getTmpFolder();
+            this.extFilename = fullPath.replaceAll("[^A-Za-z0-9_]+", "");
+            File tmpFile = new File(tmpDir + extFilename);
+            FileOutputStream fos = new FileOutputStream(tmpFile);
+            fos.write(data);
+            fos.close();
+            tmpFile.deleteOnExit();
+            this.status = Extracted.TO_FILE;
+        } else {
+            // unchanged, so it can be read from the ROM again
+            this.status = Extracted.NOT;
+        }
+        this.data = null;
+        return true;
     }
 
     private enum Extracted {
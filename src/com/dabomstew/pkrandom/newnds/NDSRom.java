@@ -4,9 +4,15 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 import com.dabomstew.pkrandom.SysConstants;
@@ -14,6 +20,7 @@ import com.dabomstew.pkrandom.FileFunctions;
 import com.dabomstew.pkrandom.RomFunctions;
 
 import cuecompressors.BLZCoder;
+import cuecompressors.BLZFastEncoder;
 
 /*----------------------------------------------------------------------------*/
 /*--  NDSRom.java - base class for opening/saving ROMs                      --*/
@@ -47,7 +54,7 @@ public class NDSRom {
     private Map<Integer, NDSY9Entry> arm9overlaysByFileID;
     private NDSY9Entry[] arm9overlays;
     private byte[] fat;
-    private String tmpFolder;
+    private String tmpFolder, tmpFolderName;
     private boolean writingEnabled;
     private boolean arm9_open, arm9_changed, arm9_has_footer;
     private boolean arm9_compressed;
@@ -55,19 +62,104 @@ public class NDSRom {
     private byte[] arm9_footer;
     private byte[] arm9_ramstored;
 
+    // Extracted files and overlays are kept in memory, least recently used
+    // first, and only spilled to the tmp folder once the budget is exceeded.
+    public static final long DEFAULT_CACHE_BUDGET = 32 * 1024 * 1024;
+    private LinkedHashMap<CachedContents, Integer> cache = new LinkedHashMap<CachedContents, Integer>(16, 0.75f, true);
+    private long cacheBytes = 0;
+    private long cacheBudget = DEFAULT_CACHE_BUDGET;
+
     private static final int arm9_align = 0x1FF, arm7_align = 0x1FF;
     private static final int fnt_align = 0x1FF, fat_align = 0x1FF;
     private static final int banner_align = 0x1FF, file_align = 0x1FF;
 
+    // tmp folders claimed by open NDSRoms in this JVM, so that two copies of
+    // the same ROM being randomized at once don't share extracted files
+    private static final Set<String> tmpFoldersInUse = new HashSet<String>();
+
     public NDSRom(String filename) throws IOException {
         this.romFilename = filename;
         this.baseRom = new RandomAccessFile(filename, "r");
         this.romOpen = true;
-        // TMP folder?
-        String rawFilename = new File(filename).getName();
+        openTmpFolder();
+        readFileSystem();
+        arm9_open = false;
+        arm9_changed = false;
+        arm9_ramstored = null;
+    }
+
+    // Fork constructor: shares the parsed file system of base, but gets its
+    // own file entries, tmp folder and file handle.
+    private NDSRom(NDSRom base) throws IOException {
+        this.romFilename = base.romFilename;
+        this.romCode = base.romCode;
+        this.romOpen = false;
+        this.fat = base.fat;
+        this.cacheBudget = base.cacheBudget;
+        openTmpFolder();
+
+        files = new HashMap<String, NDSFile>();
+        filesByID = new HashMap<Integer, NDSFile>();
+        for (NDSFile baseFile : base.filesByID.values()) {
+            NDSFile nf = new NDSFile(this);
+            nf.offset = baseFile.offset;
+            nf.size = baseFile.size;
+            nf.fullPath = baseFile.fullPath;
+            nf.fileID = baseFile.fileID;
+            files.put(nf.fullPath, nf);
+            filesByID.put(nf.fileID, nf);
+        }
+
+        arm9overlays = new NDSY9Entry[base.arm9overlays.length];
+        arm9overlaysByFileID = new HashMap<Integer, NDSY9Entry>();
+        for (int i = 0; i < arm9overlays.length; i++) {
+            NDSY9Entry baseOverlay = base.arm9overlays[i];
+            NDSY9Entry overlay = new NDSY9Entry(this);
+            overlay.offset = baseOverlay.offset;
+            overlay.size = baseOverlay.original_size;
+            overlay.original_size = baseOverlay.original_size;
+            overlay.fileID = baseOverlay.fileID;
+            overlay.overlay_id = baseOverlay.overlay_id;
+            overlay.ram_address = baseOverlay.ram_address;
+            overlay.ram_size = baseOverlay.ram_size;
+            overlay.bss_size = baseOverlay.bss_size;
+            overlay.static_start = baseOverlay.static_start;
+            overlay.static_end = baseOverlay.static_end;
+            overlay.compressed_size = baseOverlay.compressed_size;
+            overlay.compress_flag = baseOverlay.compress_flag;
+            arm9overlays[i] = overlay;
+            arm9overlaysByFileID.put(overlay.fileID, overlay);
+        }
+
+        arm9_changed = false;
+        arm9_ramstored = null;
+        arm9_open = base.arm9_open;
+        if (arm9_open) {
+            // reuse the already-decompressed arm9 instead of decoding it again
+            arm9_has_footer = base.arm9_has_footer;
+            arm9_footer = base.arm9_footer;
+            arm9_compressed = base.arm9_compressed;
+            arm9_szmode = base.arm9_szmode;
+            arm9_szoffset = base.arm9_szoffset;
+            storeARM9(base.getARM9());
+        }
+    }
+
+    // Creates a copy of this ROM for another randomization run, without
+    // parsing the file system or decompressing arm9 again. Nothing written to
+    // the fork shows up here; this NDSRom must not be written to itself while
+    // forks of it are in use.
+    public synchronized NDSRom fork() throws IOException {
+        return new NDSRom(this);
+    }
+
+    private void openTmpFolder() {
+        String rawFilename = new File(romFilename).getName();
         String dataFolder = "tmp_" + rawFilename.substring(0, rawFilename.lastIndexOf('.'));
         // remove nonsensical chars
         dataFolder = dataFolder.replaceAll("[^A-Za-z0-9_]+", "");
+        dataFolder = claimTmpFolder(dataFolder);
+        this.tmpFolderName = dataFolder;
         File tmpFolder = new File(SysConstants.ROOT_PATH + dataFolder);
         tmpFolder.mkdir();
         if (tmpFolder.canWrite()) {
@@ -77,10 +169,6 @@ public class NDSRom {
         } else {
             writingEnabled = false;
         }
-        readFileSystem();
-        arm9_open = false;
-        arm9_changed = false;
-        arm9_ramstored = null;
     }
 
     public void reopenROM() throws IOException {
@@ -98,6 +186,76 @@ public class NDSRom {
         }
     }
 
+    public long getCacheBudget() {
+        return cacheBudget;
+    }
+
+    public void setCacheBudget(long bytes) throws IOException {
+        this.cacheBudget = bytes;
+        trimCache();
+    }
+
+    void touchCached(CachedContents entry) {
+        cache.get(entry);
+    }
+
+    void storeCached(CachedContents entry) throws IOException {
+        Integer oldSize = cache.put(entry, entry.cachedSize());
+        if (oldSize != null) {
+            cacheBytes -= oldSize;
+        }
+        cacheBytes += entry.cachedSize();
+        trimCache();
+    }
+
+    private void trimCache() throws IOException {
+        Iterator<Map.Entry<CachedContents, Integer>> eldest = cache.entrySet().iterator();
+        while (cacheBytes > cacheBudget && eldest.hasNext()) {
+            Map.Entry<CachedContents, Integer> entry = eldest.next();
+            if (entry.getKey().evict()) {
+                cacheBytes -= entry.getValue();
+                eldest.remove();
+            }
+        }
+    }
+
+    private static String claimTmpFolder(String dataFolder) {
+        synchronized (tmpFoldersInUse) {
+            String claimed = dataFolder;
+            int suffix = 2;
+            while (tmpFoldersInUse.contains(claimed)) {
+                claimed = dataFolder + "_" + suffix++;
+            }
+            tmpFoldersInUse.add(claimed);
+            return claimed;
+        }
+    }
+
+    // Removes everything extracted to the tmp folder and gives the folder up.
+    // The ROM can't be read from or saved after this.
+    public void deleteTmpFolder() throws IOException {
+        closeROM();
+        cache.clear();
+        cacheBytes = 0;
+        if (writingEnabled) {
+            File folder = new File(tmpFolder);
+            File[] extracted = folder.listFiles();
+            if (extracted != null) {
+                for (File f : extracted) {
+                    f.delete();
+                }
+            }
+            folder.delete();
+            writingEnabled = false;
+        }
+        if (tmpFolderName != null) {
+            synchronized (tmpFoldersInUse) {
+                tmpFoldersInUse.remove(tmpFolderName);
+            }
+            tmpFolderName = null;
+        }
+    }
+
     private void readFileSystem() throws IOException {
         // read rom code
         baseRom.seek(0x0C);
@@ -225,86 +383,83 @@ public class NDSRom {
 
         // Initialise new ROM
         RandomAccessFile fNew = new RandomAccessFile(filename, "rw");
+        FileChannel in = this.baseRom.getChannel();
+        FileChannel out = fNew.getChannel();
 
+        // The header is patched in memory and written last, CRC and all
         int headersize = readFromFile(this.baseRom, 0x84, 4);
+        byte[] header = new byte[headersize];
         this.baseRom.seek(0);
-        copy(this.baseRom, fNew, headersize);
+        this.baseRom.readFully(header);
 
         // arm9
-        int arm9_offset = ((int) (fNew.getFilePointer() + arm9_align)) & (~arm9_align);
-        int old_arm9_offset = readFromFile(this.baseRom, 0x20, 4);
-        int arm9_size = readFromFile(this.baseRom, 0x2C, 4);
+        int arm9_offset = (headersize + arm9_align) & (~arm9_align);
+        int old_arm9_offset = readFromByteArr(header, 0x20, 4);
+        int arm9_size = readFromByteArr(header, 0x2C, 4);
+        int arm9_end;
         if (arm9_open && arm9_changed) {
             // custom arm9
             byte[] newARM9 = getARM9();
             if (arm9_compressed) {
-                newARM9 = new BLZCoder(null).BLZ_EncodePub(newARM9, true, false, "arm9.bin");
+                newARM9 = BLZFastEncoder.encode(newARM9, true, false);
                 if (arm9_szoffset > 0) {
                     int newValue = arm9_szmode == 1 ? newARM9.length : newARM9.length + 0x4000;
                     writeToByteArr(newARM9, arm9_szoffset, 3, newValue);
                 }
             }
             arm9_size = newARM9.length;
-            // copy new arm9
-            fNew.seek(arm9_offset);
-            fNew.write(newARM9);
-            // footer?
+            // copy new arm9, footer too if there is one
+            out.position(arm9_offset);
             if (arm9_has_footer) {
-                fNew.write(arm9_footer);
+                writeFully(out, new ByteBuffer[] { ByteBuffer.wrap(newARM9), ByteBuffer.wrap(arm9_footer) });
+                arm9_end = arm9_offset + newARM9.length + arm9_footer.length;
+            } else {
+                writeFully(out, new ByteBuffer[] { ByteBuffer.wrap(newARM9) });
+                arm9_end = arm9_offset + newARM9.length;
             }
-
         } else {
             // copy arm9+footer
-            this.baseRom.seek(old_arm9_offset);
-            fNew.seek(arm9_offset);
-            copy(this.baseRom, fNew, arm9_size + 12);
+            transfer(in, old_arm9_offset, out, arm9_offset, arm9_size + 12);
+            arm9_end = arm9_offset + arm9_size + 12;
         }
 
         // arm9 ovl
-        int arm9_ovl_offset = (int) fNew.getFilePointer();
+        int arm9_ovl_offset = arm9_end;
         int arm9_ovl_size = arm9overlays.length * 32;
 
         // don't actually write arm9 ovl yet
 
         // arm7
         int arm7_offset = ((int) (arm9_ovl_offset + arm9_ovl_size + arm7_align)) & (~arm7_align);
-        int old_arm7_offset = readFromFile(this.baseRom, 0x30, 4);
-        int arm7_size = readFromFile(this.baseRom, 0x3C, 4);
+        int old_arm7_offset = readFromByteArr(header, 0x30, 4);
+        int arm7_size = readFromByteArr(header, 0x3C, 4);
         // copy arm7
-        this.baseRom.seek(old_arm7_offset);
-        fNew.seek(arm7_offset);
-        copy(this.baseRom, fNew, arm7_size);
+        transfer(in, old_arm7_offset, out, arm7_offset, arm7_size);
 
         // arm7 ovl
-        int arm7_ovl_offset = (int) fNew.getFilePointer();
-        int old_arm7_ovl_offset = readFromFile(this.baseRom, 0x58, 4);
-        int arm7_ovl_size = readFromFile(this.baseRom, 0x5C, 4);
+        int arm7_ovl_offset = arm7_offset + arm7_size;
+        int old_arm7_ovl_offset = readFromByteArr(header, 0x58, 4);
+        int arm7_ovl_size = readFromByteArr(header, 0x5C, 4);
 
         // copy arm7 ovl
-        this.baseRom.seek(old_arm7_ovl_offset);
-        fNew.seek(arm7_ovl_offset);
-        copy(this.baseRom, fNew, arm7_ovl_size);
+        transfer(in, old_arm7_ovl_offset, out, arm7_ovl_offset, arm7_ovl_size);
 
         // banner
-        int banner_offset = ((int) (fNew.getFilePointer() + banner_align)) & (~banner_align);
-        int old_banner_offset = readFromFile(this.baseRom, 0x68, 4);
+        int banner_offset = (arm7_ovl_offset + arm7_ovl_size + banner_align) & (~banner_align);
+        int old_banner_offset = readFromByteArr(header, 0x68, 4);
         int banner_size = 0x840;
         // copy banner
-        this.baseRom.seek(old_banner_offset);
-        fNew.seek(banner_offset);
-        copy(this.baseRom, fNew, banner_size);
+        transfer(in, old_banner_offset, out, banner_offset, banner_size);
 
         // filename table (doesn't change)
-        int fnt_offset = ((int) (fNew.getFilePointer() + fnt_align)) & (~fnt_align);
-        int old_fnt_offset = readFromFile(this.baseRom, 0x40, 4);
-        int fnt_size = readFromFile(this.baseRom, 0x44, 4);
+        int fnt_offset = (banner_offset + banner_size + fnt_align) & (~fnt_align);
+        int old_fnt_offset = readFromByteArr(header, 0x40, 4);
+        int fnt_size = readFromByteArr(header, 0x44, 4);
         // copy fnt
-        this.baseRom.seek(old_fnt_offset);
-        fNew.seek(fnt_offset);
-        copy(this.baseRom, fNew, fnt_size);
+        transfer(in, old_fnt_offset, out, fnt_offset, fnt_size);
 
         // make space for the FAT table
-        int fat_offset = ((int) (fNew.getFilePointer() + fat_align)) & (~fat_align);
+        int fat_offset = (fnt_offset + fnt_size + fat_align) & (~fat_align);
         int fat_size = fat.length;
 
         // Now for actual files
@@ -322,8 +477,8 @@ public class NDSRom {
                 byte[] customContents = filesByID.get(fid).getOverrideContents();
                 if (customContents != null) {
                     // copy custom
-                    fNew.seek(offset_of_file);
-                    fNew.write(customContents);
+                    out.position(offset_of_file);
+                    writeFully(out, new ByteBuffer[] { ByteBuffer.wrap(customContents) });
                     copiedCustom = true;
                     file_len = customContents.length;
                 }
@@ -334,8 +489,8 @@ public class NDSRom {
                 byte[] customContents = entry.getOverrideContents();
                 if (customContents != null) {
                     // copy custom
-                    fNew.seek(offset_of_file);
-                    fNew.write(customContents);
+                    out.position(offset_of_file);
+                    writeFully(out, new ByteBuffer[] { ByteBuffer.wrap(customContents) });
                     copiedCustom = true;
                     file_len = customContents.length;
                 }
@@ -355,9 +510,7 @@ public class NDSRom {
                 int file_starts = readFromByteArr(fat, fid * 8, 4);
                 int file_ends = readFromByteArr(fat, fid * 8 + 4, 4);
                 file_len = file_ends - file_starts;
-                this.baseRom.seek(file_starts);
-                fNew.seek(offset_of_file);
-                copy(this.baseRom, fNew, file_len);
+                transfer(in, file_starts, out, offset_of_file, file_len);
             }
             // write to new FAT
             writeToByteArr(newfat, fid * 8, 4, offset_of_file);
@@ -367,12 +520,12 @@ public class NDSRom {
         }
 
         // write new FAT table
-        fNew.seek(fat_offset);
-        fNew.write(newfat);
+        out.position(fat_offset);
+        writeFully(out, new ByteBuffer[] { ByteBuffer.wrap(newfat) });
 
         // write y9 table
-        fNew.seek(arm9_ovl_offset);
-        fNew.write(y9table);
+        out.position(arm9_ovl_offset);
+        writeFully(out, new ByteBuffer[] { ByteBuffer.wrap(y9table) });
 
         // tidy up ending
         // base_offset is the end of the last file
@@ -380,8 +533,8 @@ public class NDSRom {
         newfilesize = (newfilesize + 3) & ~3;
         int application_end_offset = newfilesize;
         if (newfilesize != base_offset) {
-            fNew.seek(newfilesize - 1);
-            fNew.write(0);
+            out.position(newfilesize - 1);
+            writeFully(out, new ByteBuffer[] { ByteBuffer.wrap(new byte[1]) });
         }
 
         // calculate device capacity;
@@ -403,40 +556,54 @@ public class NDSRom {
         int devicecap = ((devcap < 0) ? 0 : devcap);
 
         // Update offsets in ROM header
-        writeToFile(fNew, 0x20, 4, arm9_offset);
-        writeToFile(fNew, 0x2C, 4, arm9_size);
-        writeToFile(fNew, 0x30, 4, arm7_offset);
-        writeToFile(fNew, 0x3C, 4, arm7_size);
-        writeToFile(fNew, 0x40, 4, fnt_offset);
-        writeToFile(fNew, 0x48, 4, fat_offset);
-        writeToFile(fNew, 0x50, 4, arm9_ovl_offset);
-        writeToFile(fNew, 0x58, 4, arm7_ovl_offset);
-        writeToFile(fNew, 0x68, 4, banner_offset);
-        writeToFile(fNew, 0x80, 4, application_end_offset);
-        writeToFile(fNew, 0x14, 1, devicecap);
+        writeToByteArr(header, 0x20, 4, arm9_offset);
+        writeToByteArr(header, 0x2C, 4, arm9_size);
+        writeToByteArr(header, 0x30, 4, arm7_offset);
+        writeToByteArr(header, 0x3C, 4, arm7_size);
+        writeToByteArr(header, 0x40, 4, fnt_offset);
+        writeToByteArr(header, 0x48, 4, fat_offset);
+        writeToByteArr(header, 0x50, 4, arm9_ovl_offset);
+        writeToByteArr(header, 0x58, 4, arm7_ovl_offset);
+        writeToByteArr(header, 0x68, 4, banner_offset);
+        writeToByteArr(header, 0x80, 4, application_end_offset);
+        writeToByteArr(header, 0x14, 1, devicecap);
 
         // Update header CRC
-        fNew.seek(0);
-        byte[] headerForCRC = new byte[0x15E];
-        fNew.readFully(headerForCRC);
-        short crc = CRC16.calculate(headerForCRC, 0, 0x15E);
-        writeToFile(fNew, 0x15E, 2, (crc & 0xFFFF));
+        short crc = CRC16.calculate(header, 0, 0x15E);
+        writeToByteArr(header, 0x15E, 2, (crc & 0xFFFF));
+        out.position(0);
+        writeFully(out, new ByteBuffer[] { ByteBuffer.wrap(header) });
+
+        // in case we overwrote a bigger file
+        out.truncate(application_end_offset);
 
         // done
         fNew.close();
         closeROM();
     }
 
-    private void copy(RandomAccessFile from, RandomAccessFile to, int bytes) throws IOException {
-        int sizeof_copybuf = Math.min(256 * 1024, bytes);
-        byte[] copybuf = new byte[sizeof_copybuf];
+    // copies bytes from one file to another without going through the heap
+    private void transfer(FileChannel from, long fromOffset, FileChannel to, long toOffset, long bytes)
+            throws IOException {
+        to.position(toOffset);
         while (bytes > 0) {
-            int size2 = (bytes >= sizeof_copybuf) ? sizeof_copybuf : bytes;
-            int read = from.read(copybuf, 0, size2);
-            to.write(copybuf, 0, read);
-            bytes -= read;
+            long copied = from.transferTo(fromOffset, bytes, to);
+            if (copied <= 0) {
+                throw new IOException("Unexpected end of ROM file");
+            }
+            fromOffset += copied;
+            bytes -= copied;
+        }
+    }
+
+    private void writeFully(FileChannel to, ByteBuffer[] buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= to.write(buffers);
         }
-        copybuf = null;
     }
 
     // get rom code for opened rom
@@ -453,6 +620,45 @@ public class NDSRom {
         }
     }
 
+    // Read-only views share the cached contents instead of copying them.
+    // They don't see later writes. Returns null if the file doesn't exist.
+    public ByteBuffer getFileView(String filename) throws IOException {
+        if (files.containsKey(filename)) {
+            return files.get(filename).getContentsView();
+        } else {
+            return null;
+        }
+    }
+
+    // Reads part of a file without loading the rest of it.
+    // Returns null if the file doesn't exist.
+    public byte[] getFileRange(String filename, int position, int length) throws IOException {
+        if (files.containsKey(filename)) {
+            byte[] buf = new byte[length];
+            files.get(filename).read(position, buf, 0, length);
+            return buf;
+        } else {
+            return null;
+        }
+    }
+
+    // returns -1 if the file doesn't exist
+    public int getFileSize(String filename) {
+        if (files.containsKey(filename)) {
+            return files.get(filename).fileSize();
+        } else {
+            return -1;
+        }
+    }
+
+    public ByteBuffer getOverlayView(int number) throws IOException {
+        if (number >= 0 && number < arm9overlays.length) {
+            return arm9overlays[number].getContentsView();
+        } else {
+            return null;
+        }
+    }
+
     public byte[] getOverlay(int number) throws IOException {
         if (number >= 0 && number < arm9overlays.length) {
             return arm9overlays[number].getContents();
@@ -537,20 +743,7 @@ public class NDSRom {
             }
 
             // Now actually make the copy or w/e
-            if (writingEnabled) {
-                File arm9file = new File(tmpFolder + "arm9.bin");
-                FileOutputStream fos = new FileOutputStream(arm9file);
-                fos.write(arm9);
-                fos.close();
-                arm9file.deleteOnExit();
-                this.arm9_ramstored = null;
-                return arm9;
-            } else {
-                this.arm9_ramstored = arm9;
-                byte[] newcopy = new byte[arm9.length];
-                System.arraycopy(arm9, 0, newcopy, 0, arm9.length);
-                return newcopy;
-            }
+            return storeARM9(arm9);
         } else {
             if (writingEnabled) {
                 byte[] file = FileFunctions.readFileFullyIntoBuffer(tmpFolder + "arm9.bin");
@@ -563,6 +756,23 @@ public class NDSRom {
         }
     }
 
+    private byte[] storeARM9(byte[] arm9) throws IOException {
+        if (writingEnabled) {
+            File arm9file = new File(tmpFolder + "arm9.bin");
+            FileOutputStream fos = new FileOutputStream(arm9file);
+            fos.write(arm9);
+            fos.close();
+            arm9file.deleteOnExit();
+            this.arm9_ramstored = null;
+            return arm9;
+        } else {
+            this.arm9_ramstored = arm9;
+            byte[] newcopy = new byte[arm9.length];
+            System.arraycopy(arm9, 0, newcopy, 0, arm9.length);
+            return newcopy;
+        }
+    }
+
     // returns null if file doesn't exist
     public void writeFile(String filename, byte[] data) throws IOException {
         if (files.containsKey(filename)) {
@@ -4,10 +4,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 import com.dabomstew.pkrandom.FileFunctions;
 
 import cuecompressors.BLZCoder;
+import cuecompressors.BLZFastEncoder;
 
 /*----------------------------------------------------------------------------*/
 /*--  NDSY9Entry.java - an entry in the arm9 overlay system                 --*/
@@ -30,7 +32,7 @@ import cuecompressors.BLZCoder;
 /*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
 /*----------------------------------------------------------------------------*/
 
-public class NDSY9Entry {
+public class NDSY9Entry implements CachedContents {
 
     private NDSRom parent;
     public int offset, size, original_size;
@@ -43,19 +45,40 @@ public class NDSY9Entry {
     public int compress_flag;
     public Extracted status = Extracted.NOT;
     public String extFilename;
+    // contents while this overlay is in parent's cache (status TO_RAM)
     public byte[] data;
     private boolean decompressed_data = false;
+    // unmodified overlays keep their original (compressed) bytes on save
+    private boolean modified = false;
 
     public NDSY9Entry(NDSRom parent) {
         this.parent = parent;
     }
 
     public byte[] getContents() throws IOException {
+        byte[] buf = readContents();
+        byte[] newcopy = new byte[buf.length];
+        System.arraycopy(buf, 0, newcopy, 0, buf.length);
+        return newcopy;
+    }
+
+    // read-only view of the contents, for callers that won't change them
+    public ByteBuffer getContentsView() throws IOException {
+        return ByteBuffer.wrap(readContents()).asReadOnlyBuffer();
+    }
+
+    // returns the cached array itself, so it must not be modified
+    private byte[] readContents() throws IOException {
+        if (this.status == Extracted.TO_RAM) {
+            parent.touchCached(this);
+            return this.data;
+        }
+        byte[] buf;
         if (this.status == Extracted.NOT) {
             // extract file
             parent.reopenROM();
             RandomAccessFile rom = parent.getBaseRom();
-            byte[] buf = new byte[this.original_size];
+            buf = new byte[this.original_size];
             rom.seek(this.offset);
             rom.readFully(buf);
             // Compression?
@@ -63,76 +86,75 @@ public class NDSY9Entry {
                 buf = new BLZCoder(null).BLZ_DecodePub(buf, "overlay " + overlay_id);
                 decompressed_data = true;
             }
-            if (parent.isWritingEnabled()) {
-                // make a file
-                String tmpDir = parent.getTmpFolder();
-                String fullPath = String.format("overlay_%04d", overlay_id);
-                String tmpFilename = fullPath.replaceAll("[^A-Za-z0-9_]+", "");
-                this.extFilename = tmpFilename;
-                File tmpFile = new File(tmpDir + extFilename);
-                FileOutputStream fos = new FileOutputStream(tmpFile);
-                fos.write(buf);
-                fos.close();
-                tmpFile.deleteOnExit();
-                this.status = Extracted.TO_FILE;
-                this.data = null;
-                return buf;
-            } else {
-                this.status = Extracted.TO_RAM;
-                this.data = buf;
-                byte[] newcopy = new byte[buf.length];
-                System.arraycopy(buf, 0, newcopy, 0, buf.length);
-                return newcopy;
-            }
-        } else if (this.status == Extracted.TO_RAM) {
-            byte[] newcopy = new byte[this.data.length];
-            System.arraycopy(this.data, 0, newcopy, 0, this.data.length);
-            return newcopy;
         } else {
             String tmpDir = parent.getTmpFolder();
-            byte[] file = FileFunctions.readFileFullyIntoBuffer(tmpDir + this.extFilename);
-            return file;
+            buf = FileFunctions.readFileFullyIntoBuffer(tmpDir + this.extFilename);
         }
+        this.status = Extracted.TO_RAM;
+        this.data = buf;
+        parent.storeCached(this);
+        return buf;
     }
 
     public void writeOverride(byte[] data) throws IOException {
         if (status == Extracted.NOT) {
-            // temp extract
-            getContents();
+            // temp extract, to find out whether it needs compressing
+            readContents();
         }
+        modified = true;
         size = data.length;
-        if (status == Extracted.TO_FILE) {
-            String tmpDir = parent.getTmpFolder();
-            FileOutputStream fos = new FileOutputStream(new File(tmpDir + this.extFilename));
-            fos.write(data);
-            fos.close();
-        } else {
-            if (this.data.length == data.length) {
-                // copy new in
-                System.arraycopy(data, 0, this.data, 0, data.length);
-            } else {
-                // make new array
-                this.data = null;
-                this.data = new byte[data.length];
-                System.arraycopy(data, 0, this.data, 0, data.length);
-            }
-        }
+        // always a new array, so views handed out earlier don't change
+        byte[] newcopy = new byte[data.length];
+        System.arraycopy(data, 0, newcopy, 0, data.length);
+        this.status = Extracted.TO_RAM;
+        this.data = newcopy;
+        parent.storeCached(this);
     }
 
     // returns null if no override
     public byte[] getOverrideContents() throws IOException {
-        if (status == Extracted.NOT) {
+        if (status == Extracted.NOT || !modified) {
             return null;
         }
-        byte[] buf = getContents();
+        byte[] buf = readContents();
         if (this.decompressed_data) {
-            buf = new BLZCoder(null).BLZ_EncodePub(buf, false, false, "overlay " + overlay_id);
+            buf = BLZFastEncoder.encode(buf, false, false);
             // update our compressed size
             this.compressed_size = buf.length;
         }
         return buf;
     }
 
+    @Override
+    public int cachedSize() {
+        return data == null ? 0 : data.length;
+    }
+
+    @Override
+    public boolean evict() throws IOException {
+        if (!parent.isWritingEnabled()) {
+            if (modified) {
+                // nowhere else to keep the changes
+                return false;
+            }
+            // unchanged, so it can be extracted from the ROM again
+            this.status = Extracted.NOT;
+        } else {
+            // spill even unchanged overlays, decompressing them is slow
+            String tmpDir = parent.getTmpFolder();
+            String fullPath = String.format("overlay_%04d", overlay_id);
+            this.extFilename = fullPath.replaceAll("[^A-Za-z0-9_]+", "");
+            File tmpFile = new File(tmpDir + extFilename);
+            FileOutputStream fos = new FileOutputStream(tmpFile);
+            fos.write(data);
+            fos.close();
+            tmpFile.deleteOnExit();
+            this.status = Extracted.TO_FILE;
+        }
+        this.data = null;
+        return true;
+    }
+
     private enum Extracted {
         NOT, TO_FILE, TO_RAM;
     }
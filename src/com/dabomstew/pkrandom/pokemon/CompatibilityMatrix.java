@@ -0,0 +1,184 @@
+package com.dabomstew.pkrandom.pokemon;
+
+/*----------------------------------------------------------------------------*/
+/*--  CompatibilityMatrix.java - which Pokemon can be taught which TM, HM   --*/
+/*--                             or move tutor move.                        --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2012.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.util.List;
+import java.util.Random;
+
+// One row per Pokemon, in the order they were given, and one bit per machine
+// (TMs then HMs, or move tutors), numbered from 1 like the games do. Each row
+// is a run of whole longs with machine m at bit m - 1, which is how every gen
+// stores these in the ROM, a byte at a time: readBytes/writeBytes move a row
+// to and from those bitfields directly.
+//
+// Bits past machineCount are always clear, whatever the ROM had there.
+public class CompatibilityMatrix {
+
+    private final Pokemon[] species;
+    private final int[] rowByNumber;
+    private final int machineCount;
+    private final int wordsPerRow;
+    private final long[] words;
+
+    public CompatibilityMatrix(List<Pokemon> species, int machineCount) {
+        this.species = species.toArray(new Pokemon[species.size()]);
+        int highestNumber = 0;
+        for (Pokemon pk : this.species) {
+            highestNumber = Math.max(highestNumber, pk.number);
+        }
+        rowByNumber = new int[highestNumber + 1];
+        for (int i = 0; i <= highestNumber; i++) {
+            rowByNumber[i] = -1;
+        }
+        for (int row = 0; row < this.species.length; row++) {
+            rowByNumber[this.species[row].number] = row;
+        }
+        this.machineCount = machineCount;
+        wordsPerRow = (machineCount + 63) >>> 6;
+        words = new long[this.species.length * wordsPerRow];
+    }
+
+    public CompatibilityMatrix(CompatibilityMatrix original) {
+        species = original.species;
+        rowByNumber = original.rowByNumber;
+        machineCount = original.machineCount;
+        wordsPerRow = original.wordsPerRow;
+        words = original.words.clone();
+    }
+
+    public int size() {
+        return species.length;
+    }
+
+    public int machineCount() {
+        return machineCount;
+    }
+
+    public Pokemon getPokemon(int row) {
+        return species[row];
+    }
+
+    // -1 if pk has no row
+    public int rowOf(Pokemon pk) {
+        return pk.number < rowByNumber.length ? rowByNumber[pk.number] : -1;
+    }
+
+    public boolean isCompatible(int row, int machine) {
+        int bit = machine - 1;
+        return (words[row * wordsPerRow + (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    public void setCompatible(int row, int machine, boolean compatible) {
+        int bit = machine - 1;
+        int w = row * wordsPerRow + (bit >>> 6);
+        if (compatible) {
+            words[w] |= 1L << bit;
+        } else {
+            words[w] &= ~(1L << bit);
+        }
+    }
+
+    // Makes every Pokemon compatible with machines first to last.
+    public void fillMachines(int first, int last) {
+        if (first > last) {
+            return;
+        }
+        long[] fill = new long[wordsPerRow];
+        for (int bit = first - 1; bit < last; bit++) {
+            fill[bit >>> 6] |= 1L << bit;
+        }
+        for (int base = 0; base < words.length; base += wordsPerRow) {
+            for (int w = 0; w < wordsPerRow; w++) {
+                words[base + w] |= fill[w];
+            }
+        }
+    }
+
+    public void fillAll() {
+        fillMachines(1, machineCount);
+    }
+
+    // Sets machine m of the row with probability probabilities[m], drawing
+    // one random double per machine in machine order; machines past the end
+    // of probabilities are left alone. probabilities[0] isn't used.
+    public void randomizeRow(int row, double[] probabilities, Random random) {
+        int base = row * wordsPerRow;
+        for (int machine = 1; machine < probabilities.length; machine++) {
+            int bit = machine - 1;
+            if (random.nextDouble() < probabilities[machine]) {
+                words[base + (bit >>> 6)] |= 1L << bit;
+            } else {
+                words[base + (bit >>> 6)] &= ~(1L << bit);
+            }
+        }
+    }
+
+    // count (up to 64) machines from first on, the first at bit 0
+    public long getBits(int row, int first, int count) {
+        int bit = first - 1;
+        int w = row * wordsPerRow + (bit >>> 6);
+        int shift = bit & 63;
+        long value = words[w] >>> shift;
+        if (shift != 0 && shift + count > 64) {
+            value |= words[w + 1] << (64 - shift);
+        }
+        return count == 64 ? value : value & ((1L << count) - 1);
+    }
+
+    public void setBits(int row, int first, int count, long value) {
+        long mask = count == 64 ? -1L : (1L << count) - 1;
+        value &= mask;
+        int bit = first - 1;
+        int w = row * wordsPerRow + (bit >>> 6);
+        int shift = bit & 63;
+        words[w] = (words[w] & ~(mask << shift)) | (value << shift);
+        if (shift != 0 && shift + count > 64) {
+            words[w + 1] = (words[w + 1] & ~(mask >>> (64 - shift))) | (value >>> (64 - shift));
+        }
+    }
+
+    // byte index of the row's bitfield: machines index * 8 + 1 on
+    public int getByte(int row, int index) {
+        int count = Math.min(8, machineCount - index * 8);
+        return count > 0 ? (int) getBits(row, index * 8 + 1, count) : 0;
+    }
+
+    public void readBytes(int row, byte[] data, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            int count = Math.min(8, machineCount - i * 8);
+            if (count <= 0) {
+                break;
+            }
+            setBits(row, i * 8 + 1, count, data[offset + i] & 0xFF);
+        }
+    }
+
+    public void writeBytes(int row, byte[] data, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            data[offset + i] = (byte) getByte(row, i);
+        }
+    }
+
+}
@@ -0,0 +1,225 @@
+package com.dabomstew.pkrandom.pokemon;
+
+/*----------------------------------------------------------------------------*/
+/*--  EvolutionGraph.java - tracks new evolutions while they're randomized, --*/
+/*--                        answering the cycle and stage-limit checks for  --*/
+/*--                        each candidate without walking the families.    --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2012.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Nodes are dex numbers. The graph only ever gains evolutions and never has
+// a cycle, so for every node we keep:
+// - depth: the longest chain of pre-evolutions leading to it
+// - height: the longest chain of evolutions following it
+// - pendingHeight: the longest chain to a Pokemon with no evolutions yet that
+//   is still going to get some (-1 if there isn't one)
+// - its ancestors, as a bitset
+// plus a union-find of families. addEvolution() updates these for the
+// affected part of one family; the checks themselves are O(1).
+public class EvolutionGraph {
+
+    private final int stageLimit;
+    private final int words;
+    private final int[] family;
+    private final int[] familyRank;
+    private final int[] depth;
+    private final int[] height;
+    private final int[] pendingHeight;
+    private final boolean[] willEvolve;
+    private final long[][] ancestors;
+    private final List<List<Integer>> evolvesTo;
+    private final List<List<Integer>> evolvesFrom;
+
+    public EvolutionGraph(int highestNumber, int stageLimit) {
+        int nodes = highestNumber + 1;
+        this.stageLimit = stageLimit;
+        words = (nodes + 63) >>> 6;
+        family = new int[nodes];
+        familyRank = new int[nodes];
+        depth = new int[nodes];
+        height = new int[nodes];
+        pendingHeight = new int[nodes];
+        willEvolve = new boolean[nodes];
+        ancestors = new long[nodes][];
+        evolvesTo = new ArrayList<List<Integer>>(nodes);
+        evolvesFrom = new ArrayList<List<Integer>>(nodes);
+        for (int i = 0; i < nodes; i++) {
+            family[i] = i;
+            evolvesTo.add(new ArrayList<Integer>(2));
+            evolvesFrom.add(new ArrayList<Integer>(1));
+        }
+        Arrays.fill(pendingHeight, -1);
+    }
+
+    /**
+     * Marks a Pokemon that will be given evolutions later on, so chains
+     * leading to it leave room for one more stage.
+     */
+    public void setWillEvolve(Pokemon pk) {
+        willEvolve[pk.number] = true;
+        if (evolvesTo.get(pk.number).isEmpty()) {
+            pendingHeight[pk.number] = 0;
+        }
+    }
+
+    public boolean hasEvolution(Pokemon from, Pokemon to) {
+        return evolvesTo.get(from.number).contains(to.number);
+    }
+
+    public boolean sameFamily(Pokemon a, Pokemon b) {
+        return find(a.number) == find(b.number);
+    }
+
+    /**
+     * Whether from -> to would close a cycle, i.e. to is from or one of its
+     * pre-evolutions.
+     */
+    public boolean wouldCycle(Pokemon from, Pokemon to) {
+        if (from.number == to.number) {
+            return true;
+        }
+        if (!sameFamily(from, to)) {
+            return false;
+        }
+        long[] anc = ancestors[from.number];
+        return anc != null && (anc[to.number >>> 6] & (1L << to.number)) != 0;
+    }
+
+    /**
+     * Whether from -> to would give some chain more stages than the limit.
+     * That's the case if a Pokemon ends up with stageLimit pre-evolutions, or
+     * with one fewer while it is still going to evolve. Only valid if the
+     * evolution wouldn't make a cycle.
+     */
+    public boolean wouldExceedStages(Pokemon from, Pokemon to) {
+        int stagesBefore = depth[from.number] + 1;
+        if (stagesBefore + height[to.number] >= stageLimit) {
+            return true;
+        }
+        int pending = pendingHeight[to.number];
+        return pending >= 0 && stagesBefore + pending >= stageLimit - 1;
+    }
+
+    public void addEvolution(Pokemon fromPK, Pokemon toPK) {
+        int from = fromPK.number;
+        int to = toPK.number;
+        evolvesTo.get(from).add(to);
+        evolvesFrom.get(to).add(from);
+        union(from, to);
+
+        // depths and ancestors change for to and everything after it; their
+        // heights don't, and a pre-evolution is always higher
+        List<Integer> after = new ArrayList<Integer>();
+        collectEvolutions(to, after, new boolean[family.length]);
+        Integer[] byHeight = after.toArray(new Integer[after.size()]);
+        Arrays.sort(byHeight, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return height[b] - height[a];
+            }
+        });
+        for (int node : byHeight) {
+            int d = 0;
+            long[] anc = new long[words];
+            for (int pre : evolvesFrom.get(node)) {
+                d = Math.max(d, depth[pre] + 1);
+                if (ancestors[pre] != null) {
+                    for (int w = 0; w < words; w++) {
+                        anc[w] |= ancestors[pre][w];
+                    }
+                }
+                anc[pre >>> 6] |= 1L << pre;
+            }
+            depth[node] = d;
+            ancestors[node] = anc;
+        }
+
+        // heights change for from and everything before it, deepest first
+        List<Integer> before = new ArrayList<Integer>();
+        before.add(from);
+        long[] anc = ancestors[from];
+        if (anc != null) {
+            for (int w = 0; w < words; w++) {
+                for (long bits = anc[w]; bits != 0; bits &= bits - 1) {
+                    before.add((w << 6) + Long.numberOfTrailingZeros(bits));
+                }
+            }
+        }
+        Integer[] byDepth = before.toArray(new Integer[before.size()]);
+        Arrays.sort(byDepth, new java.util.Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return depth[b] - depth[a];
+            }
+        });
+        for (int node : byDepth) {
+            int h = 0;
+            int pending = -1;
+            for (int evo : evolvesTo.get(node)) {
+                h = Math.max(h, height[evo] + 1);
+                if (pendingHeight[evo] >= 0) {
+                    pending = Math.max(pending, pendingHeight[evo] + 1);
+                }
+            }
+            height[node] = h;
+            pendingHeight[node] = pending;
+        }
+    }
+
+    private void collectEvolutions(int node, List<Integer> into, boolean[] seen) {
+        if (seen[node]) {
+            return;
+        }
+        seen[node] = true;
+        into.add(node);
+        for (int evo : evolvesTo.get(node)) {
+            collectEvolutions(evo, into, seen);
+        }
+    }
+
+    private int find(int node) {
+        while (family[node] != node) {
+            family[node] = family[family[node]];
+            node = family[node];
+        }
+        return node;
+    }
+
+    private void union(int a, int b) {
+        int ra = find(a);
+        int rb = find(b);
+        if (ra == rb) {
+            return;
+        }
+        if (familyRank[ra] < familyRank[rb]) {
+            family[ra] = rb;
+        } else if (familyRank[ra] > familyRank[rb]) {
+            family[rb] = ra;
+        } else {
+            family[rb] = ra;
+            familyRank[ra]++;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.dabomstew.pkrandom.pokemon;
+
+/*----------------------------------------------------------------------------*/
+/*--  Movesets.java - the level-up moves of every Pokemon, packed into one  --*/
+/*--                  array.                                                --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2012.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.util.Arrays;
+import java.util.List;
+
+// One row per Pokemon, in the order they were given, holding its level-up
+// moves in the order the game lists them. A move is a single int, level in
+// the high half and move number in the low half, and every row lives in the
+// same array: start[row] on, with room to grow to capacity[row] in place
+// before the row is moved to the end.
+//
+// The games list moves by level, and a row remembers whether it still is;
+// movesAtLevel finds where a level's moves end by binary search if so.
+public class Movesets {
+
+    private final Pokemon[] species;
+    private final int[] rowByNumber;
+    private final int[] start;
+    private final int[] length;
+    private final int[] capacity;
+    private final boolean[] sorted;
+    private int[] entries;
+    private int used;
+
+    public Movesets(List<Pokemon> species, int movesPerPokemon) {
+        this.species = species.toArray(new Pokemon[species.size()]);
+        int highestNumber = 0;
+        for (Pokemon pk : this.species) {
+            highestNumber = Math.max(highestNumber, pk.number);
+        }
+        rowByNumber = new int[highestNumber + 1];
+        Arrays.fill(rowByNumber, -1);
+        int rows = this.species.length;
+        start = new int[rows];
+        length = new int[rows];
+        capacity = new int[rows];
+        sorted = new boolean[rows];
+        for (int row = 0; row < rows; row++) {
+            rowByNumber[this.species[row].number] = row;
+            start[row] = row * movesPerPokemon;
+            capacity[row] = movesPerPokemon;
+            sorted[row] = true;
+        }
+        used = rows * movesPerPokemon;
+        entries = new int[used];
+    }
+
+    public Movesets(Movesets original) {
+        species = original.species;
+        rowByNumber = original.rowByNumber;
+        start = original.start.clone();
+        length = original.length.clone();
+        capacity = original.capacity.clone();
+        sorted = original.sorted.clone();
+        entries = Arrays.copyOf(original.entries, original.used);
+        used = original.used;
+    }
+
+    public int size() {
+        return species.length;
+    }
+
+    public Pokemon getPokemon(int row) {
+        return species[row];
+    }
+
+    // -1 if pk has no row
+    public int rowOf(Pokemon pk) {
+        return pk.number < rowByNumber.length ? rowByNumber[pk.number] : -1;
+    }
+
+    public int count(int row) {
+        return length[row];
+    }
+
+    public int getMove(int row, int index) {
+        return entries[start[row] + index] & 0xFFFF;
+    }
+
+    public int getLevel(int row, int index) {
+        return entries[start[row] + index] >>> 16;
+    }
+
+    public void setMove(int row, int index, int move) {
+        int at = start[row] + index;
+        entries[at] = (entries[at] & 0xFFFF0000) | move;
+    }
+
+    public void setLevel(int row, int index, int level) {
+        entries[start[row] + index] = (level << 16) | getMove(row, index);
+        if (!inOrderAt(row, index)) {
+            sorted[row] = false;
+        }
+    }
+
+    // index of the first time the row learns move, or -1
+    public int indexOf(int row, int move) {
+        for (int i = 0; i < length[row]; i++) {
+            if (getMove(row, i) == move) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public void add(int row, int level, int move) {
+        insert(row, length[row], level, move);
+    }
+
+    public void insert(int row, int index, int level, int move) {
+        if (length[row] == capacity[row]) {
+            moveToEnd(row, Math.max(4, capacity[row] * 2));
+        }
+        int at = start[row] + index;
+        System.arraycopy(entries, at, entries, at + 1, length[row] - index);
+        entries[at] = (level << 16) | move;
+        length[row]++;
+        if (!inOrderAt(row, index)) {
+            sorted[row] = false;
+        }
+    }
+
+    public void clear(int row) {
+        length[row] = 0;
+        sorted[row] = true;
+    }
+
+    /**
+     * Get the 4 moves known at a particular level: each move learnt up to
+     * then is added unless already known, forgetting the oldest if there are
+     * already 4, and listing stops at the first move of a higher level.
+     */
+    public int[] movesAtLevel(int row, int level, int emptyValue) {
+        int[] curMoves = new int[4];
+        if (emptyValue != 0) {
+            Arrays.fill(curMoves, emptyValue);
+        }
+        int first = start[row];
+        int end = learntBy(row, level);
+        int moveCount = 0;
+        for (int at = first; at < end; at++) {
+            int move = entries[at] & 0xFFFF;
+            boolean alreadyKnownMove = false;
+            for (int i = 0; i < moveCount; i++) {
+                if (curMoves[i] == move) {
+                    alreadyKnownMove = true;
+                    break;
+                }
+            }
+            if (!alreadyKnownMove) {
+                if (moveCount == 4) {
+                    curMoves[0] = curMoves[1];
+                    curMoves[1] = curMoves[2];
+                    curMoves[2] = curMoves[3];
+                    curMoves[3] = move;
+                } else {
+                    curMoves[moveCount++] = move;
+                }
+            }
+        }
+        return curMoves;
+    }
+
+    // where the row's first move above level is, or its end
+    private int learntBy(int row, int level) {
+        int low = start[row];
+        int high = low + length[row];
+        if (sorted[row]) {
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if ((entries[mid] >>> 16) > level) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+        while (low < high && (entries[low] >>> 16) <= level) {
+            low++;
+        }
+        return low;
+    }
+
+    private boolean inOrderAt(int row, int index) {
+        int level = getLevel(row, index);
+        return (index == 0 || getLevel(row, index - 1) <= level)
+                && (index == length[row] - 1 || level <= getLevel(row, index + 1));
+    }
+
+    private void moveToEnd(int row, int newCapacity) {
+        if (used + newCapacity > entries.length) {
+            entries = Arrays.copyOf(entries, Math.max(entries.length * 2, used + newCapacity));
+        }
+        System.arraycopy(entries, start[row], entries, used, length[row]);
+        start[row] = used;
+        capacity[row] = newCapacity;
+        used += newCapacity;
+    }
+
+}
@@ -0,0 +1,271 @@
+package com.dabomstew.pkrandom.pokemon;
+
+/*----------------------------------------------------------------------------*/
+/*--  PokemonPool.java - a set of Pokemon to pick from, backed by a bitset  --*/
+/*--                     indexed through the Pokemon's dex number.          --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2012.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+// A pool is created from an ordered list of Pokemon (its universe), and every
+// pool copied from it shares that universe. Each universe member gets one bit,
+// in list order, so iterating, get(i) and random picks see the members in the
+// same order an ArrayList that only had Pokemon removed from it would. That
+// keeps the picks for a given seed the same as they were with lists.
+//
+// Pokemon outside the universe can't be added; contains() is simply false
+// for them and removing them does nothing.
+public class PokemonPool implements Iterable<Pokemon> {
+
+    final Pokemon[] byBit;
+    private final int[] bitForNumber;
+    final long[] bits;
+    private int size;
+
+    public PokemonPool(List<Pokemon> universe) {
+        byBit = universe.toArray(new Pokemon[universe.size()]);
+        int highest = 0;
+        for (Pokemon pk : byBit) {
+            highest = Math.max(highest, pk.number);
+        }
+        bitForNumber = new int[highest + 1];
+        Arrays.fill(bitForNumber, -1);
+        bits = new long[(byBit.length + 63) >>> 6];
+        for (int i = 0; i < byBit.length; i++) {
+            if (bitForNumber[byBit[i].number] == -1) {
+                bitForNumber[byBit[i].number] = i;
+                bits[i >>> 6] |= 1L << i;
+                size++;
+            }
+        }
+    }
+
+    private PokemonPool(PokemonPool other, boolean withMembers) {
+        byBit = other.byBit;
+        bitForNumber = other.bitForNumber;
+        if (withMembers) {
+            bits = other.bits.clone();
+            size = other.size;
+        } else {
+            bits = new long[other.bits.length];
+        }
+    }
+
+    // a pool over other's universe with the given members
+    PokemonPool(PokemonPool other, long[] bits) {
+        byBit = other.byBit;
+        bitForNumber = other.bitForNumber;
+        this.bits = bits;
+        recount();
+    }
+
+    public PokemonPool copy() {
+        return new PokemonPool(this, true);
+    }
+
+    /**
+     * An empty pool over the same universe.
+     */
+    public PokemonPool emptyCopy() {
+        return new PokemonPool(this, false);
+    }
+
+    private int bitFor(Pokemon pk) {
+        if (pk == null || pk.number < 0 || pk.number >= bitForNumber.length) {
+            return -1;
+        }
+        int bit = bitForNumber[pk.number];
+        return (bit >= 0 && byBit[bit] == pk) ? bit : -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(Pokemon pk) {
+        int bit = bitFor(pk);
+        return bit >= 0 && (bits[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    public boolean add(Pokemon pk) {
+        int bit = bitFor(pk);
+        if (bit < 0 || (bits[bit >>> 6] & (1L << bit)) != 0) {
+            return false;
+        }
+        bits[bit >>> 6] |= 1L << bit;
+        size++;
+        return true;
+    }
+
+    public boolean remove(Pokemon pk) {
+        int bit = bitFor(pk);
+        if (bit < 0 || (bits[bit >>> 6] & (1L << bit)) == 0) {
+            return false;
+        }
+        bits[bit >>> 6] &= ~(1L << bit);
+        size--;
+        return true;
+    }
+
+    public void addAll(PokemonPool other) {
+        checkUniverse(other);
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] |= other.bits[i];
+        }
+        recount();
+    }
+
+    public void removeAll(PokemonPool other) {
+        checkUniverse(other);
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] &= ~other.bits[i];
+        }
+        recount();
+    }
+
+    public void retainAll(PokemonPool other) {
+        checkUniverse(other);
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] &= other.bits[i];
+        }
+        recount();
+    }
+
+    public void removeAll(Collection<Pokemon> pokes) {
+        for (Pokemon pk : pokes) {
+            remove(pk);
+        }
+    }
+
+    /**
+     * The index-th member, counting in universe order.
+     */
+    public Pokemon get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int word = 0;
+        int count = Long.bitCount(bits[0]);
+        while (index >= count) {
+            index -= count;
+            count = Long.bitCount(bits[++word]);
+        }
+        long w = bits[word];
+        for (int i = 0; i < index; i++) {
+            w &= w - 1;
+        }
+        return byBit[(word << 6) + Long.numberOfTrailingZeros(w)];
+    }
+
+    public Pokemon remove(int index) {
+        Pokemon pk = get(index);
+        remove(pk);
+        return pk;
+    }
+
+    /**
+     * Picks a member uniformly, drawing from the Random exactly as
+     * list.get(random.nextInt(list.size())) would.
+     */
+    public Pokemon random(Random random) {
+        return get(random.nextInt(size));
+    }
+
+    public List<Pokemon> toList() {
+        List<Pokemon> list = new ArrayList<Pokemon>(size);
+        for (Pokemon pk : this) {
+            list.add(pk);
+        }
+        return list;
+    }
+
+    @Override
+    public Iterator<Pokemon> iterator() {
+        return new Iterator<Pokemon>() {
+            private int next = nextSetBit(0);
+            private int last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public Pokemon next() {
+                if (next < 0) {
+                    throw new NoSuchElementException();
+                }
+                last = next;
+                next = nextSetBit(next + 1);
+                return byBit[last];
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+                PokemonPool.this.remove(byBit[last]);
+                last = -1;
+            }
+        };
+    }
+
+    private int nextSetBit(int from) {
+        int word = from >>> 6;
+        if (word >= bits.length) {
+            return -1;
+        }
+        long w = bits[word] & (-1L << from);
+        while (w == 0) {
+            if (++word >= bits.length) {
+                return -1;
+            }
+            w = bits[word];
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(w);
+    }
+
+    private void recount() {
+        int count = 0;
+        for (long w : bits) {
+            count += Long.bitCount(w);
+        }
+        size = count;
+    }
+
+    private void checkUniverse(PokemonPool other) {
+        if (other.byBit != byBit) {
+            throw new IllegalArgumentException("pools were built from different lists");
+        }
+    }
+}
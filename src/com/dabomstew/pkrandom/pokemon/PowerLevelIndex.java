@@ -0,0 +1,93 @@
+package com.dabomstew.pkrandom.pokemon;
+
+/*----------------------------------------------------------------------------*/
+/*--  PowerLevelIndex.java - finds the Pokemon of a pool whose BST falls in --*/
+/*--                         a window, for the similar-strength pickers.    --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--  Pokemon and any associated names and the like are                     --*/
+/*--  trademark and (C) Nintendo 1996-2012.                                 --*/
+/*--                                                                        --*/
+/*--  The custom code written here is licensed under the terms of the GPL:  --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+import java.util.Arrays;
+
+// Members are sorted by bstForPowerLevels() once, with a bitset for every
+// prefix of that order. A window query is then two binary searches and one
+// pass over the prefix words; intersecting the result with a type, legendary
+// or banned-filtered pool is another. Results come back as pools over the
+// same universe, so they iterate in the pool order pickers always used.
+//
+// BSTs are read when the index is built; build a new one after stats change.
+public class PowerLevelIndex {
+
+    private final PokemonPool universe;
+    private final int[] sortedBST;
+    private final long[][] lowest;
+
+    public PowerLevelIndex(PokemonPool pool) {
+        universe = pool;
+        int count = pool.size();
+        long[] keys = new long[count];
+        int i = 0;
+        for (int bit = 0; bit < pool.byBit.length; bit++) {
+            if ((pool.bits[bit >>> 6] & (1L << bit)) != 0) {
+                keys[i++] = ((long) pool.byBit[bit].bstForPowerLevels() << 32) | bit;
+            }
+        }
+        Arrays.sort(keys);
+
+        // lowest[n] holds the n members with the lowest BSTs
+        sortedBST = new int[count];
+        lowest = new long[count + 1][];
+        lowest[0] = new long[pool.bits.length];
+        for (i = 0; i < count; i++) {
+            sortedBST[i] = (int) (keys[i] >> 32);
+            int bit = (int) keys[i];
+            lowest[i + 1] = lowest[i].clone();
+            lowest[i + 1][bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * The indexed Pokemon with minBST <= BST <= maxBST.
+     */
+    public PokemonPool withinRange(int minBST, int maxBST) {
+        int from = firstAtLeast(minBST);
+        int to = Math.max(from, firstAtLeast(maxBST + 1));
+        long[] upper = lowest[to];
+        long[] lower = lowest[from];
+        long[] bits = new long[upper.length];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = upper[i] & ~lower[i];
+        }
+        return new PokemonPool(universe, bits);
+    }
+
+    private int firstAtLeast(int bst) {
+        int lo = 0, hi = sortedBST.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sortedBST[mid] < bst) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
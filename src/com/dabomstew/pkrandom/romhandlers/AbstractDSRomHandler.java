@@ -26,11 +26,18 @@ package com.dabomstew.pkrandom.romhandlers;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 
 import com.dabomstew.pkrandom.FileFunctions;
 import com.dabomstew.pkrandom.exceptions.RandomizerIOException;
 import com.dabomstew.pkrandom.newnds.NARCArchive;
+import com.dabomstew.pkrandom.newnds.NARCReader;
 import com.dabomstew.pkrandom.newnds.NDSRom;
 import com.dabomstew.pkrandom.pokemon.Type;
 
@@ -39,6 +46,12 @@ public abstract class AbstractDSRomHandler extends AbstractRomHandler {
     protected String dataFolder;
     private NDSRom baseRom;
     private String loadedFN;
+    // every NARC is parsed once and then shared by all readers; changed
+    // ones are only packed back into the ROM when it's saved
+    private Map<String, NARCArchive> narcs = new HashMap<String, NARCArchive>();
+    private Set<String> changedNarcs = new LinkedHashSet<String>();
+    // NARCs that are only picked at, a file or two at a time
+    private Map<String, NARCReader> narcReaders = new HashMap<String, NARCReader>();
 
     public AbstractDSRomHandler(Random random, PrintStream logStream) {
         super(random, logStream);
@@ -67,6 +80,26 @@ public abstract class AbstractDSRomHandler extends AbstractRomHandler {
         return loadedFN;
     }
 
+    // Called on a new handler by fork() to take over a fork of base's ROM.
+    // Returns each of base's NARCs mapped to the fork's copy of it.
+    protected Map<NARCArchive, NARCArchive> forkFrom(AbstractDSRomHandler base) {
+        try {
+            this.baseRom = base.baseRom.fork();
+        } catch (IOException e) {
+            throw new RandomizerIOException(e);
+        }
+        this.loadedFN = base.loadedFN;
+        this.dataFolder = base.dataFolder;
+        Map<NARCArchive, NARCArchive> forked = new IdentityHashMap<NARCArchive, NARCArchive>();
+        for (Map.Entry<String, NARCArchive> entry : base.narcs.entrySet()) {
+            NARCArchive narc = entry.getValue().fork();
+            narcs.put(entry.getKey(), narc);
+            forked.put(entry.getValue(), narc);
+        }
+        changedNarcs.addAll(base.changedNarcs);
+        return forked;
+    }
+
     protected byte[] get3byte(int amount) {
         byte[] ret = new byte[3];
         ret[0] = (byte) (amount & 0xFF);
@@ -81,8 +114,13 @@ public abstract class AbstractDSRomHandler extends AbstractRomHandler {
 
     @Override
     public boolean saveRom(String filename) {
+        writeBackAll();
         savingROM();
         try {
+            for (String subpath : changedNarcs) {
+                this.writeFile(subpath, narcs.get(subpath).getBytes());
+            }
+            changedNarcs.clear();
             baseRom.saveTo(filename);
         } catch (IOException e) {
             throw new RandomizerIOException(e);
@@ -94,6 +132,10 @@ public abstract class AbstractDSRomHandler extends AbstractRomHandler {
         baseRom.closeROM();
     }
 
+    public void deleteInnerRomTmpFolder() throws IOException {
+        baseRom.deleteTmpFolder();
+    }
+
     @Override
     public boolean canChangeStaticPokemon() {
         return false;
@@ -106,12 +148,38 @@ public abstract class AbstractDSRomHandler extends AbstractRomHandler {
         return true;
     }
 
+    // Returns the handler's live copy of the NARC; changes to it are saved
+    // once writeNARC has been called for it.
     public NARCArchive readNARC(String subpath) throws IOException {
-        return new NARCArchive(readFile(subpath));
+        NARCArchive narc = narcs.get(subpath);
+        if (narc == null) {
+            narc = new NARCArchive(readFileView(subpath));
+            narcs.put(subpath, narc);
+        }
+        return narc;
+    }
+
+    // One file of a NARC, read without loading the rest of the archive
+    // unless it's already been loaded. The result is the caller's own copy.
+    protected byte[] readNARCFile(String subpath, int index) throws IOException {
+        NARCArchive narc = narcs.get(subpath);
+        if (narc != null) {
+            ByteBuffer view = narc.getFileView(index);
+            byte[] file = new byte[view.remaining()];
+            view.get(file);
+            return file;
+        }
+        NARCReader reader = narcReaders.get(subpath);
+        if (reader == null) {
+            reader = new NARCReader(baseRom, subpath);
+            narcReaders.put(subpath, reader);
+        }
+        return reader.getFile(index);
     }
 
     public void writeNARC(String subpath, NARCArchive narc) throws IOException {
-        this.writeFile(subpath, narc.getBytes());
+        narcs.put(subpath, narc);
+        changedNarcs.add(subpath);
     }
 
     protected static String getROMCodeFromFile(String filename) {
@@ -161,6 +229,11 @@ public abstract class AbstractDSRomHandler extends AbstractRomHandler {
         return baseRom.getFile(location);
     }
 
+    // for reads that don't modify the data; saves copying it
+    protected ByteBuffer readFileView(String location) throws IOException {
+        return baseRom.getFileView(location);
+    }
+
     protected void writeFile(String location, byte[] data) throws IOException {
         writeFile(location, data, 0, data.length);
     }
@@ -171,6 +244,7 @@ public abstract class AbstractDSRomHandler extends AbstractRomHandler {
             System.arraycopy(data, offset, newData, 0, length);
             data = newData;
         }
+        narcReaders.remove(location);
         baseRom.writeFile(location, data);
     }
 
@@ -186,23 +260,12 @@ public abstract class AbstractDSRomHandler extends AbstractRomHandler {
         return baseRom.getOverlay(number);
     }
 
-    protected void writeOverlay(int number, byte[] data) throws IOException {
-        baseRom.writeOverlay(number, data);
-    }
-
-    protected void readByteIntoFlags(byte[] data, boolean[] flags, int offsetIntoFlags, int offsetIntoData) {
-        int thisByte = data[offsetIntoData] & 0xFF;
-        for (int i = 0; i < 8 && (i + offsetIntoFlags) < flags.length; i++) {
-            flags[offsetIntoFlags + i] = ((thisByte >> i) & 0x01) == 0x01;
-        }
+    protected ByteBuffer readOverlayView(int number) throws IOException {
+        return baseRom.getOverlayView(number);
     }
 
-    protected byte getByteFromFlags(boolean[] flags, int offsetIntoFlags) {
-        int thisByte = 0;
-        for (int i = 0; i < 8 && (i + offsetIntoFlags) < flags.length; i++) {
-            thisByte |= (flags[offsetIntoFlags + i] ? 1 : 0) << i;
-        }
-        return (byte) thisByte;
+    protected void writeOverlay(int number, byte[] data) throws IOException {
+        baseRom.writeOverlay(number, data);
     }
 
     protected int typeTMPaletteNumber(Type t) {
@@ -1,61 +1,37 @@
 package com.dabomstew.pkrandom.romhandlers;
 
-import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Random;
-import java.util.Scanner;
 
-import com.dabomstew.pkrandom.FileFunctions;
+import com.dabomstew.pkrandom.TextTable;
 import com.dabomstew.pkrandom.constants.GBConstants;
 
 public abstract class AbstractGBCRomHandler extends AbstractGBRomHandler {
 
-    private String[] tb;
-    private Map<String, Byte> d;
-    private int longestTableToken;
+    private TextTable textTable;
+    // scratch space for fixed length strings; each fork gets its own
+    private byte[] translateBuffer = new byte[64];
 
     public AbstractGBCRomHandler(Random random, PrintStream logStream) {
         super(random, logStream);
     }
 
+    @Override
+    protected void forkFrom(AbstractGBRomHandler base) {
+        super.forkFrom(base);
+        // text tables are never changed after loading, so they can be shared
+        this.textTable = ((AbstractGBCRomHandler) base).textTable;
+    }
+
     protected void clearTextTables() {
-        tb = new String[256];
-        if (d != null) {
-            d.clear();
-        } else {
-            d = new HashMap<String, Byte>();
-        }
-        longestTableToken = 0;
+        textTable = new TextTable();
     }
 
     protected void readTextTable(String name) {
         try {
-            Scanner sc = new Scanner(FileFunctions.openConfig(name + ".tbl"), "UTF-8");
-            while (sc.hasNextLine()) {
-                String q = sc.nextLine();
-                if (!q.trim().isEmpty()) {
-                    String[] r = q.split("=", 2);
-                    if (r[1].endsWith("\r\n")) {
-                        r[1] = r[1].substring(0, r[1].length() - 2);
-                    }
-                    int hexcode = Integer.parseInt(r[0], 16);
-                    if (tb[hexcode] != null) {
-                        String oldMatch = tb[hexcode];
-                        tb[hexcode] = null;
-                        if (d.get(oldMatch) == hexcode) {
-                            d.remove(oldMatch);
-                        }
-                    }
-                    tb[hexcode] = r[1];
-                    longestTableToken = Math.max(longestTableToken, r[1].length());
-                    d.put(r[1], (byte) hexcode);
-                }
-            }
-            sc.close();
+            textTable.readTable(name);
         } catch (FileNotFoundException e) {
         }
 
@@ -65,16 +41,17 @@ public abstract class AbstractGBCRomHandler extends AbstractGBRomHandler {
         StringBuilder string = new StringBuilder();
         for (int c = 0; c < maxLength; c++) {
             int currChar = rom[offset + c] & 0xFF;
-            if (tb[currChar] != null) {
-                string.append(tb[currChar]);
-                if (textEngineMode && (tb[currChar].equals("\\r") || tb[currChar].equals("\\e"))) {
+            String token = textTable.token(currChar);
+            if (token != null) {
+                string.append(token);
+                if (textEngineMode && (token.equals("\\r") || token.equals("\\e"))) {
                     break;
                 }
             } else {
                 if (currChar == GBConstants.stringTerminator) {
                     break;
                 } else {
-                    string.append("\\x" + String.format("%02X", currChar));
+                    string.append(TextTable.escape(currChar));
                 }
             }
         }
@@ -96,25 +73,11 @@ public abstract class AbstractGBCRomHandler extends AbstractGBRomHandler {
     }
 
     protected byte[] translateString(String text) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        while (text.length() != 0) {
-            int i = Math.max(0, longestTableToken - text.length());
-            if (text.charAt(0) == '\\' && text.charAt(1) == 'x') {
-                baos.write(Integer.parseInt(text.substring(2, 4), 16));
-                text = text.substring(4);
-            } else {
-                while (!(d.containsKey(text.substring(0, longestTableToken - i)) || (i == longestTableToken))) {
-                    i++;
-                }
-                if (i == longestTableToken) {
-                    text = text.substring(1);
-                } else {
-                    baos.write(d.get(text.substring(0, longestTableToken - i)) & 0xFF);
-                    text = text.substring(longestTableToken - i);
-                }
-            }
-        }
-        return baos.toByteArray();
+        return textTable.encode(text);
+    }
+
+    protected int translatedLength(String text) {
+        return textTable.encodedLength(text);
     }
 
     protected String readFixedLengthString(int offset, int length) {
@@ -124,9 +87,11 @@ public abstract class AbstractGBCRomHandler extends AbstractGBRomHandler {
     // pads the length with terminators, so length should be at least str's len
     // + 1
     protected void writeFixedLengthString(String str, int offset, int length) {
-        byte[] translated = translateString(str);
-        int len = Math.min(translated.length, length);
-        System.arraycopy(translated, 0, rom, offset, len);
+        if (translateBuffer.length < str.length()) {
+            translateBuffer = new byte[Math.max(str.length(), translateBuffer.length * 2)];
+        }
+        int len = Math.min(textTable.encode(str, translateBuffer, 0), length);
+        System.arraycopy(translateBuffer, 0, rom, offset, len);
         while (len < length) {
             rom[offset + len] = GBConstants.stringTerminator;
             len++;
@@ -134,10 +99,9 @@ public abstract class AbstractGBCRomHandler extends AbstractGBRomHandler {
     }
 
     protected void writeVariableLengthString(String str, int offset, boolean alreadyTerminated) {
-        byte[] translated = translateString(str);
-        System.arraycopy(translated, 0, rom, offset, translated.length);
+        int len = textTable.encode(str, rom, offset);
         if (!alreadyTerminated) {
-            rom[offset + translated.length] = GBConstants.stringTerminator;
+            rom[offset + len] = GBConstants.stringTerminator;
         }
     }
 
@@ -60,8 +60,15 @@ public abstract class AbstractGBRomHandler extends AbstractRomHandler {
         return loadedFN;
     }
 
+    // Called on a new handler by fork() to take over a copy of base's ROM.
+    protected void forkFrom(AbstractGBRomHandler base) {
+        this.rom = base.rom.clone();
+        this.loadedFN = base.loadedFN;
+    }
+
     @Override
     public boolean saveRom(String filename) {
+        writeBackAll();
         savingRom();
         try {
             FileOutputStream fos = new FileOutputStream(filename);
@@ -118,21 +125,6 @@ public abstract class AbstractGBRomHandler extends AbstractRomHandler {
         }
     }
 
-    protected void readByteIntoFlags(boolean[] flags, int offsetIntoFlags, int offsetIntoROM) {
-        int thisByte = rom[offsetIntoROM] & 0xFF;
-        for (int i = 0; i < 8 && (i + offsetIntoFlags) < flags.length; i++) {
-            flags[offsetIntoFlags + i] = ((thisByte >> i) & 0x01) == 0x01;
-        }
-    }
-
-    protected byte getByteFromFlags(boolean[] flags, int offsetIntoFlags) {
-        int thisByte = 0;
-        for (int i = 0; i < 8 && (i + offsetIntoFlags) < flags.length; i++) {
-            thisByte |= (flags[offsetIntoFlags + i] ? 1 : 0) << i;
-        }
-        return (byte) thisByte;
-    }
-
     protected int readWord(int offset) {
         return readWord(rom, offset);
     }
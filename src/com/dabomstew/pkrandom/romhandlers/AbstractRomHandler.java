@@ -32,12 +32,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
 import java.util.Stack;
@@ -45,22 +46,27 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 
 import com.dabomstew.pkrandom.CustomNamesSet;
+import com.dabomstew.pkrandom.LoadPlan;
 import com.dabomstew.pkrandom.MiscTweak;
 import com.dabomstew.pkrandom.RomFunctions;
+import com.dabomstew.pkrandom.SpoilerLog;
 import com.dabomstew.pkrandom.constants.GlobalConstants;
 import com.dabomstew.pkrandom.exceptions.RandomizationException;
+import com.dabomstew.pkrandom.pokemon.CompatibilityMatrix;
 import com.dabomstew.pkrandom.pokemon.Encounter;
 import com.dabomstew.pkrandom.pokemon.EncounterSet;
 import com.dabomstew.pkrandom.pokemon.Evolution;
-import com.dabomstew.pkrandom.pokemon.EvolutionType;
+import com.dabomstew.pkrandom.pokemon.EvolutionGraph;
 import com.dabomstew.pkrandom.pokemon.ExpCurve;
 import com.dabomstew.pkrandom.pokemon.GenRestrictions;
 import com.dabomstew.pkrandom.pokemon.IngameTrade;
 import com.dabomstew.pkrandom.pokemon.ItemList;
 import com.dabomstew.pkrandom.pokemon.Move;
 import com.dabomstew.pkrandom.pokemon.MoveCategory;
-import com.dabomstew.pkrandom.pokemon.MoveLearnt;
+import com.dabomstew.pkrandom.pokemon.Movesets;
 import com.dabomstew.pkrandom.pokemon.Pokemon;
+import com.dabomstew.pkrandom.pokemon.PokemonPool;
+import com.dabomstew.pkrandom.pokemon.PowerLevelIndex;
 import com.dabomstew.pkrandom.pokemon.Trainer;
 import com.dabomstew.pkrandom.pokemon.TrainerPokemon;
 import com.dabomstew.pkrandom.pokemon.Type;
@@ -69,9 +75,10 @@ public abstract class AbstractRomHandler implements RomHandler {
 
     private boolean restrictionsSet;
     protected List<Pokemon> mainPokemonList;
-    protected List<Pokemon> noLegendaryList, onlyLegendaryList;
+    protected PokemonPool mainPokemonPool, noLegendaryPool, onlyLegendaryPool;
     protected final Random random;
     protected PrintStream logStream;
+    protected SpoilerLog spoilerLog;
 
     /* Constructor */
 
@@ -88,8 +95,17 @@ public abstract class AbstractRomHandler implements RomHandler {
         this.logStream = logStream;
     }
 
+    public void setSpoilerLog(SpoilerLog spoilerLog) {
+        this.spoilerLog = spoilerLog;
+    }
+
+    public void preload(LoadPlan plan) {
+        // default: everything is loaded with the ROM
+    }
+
     public void setPokemonPool(GenRestrictions restrictions) {
         restrictionsSet = true;
+        powerLevelIndex = null;
         mainPokemonList = this.allPokemonWithoutNull();
         if (restrictions != null) {
             mainPokemonList = new ArrayList<Pokemon>();
@@ -146,14 +162,15 @@ public abstract class AbstractRomHandler implements RomHandler {
             }
         }
 
-        noLegendaryList = new ArrayList<Pokemon>();
-        onlyLegendaryList = new ArrayList<Pokemon>();
+        mainPokemonPool = new PokemonPool(mainPokemonList);
+        noLegendaryPool = mainPokemonPool.emptyCopy();
+        onlyLegendaryPool = mainPokemonPool.emptyCopy();
 
         for (Pokemon p : mainPokemonList) {
             if (p.isLegendary()) {
-                onlyLegendaryList.add(p);
+                onlyLegendaryPool.add(p);
             } else {
-                noLegendaryList.add(p);
+                noLegendaryPool.add(p);
             }
         }
     }
@@ -194,6 +211,7 @@ public abstract class AbstractRomHandler implements RomHandler {
 
     @Override
     public void shufflePokemonStats(boolean evolutionSanity) {
+        powerLevelIndex = null;
         if (evolutionSanity) {
             copyUpEvolutionsHelper(new BasePokemonAction() {
                 public void applyTo(Pokemon pk) {
@@ -216,6 +234,7 @@ public abstract class AbstractRomHandler implements RomHandler {
 
     @Override
     public void randomizePokemonStats(boolean evolutionSanity) {
+        powerLevelIndex = null;
 
         if (evolutionSanity) {
             copyUpEvolutionsHelper(new BasePokemonAction() {
@@ -240,6 +259,7 @@ public abstract class AbstractRomHandler implements RomHandler {
 
     @Override
     public void updatePokemonStats() {
+        powerLevelIndex = null;
         List<Pokemon> pokes = getPokemon();
 
         // non-special stat gen1 pokemon
@@ -309,19 +329,19 @@ public abstract class AbstractRomHandler implements RomHandler {
 
     public Pokemon randomPokemon() {
         checkPokemonRestrictions();
-        return mainPokemonList.get(this.random.nextInt(mainPokemonList.size()));
+        return mainPokemonPool.random(this.random);
     }
 
     @Override
     public Pokemon randomNonLegendaryPokemon() {
         checkPokemonRestrictions();
-        return noLegendaryList.get(this.random.nextInt(noLegendaryList.size()));
+        return noLegendaryPool.random(this.random);
     }
 
     @Override
     public Pokemon randomLegendaryPokemon() {
         checkPokemonRestrictions();
-        return onlyLegendaryList.get(this.random.nextInt(onlyLegendaryList.size()));
+        return onlyLegendaryPool.random(this.random);
     }
 
     private List<Pokemon> twoEvoPokes;
@@ -562,13 +582,12 @@ public abstract class AbstractRomHandler implements RomHandler {
         // Assume EITHER catch em all OR type themed OR match strength for now
         if (catchEmAll) {
 
-            List<Pokemon> allPokes = noLegendaries ? new ArrayList<Pokemon>(noLegendaryList) : new ArrayList<Pokemon>(
-                    mainPokemonList);
+            PokemonPool allPokes = noLegendaries ? noLegendaryPool.copy() : mainPokemonPool.copy();
             allPokes.removeAll(banned);
             for (EncounterSet area : scrambledEncounters) {
-                List<Pokemon> pickablePokemon = allPokes;
+                PokemonPool pickablePokemon = allPokes;
                 if (area.bannedPokemon.size() > 0) {
-                    pickablePokemon = new ArrayList<Pokemon>(allPokes);
+                    pickablePokemon = allPokes.copy();
                     pickablePokemon.removeAll(area.bannedPokemon);
                 }
                 for (Encounter enc : area.encounters) {
@@ -576,8 +595,7 @@ public abstract class AbstractRomHandler implements RomHandler {
                     if (pickablePokemon.size() == 0) {
                         // Only banned pokes are left, ignore them and pick
                         // something else for now.
-                        List<Pokemon> tempPickable = noLegendaries ? new ArrayList<Pokemon>(noLegendaryList)
-                                : new ArrayList<Pokemon>(mainPokemonList);
+                        PokemonPool tempPickable = noLegendaries ? noLegendaryPool.copy() : mainPokemonPool.copy();
                         tempPickable.removeAll(banned);
                         tempPickable.removeAll(area.bannedPokemon);
                         if (tempPickable.size() == 0) {
@@ -588,14 +606,13 @@ public abstract class AbstractRomHandler implements RomHandler {
                     } else {
                         // Picked this Pokemon, remove it
                         int picked = this.random.nextInt(pickablePokemon.size());
-                        enc.pokemon = pickablePokemon.get(picked);
-                        pickablePokemon.remove(picked);
+                        enc.pokemon = pickablePokemon.remove(picked);
                         if (allPokes != pickablePokemon) {
                             allPokes.remove(enc.pokemon);
                         }
                         if (allPokes.size() == 0) {
                             // Start again
-                            allPokes.addAll(noLegendaries ? noLegendaryList : mainPokemonList);
+                            allPokes.addAll(noLegendaries ? noLegendaryPool : mainPokemonPool);
                             allPokes.removeAll(banned);
                             if (pickablePokemon != allPokes) {
                                 pickablePokemon.addAll(allPokes);
@@ -606,20 +623,20 @@ public abstract class AbstractRomHandler implements RomHandler {
                 }
             }
         } else if (typeThemed) {
-            Map<Type, List<Pokemon>> cachedPokeLists = new TreeMap<Type, List<Pokemon>>();
+            Map<Type, PokemonPool> cachedPokeLists = new TreeMap<Type, PokemonPool>();
             for (EncounterSet area : scrambledEncounters) {
-                List<Pokemon> possiblePokemon = null;
+                PokemonPool possiblePokemon = null;
                 int iterLoops = 0;
                 while (possiblePokemon == null && iterLoops < 10000) {
                     Type areaTheme = randomType();
                     if (!cachedPokeLists.containsKey(areaTheme)) {
-                        List<Pokemon> pType = pokemonOfType(areaTheme, noLegendaries);
+                        PokemonPool pType = pokemonOfType(areaTheme, noLegendaries);
                         pType.removeAll(banned);
                         cachedPokeLists.put(areaTheme, pType);
                     }
                     possiblePokemon = cachedPokeLists.get(areaTheme);
                     if (area.bannedPokemon.size() > 0) {
-                        possiblePokemon = new ArrayList<Pokemon>(possiblePokemon);
+                        possiblePokemon = possiblePokemon.copy();
                         possiblePokemon.removeAll(area.bannedPokemon);
                     }
                     if (possiblePokemon.size() == 0) {
@@ -633,17 +650,16 @@ public abstract class AbstractRomHandler implements RomHandler {
                 }
                 for (Encounter enc : area.encounters) {
                     // Pick a random themed pokemon
-                    enc.pokemon = possiblePokemon.get(this.random.nextInt(possiblePokemon.size()));
+                    enc.pokemon = possiblePokemon.random(this.random);
                 }
             }
         } else if (usePowerLevels) {
-            List<Pokemon> allowedPokes = noLegendaries ? new ArrayList<Pokemon>(noLegendaryList)
-                    : new ArrayList<Pokemon>(mainPokemonList);
+            PokemonPool allowedPokes = noLegendaries ? noLegendaryPool.copy() : mainPokemonPool.copy();
             allowedPokes.removeAll(banned);
             for (EncounterSet area : scrambledEncounters) {
-                List<Pokemon> localAllowed = allowedPokes;
+                PokemonPool localAllowed = allowedPokes;
                 if (area.bannedPokemon.size() > 0) {
-                    localAllowed = new ArrayList<Pokemon>(allowedPokes);
+                    localAllowed = allowedPokes.copy();
                     localAllowed.removeAll(area.bannedPokemon);
                 }
                 for (Encounter enc : area.encounters) {
@@ -680,24 +696,22 @@ public abstract class AbstractRomHandler implements RomHandler {
 
         // Assume EITHER catch em all OR type themed for now
         if (catchEmAll) {
-            List<Pokemon> allPokes = noLegendaries ? new ArrayList<Pokemon>(noLegendaryList) : new ArrayList<Pokemon>(
-                    mainPokemonList);
+            PokemonPool allPokes = noLegendaries ? noLegendaryPool.copy() : mainPokemonPool.copy();
             allPokes.removeAll(banned);
             for (EncounterSet area : scrambledEncounters) {
                 // Poke-set
                 Set<Pokemon> inArea = pokemonInArea(area);
                 // Build area map using catch em all
                 Map<Pokemon, Pokemon> areaMap = new TreeMap<Pokemon, Pokemon>();
-                List<Pokemon> pickablePokemon = allPokes;
+                PokemonPool pickablePokemon = allPokes;
                 if (area.bannedPokemon.size() > 0) {
-                    pickablePokemon = new ArrayList<Pokemon>(allPokes);
+                    pickablePokemon = allPokes.copy();
                     pickablePokemon.removeAll(area.bannedPokemon);
                 }
                 for (Pokemon areaPk : inArea) {
                     if (pickablePokemon.size() == 0) {
                         // No more pickable pokes left, take a random one
-                        List<Pokemon> tempPickable = noLegendaries ? new ArrayList<Pokemon>(noLegendaryList)
-                                : new ArrayList<Pokemon>(mainPokemonList);
+                        PokemonPool tempPickable = noLegendaries ? noLegendaryPool.copy() : mainPokemonPool.copy();
                         tempPickable.removeAll(banned);
                         tempPickable.removeAll(area.bannedPokemon);
                         if (tempPickable.size() == 0) {
@@ -716,7 +730,7 @@ public abstract class AbstractRomHandler implements RomHandler {
                         }
                         if (allPokes.size() == 0) {
                             // Start again
-                            allPokes.addAll(noLegendaries ? noLegendaryList : mainPokemonList);
+                            allPokes.addAll(noLegendaries ? noLegendaryPool : mainPokemonPool);
                             allPokes.removeAll(banned);
                             if (pickablePokemon != allPokes) {
                                 pickablePokemon.addAll(allPokes);
@@ -731,20 +745,20 @@ public abstract class AbstractRomHandler implements RomHandler {
                 }
             }
         } else if (typeThemed) {
-            Map<Type, List<Pokemon>> cachedPokeLists = new TreeMap<Type, List<Pokemon>>();
+            Map<Type, PokemonPool> cachedPokeLists = new TreeMap<Type, PokemonPool>();
             for (EncounterSet area : scrambledEncounters) {
                 // Poke-set
                 Set<Pokemon> inArea = pokemonInArea(area);
-                List<Pokemon> possiblePokemon = null;
+                PokemonPool possiblePokemon = null;
                 int iterLoops = 0;
                 while (possiblePokemon == null && iterLoops < 10000) {
                     Type areaTheme = randomType();
                     if (!cachedPokeLists.containsKey(areaTheme)) {
-                        List<Pokemon> pType = pokemonOfType(areaTheme, noLegendaries);
+                        PokemonPool pType = pokemonOfType(areaTheme, noLegendaries);
                         pType.removeAll(banned);
                         cachedPokeLists.put(areaTheme, pType);
                     }
-                    possiblePokemon = new ArrayList<Pokemon>(cachedPokeLists.get(areaTheme));
+                    possiblePokemon = cachedPokeLists.get(areaTheme).copy();
                     if (area.bannedPokemon.size() > 0) {
                         possiblePokemon.removeAll(area.bannedPokemon);
                     }
@@ -762,9 +776,8 @@ public abstract class AbstractRomHandler implements RomHandler {
                 Map<Pokemon, Pokemon> areaMap = new TreeMap<Pokemon, Pokemon>();
                 for (Pokemon areaPk : inArea) {
                     int picked = this.random.nextInt(possiblePokemon.size());
-                    Pokemon pickedMN = possiblePokemon.get(picked);
+                    Pokemon pickedMN = possiblePokemon.remove(picked);
                     areaMap.put(areaPk, pickedMN);
-                    possiblePokemon.remove(picked);
                 }
                 for (Encounter enc : area.encounters) {
                     // Apply the map
@@ -772,18 +785,17 @@ public abstract class AbstractRomHandler implements RomHandler {
                 }
             }
         } else if (usePowerLevels) {
-            List<Pokemon> allowedPokes = noLegendaries ? new ArrayList<Pokemon>(noLegendaryList)
-                    : new ArrayList<Pokemon>(mainPokemonList);
+            PokemonPool allowedPokes = noLegendaries ? noLegendaryPool.copy() : mainPokemonPool.copy();
             allowedPokes.removeAll(banned);
             for (EncounterSet area : scrambledEncounters) {
                 // Poke-set
                 Set<Pokemon> inArea = pokemonInArea(area);
                 // Build area map using randoms
                 Map<Pokemon, Pokemon> areaMap = new TreeMap<Pokemon, Pokemon>();
-                List<Pokemon> usedPks = new ArrayList<Pokemon>();
-                List<Pokemon> localAllowed = allowedPokes;
+                PokemonPool usedPks = allowedPokes.emptyCopy();
+                PokemonPool localAllowed = allowedPokes;
                 if (area.bannedPokemon.size() > 0) {
-                    localAllowed = new ArrayList<Pokemon>(allowedPokes);
+                    localAllowed = allowedPokes.copy();
                     localAllowed.removeAll(area.bannedPokemon);
                 }
                 for (Pokemon areaPk : inArea) {
@@ -828,8 +840,7 @@ public abstract class AbstractRomHandler implements RomHandler {
         // Build the full 1-to-1 map
         Map<Pokemon, Pokemon> translateMap = new TreeMap<Pokemon, Pokemon>();
         List<Pokemon> remainingLeft = allPokemonWithoutNull();
-        List<Pokemon> remainingRight = noLegendaries ? new ArrayList<Pokemon>(noLegendaryList)
-                : new ArrayList<Pokemon>(mainPokemonList);
+        PokemonPool remainingRight = noLegendaries ? noLegendaryPool.copy() : mainPokemonPool.copy();
         List<Pokemon> banned = this.bannedForWildEncounters();
         // Banned pokemon should be mapped to themselves
         for (Pokemon bannedPK : banned) {
@@ -861,12 +872,12 @@ public abstract class AbstractRomHandler implements RomHandler {
                     pickedRight = this.random.nextInt(remainingRight.size());
                     pickedRightP = remainingRight.get(pickedRight);
                 }
-                remainingRight.remove(pickedRight);
+                remainingRight.remove(pickedRightP);
                 translateMap.put(pickedLeftP, pickedRightP);
             }
             if (remainingRight.size() == 0) {
                 // restart
-                remainingRight.addAll(noLegendaries ? noLegendaryList : mainPokemonList);
+                remainingRight.addAll(noLegendaries ? noLegendaryPool : mainPokemonPool);
                 remainingRight.removeAll(banned);
             }
         }
@@ -887,8 +898,7 @@ public abstract class AbstractRomHandler implements RomHandler {
                 enc.pokemon = translateMap.get(enc.pokemon);
                 if (area.bannedPokemon.contains(enc.pokemon)) {
                     // Ignore the map and put a random non-banned poke
-                    List<Pokemon> tempPickable = noLegendaries ? new ArrayList<Pokemon>(noLegendaryList)
-                            : new ArrayList<Pokemon>(mainPokemonList);
+                    PokemonPool tempPickable = noLegendaries ? noLegendaryPool.copy() : mainPokemonPool.copy();
                     tempPickable.removeAll(banned);
                     tempPickable.removeAll(area.bannedPokemon);
                     if (tempPickable.size() == 0) {
@@ -920,9 +930,8 @@ public abstract class AbstractRomHandler implements RomHandler {
         List<Trainer> scrambledTrainers = new ArrayList<Trainer>(currentTrainers);
         Collections.shuffle(scrambledTrainers, this.random);
 
-        cachedReplacementLists = new TreeMap<Type, List<Pokemon>>();
-        cachedAllList = noLegendaries ? new ArrayList<Pokemon>(noLegendaryList) : new ArrayList<Pokemon>(
-                mainPokemonList);
+        cachedReplacementLists = new TreeMap<Type, PokemonPool>();
+        cachedAllList = noLegendaries ? noLegendaryPool.copy() : mainPokemonPool.copy();
 
         // Fully random is easy enough - randomize then worry about rival
         // carrying starter at the end
@@ -949,9 +958,8 @@ public abstract class AbstractRomHandler implements RomHandler {
             boolean noEarlyWonderGuard, int levelModifier) {
         checkPokemonRestrictions();
         List<Trainer> currentTrainers = this.getTrainers();
-        cachedReplacementLists = new TreeMap<Type, List<Pokemon>>();
-        cachedAllList = noLegendaries ? new ArrayList<Pokemon>(noLegendaryList) : new ArrayList<Pokemon>(
-                mainPokemonList);
+        cachedReplacementLists = new TreeMap<Type, PokemonPool>();
+        cachedAllList = noLegendaries ? noLegendaryPool.copy() : mainPokemonPool.copy();
         typeWeightings = new TreeMap<Type, Integer>();
         totalTypeWeighting = 0;
 
@@ -1630,7 +1638,7 @@ public abstract class AbstractRomHandler implements RomHandler {
     public void randomizeMovesLearnt(boolean typeThemed, boolean noBroken, boolean forceFourStartingMoves,
             double goodDamagingProbability) {
         // Get current sets
-        Map<Pokemon, List<MoveLearnt>> movesets = this.getMovesLearnt();
+        Movesets movesets = this.getMovesLearnt();
         List<Integer> hms = this.getHMMoves();
         List<Move> allMoves = this.getMoves();
 
@@ -1670,24 +1678,21 @@ public abstract class AbstractRomHandler implements RomHandler {
             }
         }
 
-        for (Pokemon pkmn : movesets.keySet()) {
+        for (int row = 0; row < movesets.size(); row++) {
+            Pokemon pkmn = movesets.getPokemon(row);
             Set<Integer> learnt = new TreeSet<Integer>();
-            List<MoveLearnt> moves = movesets.get(pkmn);
 
             // 4 starting moves?
             if (forceFourStartingMoves) {
                 int lv1count = 0;
-                for (MoveLearnt ml : moves) {
-                    if (ml.level == 1) {
+                for (int i = 0; i < movesets.count(row); i++) {
+                    if (movesets.getLevel(row, i) == 1) {
                         lv1count++;
                     }
                 }
                 if (lv1count < 4) {
                     for (int i = 0; i < 4 - lv1count; i++) {
-                        MoveLearnt fakeLv1 = new MoveLearnt();
-                        fakeLv1.level = 1;
-                        fakeLv1.move = 0;
-                        moves.add(0, fakeLv1);
+                        movesets.insert(row, 0, 1, 0);
                     }
                 }
             }
@@ -1695,7 +1700,7 @@ public abstract class AbstractRomHandler implements RomHandler {
             // Find last lv1 move
             // lv1index ends up as the index of the first non-lv1 move
             int lv1index = 0;
-            while (lv1index < moves.size() && moves.get(lv1index).level == 1) {
+            while (lv1index < movesets.count(row) && movesets.getLevel(row, lv1index) == 1) {
                 lv1index++;
             }
 
@@ -1705,7 +1710,7 @@ public abstract class AbstractRomHandler implements RomHandler {
             }
 
             // Replace moves as needed
-            for (int i = 0; i < moves.size(); i++) {
+            for (int i = 0; i < movesets.count(row); i++) {
                 // should this move be forced damaging?
                 boolean attemptDamaging = i == lv1index ? true : random.nextDouble() < goodDamagingProbability;
 
@@ -1783,10 +1788,10 @@ public abstract class AbstractRomHandler implements RomHandler {
                 }
 
                 // write it
-                moves.get(i).move = mv.number;
+                movesets.setMove(row, i, mv.number);
                 if (i == lv1index) {
                     // just in case, set this to lv1
-                    moves.get(i).level = 1;
+                    movesets.setLevel(row, i, 1);
                 }
                 learnt.add(mv.number);
 
@@ -1799,16 +1804,15 @@ public abstract class AbstractRomHandler implements RomHandler {
 
     @Override
     public void orderDamagingMovesByDamage() {
-        Map<Pokemon, List<MoveLearnt>> movesets = this.getMovesLearnt();
+        Movesets movesets = this.getMovesLearnt();
         List<Move> allMoves = this.getMoves();
-        for (Pokemon pkmn : movesets.keySet()) {
-            List<MoveLearnt> moves = movesets.get(pkmn);
+        for (int row = 0; row < movesets.size(); row++) {
 
             // Build up a list of damaging moves and their positions
             List<Integer> damagingMoveIndices = new ArrayList<Integer>();
             List<Move> damagingMoves = new ArrayList<Move>();
-            for (int i = 0; i < moves.size(); i++) {
-                Move mv = allMoves.get(moves.get(i).move);
+            for (int i = 0; i < movesets.count(row); i++) {
+                Move mv = allMoves.get(movesets.getMove(row, i));
                 if (mv.power > 1) {
                     // considered a damaging move for this purpose
                     damagingMoveIndices.add(i);
@@ -1837,7 +1841,7 @@ public abstract class AbstractRomHandler implements RomHandler {
 
             // Reassign damaging moves in the ordered positions
             for (int i = 0; i < damagingMoves.size(); i++) {
-                moves.get(damagingMoveIndices.get(i)).move = damagingMoves.get(i).number;
+                movesets.setMove(row, damagingMoveIndices.get(i), damagingMoves.get(i).number);
             }
         }
 
@@ -1849,16 +1853,12 @@ public abstract class AbstractRomHandler implements RomHandler {
     public void metronomeOnlyMode() {
 
         // movesets
-        Map<Pokemon, List<MoveLearnt>> movesets = this.getMovesLearnt();
-
-        MoveLearnt metronomeML = new MoveLearnt();
-        metronomeML.level = 1;
-        metronomeML.move = GlobalConstants.METRONOME_MOVE;
+        Movesets movesets = this.getMovesLearnt();
 
-        for (List<MoveLearnt> ms : movesets.values()) {
-            if (ms != null && ms.size() > 0) {
-                ms.clear();
-                ms.add(metronomeML);
+        for (int row = 0; row < movesets.size(); row++) {
+            if (movesets.count(row) > 0) {
+                movesets.clear(row);
+                movesets.add(row, 1, GlobalConstants.METRONOME_MOVE);
             }
         }
 
@@ -1920,8 +1920,8 @@ public abstract class AbstractRomHandler implements RomHandler {
         List<Pokemon> banned = this.bannedForStaticPokemon();
 
         if (legendForLegend) {
-            List<Pokemon> legendariesLeft = new ArrayList<Pokemon>(onlyLegendaryList);
-            List<Pokemon> nonlegsLeft = new ArrayList<Pokemon>(noLegendaryList);
+            PokemonPool legendariesLeft = onlyLegendaryPool.copy();
+            PokemonPool nonlegsLeft = noLegendaryPool.copy();
             legendariesLeft.removeAll(banned);
             nonlegsLeft.removeAll(banned);
             for (int i = 0; i < currentStaticPokemon.size(); i++) {
@@ -1930,25 +1930,25 @@ public abstract class AbstractRomHandler implements RomHandler {
                 if (old.isLegendary()) {
                     newPK = legendariesLeft.remove(this.random.nextInt(legendariesLeft.size()));
                     if (legendariesLeft.size() == 0) {
-                        legendariesLeft.addAll(onlyLegendaryList);
+                        legendariesLeft.addAll(onlyLegendaryPool);
                         legendariesLeft.removeAll(banned);
                     }
                 } else {
                     newPK = nonlegsLeft.remove(this.random.nextInt(nonlegsLeft.size()));
                     if (nonlegsLeft.size() == 0) {
-                        nonlegsLeft.addAll(noLegendaryList);
+                        nonlegsLeft.addAll(noLegendaryPool);
                         nonlegsLeft.removeAll(banned);
                     }
                 }
                 replacements.add(newPK);
             }
         } else {
-            List<Pokemon> pokemonLeft = new ArrayList<Pokemon>(mainPokemonList);
+            PokemonPool pokemonLeft = mainPokemonPool.copy();
             pokemonLeft.removeAll(banned);
             for (int i = 0; i < currentStaticPokemon.size(); i++) {
                 Pokemon newPK = pokemonLeft.remove(this.random.nextInt(pokemonLeft.size()));
                 if (pokemonLeft.size() == 0) {
-                    pokemonLeft.addAll(mainPokemonList);
+                    pokemonLeft.addAll(mainPokemonPool);
                     pokemonLeft.removeAll(banned);
                 }
                 replacements.add(newPK);
@@ -2038,32 +2038,28 @@ public abstract class AbstractRomHandler implements RomHandler {
         // Get current compatibility
         // new: increase HM chances if required early on
         List<Integer> requiredEarlyOn = this.getEarlyRequiredHMMoves();
-        Map<Pokemon, boolean[]> compat = this.getTMHMCompatibility();
+        CompatibilityMatrix compat = this.getTMHMCompatibility();
         List<Integer> tmHMs = new ArrayList<Integer>(this.getTMMoves());
         tmHMs.addAll(this.getHMMoves());
         List<Move> moveData = this.getMoves();
-        for (Map.Entry<Pokemon, boolean[]> compatEntry : compat.entrySet()) {
-            Pokemon pkmn = compatEntry.getKey();
-            boolean[] flags = compatEntry.getValue();
+        Move[] machineMoves = new Move[tmHMs.size() + 1];
+        boolean[] requiredEarly = new boolean[tmHMs.size() + 1];
+        for (int i = 1; i <= tmHMs.size(); i++) {
+            int move = tmHMs.get(i - 1);
+            machineMoves[i] = moveData.get(move);
+            requiredEarly[i] = requiredEarlyOn.contains(move);
+        }
+        double[] probabilities = new double[tmHMs.size() + 1];
+        for (int row = 0; row < compat.size(); row++) {
+            Pokemon pkmn = compat.getPokemon(row);
             for (int i = 1; i <= tmHMs.size(); i++) {
-                int move = tmHMs.get(i - 1);
-                Move mv = moveData.get(move);
-                double probability = 0.5;
-                if (preferSameType) {
-                    if (pkmn.primaryType.equals(mv.type)
-                            || (pkmn.secondaryType != null && pkmn.secondaryType.equals(mv.type))) {
-                        probability = 0.9;
-                    } else if (mv.type != null && mv.type.equals(Type.NORMAL)) {
-                        probability = 0.5;
-                    } else {
-                        probability = 0.25;
-                    }
-                }
-                if (requiredEarlyOn.contains(move)) {
+                double probability = compatProbability(pkmn, machineMoves[i], preferSameType);
+                if (requiredEarly[i]) {
                     probability = Math.min(1.0, probability * 1.8);
                 }
-                flags[i] = (this.random.nextDouble() < probability);
+                probabilities[i] = probability;
             }
+            compat.randomizeRow(row, probabilities, this.random);
         }
 
         // Set the new compatibility
@@ -2072,13 +2068,8 @@ public abstract class AbstractRomHandler implements RomHandler {
 
     @Override
     public void fullTMHMCompatibility() {
-        Map<Pokemon, boolean[]> compat = this.getTMHMCompatibility();
-        for (Map.Entry<Pokemon, boolean[]> compatEntry : compat.entrySet()) {
-            boolean[] flags = compatEntry.getValue();
-            for (int i = 1; i < flags.length; i++) {
-                flags[i] = true;
-            }
-        }
+        CompatibilityMatrix compat = this.getTMHMCompatibility();
+        compat.fillAll();
         this.setTMHMCompatibility(compat);
     }
 
@@ -2087,16 +2078,15 @@ public abstract class AbstractRomHandler implements RomHandler {
         // if a pokemon learns a move in its moveset
         // and there is a TM of that move, make sure
         // that TM can be learned.
-        Map<Pokemon, boolean[]> compat = this.getTMHMCompatibility();
-        Map<Pokemon, List<MoveLearnt>> movesets = this.getMovesLearnt();
-        List<Integer> tmMoves = this.getTMMoves();
-        for (Pokemon pkmn : compat.keySet()) {
-            List<MoveLearnt> moveset = movesets.get(pkmn);
-            boolean[] pkmnCompat = compat.get(pkmn);
-            for (MoveLearnt ml : moveset) {
-                if (tmMoves.contains(ml.move)) {
-                    int tmIndex = tmMoves.indexOf(ml.move);
-                    pkmnCompat[tmIndex + 1] = true;
+        CompatibilityMatrix compat = this.getTMHMCompatibility();
+        Movesets movesets = this.getMovesLearnt();
+        int[] tmOfMove = machineIndex(this.getTMMoves());
+        for (int row = 0; row < compat.size(); row++) {
+            int msRow = movesets.rowOf(compat.getPokemon(row));
+            for (int i = 0; i < movesets.count(msRow); i++) {
+                int move = movesets.getMove(msRow, i);
+                if (move < tmOfMove.length && tmOfMove[move] > 0) {
+                    compat.setCompatible(row, tmOfMove[move], true);
                 }
             }
         }
@@ -2105,13 +2095,8 @@ public abstract class AbstractRomHandler implements RomHandler {
 
     @Override
     public void fullHMCompatibility() {
-        Map<Pokemon, boolean[]> compat = this.getTMHMCompatibility();
-        int tmCount = this.getTMCount();
-        for (boolean[] flags : compat.values()) {
-            for (int i = tmCount + 1; i < flags.length; i++) {
-                flags[i] = true;
-            }
-        }
+        CompatibilityMatrix compat = this.getTMHMCompatibility();
+        compat.fillMachines(this.getTMCount() + 1, compat.machineCount());
 
         // Set the new compatibility
         this.setTMHMCompatibility(compat);
@@ -2203,28 +2188,16 @@ public abstract class AbstractRomHandler implements RomHandler {
             return;
         }
         // Get current compatibility
-        Map<Pokemon, boolean[]> compat = this.getMoveTutorCompatibility();
+        CompatibilityMatrix compat = this.getMoveTutorCompatibility();
         List<Integer> mts = this.getMoveTutorMoves();
         List<Move> moveData = this.getMoves();
-        for (Map.Entry<Pokemon, boolean[]> compatEntry : compat.entrySet()) {
-            Pokemon pkmn = compatEntry.getKey();
-            boolean[] flags = compatEntry.getValue();
+        double[] probabilities = new double[mts.size() + 1];
+        for (int row = 0; row < compat.size(); row++) {
+            Pokemon pkmn = compat.getPokemon(row);
             for (int i = 1; i <= mts.size(); i++) {
-                int move = mts.get(i - 1);
-                Move mv = moveData.get(move);
-                double probability = 0.5;
-                if (preferSameType) {
-                    if (pkmn.primaryType.equals(mv.type)
-                            || (pkmn.secondaryType != null && pkmn.secondaryType.equals(mv.type))) {
-                        probability = 0.9;
-                    } else if (mv.type != null && mv.type.equals(Type.NORMAL)) {
-                        probability = 0.5;
-                    } else {
-                        probability = 0.25;
-                    }
-                }
-                flags[i] = (this.random.nextDouble() < probability);
+                probabilities[i] = compatProbability(pkmn, moveData.get(mts.get(i - 1)), preferSameType);
             }
+            compat.randomizeRow(row, probabilities, this.random);
         }
 
         // Set the new compatibility
@@ -2237,13 +2210,8 @@ public abstract class AbstractRomHandler implements RomHandler {
         if (!this.hasMoveTutors()) {
             return;
         }
-        Map<Pokemon, boolean[]> compat = this.getMoveTutorCompatibility();
-        for (Map.Entry<Pokemon, boolean[]> compatEntry : compat.entrySet()) {
-            boolean[] flags = compatEntry.getValue();
-            for (int i = 1; i < flags.length; i++) {
-                flags[i] = true;
-            }
-        }
+        CompatibilityMatrix compat = this.getMoveTutorCompatibility();
+        compat.fillAll();
         this.setMoveTutorCompatibility(compat);
     }
 
@@ -2255,16 +2223,15 @@ public abstract class AbstractRomHandler implements RomHandler {
         // if a pokemon learns a move in its moveset
         // and there is a tutor of that move, make sure
         // that tutor can be learned.
-        Map<Pokemon, boolean[]> compat = this.getMoveTutorCompatibility();
-        Map<Pokemon, List<MoveLearnt>> movesets = this.getMovesLearnt();
-        List<Integer> mtMoves = this.getMoveTutorMoves();
-        for (Pokemon pkmn : compat.keySet()) {
-            List<MoveLearnt> moveset = movesets.get(pkmn);
-            boolean[] pkmnCompat = compat.get(pkmn);
-            for (MoveLearnt ml : moveset) {
-                if (mtMoves.contains(ml.move)) {
-                    int mtIndex = mtMoves.indexOf(ml.move);
-                    pkmnCompat[mtIndex + 1] = true;
+        CompatibilityMatrix compat = this.getMoveTutorCompatibility();
+        Movesets movesets = this.getMovesLearnt();
+        int[] tutorOfMove = machineIndex(this.getMoveTutorMoves());
+        for (int row = 0; row < compat.size(); row++) {
+            int msRow = movesets.rowOf(compat.getPokemon(row));
+            for (int i = 0; i < movesets.count(msRow); i++) {
+                int move = movesets.getMove(msRow, i);
+                if (move < tutorOfMove.length && tutorOfMove[move] > 0) {
+                    compat.setCompatible(row, tutorOfMove[move], true);
                 }
             }
         }
@@ -2278,6 +2245,9 @@ public abstract class AbstractRomHandler implements RomHandler {
         if (!this.canChangeTrainerText()) {
             return;
         }
+        // some games keep trainer names in with their Pokemon, so the trainers
+        // go back first and are read again with their new names
+        writeBack(Model.TRAINERS);
 
         // index 0 = singles, 1 = doubles
         List<String>[] allTrainerNames = new List[] { new ArrayList<String>(), new ArrayList<String>() };
@@ -2401,6 +2371,8 @@ public abstract class AbstractRomHandler implements RomHandler {
         if (!this.canChangeTrainerText()) {
             return;
         }
+        // the trainers' display names have their class names in them
+        writeBack(Model.TRAINERS);
 
         // index 0 = singles, index 1 = doubles
         List<String> allTrainerClasses[] = new List[] { new ArrayList<String>(), new ArrayList<String>() };
@@ -2786,15 +2758,9 @@ public abstract class AbstractRomHandler implements RomHandler {
             originalEvos.put(pk, new ArrayList<Evolution>(pk.evolutionsFrom));
         }
 
-        Set<EvolutionPair> newEvoPairs = new HashSet<EvolutionPair>();
-        Set<EvolutionPair> oldEvoPairs = new HashSet<EvolutionPair>();
-
-        if (forceChange) {
-            for (Pokemon pk : pokemonPool) {
-                for (Evolution ev : pk.evolutionsFrom) {
-                    oldEvoPairs.add(new EvolutionPair(ev.from, ev.to));
-                }
-            }
+        int highestNumber = 0;
+        for (Pokemon pk : pokemonPool) {
+            highestNumber = Math.max(highestNumber, pk.number);
         }
 
         List<Pokemon> replacements = new ArrayList<Pokemon>();
@@ -2803,11 +2769,14 @@ public abstract class AbstractRomHandler implements RomHandler {
         while (loops < 1) {
             // Setup for this loop.
             boolean hadError = false;
+            EvolutionGraph newEvos = new EvolutionGraph(highestNumber, stageLimit);
             for (Pokemon pk : pokemonPool) {
                 pk.evolutionsFrom.clear();
                 pk.evolutionsTo.clear();
+                if (originalEvos.get(pk).size() > 0) {
+                    newEvos.setWillEvolve(pk);
+                }
             }
-            newEvoPairs.clear();
 
             // Shuffle pokemon list so the results aren't overly predictable.
             Collections.shuffle(pokemonPool, this.random);
@@ -2830,47 +2799,24 @@ public abstract class AbstractRomHandler implements RomHandler {
                             continue;
                         }
 
-                        EvolutionPair ep = new EvolutionPair(fromPK, pk);
                         // Prevent split evos choosing the same Pokemon
                         // (mandatory)
-                        if (newEvoPairs.contains(ep)) {
+                        if (newEvos.hasEvolution(fromPK, pk)) {
                             continue;
                         }
 
                         // Prevent evolving into old thing if flagged
-                        if (forceChange && oldEvoPairs.contains(ep)) {
+                        if (forceChange && evolvesInto(oldEvos, pk)) {
                             continue;
                         }
 
                         // Prevent evolution that causes cycle (mandatory)
-                        if (evoCycleCheck(fromPK, pk)) {
+                        if (newEvos.wouldCycle(fromPK, pk)) {
                             continue;
                         }
 
                         // Prevent evolution that exceeds stage limit
-                        Evolution tempEvo = new Evolution(fromPK, pk, false, EvolutionType.NONE, 0);
-                        fromPK.evolutionsFrom.add(tempEvo);
-                        pk.evolutionsTo.add(tempEvo);
-                        boolean exceededLimit = false;
-
-                        Set<Pokemon> related = relatedPokemon(fromPK);
-
-                        for (Pokemon pk2 : related) {
-                            int numPreEvos = numPreEvolutions(pk2, stageLimit);
-                            if (numPreEvos >= stageLimit) {
-                                exceededLimit = true;
-                                break;
-                            } else if (numPreEvos == stageLimit - 1 && pk2.evolutionsFrom.size() == 0
-                                    && originalEvos.get(pk2).size() > 0) {
-                                exceededLimit = true;
-                                break;
-                            }
-                        }
-
-                        fromPK.evolutionsFrom.remove(tempEvo);
-                        pk.evolutionsTo.remove(tempEvo);
-
-                        if (exceededLimit) {
+                        if (newEvos.wouldExceedStages(fromPK, pk)) {
                             continue;
                         }
 
@@ -2919,7 +2865,7 @@ public abstract class AbstractRomHandler implements RomHandler {
                     Evolution newEvo = new Evolution(fromPK, picked, ev.carryStats, ev.type, ev.extraInfo);
                     fromPK.evolutionsFrom.add(newEvo);
                     picked.evolutionsTo.add(newEvo);
-                    newEvoPairs.add(new EvolutionPair(fromPK, picked));
+                    newEvos.addEvolution(fromPK, picked);
                 }
 
                 if (hadError) {
@@ -2964,8 +2910,316 @@ public abstract class AbstractRomHandler implements RomHandler {
         }
     }
 
+    /* Cached domain models */
+
+    // Trainers, movesets, wild encounters, TM/HM and tutor compatibility and
+    // in-game trades are each parsed from the ROM once, when they're first
+    // asked for. The getters hand out a copy of the cached model and the
+    // setters only replace it and mark it dirty; dirty models are written to
+    // the ROM once, by writeBackAll() when the ROM is saved.
+    //
+    // A handler whose writer for a model can't be put off (it allocates ROM
+    // space, or rewrites data that's also written in between) says so in
+    // writesBack(), and that model's setter writes straight through instead.
+    // Anything that writes a model's bytes itself calls writeBack(model)
+    // first, so the cached model is written out before and re-read after.
+
+    protected enum Model {
+        TRAINERS, MOVESETS, ENCOUNTERS, TMHM_COMPATIBILITY, MOVE_TUTOR_COMPATIBILITY, INGAME_TRADES
+    }
+
+    private List<Trainer> trainersModel;
+    private Movesets movesetsModel;
+    private List<EncounterSet> encountersModel;
+    private boolean encountersModelUseTimeOfDay;
+    private CompatibilityMatrix tmhmCompatibilityModel;
+    private CompatibilityMatrix moveTutorCompatibilityModel;
+    private List<IngameTrade> ingameTradesModel;
+    private final Set<Model> dirtyModels = EnumSet.noneOf(Model.class);
+
+    protected abstract List<Trainer> readTrainers();
+
+    protected abstract void writeTrainers(List<Trainer> trainerData);
+
+    protected abstract Movesets readMovesLearnt();
+
+    protected abstract void writeMovesLearnt(Movesets movesets);
+
+    protected abstract List<EncounterSet> readEncounters(boolean useTimeOfDay);
+
+    protected abstract void writeEncounters(boolean useTimeOfDay, List<EncounterSet> encounters);
+
+    protected abstract CompatibilityMatrix readTMHMCompatibility();
+
+    protected abstract void writeTMHMCompatibility(CompatibilityMatrix compatData);
+
+    protected abstract CompatibilityMatrix readMoveTutorCompatibility();
+
+    protected abstract void writeMoveTutorCompatibility(CompatibilityMatrix compatData);
+
+    protected abstract List<IngameTrade> readIngameTrades();
+
+    protected abstract void writeIngameTrades(List<IngameTrade> trades);
+
+    @Override
+    public List<Trainer> getTrainers() {
+        if (trainersModel == null) {
+            trainersModel = readTrainers();
+        }
+        return copyTrainers(trainersModel);
+    }
+
+    @Override
+    public void setTrainers(List<Trainer> trainerData) {
+        trainersModel = copyTrainers(trainerData);
+        modelChanged(Model.TRAINERS);
+    }
+
+    @Override
+    public Movesets getMovesLearnt() {
+        if (movesetsModel == null) {
+            movesetsModel = readMovesLearnt();
+        }
+        return new Movesets(movesetsModel);
+    }
+
+    @Override
+    public void setMovesLearnt(Movesets movesets) {
+        // trainer Pokemon whose moves are to be reset get them from the
+        // movesets as they were when the trainers were set
+        writeBack(Model.TRAINERS);
+        movesetsModel = new Movesets(movesets);
+        modelChanged(Model.MOVESETS);
+    }
+
+    @Override
+    public List<EncounterSet> getEncounters(boolean useTimeOfDay) {
+        if (encountersModel != null && encountersModelUseTimeOfDay != useTimeOfDay) {
+            writeBack(Model.ENCOUNTERS);
+        }
+        if (encountersModel == null) {
+            encountersModel = readEncounters(useTimeOfDay);
+            encountersModelUseTimeOfDay = useTimeOfDay;
+        }
+        return copyEncounters(encountersModel);
+    }
+
+    @Override
+    public void setEncounters(boolean useTimeOfDay, List<EncounterSet> encounters) {
+        if (encountersModel != null && encountersModelUseTimeOfDay != useTimeOfDay) {
+            writeBack(Model.ENCOUNTERS);
+        }
+        encountersModel = copyEncounters(encounters);
+        encountersModelUseTimeOfDay = useTimeOfDay;
+        modelChanged(Model.ENCOUNTERS);
+    }
+
+    @Override
+    public CompatibilityMatrix getTMHMCompatibility() {
+        if (tmhmCompatibilityModel == null) {
+            tmhmCompatibilityModel = readTMHMCompatibility();
+        }
+        return new CompatibilityMatrix(tmhmCompatibilityModel);
+    }
+
+    @Override
+    public void setTMHMCompatibility(CompatibilityMatrix compatData) {
+        tmhmCompatibilityModel = new CompatibilityMatrix(compatData);
+        modelChanged(Model.TMHM_COMPATIBILITY);
+    }
+
+    @Override
+    public CompatibilityMatrix getMoveTutorCompatibility() {
+        if (moveTutorCompatibilityModel == null) {
+            moveTutorCompatibilityModel = readMoveTutorCompatibility();
+        }
+        return new CompatibilityMatrix(moveTutorCompatibilityModel);
+    }
+
+    @Override
+    public void setMoveTutorCompatibility(CompatibilityMatrix compatData) {
+        moveTutorCompatibilityModel = new CompatibilityMatrix(compatData);
+        modelChanged(Model.MOVE_TUTOR_COMPATIBILITY);
+    }
+
+    @Override
+    public List<IngameTrade> getIngameTrades() {
+        if (ingameTradesModel == null) {
+            ingameTradesModel = readIngameTrades();
+        }
+        return copyIngameTrades(ingameTradesModel);
+    }
+
+    @Override
+    public void setIngameTrades(List<IngameTrade> trades) {
+        ingameTradesModel = copyIngameTrades(trades);
+        modelChanged(Model.INGAME_TRADES);
+    }
+
+    // Whether model's setter may leave the writing to writeBackAll().
+    protected boolean writesBack(Model model) {
+        return true;
+    }
+
+    // Writes model to the ROM if it's dirty, and forgets it either way so
+    // it's read again the next time it's asked for.
+    protected void writeBack(Model model) {
+        if (dirtyModels.remove(model)) {
+            switch (model) {
+            case TRAINERS:
+                writeTrainers(trainersModel);
+                break;
+            case MOVESETS:
+                writeMovesLearnt(movesetsModel);
+                break;
+            case ENCOUNTERS:
+                writeEncounters(encountersModelUseTimeOfDay, encountersModel);
+                break;
+            case TMHM_COMPATIBILITY:
+                writeTMHMCompatibility(tmhmCompatibilityModel);
+                break;
+            case MOVE_TUTOR_COMPATIBILITY:
+                writeMoveTutorCompatibility(moveTutorCompatibilityModel);
+                break;
+            case INGAME_TRADES:
+                writeIngameTrades(ingameTradesModel);
+                break;
+            }
+        }
+        switch (model) {
+        case TRAINERS:
+            trainersModel = null;
+            break;
+        case MOVESETS:
+            movesetsModel = null;
+            break;
+        case ENCOUNTERS:
+            encountersModel = null;
+            break;
+        case TMHM_COMPATIBILITY:
+            tmhmCompatibilityModel = null;
+            break;
+        case MOVE_TUTOR_COMPATIBILITY:
+            moveTutorCompatibilityModel = null;
+            break;
+        case INGAME_TRADES:
+            ingameTradesModel = null;
+            break;
+        }
+    }
+
+    // Called by saveRom before anything else is saved.
+    protected void writeBackAll() {
+        for (Model model : Model.values()) {
+            writeBack(model);
+        }
+    }
+
+    private void modelChanged(Model model) {
+        dirtyModels.add(model);
+        if (!writesBack(model)) {
+            writeBack(model);
+        }
+    }
+
+    private static List<Trainer> copyTrainers(List<Trainer> trainers) {
+        List<Trainer> copies = new ArrayList<Trainer>(trainers.size());
+        for (Trainer tr : trainers) {
+            Trainer copy = new Trainer();
+            copy.offset = tr.offset;
+            for (TrainerPokemon tp : tr.pokemon) {
+                TrainerPokemon tpCopy = new TrainerPokemon();
+                tpCopy.pokemon = tp.pokemon;
+                tpCopy.level = tp.level;
+                tpCopy.move1 = tp.move1;
+                tpCopy.move2 = tp.move2;
+                tpCopy.move3 = tp.move3;
+                tpCopy.move4 = tp.move4;
+                tpCopy.AILevel = tp.AILevel;
+                tpCopy.heldItem = tp.heldItem;
+                tpCopy.ability = tp.ability;
+                tpCopy.resetMoves = tp.resetMoves;
+                copy.pokemon.add(tpCopy);
+            }
+            copy.tag = tr.tag;
+            copy.importantTrainer = tr.importantTrainer;
+            copy.poketype = tr.poketype;
+            copy.name = tr.name;
+            copy.trainerclass = tr.trainerclass;
+            copy.fullDisplayName = tr.fullDisplayName;
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    private static List<EncounterSet> copyEncounters(List<EncounterSet> encounters) {
+        List<EncounterSet> copies = new ArrayList<EncounterSet>(encounters.size());
+        for (EncounterSet es : encounters) {
+            EncounterSet copy = new EncounterSet();
+            copy.rate = es.rate;
+            for (Encounter enc : es.encounters) {
+                Encounter encCopy = new Encounter();
+                encCopy.level = enc.level;
+                encCopy.maxLevel = enc.maxLevel;
+                encCopy.pokemon = enc.pokemon;
+                copy.encounters.add(encCopy);
+            }
+            copy.bannedPokemon.addAll(es.bannedPokemon);
+            copy.displayName = es.displayName;
+            copy.offset = es.offset;
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    private static List<IngameTrade> copyIngameTrades(List<IngameTrade> trades) {
+        List<IngameTrade> copies = new ArrayList<IngameTrade>(trades.size());
+        for (IngameTrade trade : trades) {
+            IngameTrade copy = new IngameTrade();
+            copy.id = trade.id;
+            copy.requestedPokemon = trade.requestedPokemon;
+            copy.givenPokemon = trade.givenPokemon;
+            copy.nickname = trade.nickname;
+            copy.otName = trade.otName;
+            copy.otId = trade.otId;
+            copy.ivs = trade.ivs.clone();
+            copy.item = trade.item;
+            copies.add(copy);
+        }
+        return copies;
+    }
+
     /* Private methods/structs used internally by the above methods */
 
+    private double compatProbability(Pokemon pkmn, Move mv, boolean preferSameType) {
+        double probability = 0.5;
+        if (preferSameType) {
+            if (pkmn.primaryType.equals(mv.type)
+                    || (pkmn.secondaryType != null && pkmn.secondaryType.equals(mv.type))) {
+                probability = 0.9;
+            } else if (mv.type != null && mv.type.equals(Type.NORMAL)) {
+                probability = 0.5;
+            } else {
+                probability = 0.25;
+            }
+        }
+        return probability;
+    }
+
+    // machine number (from 1) teaching each move in machineMoves, or 0; a
+    // move on more than one machine gets the first
+    private static int[] machineIndex(List<Integer> machineMoves) {
+        int highestMove = 0;
+        for (int move : machineMoves) {
+            highestMove = Math.max(highestMove, move);
+        }
+        int[] machineOfMove = new int[highestMove + 1];
+        for (int i = machineMoves.size() - 1; i >= 0; i--) {
+            machineOfMove[machineMoves.get(i)] = i + 1;
+        }
+        return machineOfMove;
+    }
+
     private void updateMovePower(List<Move> moves, int moveNum, int power) {
         Move mv = moves.get(moveNum);
         if (mv.power != power) {
@@ -3009,99 +3263,20 @@ public abstract class AbstractRomHandler implements RomHandler {
     }
 
     private Pokemon pickEvoPowerLvlReplacement(List<Pokemon> pokemonPool, Pokemon current) {
-        // start with within 10% and add 5% either direction till we find
-        // something
-        int currentBST = current.bstForPowerLevels();
-        int minTarget = currentBST - currentBST / 10;
-        int maxTarget = currentBST + currentBST / 10;
-        List<Pokemon> canPick = new ArrayList<Pokemon>();
-        int expandRounds = 0;
-        while (canPick.isEmpty() || (canPick.size() < 3 && expandRounds < 3)) {
-            for (Pokemon pk : pokemonPool) {
-                if (pk.bstForPowerLevels() >= minTarget && pk.bstForPowerLevels() <= maxTarget && !canPick.contains(pk)) {
-                    canPick.add(pk);
-                }
-            }
-            minTarget -= currentBST / 20;
-            maxTarget += currentBST / 20;
-            expandRounds++;
+        // candidates all come from mainPokemonList, in its order
+        PokemonPool allowed = mainPokemonPool.emptyCopy();
+        for (Pokemon pk : pokemonPool) {
+            allowed.add(pk);
         }
-        return canPick.get(this.random.nextInt(canPick.size()));
+        return pickByPowerLevel(allowed, current.bstForPowerLevels(), 3, false, true);
     }
 
-    private static class EvolutionPair {
-        private Pokemon from;
-        private Pokemon to;
-
-        public EvolutionPair(Pokemon from, Pokemon to) {
-            this.from = from;
-            this.to = to;
-        }
-
-        @Override
-        public int hashCode() {
-            final int prime = 31;
-            int result = 1;
-            result = prime * result + ((from == null) ? 0 : from.hashCode());
-            result = prime * result + ((to == null) ? 0 : to.hashCode());
-            return result;
-        }
-
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
+    private static boolean evolvesInto(List<Evolution> evos, Pokemon pk) {
+        for (Evolution ev : evos) {
+            if (ev.to.equals(pk)) {
                 return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            EvolutionPair other = (EvolutionPair) obj;
-            if (from == null) {
-                if (other.from != null)
-                    return false;
-            } else if (!from.equals(other.from))
-                return false;
-            if (to == null) {
-                if (other.to != null)
-                    return false;
-            } else if (!to.equals(other.to))
-                return false;
-            return true;
-        }
-    }
-
-    /**
-     * Check whether adding an evolution from one Pokemon to another will cause
-     * an evolution cycle.
-     * 
-     * @param from
-     * @param to
-     * @param newEvos
-     * @return
-     */
-    private boolean evoCycleCheck(Pokemon from, Pokemon to) {
-        Evolution tempEvo = new Evolution(from, to, false, EvolutionType.NONE, 0);
-        from.evolutionsFrom.add(tempEvo);
-        Set<Pokemon> visited = new HashSet<Pokemon>();
-        Set<Pokemon> recStack = new HashSet<Pokemon>();
-        boolean recur = isCyclic(from, visited, recStack);
-        from.evolutionsFrom.remove(tempEvo);
-        return recur;
-    }
-
-    private boolean isCyclic(Pokemon pk, Set<Pokemon> visited, Set<Pokemon> recStack) {
-        if (!visited.contains(pk)) {
-            visited.add(pk);
-            recStack.add(pk);
-            for (Evolution ev : pk.evolutionsFrom) {
-                if (!visited.contains(ev.to) && isCyclic(ev.to, visited, recStack)) {
-                    return true;
-                } else if (recStack.contains(ev.to)) {
-                    return true;
-                }
             }
         }
-        recStack.remove(pk);
         return false;
     }
 
@@ -3176,8 +3351,8 @@ public abstract class AbstractRomHandler implements RomHandler {
         return false;
     }
 
-    private List<Pokemon> pokemonOfType(Type type, boolean noLegendaries) {
-        List<Pokemon> typedPokes = new ArrayList<Pokemon>();
+    private PokemonPool pokemonOfType(Type type, boolean noLegendaries) {
+        PokemonPool typedPokes = mainPokemonPool.emptyCopy();
         for (Pokemon pk : mainPokemonList) {
             if (pk != null && (!noLegendaries || !pk.isLegendary())) {
                 if (pk.primaryType == type || pk.secondaryType == type) {
@@ -3407,27 +3582,6 @@ public abstract class AbstractRomHandler implements RomHandler {
 
     }
 
-    // Return the max depth of pre-evolutions a Pokemon has
-    private int numPreEvolutions(Pokemon pk, int maxInterested) {
-        return numPreEvolutions(pk, 0, maxInterested);
-    }
-
-    private int numPreEvolutions(Pokemon pk, int depth, int maxInterested) {
-        if (pk.evolutionsTo.size() == 0) {
-            return 0;
-        } else {
-            if (depth == maxInterested - 1) {
-                return 1;
-            } else {
-                int maxPreEvos = 0;
-                for (Evolution ev : pk.evolutionsTo) {
-                    maxPreEvos = Math.max(maxPreEvos, numPreEvolutions(ev.from, depth + 1, maxInterested) + 1);
-                }
-                return maxPreEvos;
-            }
-        }
-    }
-
     private int numEvolutions(Pokemon pk, int maxInterested) {
         return numEvolutions(pk, 0, maxInterested);
     }
@@ -3480,35 +3634,12 @@ public abstract class AbstractRomHandler implements RomHandler {
         return pokemon;
     }
 
-    private Set<Pokemon> relatedPokemon(Pokemon original) {
-        Set<Pokemon> results = new HashSet<Pokemon>();
-        results.add(original);
-        Queue<Pokemon> toCheck = new LinkedList<Pokemon>();
-        toCheck.add(original);
-        while (!toCheck.isEmpty()) {
-            Pokemon check = toCheck.poll();
-            for (Evolution ev : check.evolutionsFrom) {
-                if (!results.contains(ev.to)) {
-                    results.add(ev.to);
-                    toCheck.add(ev.to);
-                }
-            }
-            for (Evolution ev : check.evolutionsTo) {
-                if (!results.contains(ev.from)) {
-                    results.add(ev.from);
-                    toCheck.add(ev.from);
-                }
-            }
-        }
-        return results;
-    }
-
-    private Map<Type, List<Pokemon>> cachedReplacementLists;
-    private List<Pokemon> cachedAllList;
+    private Map<Type, PokemonPool> cachedReplacementLists;
+    private PokemonPool cachedAllList;
 
     private Pokemon pickReplacement(Pokemon current, boolean usePowerLevels, Type type, boolean noLegendaries,
             boolean wonderGuardAllowed) {
-        List<Pokemon> pickFrom = cachedAllList;
+        PokemonPool pickFrom = cachedAllList;
         if (type != null) {
             if (!cachedReplacementLists.containsKey(type)) {
                 cachedReplacementLists.put(type, pokemonOfType(type, noLegendaries));
@@ -3517,64 +3648,91 @@ public abstract class AbstractRomHandler implements RomHandler {
         }
 
         if (usePowerLevels) {
-            // start with within 10% and add 5% either direction till we find
-            // something
-            int currentBST = current.bstForPowerLevels();
-            int minTarget = currentBST - currentBST / 10;
-            int maxTarget = currentBST + currentBST / 10;
-            List<Pokemon> canPick = new ArrayList<Pokemon>();
-            int expandRounds = 0;
-            while (canPick.isEmpty() || (canPick.size() < 3 && expandRounds < 2)) {
-                for (Pokemon pk : pickFrom) {
-                    if (pk.bstForPowerLevels() >= minTarget
-                            && pk.bstForPowerLevels() <= maxTarget
-                            && (wonderGuardAllowed || (pk.ability1 != GlobalConstants.WONDER_GUARD_INDEX
-                                    && pk.ability2 != GlobalConstants.WONDER_GUARD_INDEX && pk.ability3 != GlobalConstants.WONDER_GUARD_INDEX))) {
-                        canPick.add(pk);
-                    }
-                }
-                minTarget -= currentBST / 20;
-                maxTarget += currentBST / 20;
-                expandRounds++;
-            }
-            return canPick.get(this.random.nextInt(canPick.size()));
+            return pickByPowerLevel(pickFrom, current.bstForPowerLevels(), 2, true, wonderGuardAllowed);
         } else {
             if (wonderGuardAllowed) {
-                return pickFrom.get(this.random.nextInt(pickFrom.size()));
+                return pickFrom.random(this.random);
             } else {
-                Pokemon pk = pickFrom.get(this.random.nextInt(pickFrom.size()));
+                Pokemon pk = pickFrom.random(this.random);
                 while (pk.ability1 == GlobalConstants.WONDER_GUARD_INDEX
                         || pk.ability2 == GlobalConstants.WONDER_GUARD_INDEX
                         || pk.ability3 == GlobalConstants.WONDER_GUARD_INDEX) {
-                    pk = pickFrom.get(this.random.nextInt(pickFrom.size()));
+                    pk = pickFrom.random(this.random);
                 }
                 return pk;
             }
         }
     }
 
-    private Pokemon pickWildPowerLvlReplacement(List<Pokemon> pokemonPool, Pokemon current, boolean banSamePokemon,
-            List<Pokemon> usedUp) {
-        // start with within 10% and add 5% either direction till we find
-        // something
-        int currentBST = current.bstForPowerLevels();
+    private Pokemon pickWildPowerLvlReplacement(PokemonPool pokemonPool, Pokemon current, boolean banSamePokemon,
+            PokemonPool usedUp) {
+        PokemonPool allowed = pokemonPool;
+        if (banSamePokemon || usedUp != null) {
+            allowed = pokemonPool.copy();
+            if (banSamePokemon) {
+                allowed.remove(current);
+            }
+            if (usedUp != null) {
+                allowed.removeAll(usedUp);
+            }
+        }
+        return pickByPowerLevel(allowed, current.bstForPowerLevels(), 3, false, true);
+    }
+
+    private PowerLevelIndex powerLevelIndex;
+
+    private PowerLevelIndex powerLevels() {
+        checkPokemonRestrictions();
+        if (powerLevelIndex == null) {
+            powerLevelIndex = new PowerLevelIndex(mainPokemonPool);
+        }
+        return powerLevelIndex;
+    }
+
+    // Picks from allowed within 10% of the given BST, widening by 5% either
+    // direction till we find something. Candidates from each wider round go
+    // behind the earlier ones; with repeatRounds the narrower rounds' ones are
+    // counted again too, like trainer picks always have been.
+    private Pokemon pickByPowerLevel(PokemonPool allowed, int currentBST, int maxExpandRounds, boolean repeatRounds,
+            boolean wonderGuardAllowed) {
         int minTarget = currentBST - currentBST / 10;
         int maxTarget = currentBST + currentBST / 10;
-        List<Pokemon> canPick = new ArrayList<Pokemon>();
+        List<PokemonPool> rounds = new ArrayList<PokemonPool>();
+        PokemonPool found = allowed.emptyCopy();
+        int canPick = 0;
         int expandRounds = 0;
-        while (canPick.isEmpty() || (canPick.size() < 3 && expandRounds < 3)) {
-            for (Pokemon pk : pokemonPool) {
-                if (pk.bstForPowerLevels() >= minTarget && pk.bstForPowerLevels() <= maxTarget
-                        && (!banSamePokemon || pk != current) && (usedUp == null || !usedUp.contains(pk))
-                        && !canPick.contains(pk)) {
-                    canPick.add(pk);
-                }
-            }
+        while (canPick == 0 || (canPick < 3 && expandRounds < maxExpandRounds)) {
+            PokemonPool round = powerLevels().withinRange(minTarget, maxTarget);
+            round.retainAll(allowed);
+            if (!wonderGuardAllowed) {
+                Iterator<Pokemon> it = round.iterator();
+                while (it.hasNext()) {
+                    Pokemon pk = it.next();
+                    if (pk.ability1 == GlobalConstants.WONDER_GUARD_INDEX
+                            || pk.ability2 == GlobalConstants.WONDER_GUARD_INDEX
+                            || pk.ability3 == GlobalConstants.WONDER_GUARD_INDEX) {
+                        it.remove();
+                    }
+                }
+            }
+            if (!repeatRounds) {
+                round.removeAll(found);
+                found.addAll(round);
+            }
+            rounds.add(round);
+            canPick += round.size();
             minTarget -= currentBST / 20;
             maxTarget += currentBST / 20;
             expandRounds++;
         }
-        return canPick.get(this.random.nextInt(canPick.size()));
+        int picked = this.random.nextInt(canPick);
+        for (PokemonPool round : rounds) {
+            if (picked < round.size()) {
+                return round.get(picked);
+            }
+            picked -= round.size();
+        }
+        return null;
     }
 
     /* Helper methods used by subclasses and/or this class */
@@ -3609,6 +3767,9 @@ public abstract class AbstractRomHandler implements RomHandler {
     }
 
     protected void logEvoChangeLevel(String pkFrom, String pkTo, int level) {
+        if (spoilerLog != null) {
+            spoilerLog.evoChange(pkFrom, pkTo, "level", String.valueOf(level));
+        }
         if (logStream != null) {
             logStream.printf("Made %s evolve into %s at level %d", pkFrom, pkTo, level);
             logStream.println();
@@ -3616,6 +3777,9 @@ public abstract class AbstractRomHandler implements RomHandler {
     }
 
     protected void logEvoChangeLevelWithItem(String pkFrom, String pkTo, String itemName) {
+        if (spoilerLog != null) {
+            spoilerLog.evoChange(pkFrom, pkTo, "levelWithItem", itemName);
+        }
         if (logStream != null) {
             logStream.printf("Made %s evolve into %s by leveling up holding %s", pkFrom, pkTo, itemName);
             logStream.println();
@@ -3623,6 +3787,9 @@ public abstract class AbstractRomHandler implements RomHandler {
     }
 
     protected void logEvoChangeStone(String pkFrom, String pkTo, String itemName) {
+        if (spoilerLog != null) {
+            spoilerLog.evoChange(pkFrom, pkTo, "stone", itemName);
+        }
         if (logStream != null) {
             logStream.printf("Made %s evolve into %s using a %s", pkFrom, pkTo, itemName);
             logStream.println();
@@ -3630,12 +3797,121 @@ public abstract class AbstractRomHandler implements RomHandler {
     }
 
     protected void logEvoChangeLevelWithPkmn(String pkFrom, String pkTo, String otherRequired) {
+        if (spoilerLog != null) {
+            spoilerLog.evoChange(pkFrom, pkTo, "levelWithPokemon", otherRequired);
+        }
         if (logStream != null) {
             logStream.printf("Made %s evolve into %s by leveling up with %s in the party", pkFrom, pkTo, otherRequired);
             logStream.println();
         }
     }
 
+    /* Helpers for fork() */
+
+    // Copies every Pokemon in pokes (nulls are skipped), along with the
+    // evolutions between them, and returns a map from each original to its
+    // copy. Evolutions to Pokemon outside pokes are not copied.
+    protected static Map<Pokemon, Pokemon> copyPokemon(Pokemon[] pokes) {
+        Map<Pokemon, Pokemon> copies = new IdentityHashMap<Pokemon, Pokemon>();
+        for (Pokemon pk : pokes) {
+            if (pk == null || copies.containsKey(pk)) {
+                continue;
+            }
+            Pokemon copy = new Pokemon();
+            copy.name = pk.name;
+            copy.number = pk.number;
+            copy.primaryType = pk.primaryType;
+            copy.secondaryType = pk.secondaryType;
+            copy.hp = pk.hp;
+            copy.attack = pk.attack;
+            copy.defense = pk.defense;
+            copy.spatk = pk.spatk;
+            copy.spdef = pk.spdef;
+            copy.speed = pk.speed;
+            copy.special = pk.special;
+            copy.ability1 = pk.ability1;
+            copy.ability2 = pk.ability2;
+            copy.ability3 = pk.ability3;
+            copy.catchRate = pk.catchRate;
+            copy.expYield = pk.expYield;
+            copy.guaranteedHeldItem = pk.guaranteedHeldItem;
+            copy.commonHeldItem = pk.commonHeldItem;
+            copy.rareHeldItem = pk.rareHeldItem;
+            copy.darkGrassHeldItem = pk.darkGrassHeldItem;
+            copy.genderRatio = pk.genderRatio;
+            copy.frontSpritePointer = pk.frontSpritePointer;
+            copy.picDimensions = pk.picDimensions;
+            copy.growthCurve = pk.growthCurve;
+            if (pk.shuffledStatsOrder != null) {
+                copy.shuffledStatsOrder = new ArrayList<Integer>(pk.shuffledStatsOrder);
+            }
+            copies.put(pk, copy);
+        }
+        // evolutions are shared between the two Pokemon they link, so copy
+        // each one once
+        Map<Evolution, Evolution> evoCopies = new IdentityHashMap<Evolution, Evolution>();
+        for (Map.Entry<Pokemon, Pokemon> entry : copies.entrySet()) {
+            Pokemon pk = entry.getKey();
+            Pokemon copy = entry.getValue();
+            for (Evolution ev : pk.evolutionsFrom) {
+                Evolution evCopy = copyEvolution(ev, copies, evoCopies);
+                if (evCopy != null) {
+                    copy.evolutionsFrom.add(evCopy);
+                }
+            }
+            for (Evolution ev : pk.evolutionsTo) {
+                Evolution evCopy = copyEvolution(ev, copies, evoCopies);
+                if (evCopy != null) {
+                    copy.evolutionsTo.add(evCopy);
+                }
+            }
+        }
+        return copies;
+    }
+
+    private static Evolution copyEvolution(Evolution ev, Map<Pokemon, Pokemon> copies,
+            Map<Evolution, Evolution> evoCopies) {
+        if (!evoCopies.containsKey(ev)) {
+            Pokemon from = copies.get(ev.from);
+            Pokemon to = copies.get(ev.to);
+            evoCopies.put(ev, (from == null || to == null) ? null : new Evolution(from, to, ev.carryStats, ev.type,
+                    ev.extraInfo));
+        }
+        return evoCopies.get(ev);
+    }
+
+    // Maps a table of Pokemon onto the copies made by copyPokemon.
+    protected static Pokemon[] remapPokemon(Pokemon[] pokes, Map<Pokemon, Pokemon> copies) {
+        Pokemon[] remapped = new Pokemon[pokes.length];
+        for (int i = 0; i < pokes.length; i++) {
+            remapped[i] = pokes[i] == null ? null : copies.get(pokes[i]);
+        }
+        return remapped;
+    }
+
+    protected static Move[] copyMoves(Move[] moves) {
+        Move[] copies = new Move[moves.length];
+        for (int i = 0; i < moves.length; i++) {
+            Move mv = moves[i];
+            if (mv == null) {
+                continue;
+            }
+            Move copy = new Move();
+            copy.name = mv.name;
+            copy.number = mv.number;
+            copy.internalId = mv.internalId;
+            copy.power = mv.power;
+            copy.pp = mv.pp;
+            copy.hitratio = mv.hitratio;
+            copy.type = mv.type;
+            copy.effectIndex = mv.effectIndex;
+            copy.category = mv.category;
+            copy.hitCount = mv.hitCount;
+            copies[i] = copy;
+        }
+        return copies;
+    }
+
     /* Default Implementations */
     /* Used when a subclass doesn't override */
     /*
@@ -48,6 +48,7 @@ import com.dabomstew.pkrandom.constants.Gen1Constants;
 import com.dabomstew.pkrandom.constants.GlobalConstants;
 import com.dabomstew.pkrandom.exceptions.RandomizationException;
 import com.dabomstew.pkrandom.exceptions.RandomizerIOException;
+import com.dabomstew.pkrandom.pokemon.CompatibilityMatrix;
 import com.dabomstew.pkrandom.pokemon.Encounter;
 import com.dabomstew.pkrandom.pokemon.EncounterSet;
 import com.dabomstew.pkrandom.pokemon.Evolution;
@@ -56,7 +57,7 @@ import com.dabomstew.pkrandom.pokemon.ExpCurve;
 import com.dabomstew.pkrandom.pokemon.IngameTrade;
 import com.dabomstew.pkrandom.pokemon.ItemList;
 import com.dabomstew.pkrandom.pokemon.Move;
-import com.dabomstew.pkrandom.pokemon.MoveLearnt;
+import com.dabomstew.pkrandom.pokemon.Movesets;
 import com.dabomstew.pkrandom.pokemon.Pokemon;
 import com.dabomstew.pkrandom.pokemon.Trainer;
 import com.dabomstew.pkrandom.pokemon.TrainerPokemon;
@@ -378,6 +379,27 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
         loadMapNames();
     }
 
+    @Override
+    public RomHandler fork(Random random, PrintStream logStream) {
+        Gen1RomHandler copy = new Gen1RomHandler(random, logStream);
+        copy.forkFrom(this);
+        copy.romEntry = romEntry;
+        // lookup tables, names and maps are only written while loading
+        copy.pokeNumToRBYTable = pokeNumToRBYTable;
+        copy.pokeRBYToNumTable = pokeRBYToNumTable;
+        copy.moveNumToRomTable = moveNumToRomTable;
+        copy.moveRomToNumTable = moveRomToNumTable;
+        copy.pokedexCount = pokedexCount;
+        copy.pokes = remapPokemon(pokes, copyPokemon(pokes));
+        copy.pokemonList = Arrays.asList(copy.pokes);
+        copy.moves = copyMoves(moves);
+        copy.itemNames = itemNames;
+        copy.mapNames = mapNames;
+        copy.maps = maps;
+        copy.xAccNerfed = xAccNerfed;
+        return copy;
+    }
+
     private void loadPokedexOrder() {
         int pkmnCount = romEntry.getValue("InternalPokemonCount");
         int orderOffset = romEntry.getValue("PokedexOrder");
@@ -742,7 +764,7 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public List<EncounterSet> getEncounters(boolean useTimeOfDay) {
+    protected List<EncounterSet> readEncounters(boolean useTimeOfDay) {
         List<EncounterSet> encounters = new ArrayList<EncounterSet>();
 
         Pokemon ghostMarowak = pokes[Gen1Constants.marowakIndex];
@@ -873,7 +895,7 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public void setEncounters(boolean useTimeOfDay, List<EncounterSet> encounters) {
+    protected void writeEncounters(boolean useTimeOfDay, List<EncounterSet> encounters) {
         Iterator<EncounterSet> encsetit = encounters.iterator();
 
         // grass & water
@@ -961,7 +983,7 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
         return pokemonList;
     }
 
-    public List<Trainer> getTrainers() {
+    protected List<Trainer> readTrainers() {
         int traineroffset = romEntry.getValue("TrainerDataTableOffset");
         int traineramount = Gen1Constants.trainerClassCount;
         int[] trainerclasslimits = romEntry.arrayEntries.get("TrainerDataClassCounts");
@@ -1021,7 +1043,7 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
         return allTrainers;
     }
 
-    public void setTrainers(List<Trainer> trainerData) {
+    protected void writeTrainers(List<Trainer> trainerData) {
         int traineroffset = romEntry.getValue("TrainerDataTableOffset");
         int traineramount = Gen1Constants.trainerClassCount;
         int[] trainerclasslimits = romEntry.arrayEntries.get("TrainerDataClassCounts");
@@ -1121,8 +1143,8 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public Map<Pokemon, List<MoveLearnt>> getMovesLearnt() {
-        Map<Pokemon, List<MoveLearnt>> movesets = new TreeMap<Pokemon, List<MoveLearnt>>();
+    protected Movesets readMovesLearnt() {
+        Movesets movesets = new Movesets(pokemonList.subList(1, pokedexCount + 1), 16);
         int pointersOffset = romEntry.getValue("PokemonMovesetsTableOffset");
         int pokeStatsOffset = romEntry.getValue("PokemonStatsOffset");
         int pkmnCount = romEntry.getValue("InternalPokemonCount");
@@ -1138,13 +1160,10 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
                 } else {
                     statsOffset = (pokeRBYToNumTable[i] - 1) * 0x1C + pokeStatsOffset;
                 }
-                List<MoveLearnt> ourMoves = new ArrayList<MoveLearnt>();
+                int row = movesets.rowOf(pkmn);
                 for (int delta = Gen1Constants.bsLevel1MovesOffset; delta < Gen1Constants.bsLevel1MovesOffset + 4; delta++) {
                     if (rom[statsOffset + delta] != 0x00) {
-                        MoveLearnt learnt = new MoveLearnt();
-                        learnt.level = 1;
-                        learnt.move = moveRomToNumTable[rom[statsOffset + delta] & 0xFF];
-                        ourMoves.add(learnt);
+                        movesets.add(row, 1, moveRomToNumTable[rom[statsOffset + delta] & 0xFF]);
                     }
                 }
                 // Skip over evolution data
@@ -1159,20 +1178,16 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
                 }
                 realPointer++;
                 while (rom[realPointer] != 0) {
-                    MoveLearnt learnt = new MoveLearnt();
-                    learnt.level = rom[realPointer] & 0xFF;
-                    learnt.move = moveRomToNumTable[rom[realPointer + 1] & 0xFF];
-                    ourMoves.add(learnt);
+                    movesets.add(row, rom[realPointer] & 0xFF, moveRomToNumTable[rom[realPointer + 1] & 0xFF]);
                     realPointer += 2;
                 }
-                movesets.put(pkmn, ourMoves);
             }
         }
         return movesets;
     }
 
     @Override
-    public void setMovesLearnt(Map<Pokemon, List<MoveLearnt>> movesets) {
+    protected void writeMovesLearnt(Movesets movesets) {
         // new method for moves learnt
         writeEvosAndMovesLearnt(false, movesets);
     }
@@ -1291,34 +1306,28 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public Map<Pokemon, boolean[]> getTMHMCompatibility() {
-        Map<Pokemon, boolean[]> compat = new TreeMap<Pokemon, boolean[]>();
+    protected CompatibilityMatrix readTMHMCompatibility() {
+        CompatibilityMatrix compat = new CompatibilityMatrix(pokemonList.subList(1, pokedexCount + 1),
+                Gen1Constants.tmCount + Gen1Constants.hmCount);
         int pokeStatsOffset = romEntry.getValue("PokemonStatsOffset");
-        for (int i = 1; i <= pokedexCount; i++) {
+        for (int row = 0; row < compat.size(); row++) {
+            int i = compat.getPokemon(row).number;
             int baseStatsOffset = (romEntry.isYellow || i != Gen1Constants.mewIndex) ? (pokeStatsOffset + (i - 1)
                     * Gen1Constants.baseStatsEntrySize) : romEntry.getValue("MewStatsOffset");
-            Pokemon pkmn = pokes[i];
-            boolean[] flags = new boolean[Gen1Constants.tmCount + Gen1Constants.hmCount + 1];
-            for (int j = 0; j < 7; j++) {
-                readByteIntoFlags(flags, j * 8 + 1, baseStatsOffset + Gen1Constants.bsTMHMCompatOffset + j);
-            }
-            compat.put(pkmn, flags);
+            compat.readBytes(row, rom, baseStatsOffset + Gen1Constants.bsTMHMCompatOffset, 7);
         }
         return compat;
     }
 
     @Override
-    public void setTMHMCompatibility(Map<Pokemon, boolean[]> compatData) {
+    protected void writeTMHMCompatibility(CompatibilityMatrix compatData) {
         int pokeStatsOffset = romEntry.getValue("PokemonStatsOffset");
-        for (Map.Entry<Pokemon, boolean[]> compatEntry : compatData.entrySet()) {
-            Pokemon pkmn = compatEntry.getKey();
-            boolean[] flags = compatEntry.getValue();
+        for (int row = 0; row < compatData.size(); row++) {
+            Pokemon pkmn = compatData.getPokemon(row);
             int baseStatsOffset = (romEntry.isYellow || pkmn.number != Gen1Constants.mewIndex) ? (pokeStatsOffset + (pkmn.number - 1)
                     * Gen1Constants.baseStatsEntrySize)
                     : romEntry.getValue("MewStatsOffset");
-            for (int j = 0; j < 7; j++) {
-                rom[baseStatsOffset + Gen1Constants.bsTMHMCompatOffset + j] = getByteFromFlags(flags, j * 8 + 1);
-            }
+            compatData.writeBytes(row, rom, baseStatsOffset + Gen1Constants.bsTMHMCompatOffset, 7);
         }
     }
 
@@ -1338,12 +1347,12 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public Map<Pokemon, boolean[]> getMoveTutorCompatibility() {
-        return new TreeMap<Pokemon, boolean[]>();
+    protected CompatibilityMatrix readMoveTutorCompatibility() {
+        return new CompatibilityMatrix(Collections.<Pokemon> emptyList(), 0);
     }
 
     @Override
-    public void setMoveTutorCompatibility(Map<Pokemon, boolean[]> compatData) {
+    protected void writeMoveTutorCompatibility(CompatibilityMatrix compatData) {
         // Do nothing
     }
 
@@ -1570,7 +1579,7 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
 
     @Override
     public int internalStringLength(String string) {
-        return translateString(string).length;
+        return translatedLength(string);
     }
 
     @Override
@@ -2039,7 +2048,7 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public List<IngameTrade> getIngameTrades() {
+    protected List<IngameTrade> readIngameTrades() {
         List<IngameTrade> trades = new ArrayList<IngameTrade>();
 
         // info
@@ -2067,7 +2076,7 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public void setIngameTrades(List<IngameTrade> trades) {
+    protected void writeIngameTrades(List<IngameTrade> trades) {
 
         // info
         int tableOffset = romEntry.getValue("TradeTableOffset");
@@ -2113,7 +2122,7 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
         return true;
     }
 
-    private void writeEvosAndMovesLearnt(boolean writeEvos, Map<Pokemon, List<MoveLearnt>> movesets) {
+    private void writeEvosAndMovesLearnt(boolean writeEvos, Movesets movesets) {
         // we assume a few things here:
         // 1) evos & moves learnt are stored directly after their pointer table
         // 2) PokemonMovesetsExtraSpaceOffset is in the same bank, and
@@ -2213,7 +2222,8 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
                         dataStream.write(rom[movesOffset++] & 0xFF);
                     }
                 } else {
-                    List<MoveLearnt> ourMoves = movesets.get(pkmn);
+                    int row = movesets.rowOf(pkmn);
+                    int moveCount = movesets.count(row);
                     int statsOffset = 0;
                     if (pokeNum == Gen1Constants.mewIndex && !romEntry.isYellow) {
                         // Mewww
@@ -2222,9 +2232,9 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
                         statsOffset = (pokeNum - 1) * Gen1Constants.baseStatsEntrySize + pokeStatsOffset;
                     }
                     int movenum = 0;
-                    while (movenum < 4 && ourMoves.size() > movenum && ourMoves.get(movenum).level == 1) {
-                        rom[statsOffset + Gen1Constants.bsLevel1MovesOffset + movenum] = (byte) moveNumToRomTable[ourMoves
-                                .get(movenum).move];
+                    while (movenum < 4 && moveCount > movenum && movesets.getLevel(row, movenum) == 1) {
+                        rom[statsOffset + Gen1Constants.bsLevel1MovesOffset + movenum] = (byte) moveNumToRomTable[movesets
+                                .getMove(row, movenum)];
                         movenum++;
                     }
                     // Write out the rest of zeroes
@@ -2232,9 +2242,9 @@ public class Gen1RomHandler extends AbstractGBCRomHandler {
                         rom[statsOffset + Gen1Constants.bsLevel1MovesOffset + mn] = 0;
                     }
                     // Add the non level 1 moves to the data stream
-                    while (movenum < ourMoves.size()) {
-                        dataStream.write(ourMoves.get(movenum).level);
-                        dataStream.write(moveNumToRomTable[ourMoves.get(movenum).move]);
+                    while (movenum < moveCount) {
+                        dataStream.write(movesets.getLevel(row, movenum));
+                        dataStream.write(moveNumToRomTable[movesets.getMove(row, movenum)]);
                         movenum++;
                     }
                 }
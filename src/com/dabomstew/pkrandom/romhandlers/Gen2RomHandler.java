@@ -31,6 +31,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -39,7 +40,6 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.Set;
-import java.util.TreeMap;
 
 import com.dabomstew.pkrandom.FileFunctions;
 import com.dabomstew.pkrandom.GFXFunctions;
@@ -49,6 +49,7 @@ import com.dabomstew.pkrandom.constants.GBConstants;
 import com.dabomstew.pkrandom.constants.Gen2Constants;
 import com.dabomstew.pkrandom.constants.GlobalConstants;
 import com.dabomstew.pkrandom.exceptions.RandomizerIOException;
+import com.dabomstew.pkrandom.pokemon.CompatibilityMatrix;
 import com.dabomstew.pkrandom.pokemon.Encounter;
 import com.dabomstew.pkrandom.pokemon.EncounterSet;
 import com.dabomstew.pkrandom.pokemon.Evolution;
@@ -57,7 +58,7 @@ import com.dabomstew.pkrandom.pokemon.ExpCurve;
 import com.dabomstew.pkrandom.pokemon.IngameTrade;
 import com.dabomstew.pkrandom.pokemon.ItemList;
 import com.dabomstew.pkrandom.pokemon.Move;
-import com.dabomstew.pkrandom.pokemon.MoveLearnt;
+import com.dabomstew.pkrandom.pokemon.Movesets;
 import com.dabomstew.pkrandom.pokemon.Pokemon;
 import com.dabomstew.pkrandom.pokemon.Trainer;
 import com.dabomstew.pkrandom.pokemon.TrainerPokemon;
@@ -319,6 +320,26 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
         nonBadItems = Gen2Constants.nonBadItems.copy();
     }
 
+    @Override
+    public RomHandler fork(Random random, PrintStream logStream) {
+        Gen2RomHandler copy = new Gen2RomHandler(random, logStream);
+        copy.forkFrom(this);
+        copy.romEntry = romEntry;
+        copy.isVietCrystal = isVietCrystal;
+        copy.havePatchedFleeing = havePatchedFleeing;
+        copy.pokes = remapPokemon(pokes, copyPokemon(pokes));
+        copy.pokemonList = Arrays.asList(copy.pokes);
+        copy.moves = copyMoves(moves);
+        // names are only written while loading
+        copy.landmarkNames = landmarkNames;
+        copy.mapNames = mapNames;
+        copy.itemNames = itemNames;
+        copy.itemOffs = new ArrayList<Integer>(itemOffs);
+        copy.allowedItems = allowedItems.copy();
+        copy.nonBadItems = nonBadItems.copy();
+        return copy;
+    }
+
     private static RomEntry checkRomEntry(byte[] rom) {
         int version = rom[GBConstants.versionOffset] & 0xFF;
         int nonjap = rom[GBConstants.jpFlagOffset] & 0xFF;
@@ -553,7 +574,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public List<EncounterSet> getEncounters(boolean useTimeOfDay) {
+    protected List<EncounterSet> readEncounters(boolean useTimeOfDay) {
         int offset = romEntry.getValue("WildPokemonOffset");
         List<EncounterSet> areas = new ArrayList<EncounterSet>();
         offset = readLandEncounters(offset, areas, useTimeOfDay); // Johto
@@ -708,7 +729,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public void setEncounters(boolean useTimeOfDay, List<EncounterSet> encounters) {
+    protected void writeEncounters(boolean useTimeOfDay, List<EncounterSet> encounters) {
         if (!havePatchedFleeing) {
             patchFleeing();
         }
@@ -826,7 +847,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public List<Trainer> getTrainers() {
+    protected List<Trainer> readTrainers() {
         int traineroffset = romEntry.getValue("TrainerDataTableOffset");
         int traineramount = romEntry.getValue("TrainerClassAmount");
         int[] trainerclasslimits = romEntry.arrayEntries.get("TrainerDataClassCounts");
@@ -888,7 +909,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public void setTrainers(List<Trainer> trainerData) {
+    protected void writeTrainers(List<Trainer> trainerData) {
         int traineroffset = romEntry.getValue("TrainerDataTableOffset");
         int traineramount = romEntry.getValue("TrainerClassAmount");
         int[] trainerclasslimits = romEntry.arrayEntries.get("TrainerDataClassCounts");
@@ -901,7 +922,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
 
         // Get current movesets in case we need to reset them for certain
         // trainer mons.
-        Map<Pokemon, List<MoveLearnt>> movesets = this.getMovesLearnt();
+        Movesets movesets = this.getMovesLearnt();
 
         Iterator<Trainer> allTrainers = trainerData.iterator();
         for (int i = 0; i < traineramount; i++) {
@@ -956,13 +977,13 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public Map<Pokemon, List<MoveLearnt>> getMovesLearnt() {
-        Map<Pokemon, List<MoveLearnt>> movesets = new TreeMap<Pokemon, List<MoveLearnt>>();
+    protected Movesets readMovesLearnt() {
+        Movesets movesets = new Movesets(pokemonList.subList(1, Gen2Constants.pokemonCount + 1), 16);
         int pointersOffset = romEntry.getValue("PokemonMovesetsTableOffset");
         for (int i = 1; i <= Gen2Constants.pokemonCount; i++) {
             int pointer = readWord(pointersOffset + (i - 1) * 2);
             int realPointer = calculateOffset(bankOf(pointersOffset), pointer);
-            Pokemon pkmn = pokes[i];
+            int row = movesets.rowOf(pokes[i]);
             // Skip over evolution data
             while (rom[realPointer] != 0) {
                 if (rom[realPointer] == 5) {
@@ -971,22 +992,17 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
                     realPointer += 3;
                 }
             }
-            List<MoveLearnt> ourMoves = new ArrayList<MoveLearnt>();
             realPointer++;
             while (rom[realPointer] != 0) {
-                MoveLearnt learnt = new MoveLearnt();
-                learnt.level = rom[realPointer] & 0xFF;
-                learnt.move = rom[realPointer + 1] & 0xFF;
-                ourMoves.add(learnt);
+                movesets.add(row, rom[realPointer] & 0xFF, rom[realPointer + 1] & 0xFF);
                 realPointer += 2;
             }
-            movesets.put(pkmn, ourMoves);
         }
         return movesets;
     }
 
     @Override
-    public void setMovesLearnt(Map<Pokemon, List<MoveLearnt>> movesets) {
+    protected void writeMovesLearnt(Movesets movesets) {
         writeEvosAndMovesLearnt(false, movesets);
     }
 
@@ -1149,40 +1165,33 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public Map<Pokemon, boolean[]> getTMHMCompatibility() {
-        Map<Pokemon, boolean[]> compat = new TreeMap<Pokemon, boolean[]>();
-        for (int i = 1; i <= Gen2Constants.pokemonCount; i++) {
+    protected CompatibilityMatrix readTMHMCompatibility() {
+        CompatibilityMatrix compat = new CompatibilityMatrix(pokemonList.subList(1, Gen2Constants.pokemonCount + 1),
+                Gen2Constants.tmCount + Gen2Constants.hmCount);
+        for (int row = 0; row < compat.size(); row++) {
+            int i = compat.getPokemon(row).number;
             int baseStatsOffset = romEntry.getValue("PokemonStatsOffset") + (i - 1) * Gen2Constants.baseStatsEntrySize;
-            Pokemon pkmn = pokes[i];
-            boolean[] flags = new boolean[Gen2Constants.tmCount + Gen2Constants.hmCount + 1];
-            for (int j = 0; j < 8; j++) {
-                readByteIntoFlags(flags, j * 8 + 1, baseStatsOffset + Gen2Constants.bsTMHMCompatOffset + j);
-            }
-            compat.put(pkmn, flags);
+            compat.readBytes(row, rom, baseStatsOffset + Gen2Constants.bsTMHMCompatOffset, 8);
         }
         return compat;
     }
 
     @Override
-    public void setTMHMCompatibility(Map<Pokemon, boolean[]> compatData) {
-        for (Map.Entry<Pokemon, boolean[]> compatEntry : compatData.entrySet()) {
-            Pokemon pkmn = compatEntry.getKey();
-            boolean[] flags = compatEntry.getValue();
+    protected void writeTMHMCompatibility(CompatibilityMatrix compatData) {
+        for (int row = 0; row < compatData.size(); row++) {
+            Pokemon pkmn = compatData.getPokemon(row);
             int baseStatsOffset = romEntry.getValue("PokemonStatsOffset") + (pkmn.number - 1)
                     * Gen2Constants.baseStatsEntrySize;
-            for (int j = 0; j < 8; j++) {
-                if (!romEntry.isCrystal || j != 7) {
-                    rom[baseStatsOffset + Gen2Constants.bsTMHMCompatOffset + j] = getByteFromFlags(flags, j * 8 + 1);
-                } else {
-                    // Move tutor data
-                    // bits 1,2,3 of byte 7
-                    int changedByte = getByteFromFlags(flags, j * 8 + 1) & 0xFF;
-                    int currentByte = rom[baseStatsOffset + Gen2Constants.bsTMHMCompatOffset + j];
-                    changedByte |= ((currentByte >> 1) & 0x01) << 1;
-                    changedByte |= ((currentByte >> 2) & 0x01) << 2;
-                    changedByte |= ((currentByte >> 3) & 0x01) << 3;
-                    rom[baseStatsOffset + 0x18 + j] = (byte) changedByte;
-                }
+            if (!romEntry.isCrystal) {
+                compatData.writeBytes(row, rom, baseStatsOffset + Gen2Constants.bsTMHMCompatOffset, 8);
+            } else {
+                compatData.writeBytes(row, rom, baseStatsOffset + Gen2Constants.bsTMHMCompatOffset, 7);
+                // Move tutor data
+                // bits 1,2,3 of byte 7
+                int changedByte = compatData.getByte(row, 7);
+                int currentByte = rom[baseStatsOffset + Gen2Constants.bsMTCompatOffset];
+                changedByte |= currentByte & 0x0E;
+                rom[baseStatsOffset + Gen2Constants.bsMTCompatOffset] = (byte) changedByte;
             }
         }
     }
@@ -1237,39 +1246,32 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public Map<Pokemon, boolean[]> getMoveTutorCompatibility() {
+    protected CompatibilityMatrix readMoveTutorCompatibility() {
         if (!romEntry.isCrystal) {
-            return new TreeMap<Pokemon, boolean[]>();
+            return new CompatibilityMatrix(Collections.<Pokemon> emptyList(), 0);
         }
-        Map<Pokemon, boolean[]> compat = new TreeMap<Pokemon, boolean[]>();
-        for (int i = 1; i <= Gen2Constants.pokemonCount; i++) {
+        CompatibilityMatrix compat = new CompatibilityMatrix(pokemonList.subList(1, Gen2Constants.pokemonCount + 1), 3);
+        for (int row = 0; row < compat.size(); row++) {
+            int i = compat.getPokemon(row).number;
             int baseStatsOffset = romEntry.getValue("PokemonStatsOffset") + (i - 1) * Gen2Constants.baseStatsEntrySize;
-            Pokemon pkmn = pokes[i];
-            boolean[] flags = new boolean[4];
             int mtByte = rom[baseStatsOffset + Gen2Constants.bsMTCompatOffset] & 0xFF;
-            for (int j = 1; j <= 3; j++) {
-                flags[j] = ((mtByte >> j) & 0x01) > 0;
-            }
-            compat.put(pkmn, flags);
+            // tutors 1-3 are bits 1-3
+            compat.setBits(row, 1, 3, mtByte >> 1);
         }
         return compat;
     }
 
     @Override
-    public void setMoveTutorCompatibility(Map<Pokemon, boolean[]> compatData) {
+    protected void writeMoveTutorCompatibility(CompatibilityMatrix compatData) {
         if (!romEntry.isCrystal) {
             return;
         }
-        for (Map.Entry<Pokemon, boolean[]> compatEntry : compatData.entrySet()) {
-            Pokemon pkmn = compatEntry.getKey();
-            boolean[] flags = compatEntry.getValue();
+        for (int row = 0; row < compatData.size(); row++) {
+            Pokemon pkmn = compatData.getPokemon(row);
             int baseStatsOffset = romEntry.getValue("PokemonStatsOffset") + (pkmn.number - 1)
                     * Gen2Constants.baseStatsEntrySize;
             int origMtByte = rom[baseStatsOffset + Gen2Constants.bsMTCompatOffset] & 0xFF;
-            int mtByte = origMtByte & 0x01;
-            for (int j = 1; j <= 3; j++) {
-                mtByte |= flags[j] ? (1 << j) : 0;
-            }
+            int mtByte = (origMtByte & 0x01) | ((int) compatData.getBits(row, 1, 3) << 1);
             rom[baseStatsOffset + Gen2Constants.bsMTCompatOffset] = (byte) mtByte;
         }
     }
@@ -1603,7 +1605,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
 
     @Override
     public int internalStringLength(String string) {
-        return translateString(string).length;
+        return translatedLength(string);
     }
 
     @Override
@@ -1936,7 +1938,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public List<IngameTrade> getIngameTrades() {
+    protected List<IngameTrade> readIngameTrades() {
         List<IngameTrade> trades = new ArrayList<IngameTrade>();
 
         // info
@@ -1975,7 +1977,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
     }
 
     @Override
-    public void setIngameTrades(List<IngameTrade> trades) {
+    protected void writeIngameTrades(List<IngameTrade> trades) {
         // info
         int tableOffset = romEntry.getValue("TradeTableOffset");
         int tableSize = romEntry.getValue("TradeTableSize");
@@ -2043,7 +2045,7 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
         }
     }
 
-    private void writeEvosAndMovesLearnt(boolean writeEvos, Map<Pokemon, List<MoveLearnt>> movesets) {
+    private void writeEvosAndMovesLearnt(boolean writeEvos, Movesets movesets) {
         // this assumes that the evo/attack pointers & data
         // are at the end of the bank
         // which, in every clean G/S/C rom supported, they are
@@ -2133,10 +2135,10 @@ public class Gen2RomHandler extends AbstractGBCRomHandler {
                     dataBlock[offsetInData++] = rom[movesOffset++];
                 }
             } else {
-                List<MoveLearnt> moves = movesets.get(pokes[i]);
-                for (MoveLearnt ml : moves) {
-                    dataBlock[offsetInData++] = (byte) ml.level;
-                    dataBlock[offsetInData++] = (byte) ml.move;
+                int row = movesets.rowOf(pokes[i]);
+                for (int mv = 0; mv < movesets.count(row); mv++) {
+                    dataBlock[offsetInData++] = (byte) movesets.getLevel(row, mv);
+                    dataBlock[offsetInData++] = (byte) movesets.getMove(row, mv);
                 }
             }
             // terminator
@@ -30,6 +30,7 @@ import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -38,18 +39,21 @@ import java.util.Map;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.zip.CRC32;
 
 import com.dabomstew.pkrandom.FileFunctions;
+import com.dabomstew.pkrandom.FreeSpaceAllocator;
 import com.dabomstew.pkrandom.GFXFunctions;
+import com.dabomstew.pkrandom.LoadPlan;
 import com.dabomstew.pkrandom.MiscTweak;
 import com.dabomstew.pkrandom.RomFunctions;
+import com.dabomstew.pkrandom.TextTable;
 import com.dabomstew.pkrandom.constants.Gen3Constants;
 import com.dabomstew.pkrandom.constants.GlobalConstants;
 import com.dabomstew.pkrandom.exceptions.RandomizationException;
 import com.dabomstew.pkrandom.exceptions.RandomizerIOException;
+import com.dabomstew.pkrandom.pokemon.CompatibilityMatrix;
 import com.dabomstew.pkrandom.pokemon.Encounter;
 import com.dabomstew.pkrandom.pokemon.EncounterSet;
 import com.dabomstew.pkrandom.pokemon.Evolution;
@@ -58,7 +62,7 @@ import com.dabomstew.pkrandom.pokemon.ExpCurve;
 import com.dabomstew.pkrandom.pokemon.IngameTrade;
 import com.dabomstew.pkrandom.pokemon.ItemList;
 import com.dabomstew.pkrandom.pokemon.Move;
-import com.dabomstew.pkrandom.pokemon.MoveLearnt;
+import com.dabomstew.pkrandom.pokemon.Movesets;
 import com.dabomstew.pkrandom.pokemon.Pokemon;
 import com.dabomstew.pkrandom.pokemon.Trainer;
 import com.dabomstew.pkrandom.pokemon.TrainerPokemon;
@@ -83,7 +87,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                 // nope
                 return false;
             }
-            return detectRomInner(loaded, (int) fileLength);
+            return detectRomInner(loaded, (int) fileLength) != null;
         }
     }
 
@@ -298,19 +302,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
 
     private void loadTextTable(String filename) {
         try {
-            Scanner sc = new Scanner(FileFunctions.openConfig(filename + ".tbl"), "UTF-8");
-            while (sc.hasNextLine()) {
-                String q = sc.nextLine();
-                if (!q.trim().isEmpty()) {
-                    String[] r = q.split("=", 2);
-                    if (r[1].endsWith("\r\n")) {
-                        r[1] = r[1].substring(0, r[1].length() - 2);
-                    }
-                    tb[Integer.parseInt(r[0], 16)] = r[1];
-                    d.put(r[1], (byte) Integer.parseInt(r[0], 16));
-                }
-            }
-            sc.close();
+            textTable.readTable(filename);
         } catch (FileNotFoundException e) {
         }
 
@@ -324,8 +316,9 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     private boolean jamboMovesetHack;
     private RomEntry romEntry;
     private boolean havePatchedObedience;
-    public String[] tb;
-    public Map<String, Byte> d;
+    public TextTable textTable;
+    // scratch space for fixed length strings; each fork gets its own
+    private byte[] translateBuffer = new byte[64];
     private String[] abilityNames;
     private String[] itemNames;
     private boolean mapLoadingDone;
@@ -336,15 +329,59 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     private int pokedexCount;
     private String[] pokeNames;
     private ItemList allowedItems, nonBadItems;
+    private FreeSpaceAllocator freeSpace;
+
+    // Every signature detection and loading look for, found in a single pass
+    // over the ROM. For prefix/suffix pairs only the longer half is searched.
+    private static final String[] romSignatures = { Gen3Constants.wildPokemonPointerPrefix,
+            Gen3Constants.mapBanksPointerPrefix, Gen3Constants.pokedexOrderPointerPrefix,
+            Gen3Constants.rsPokemonNamesPointerSuffix, Gen3Constants.frlgMapLabelsPointerPrefix,
+            Gen3Constants.rseMapLabelsPointerPrefix, Gen3Constants.rsFrontSpritesPointerSuffix,
+            Gen3Constants.rsPokemonPalettesPointerPrefix };
+
+    private static final RomFunctions.MultiSearcher romSignatureSearcher;
+
+    static {
+        byte[][] needles = new byte[romSignatures.length][];
+        for (int i = 0; i < needles.length; i++) {
+            needles[i] = hexStringToBytes(romSignatures[i]);
+        }
+        romSignatureSearcher = new RomFunctions.MultiSearcher(needles);
+    }
+
+    // signature scan from detectRom, reused by loadedRom for the same array
+    private byte[] scannedRom;
+    private Map<String, List<Integer>> scannedSignatures;
 
     @Override
     public boolean detectRom(byte[] rom) {
-        return detectRomInner(rom, rom.length);
+        scannedRom = null;
+        scannedSignatures = null;
+        Map<String, List<Integer>> signatures = detectRomInner(rom, rom.length);
+        if (signatures == null) {
+            return false;
+        }
+        scannedRom = rom;
+        scannedSignatures = signatures;
+        return true;
+    }
+
+    private static Map<String, List<Integer>> scanSignatures(byte[] rom) {
+        List<List<Integer>> found = romSignatureSearcher.search(rom, Runtime.getRuntime().availableProcessors());
+        Map<String, List<Integer>> signatures = new HashMap<String, List<Integer>>();
+        for (int i = 0; i < romSignatures.length; i++) {
+            signatures.put(romSignatures[i], found.get(i));
+        }
+        return signatures;
     }
 
-    private static boolean detectRomInner(byte[] rom, int romSize) {
+    /**
+     * Returns the scanned signatures if this is a supported ROM, or null if
+     * it isn't.
+     */
+    private static Map<String, List<Integer>> detectRomInner(byte[] rom, int romSize) {
         if (romSize != Gen3Constants.size8M && romSize != Gen3Constants.size16M && romSize != Gen3Constants.size32M) {
-            return false; // size check
+            return null; // size check
         }
         // Special case for Emerald unofficial translation
         if (romName(rom, Gen3Constants.unofficialEmeraldROMName)) {
@@ -355,24 +392,25 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
             rom[Gen3Constants.romCodeOffset + 3] = 'T';
             rom[Gen3Constants.headerChecksumOffset] = 0x66;
         }
+        Map<String, List<Integer>> signatures = scanSignatures(rom);
         // Wild Pokemon header
-        if (find(rom, Gen3Constants.wildPokemonPointerPrefix) == -1) {
-            return false;
+        if (signatures.get(Gen3Constants.wildPokemonPointerPrefix).size() == 0) {
+            return null;
         }
         // Map Banks header
-        if (find(rom, Gen3Constants.mapBanksPointerPrefix) == -1) {
-            return false;
+        if (signatures.get(Gen3Constants.mapBanksPointerPrefix).size() == 0) {
+            return null;
         }
         // Pokedex Order header
-        if (findMultiple(rom, Gen3Constants.pokedexOrderPointerPrefix).size() != 3) {
-            return false;
+        if (signatures.get(Gen3Constants.pokedexOrderPointerPrefix).size() != 3) {
+            return null;
         }
         for (RomEntry re : roms) {
             if (romCode(rom, re.romCode) && (rom[Gen3Constants.romVersionOffset] & 0xFF) == re.version) {
-                return true; // match
+                return signatures; // match
             }
         }
-        return false; // GBA rom we don't support yet
+        return null; // GBA rom we don't support yet
     }
 
     @Override
@@ -384,26 +422,29 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
             }
         }
 
-        tb = new String[256];
-        d = new HashMap<String, Byte>();
+        textTable = new TextTable(Gen3Constants.textVariable);
         isRomHack = false;
         jamboMovesetHack = false;
 
+        Map<String, List<Integer>> signatures = (scannedRom == rom) ? scannedSignatures : scanSignatures(rom);
+        scannedRom = null;
+        scannedSignatures = null;
+
         // Pokemon count stuff, needs to be available first
-        List<Integer> pokedexOrderPrefixes = findMultiple(rom, Gen3Constants.pokedexOrderPointerPrefix);
+        List<Integer> pokedexOrderPrefixes = signatures.get(Gen3Constants.pokedexOrderPointerPrefix);
         romEntry.entries.put("PokedexOrder", readPointer(pokedexOrderPrefixes.get(1) + 16));
 
         // Pokemon names offset
         if (romEntry.romType == Gen3Constants.RomType_Ruby || romEntry.romType == Gen3Constants.RomType_Sapp) {
-            int baseNomOffset = find(rom, Gen3Constants.rsPokemonNamesPointerSuffix);
+            int baseNomOffset = findUnique(signatures.get(Gen3Constants.rsPokemonNamesPointerSuffix));
             romEntry.entries.put("PokemonNames", readPointer(baseNomOffset - 4));
             romEntry.entries.put(
                     "FrontSprites",
-                    readPointer(findPointerPrefixAndSuffix(Gen3Constants.rsFrontSpritesPointerPrefix,
+                    readPointer(findPointerPrefixAndSuffix(signatures, Gen3Constants.rsFrontSpritesPointerPrefix,
                             Gen3Constants.rsFrontSpritesPointerSuffix)));
             romEntry.entries.put(
                     "PokemonPalettes",
-                    readPointer(findPointerPrefixAndSuffix(Gen3Constants.rsPokemonPalettesPointerPrefix,
+                    readPointer(findPointerPrefixAndSuffix(signatures, Gen3Constants.rsPokemonPalettesPointerPrefix,
                             Gen3Constants.rsPokemonPalettesPointerSuffix)));
         } else {
             romEntry.entries.put("PokemonNames", readPointer(Gen3Constants.efrlgPokemonNamesPointer));
@@ -432,20 +473,19 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
         loadMoves();
 
         // Get wild Pokemon offset
-        int baseWPOffset = findMultiple(rom, Gen3Constants.wildPokemonPointerPrefix).get(0);
+        int baseWPOffset = signatures.get(Gen3Constants.wildPokemonPointerPrefix).get(0);
         romEntry.entries.put("WildPokemon", readPointer(baseWPOffset + 12));
 
         // map banks
-        int baseMapsOffset = findMultiple(rom, Gen3Constants.mapBanksPointerPrefix).get(0);
+        int baseMapsOffset = signatures.get(Gen3Constants.mapBanksPointerPrefix).get(0);
         romEntry.entries.put("MapHeaders", readPointer(baseMapsOffset + 12));
-        this.determineMapBankSizes();
 
         // map labels
         if (romEntry.romType == Gen3Constants.RomType_FRLG) {
-            int baseMLOffset = find(rom, Gen3Constants.frlgMapLabelsPointerPrefix);
+            int baseMLOffset = findUnique(signatures.get(Gen3Constants.frlgMapLabelsPointerPrefix));
             romEntry.entries.put("MapLabels", readPointer(baseMLOffset + 12));
         } else {
-            int baseMLOffset = find(rom, Gen3Constants.rseMapLabelsPointerPrefix);
+            int baseMLOffset = findUnique(signatures.get(Gen3Constants.rseMapLabelsPointerPrefix));
             romEntry.entries.put("MapLabels", readPointer(baseMLOffset + 12));
         }
 
@@ -457,21 +497,67 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
         nonBadItems = Gen3Constants.nonBadItems.copy();
     }
 
-    private int findPointerPrefixAndSuffix(String prefix, String suffix) {
-        if (prefix.length() % 2 != 0 || suffix.length() % 2 != 0) {
-            return -1;
+    @Override
+    public RomHandler fork(Random random, PrintStream logStream) {
+        Gen3RomHandler copy = new Gen3RomHandler(random, logStream);
+        copy.forkFrom(this);
+        // romEntry, text tables, names and dex tables are only written while
+        // loading
+        copy.romEntry = romEntry;
+        copy.textTable = textTable;
+        copy.isRomHack = isRomHack;
+        copy.jamboMovesetHack = jamboMovesetHack;
+        copy.havePatchedObedience = havePatchedObedience;
+        copy.pokeNames = pokeNames;
+        copy.internalToPokedex = internalToPokedex;
+        copy.pokedexToInternal = pokedexToInternal;
+        copy.pokedexCount = pokedexCount;
+        Map<Pokemon, Pokemon> pokeCopies = copyPokemon(pokesInternal);
+        copy.pokesInternal = remapPokemon(pokesInternal, pokeCopies);
+        copy.pokes = remapPokemon(pokes, pokeCopies);
+        copy.constructPokemonList();
+        copy.moves = copyMoves(moves);
+        copy.abilityNames = abilityNames;
+        copy.itemNames = itemNames;
+        copy.mapLoadingDone = mapLoadingDone;
+        if (mapLoadingDone) {
+            copy.mapNames = mapNames;
+            copy.itemOffs = new ArrayList<Integer>(itemOffs);
+        }
+        copy.allowedItems = allowedItems.copy();
+        copy.nonBadItems = nonBadItems.copy();
+        return copy;
+    }
+
+    @Override
+    public void preload(LoadPlan plan) {
+        // every run reads the encounters, which need the map names
+        if (!mapLoadingDone) {
+            preprocessMaps();
+            mapLoadingDone = true;
         }
-        byte[] searchPref = new byte[prefix.length() / 2];
-        for (int i = 0; i < searchPref.length; i++) {
-            searchPref[i] = (byte) Integer.parseInt(prefix.substring(i * 2, i * 2 + 2), 16);
+    }
+
+    private FreeSpaceAllocator freeSpace() {
+        // indexed on first use, so it sees any changes made while loading
+        if (freeSpace == null) {
+            freeSpace = new FreeSpaceAllocator(rom, Gen3Constants.freeSpaceByte, romEntry.getValue("FreeSpace"));
         }
-        byte[] searchSuff = new byte[suffix.length() / 2];
-        for (int i = 0; i < searchSuff.length; i++) {
-            searchSuff[i] = (byte) Integer.parseInt(suffix.substring(i * 2, i * 2 + 2), 16);
+        return freeSpace;
+    }
+
+    private int findPointerPrefixAndSuffix(Map<String, List<Integer>> signatures, String prefix, String suffix) {
+        if (prefix.length() % 2 != 0 || suffix.length() % 2 != 0) {
+            return -1;
         }
+        byte[] searchPref = hexStringToBytes(prefix);
+        byte[] searchSuff = hexStringToBytes(suffix);
         if (searchPref.length >= searchSuff.length) {
             // Prefix first
-            List<Integer> offsets = RomFunctions.search(rom, searchPref);
+            List<Integer> offsets = signatures.get(prefix);
+            if (offsets == null) {
+                offsets = RomFunctions.search(rom, searchPref);
+            }
             if (offsets.size() == 0) {
                 return -1;
             }
@@ -499,7 +585,10 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
             return -1; // No match
         } else {
             // Suffix first
-            List<Integer> offsets = RomFunctions.search(rom, searchSuff);
+            List<Integer> offsets = signatures.get(suffix);
+            if (offsets == null) {
+                offsets = RomFunctions.search(rom, searchSuff);
+            }
             if (offsets.size() == 0) {
                 return -1;
             }
@@ -926,17 +1015,18 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
         StringBuilder string = new StringBuilder();
         for (int c = 0; c < maxLength; c++) {
             int currChar = rom[offset + c] & 0xFF;
-            if (tb[currChar] != null) {
-                string.append(tb[currChar]);
+            String token = textTable.token(currChar);
+            if (token != null) {
+                string.append(token);
             } else {
                 if (currChar == Gen3Constants.textTerminator) {
                     break;
                 } else if (currChar == Gen3Constants.textVariable) {
                     int nextChar = rom[offset + c + 1] & 0xFF;
-                    string.append("\\v" + String.format("%02X", nextChar));
+                    string.append("\\v").append(TextTable.hex(nextChar));
                     c++;
                 } else {
-                    string.append("\\x" + String.format("%02X", currChar));
+                    string.append(TextTable.escape(currChar));
                 }
             }
         }
@@ -944,33 +1034,11 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     private byte[] translateString(String text) {
-        List<Byte> data = new ArrayList<Byte>();
-        while (text.length() != 0) {
-            int i = Math.max(0, 4 - text.length());
-            if (text.charAt(0) == '\\' && text.charAt(1) == 'x') {
-                data.add((byte) Integer.parseInt(text.substring(2, 4), 16));
-                text = text.substring(4);
-            } else if (text.charAt(0) == '\\' && text.charAt(1) == 'v') {
-                data.add((byte) Gen3Constants.textVariable);
-                data.add((byte) Integer.parseInt(text.substring(2, 4), 16));
-                text = text.substring(4);
-            } else {
-                while (!(d.containsKey(text.substring(0, 4 - i)) || (i == 4))) {
-                    i++;
-                }
-                if (i == 4) {
-                    text = text.substring(1);
-                } else {
-                    data.add(d.get(text.substring(0, 4 - i)));
-                    text = text.substring(4 - i);
-                }
-            }
-        }
-        byte[] ret = new byte[data.size()];
-        for (int i = 0; i < ret.length; i++) {
-            ret[i] = data.get(i);
-        }
-        return ret;
+        return textTable.encode(text);
+    }
+
+    private int translatedLength(String text) {
+        return textTable.encodedLength(text);
     }
 
     private String readFixedLengthString(int offset, int length) {
@@ -982,9 +1050,11 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     private void writeFixedLengthString(String str, int offset, int length) {
-        byte[] translated = translateString(str);
-        int len = Math.min(translated.length, length);
-        System.arraycopy(translated, 0, rom, offset, len);
+        if (translateBuffer.length < str.length()) {
+            translateBuffer = new byte[Math.max(str.length(), translateBuffer.length * 2)];
+        }
+        int len = Math.min(textTable.encode(str, translateBuffer, 0), length);
+        System.arraycopy(translateBuffer, 0, rom, offset, len);
         if (len < length) {
             rom[offset + len] = (byte) Gen3Constants.textTerminator;
             len++;
@@ -996,9 +1066,8 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     private void writeVariableLengthString(String str, int offset) {
-        byte[] translated = translateString(str);
-        System.arraycopy(translated, 0, rom, offset, translated.length);
-        rom[offset + translated.length] = (byte) 0xFF;
+        int len = textTable.encode(str, rom, offset);
+        rom[offset + len] = (byte) 0xFF;
     }
 
     private int lengthOfStringAt(int offset) {
@@ -1201,7 +1270,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     @Override
-    public List<EncounterSet> getEncounters(boolean useTimeOfDay) {
+    protected List<EncounterSet> readEncounters(boolean useTimeOfDay) {
         if (!mapLoadingDone) {
             preprocessMaps();
             mapLoadingDone = true;
@@ -1296,7 +1365,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     @Override
-    public void setEncounters(boolean useTimeOfDay, List<EncounterSet> encounters) {
+    protected void writeEncounters(boolean useTimeOfDay, List<EncounterSet> encounters) {
         // Support Deoxys/Mew catches in E/FR/LG
         attemptObedienceEvolutionPatches();
 
@@ -1349,7 +1418,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     @Override
-    public List<Trainer> getTrainers() {
+    protected List<Trainer> readTrainers() {
         int baseOffset = romEntry.getValue("TrainerData");
         int amount = romEntry.getValue("TrainerCount");
         int entryLen = romEntry.getValue("TrainerEntrySize");
@@ -1430,7 +1499,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     @Override
-    public void setTrainers(List<Trainer> trainerData) {
+    protected void writeTrainers(List<Trainer> trainerData) {
         int baseOffset = romEntry.getValue("TrainerData");
         int amount = romEntry.getValue("TrainerCount");
         int entryLen = romEntry.getValue("TrainerEntrySize");
@@ -1439,7 +1508,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
 
         // Get current movesets in case we need to reset them for certain
         // trainer mons.
-        Map<Pokemon, List<MoveLearnt>> movesets = this.getMovesLearnt();
+        Movesets movesets = this.getMovesLearnt();
 
         for (int i = 1; i < amount; i++) {
             int trOffset = baseOffset + i * entryLen;
@@ -1458,10 +1527,11 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
             // now, do we need to repoint?
             int pointerToPokes;
             if (newDataSize > oldDataSize) {
-                int writeSpace = RomFunctions.freeSpaceFinder(rom, Gen3Constants.freeSpaceByte, newDataSize, fso, true);
+                int writeSpace = freeSpace().allocate(newDataSize, true);
                 if (writeSpace < fso) {
-                    throw new RandomizerIOException("ROM is full");
+                    throw new RandomizerIOException("ROM is full (" + freeSpace() + ")");
                 }
+                freeSpace().release(rom, readPointer(trOffset + (entryLen - 4)));
                 writePointer(trOffset + (entryLen - 4), writeSpace);
                 pointerToPokes = writeSpace;
             } else {
@@ -1516,6 +1586,13 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
 
     }
 
+    @Override
+    protected boolean writesBack(Model model) {
+        // both take free space for whatever has grown, so put off they'd be
+        // given different space than they get now
+        return model != Model.TRAINERS && model != Model.MOVESETS;
+    }
+
     private void writeWildArea(int offset, int numOfEntries, EncounterSet encounters) {
         // Grab the *real* pointer to data
         int dataOffset = readPointer(offset + 4);
@@ -1533,21 +1610,17 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     @Override
-    public Map<Pokemon, List<MoveLearnt>> getMovesLearnt() {
-        Map<Pokemon, List<MoveLearnt>> movesets = new TreeMap<Pokemon, List<MoveLearnt>>();
+    protected Movesets readMovesLearnt() {
+        Movesets movesets = new Movesets(pokemonList.subList(1, numRealPokemon + 1), 16);
         int baseOffset = romEntry.getValue("PokemonMovesets");
-        for (int i = 1; i <= numRealPokemon; i++) {
-            Pokemon pkmn = pokemonList.get(i);
+        for (int row = 0; row < movesets.size(); row++) {
+            Pokemon pkmn = movesets.getPokemon(row);
             int offsToPtr = baseOffset + (pokedexToInternal[pkmn.number]) * 4;
             int moveDataLoc = readPointer(offsToPtr);
-            List<MoveLearnt> moves = new ArrayList<MoveLearnt>();
             if (jamboMovesetHack) {
                 while ((rom[moveDataLoc] & 0xFF) != 0x00 || (rom[moveDataLoc + 1] & 0xFF) != 0x00
                         || (rom[moveDataLoc + 2] & 0xFF) != 0xFF) {
-                    MoveLearnt ml = new MoveLearnt();
-                    ml.level = rom[moveDataLoc + 2] & 0xFF;
-                    ml.move = readWord(moveDataLoc);
-                    moves.add(ml);
+                    movesets.add(row, rom[moveDataLoc + 2] & 0xFF, readWord(moveDataLoc));
                     moveDataLoc += 3;
                 }
             } else {
@@ -1557,28 +1630,24 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                     if ((rom[moveDataLoc + 1] & 0x01) == 0x01) {
                         move += 0x100;
                     }
-                    MoveLearnt ml = new MoveLearnt();
-                    ml.level = level;
-                    ml.move = move;
-                    moves.add(ml);
+                    movesets.add(row, level, move);
                     moveDataLoc += 2;
                 }
             }
-            movesets.put(pkmn, moves);
         }
         return movesets;
     }
 
     @Override
-    public void setMovesLearnt(Map<Pokemon, List<MoveLearnt>> movesets) {
+    protected void writeMovesLearnt(Movesets movesets) {
         int baseOffset = romEntry.getValue("PokemonMovesets");
         int fso = romEntry.getValue("FreeSpace");
         for (int i = 1; i <= numRealPokemon; i++) {
             Pokemon pkmn = pokemonList.get(i);
             int offsToPtr = baseOffset + (pokedexToInternal[pkmn.number]) * 4;
             int moveDataLoc = readPointer(offsToPtr);
-            List<MoveLearnt> moves = movesets.get(pkmn);
-            int newMoveCount = moves.size();
+            int row = movesets.rowOf(pkmn);
+            int newMoveCount = movesets.count(row);
             int mloc = moveDataLoc;
             int entrySize;
             if (jamboMovesetHack) {
@@ -1597,18 +1666,18 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
             if (newMoveCount > currentMoveCount) {
                 // Repoint for more space
                 int newBytesNeeded = newMoveCount * entrySize + entrySize * 2;
-                int writeSpace = RomFunctions.freeSpaceFinder(rom, Gen3Constants.freeSpaceByte, newBytesNeeded, fso);
+                int writeSpace = freeSpace().allocate(newBytesNeeded);
                 if (writeSpace < fso) {
-                    throw new RandomizerIOException("ROM is full");
+                    throw new RandomizerIOException("ROM is full (" + freeSpace() + ")");
                 }
+                freeSpace().release(rom, moveDataLoc);
                 writePointer(offsToPtr, writeSpace);
                 moveDataLoc = writeSpace;
             }
 
             // Write new moveset now that space is ensured.
             for (int mv = 0; mv < newMoveCount; mv++) {
-                MoveLearnt ml = moves.get(mv);
-                moveDataLoc += writeMLToOffset(moveDataLoc, ml);
+                moveDataLoc += writeMLToOffset(moveDataLoc, movesets.getLevel(row, mv), movesets.getMove(row, mv));
             }
 
             // If move count changed, new terminator is required
@@ -1635,15 +1704,15 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
 
     }
 
-    private int writeMLToOffset(int offset, MoveLearnt ml) {
+    private int writeMLToOffset(int offset, int level, int move) {
         if (jamboMovesetHack) {
-            writeWord(offset, ml.move);
-            rom[offset + 2] = (byte) ml.level;
+            writeWord(offset, move);
+            rom[offset + 2] = (byte) level;
             return 3;
         } else {
-            rom[offset] = (byte) (ml.move & 0xFF);
-            int levelPart = (ml.level << 1) & 0xFE;
-            if (ml.move > 255) {
+            rom[offset] = (byte) (move & 0xFF);
+            int levelPart = (level << 1) & 0xFE;
+            if (move > 255) {
                 levelPart++;
             }
             rom[offset + 1] = (byte) levelPart;
@@ -1756,14 +1825,14 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                 String moveDesc = readVariableLengthString(moveTextPointer);
                 String newItemDesc = RomFunctions.rewriteDescriptionForNewLineSize(moveDesc, "\\n", limitPerLine, ssd);
                 // Find freespace
-                int fsBytesNeeded = translateString(newItemDesc).length + 1;
-                int newItemDescOffset = RomFunctions.freeSpaceFinder(rom, Gen3Constants.freeSpaceByte, fsBytesNeeded,
-                        fsOffset);
+                int fsBytesNeeded = translatedLength(newItemDesc) + 1;
+                int newItemDescOffset = freeSpace().allocate(fsBytesNeeded);
                 if (newItemDescOffset < fsOffset) {
                     String nl = System.getProperty("line.separator");
                     log("Couldn't insert new item description." + nl);
                     return;
                 }
+                freeSpace().release(rom, readPointer(itemBaseOffset + Gen3Constants.itemDataDescriptionOffset));
                 writeVariableLengthString(newItemDesc, newItemDescOffset);
                 writePointer(itemBaseOffset + Gen3Constants.itemDataDescriptionOffset, newItemDescOffset);
             }
@@ -1788,13 +1857,14 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                 // get rid of the underscores
                 newText = newText.replace(tmpMoveName, moveName);
                 // insert the new text into free space
-                int fsBytesNeeded = translateString(newText).length + 1;
-                int newOffset = RomFunctions.freeSpaceFinder(rom, (byte) 0xFF, fsBytesNeeded, fsOffset);
+                int fsBytesNeeded = translatedLength(newText) + 1;
+                int newOffset = freeSpace().allocate(fsBytesNeeded);
                 if (newOffset < fsOffset) {
                     String nl = System.getProperty("line.separator");
                     log("Couldn't insert new TM text." + nl);
                     return;
                 }
+                freeSpace().release(rom, oldPointer);
                 writeVariableLengthString(newText, newOffset);
                 // search for copies of the pointer:
                 // make a needle of the pointer
@@ -1816,7 +1886,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
 
         @Override
         public int lengthFor(String encodedText) {
-            return translateString(encodedText).length;
+            return translatedLength(encodedText);
         }
     };
 
@@ -1831,31 +1901,23 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     @Override
-    public Map<Pokemon, boolean[]> getTMHMCompatibility() {
-        Map<Pokemon, boolean[]> compat = new TreeMap<Pokemon, boolean[]>();
+    protected CompatibilityMatrix readTMHMCompatibility() {
+        CompatibilityMatrix compat = new CompatibilityMatrix(pokemonList.subList(1, numRealPokemon + 1),
+                Gen3Constants.tmCount + Gen3Constants.hmCount);
         int offset = romEntry.getValue("PokemonTMHMCompat");
-        for (int i = 1; i <= numRealPokemon; i++) {
-            Pokemon pkmn = pokemonList.get(i);
-            int compatOffset = offset + (pokedexToInternal[pkmn.number]) * 8;
-            boolean[] flags = new boolean[Gen3Constants.tmCount + Gen3Constants.hmCount + 1];
-            for (int j = 0; j < 8; j++) {
-                readByteIntoFlags(flags, j * 8 + 1, compatOffset + j);
-            }
-            compat.put(pkmn, flags);
+        for (int row = 0; row < compat.size(); row++) {
+            int compatOffset = offset + (pokedexToInternal[compat.getPokemon(row).number]) * 8;
+            compat.readBytes(row, rom, compatOffset, 8);
         }
         return compat;
     }
 
     @Override
-    public void setTMHMCompatibility(Map<Pokemon, boolean[]> compatData) {
+    protected void writeTMHMCompatibility(CompatibilityMatrix compatData) {
         int offset = romEntry.getValue("PokemonTMHMCompat");
-        for (Map.Entry<Pokemon, boolean[]> compatEntry : compatData.entrySet()) {
-            Pokemon pkmn = compatEntry.getKey();
-            boolean[] flags = compatEntry.getValue();
-            int compatOffset = offset + (pokedexToInternal[pkmn.number]) * 8;
-            for (int j = 0; j < 8; j++) {
-                rom[compatOffset + j] = getByteFromFlags(flags, j * 8 + 1);
-            }
+        for (int row = 0; row < compatData.size(); row++) {
+            int compatOffset = offset + (pokedexToInternal[compatData.getPokemon(row).number]) * 8;
+            compatData.writeBytes(row, rom, compatOffset, 8);
         }
     }
 
@@ -1911,13 +1973,14 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                 // get rid of the underscores
                 newText = newText.replace(tmpMoveName, moveName);
                 // insert the new text into free space
-                int fsBytesNeeded = translateString(newText).length + 1;
-                int newOffset = RomFunctions.freeSpaceFinder(rom, Gen3Constants.freeSpaceByte, fsBytesNeeded, fsOffset);
+                int fsBytesNeeded = translatedLength(newText) + 1;
+                int newOffset = freeSpace().allocate(fsBytesNeeded);
                 if (newOffset < fsOffset) {
                     String nl = System.getProperty("line.separator");
                     log("Couldn't insert new Move Tutor text." + nl);
                     return;
                 }
+                freeSpace().release(rom, oldPointer);
                 writeVariableLengthString(newText, newOffset);
                 // search for copies of the pointer:
                 // make a needle of the pointer
@@ -1936,41 +1999,32 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     @Override
-    public Map<Pokemon, boolean[]> getMoveTutorCompatibility() {
+    protected CompatibilityMatrix readMoveTutorCompatibility() {
         if (!hasMoveTutors()) {
-            return new TreeMap<Pokemon, boolean[]>();
+            return new CompatibilityMatrix(Collections.<Pokemon> emptyList(), 0);
         }
-        Map<Pokemon, boolean[]> compat = new TreeMap<Pokemon, boolean[]>();
         int moveCount = romEntry.getValue("MoveTutorMoves");
         int offset = romEntry.getValue("MoveTutorCompatibility");
         int bytesRequired = ((moveCount + 7) & ~7) / 8;
-        for (int i = 1; i <= numRealPokemon; i++) {
-            Pokemon pkmn = pokemonList.get(i);
-            int compatOffset = offset + pokedexToInternal[pkmn.number] * bytesRequired;
-            boolean[] flags = new boolean[moveCount + 1];
-            for (int j = 0; j < bytesRequired; j++) {
-                readByteIntoFlags(flags, j * 8 + 1, compatOffset + j);
-            }
-            compat.put(pkmn, flags);
+        CompatibilityMatrix compat = new CompatibilityMatrix(pokemonList.subList(1, numRealPokemon + 1), moveCount);
+        for (int row = 0; row < compat.size(); row++) {
+            int compatOffset = offset + pokedexToInternal[compat.getPokemon(row).number] * bytesRequired;
+            compat.readBytes(row, rom, compatOffset, bytesRequired);
         }
         return compat;
     }
 
     @Override
-    public void setMoveTutorCompatibility(Map<Pokemon, boolean[]> compatData) {
+    protected void writeMoveTutorCompatibility(CompatibilityMatrix compatData) {
         if (!hasMoveTutors()) {
             return;
         }
         int moveCount = romEntry.getValue("MoveTutorMoves");
         int offset = romEntry.getValue("MoveTutorCompatibility");
         int bytesRequired = ((moveCount + 7) & ~7) / 8;
-        for (Map.Entry<Pokemon, boolean[]> compatEntry : compatData.entrySet()) {
-            Pokemon pkmn = compatEntry.getKey();
-            boolean[] flags = compatEntry.getValue();
-            int compatOffset = offset + pokedexToInternal[pkmn.number] * bytesRequired;
-            for (int j = 0; j < bytesRequired; j++) {
-                rom[compatOffset + j] = getByteFromFlags(flags, j * 8 + 1);
-            }
+        for (int row = 0; row < compatData.size(); row++) {
+            int compatOffset = offset + pokedexToInternal[compatData.getPokemon(row).number] * bytesRequired;
+            compatData.writeBytes(row, rom, compatOffset, bytesRequired);
         }
     }
 
@@ -1998,11 +2052,10 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
         if (hexString.length() % 2 != 0) {
             return -3; // error
         }
-        byte[] searchFor = new byte[hexString.length() / 2];
-        for (int i = 0; i < searchFor.length; i++) {
-            searchFor[i] = (byte) Integer.parseInt(hexString.substring(i * 2, i * 2 + 2), 16);
-        }
-        List<Integer> found = RomFunctions.search(haystack, searchFor);
+        return findUnique(RomFunctions.search(haystack, hexStringToBytes(hexString)));
+    }
+
+    private static int findUnique(List<Integer> found) {
         if (found.size() == 0) {
             return -1; // not found
         } else if (found.size() > 1) {
@@ -2020,14 +2073,18 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
         if (hexString.length() % 2 != 0) {
             return new ArrayList<Integer>(); // error
         }
-        byte[] searchFor = new byte[hexString.length() / 2];
-        for (int i = 0; i < searchFor.length; i++) {
-            searchFor[i] = (byte) Integer.parseInt(hexString.substring(i * 2, i * 2 + 2), 16);
-        }
-        List<Integer> found = RomFunctions.search(haystack, searchFor);
+        List<Integer> found = RomFunctions.search(haystack, hexStringToBytes(hexString));
         return found;
     }
 
+    private static byte[] hexStringToBytes(String hexString) {
+        byte[] bytes = new byte[hexString.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hexString.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
     private void writeHexString(String hexString, int offset) {
         if (hexString.length() % 2 != 0) {
             return; // error
@@ -2111,7 +2168,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                 return;
             }
             // Find free space for our new routine
-            int writeSpace = RomFunctions.freeSpaceFinder(rom, Gen3Constants.freeSpaceByte, 44, fso);
+            int writeSpace = freeSpace().allocate(44);
             if (writeSpace < fso) {
                 log("Patch unsuccessful." + nl);
                 // Somehow this ROM is full
@@ -2130,7 +2187,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                 return;
             }
             // Find free space for our new routine
-            int writeSpace = RomFunctions.freeSpaceFinder(rom, Gen3Constants.freeSpaceByte, 10, fso);
+            int writeSpace = freeSpace().allocate(10);
             if (writeSpace < fso) {
                 // Somehow this ROM is full
                 log("Patch unsuccessful." + nl);
@@ -2179,7 +2236,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
                 return;
             }
             // Find free space for our new routine
-            int writeSpace = RomFunctions.freeSpaceFinder(rom, Gen3Constants.freeSpaceByte, 27, fso);
+            int writeSpace = freeSpace().allocate(27);
             if (writeSpace < fso) {
                 // Somehow this ROM is full
                 log("Patch unsuccessful." + nl);
@@ -2473,7 +2530,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
 
     @Override
     public int internalStringLength(String string) {
-        return translateString(string).length;
+        return translatedLength(string);
     }
 
     @Override
@@ -2556,7 +2613,8 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
         }
     }
 
-    private void determineMapBankSizes() {
+    // the number of maps in each bank
+    private int[] determineMapBankSizes() {
         int mbpsOffset = romEntry.getValue("MapHeaders");
         List<Integer> mapBankOffsets = new ArrayList<Integer>();
 
@@ -2610,15 +2668,15 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
             }
             bankMapCounts[bank] = count;
         }
-
-        romEntry.entries.put("MapBankCount", bankCount);
-        romEntry.arrayEntries.put("MapBankSizes", bankMapCounts);
+        return bankMapCounts;
     }
 
+    // Only done the first time map data is needed: the map bank sizes, names
+    // and item offsets aren't worked out while loading
     private void preprocessMaps() {
         itemOffs = new ArrayList<Integer>();
-        int bankCount = romEntry.getValue("MapBankCount");
-        int[] bankMapCounts = romEntry.arrayEntries.get("MapBankSizes");
+        int[] bankMapCounts = determineMapBankSizes();
+        int bankCount = bankMapCounts.length;
         int itemBall = romEntry.getValue("ItemBallPic");
         mapNames = new String[bankCount][];
         int mbpsOffset = romEntry.getValue("MapHeaders");
@@ -2834,7 +2892,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     @Override
-    public List<IngameTrade> getIngameTrades() {
+    protected List<IngameTrade> readIngameTrades() {
         List<IngameTrade> trades = new ArrayList<IngameTrade>();
 
         // info
@@ -2869,7 +2927,7 @@ public class Gen3RomHandler extends AbstractGBRomHandler {
     }
 
     @Override
-    public void setIngameTrades(List<IngameTrade> trades) {
+    protected void writeIngameTrades(List<IngameTrade> trades) {
         // info
         int tableOffset = romEntry.getValue("TradeTableOffset");
         int tableSize = romEntry.getValue("TradeTableSize");
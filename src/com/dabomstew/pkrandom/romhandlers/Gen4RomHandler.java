@@ -29,6 +29,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -44,12 +45,14 @@ import thenewpoketext.TextToPoke;
 
 import com.dabomstew.pkrandom.FileFunctions;
 import com.dabomstew.pkrandom.GFXFunctions;
+import com.dabomstew.pkrandom.LoadPlan;
 import com.dabomstew.pkrandom.MiscTweak;
 import com.dabomstew.pkrandom.RomFunctions;
 import com.dabomstew.pkrandom.constants.Gen4Constants;
 import com.dabomstew.pkrandom.constants.GlobalConstants;
 import com.dabomstew.pkrandom.exceptions.RandomizerIOException;
 import com.dabomstew.pkrandom.newnds.NARCArchive;
+import com.dabomstew.pkrandom.pokemon.CompatibilityMatrix;
 import com.dabomstew.pkrandom.pokemon.Encounter;
 import com.dabomstew.pkrandom.pokemon.EncounterSet;
 import com.dabomstew.pkrandom.pokemon.Evolution;
@@ -58,7 +61,7 @@ import com.dabomstew.pkrandom.pokemon.ExpCurve;
 import com.dabomstew.pkrandom.pokemon.IngameTrade;
 import com.dabomstew.pkrandom.pokemon.ItemList;
 import com.dabomstew.pkrandom.pokemon.Move;
-import com.dabomstew.pkrandom.pokemon.MoveLearnt;
+import com.dabomstew.pkrandom.pokemon.Movesets;
 import com.dabomstew.pkrandom.pokemon.Pokemon;
 import com.dabomstew.pkrandom.pokemon.Trainer;
 import com.dabomstew.pkrandom.pokemon.TrainerPokemon;
@@ -253,8 +256,8 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     private Move[] moves;
     private NARCArchive pokeNarc, moveNarc;
     private NARCArchive msgNarc;
+    // null until first used; see arm9() and scripts()
     private NARCArchive scriptNarc;
-    private NARCArchive eventNarc;
     private byte[] arm9;
     private List<String> abilityNames;
     private List<String> itemNames;
@@ -285,26 +288,11 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     @Override
     protected void loadedROM(String romCode) {
         this.romEntry = entryFor(romCode);
-        try {
-            arm9 = readARM9();
-        } catch (IOException e) {
-            throw new RandomizerIOException(e);
-        }
         try {
             msgNarc = readNARC(romEntry.getString("Text"));
         } catch (IOException e) {
             throw new RandomizerIOException(e);
         }
-        try {
-            scriptNarc = readNARC(romEntry.getString("Scripts"));
-        } catch (IOException e) {
-            throw new RandomizerIOException(e);
-        }
-        try {
-            eventNarc = readNARC(romEntry.getString("Events"));
-        } catch (IOException e) {
-            throw new RandomizerIOException(e);
-        }
         loadPokemonStats();
         pokemonList = Arrays.asList(pokes);
         loadMoves();
@@ -316,6 +304,31 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
         nonBadItems = Gen4Constants.nonBadItems.copy();
     }
 
+    @Override
+    public RomHandler fork(Random random, PrintStream logStream) {
+        Gen4RomHandler copy = new Gen4RomHandler(random, logStream);
+        Map<NARCArchive, NARCArchive> narcs = copy.forkFrom(this);
+        copy.romEntry = romEntry;
+        copy.arm9 = arm9 == null ? null : arm9.clone();
+        copy.msgNarc = narcs.get(msgNarc);
+        copy.scriptNarc = narcs.get(scriptNarc);
+        copy.pokeNarc = narcs.get(pokeNarc);
+        copy.pokes = remapPokemon(pokes, copyPokemon(pokes));
+        copy.pokemonList = Arrays.asList(copy.pokes);
+        copy.moveNarc = narcs.get(moveNarc);
+        copy.moves = copyMoves(moves);
+        copy.abilityNames = new ArrayList<String>(abilityNames);
+        copy.itemNames = new ArrayList<String>(itemNames);
+        copy.loadedWildMapNames = loadedWildMapNames;
+        if (loadedWildMapNames) {
+            copy.wildMapNames = new HashMap<Integer, String>(wildMapNames);
+        }
+        copy.lastStringsCompressed = lastStringsCompressed;
+        copy.allowedItems = allowedItems.copy();
+        copy.nonBadItems = nonBadItems.copy();
+        return copy;
+    }
+
     private void loadMoves() {
         try {
             moveNarc = this.readNARC(romEntry.getString("MoveData"));
@@ -420,8 +433,11 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     protected void savingROM() {
         savePokemonStats();
         saveMoves();
+        // parts that were never loaded are unchanged
         try {
-            writeARM9(arm9);
+            if (arm9 != null) {
+                writeARM9(arm9);
+            }
         } catch (IOException e) {
             throw new RandomizerIOException(e);
         }
@@ -431,17 +447,49 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
             throw new RandomizerIOException(e);
         }
         try {
-            writeNARC(romEntry.getString("Scripts"), scriptNarc);
+            if (scriptNarc != null) {
+                writeNARC(romEntry.getString("Scripts"), scriptNarc);
+            }
         } catch (IOException e) {
             throw new RandomizerIOException(e);
         }
-        try {
-            writeNARC(romEntry.getString("Events"), eventNarc);
-        } catch (IOException e) {
-            throw new RandomizerIOException(e);
+    }
+
+    @Override
+    public void preload(LoadPlan plan) {
+        // the wild map names come out of arm9, and every run reads the
+        // encounters
+        arm9();
+        if (plan.needs(LoadPlan.Part.STARTERS) || plan.needs(LoadPlan.Part.STATIC_POKEMON)
+                || plan.needs(LoadPlan.Part.FIELD_ITEMS)) {
+            scripts();
         }
     }
 
+    // arm9 and the script NARC are loaded on first use, so runs that don't
+    // touch starters, statics or field items never decode the scripts
+    private byte[] arm9() {
+        if (arm9 == null) {
+            try {
+                arm9 = readARM9();
+            } catch (IOException e) {
+                throw new RandomizerIOException(e);
+            }
+        }
+        return arm9;
+    }
+
+    private NARCArchive scripts() {
+        if (scriptNarc == null) {
+            try {
+                scriptNarc = readNARC(romEntry.getString("Scripts"));
+            } catch (IOException e) {
+                throw new RandomizerIOException(e);
+            }
+        }
+        return scriptNarc;
+    }
+
     private void saveMoves() {
         for (int i = 1; i <= Gen4Constants.moveCount; i++) {
             byte[] data = moveNarc.files.get(i);
@@ -536,13 +584,13 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     @Override
     public List<Pokemon> getStarters() {
         if (romEntry.romType == Gen4Constants.Type_HGSS) {
-            List<Integer> tailOffsets = RomFunctions.search(arm9, Gen4Constants.hgssStarterCodeSuffix);
+            List<Integer> tailOffsets = RomFunctions.search(arm9(), Gen4Constants.hgssStarterCodeSuffix);
             if (tailOffsets.size() == 1) {
                 // Found starters
                 int starterOffset = tailOffsets.get(0) - 13;
-                int poke1 = readWord(arm9, starterOffset);
-                int poke2 = readWord(arm9, starterOffset + 4);
-                int poke3 = readWord(arm9, starterOffset + 8);
+                int poke1 = readWord(arm9(), starterOffset);
+                int poke2 = readWord(arm9(), starterOffset + 4);
+                int poke3 = readWord(arm9(), starterOffset + 8);
                 return Arrays.asList(pokes[poke1], pokes[poke2], pokes[poke3]);
             } else {
                 return Arrays.asList(pokes[Gen4Constants.chikoritaIndex], pokes[Gen4Constants.cyndaquilIndex],
@@ -568,13 +616,13 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
         }
 
         if (romEntry.romType == Gen4Constants.Type_HGSS) {
-            List<Integer> tailOffsets = RomFunctions.search(arm9, Gen4Constants.hgssStarterCodeSuffix);
+            List<Integer> tailOffsets = RomFunctions.search(arm9(), Gen4Constants.hgssStarterCodeSuffix);
             if (tailOffsets.size() == 1) {
                 // Found starters
                 int starterOffset = tailOffsets.get(0) - 13;
-                writeWord(arm9, starterOffset, newStarters.get(0).number);
-                writeWord(arm9, starterOffset + 4, newStarters.get(1).number);
-                writeWord(arm9, starterOffset + 8, newStarters.get(2).number);
+                writeWord(arm9(), starterOffset, newStarters.get(0).number);
+                writeWord(arm9(), starterOffset + 4, newStarters.get(1).number);
+                writeWord(arm9(), starterOffset + 8, newStarters.get(2).number);
                 // Go fix the rival scripts, which rely on fixed pokemon numbers
                 // The logic to be changed each time is roughly:
                 // Set 0x800C = player starter
@@ -587,7 +635,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
                 // it means: StoreStarter2 0x800C; If 0x800C 152; CheckLR B_!=
                 // <offset to follow>
                 byte[] magic = Gen4Constants.hgssRivalScriptMagic;
-                NARCArchive scriptNARC = scriptNarc;
+                NARCArchive scriptNARC = scripts();
                 for (int i = 0; i < filesWithRivalScript.length; i++) {
                     int fileCheck = filesWithRivalScript[i];
                     byte[] file = scriptNARC.files.get(fileCheck);
@@ -645,7 +693,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
                 int[] filesWithRivalScript = (romEntry.romType == Gen4Constants.Type_Plat) ? Gen4Constants.ptFilesWithRivalScript
                         : Gen4Constants.dpFilesWithRivalScript;
                 byte[] magic = Gen4Constants.dpptRivalScriptMagic;
-                NARCArchive scriptNARC = scriptNarc;
+                NARCArchive scriptNARC = scripts();
                 for (int i = 0; i < filesWithRivalScript.length; i++) {
                     int fileCheck = filesWithRivalScript[i];
                     byte[] file = scriptNARC.files.get(fileCheck);
@@ -721,11 +769,11 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
                 // The starter picking screen
                 List<String> spStrings = getStrings(romEntry.getInt("StarterScreenTextOffset"));
                 // Get pokedex info
-                List<String> pokedexSpeciesStrings = getStrings(romEntry.getInt("PokedexSpeciesTextOffset"));
+                int pokedexSpeciesTexts = romEntry.getInt("PokedexSpeciesTextOffset");
                 for (int i = 0; i < 3; i++) {
                     Pokemon newStarter = newStarters.get(i);
                     int color = (i == 0) ? 3 : i;
-                    String newStarterDesc = "\\vFF00\\z000" + color + pokedexSpeciesStrings.get(newStarter.number)
+                    String newStarterDesc = "\\vFF00\\z000" + color + getString(pokedexSpeciesTexts, newStarter.number)
                             + " " + newStarter.name + "\\vFF00\\z0000!\\nWill you take this Pokémon?";
                     spStrings.set(i + 1, newStarterDesc);
                 }
@@ -769,7 +817,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public List<EncounterSet> getEncounters(boolean useTimeOfDay) {
+    protected List<EncounterSet> readEncounters(boolean useTimeOfDay) {
         if (!loadedWildMapNames) {
             loadWildMapNames();
         }
@@ -1025,7 +1073,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public void setEncounters(boolean useTimeOfDay, List<EncounterSet> encounters) {
+    protected void writeEncounters(boolean useTimeOfDay, List<EncounterSet> encounters) {
         try {
             if (romEntry.romType == Gen4Constants.Type_HGSS) {
                 setEncountersHGSS(useTimeOfDay, encounters);
@@ -1246,16 +1294,16 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
             int mapNameIndexSize = romEntry.getInt("MapTableNameIndexSize");
             for (int map = 0; map < numMapHeaders; map++) {
                 int baseOffset = baseMHOffset + map * 24;
-                int mapNameIndex = (mapNameIndexSize == 2) ? readWord(arm9, baseOffset + 18)
-                        : (arm9[baseOffset + 18] & 0xFF);
+                int mapNameIndex = (mapNameIndexSize == 2) ? readWord(arm9(), baseOffset + 18)
+                        : (arm9()[baseOffset + 18] & 0xFF);
                 String mapName = allMapNames.get(mapNameIndex);
                 if (romEntry.romType == Gen4Constants.Type_HGSS) {
-                    int wildSet = arm9[baseOffset] & 0xFF;
+                    int wildSet = arm9()[baseOffset] & 0xFF;
                     if (wildSet != 255) {
                         wildMapNames.put(wildSet, mapName);
                     }
                 } else {
-                    int wildSet = readWord(arm9, baseOffset + 14);
+                    int wildSet = readWord(arm9(), baseOffset + 14);
                     if (wildSet != 65535) {
                         wildMapNames.put(wildSet, mapName);
                     }
@@ -1269,7 +1317,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public List<Trainer> getTrainers() {
+    protected List<Trainer> readTrainers() {
         List<Trainer> allTrainers = new ArrayList<Trainer>();
         try {
             NARCArchive trainers = this.readNARC(romEntry.getString("TrainerData"));
@@ -1337,7 +1385,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public void setTrainers(List<Trainer> trainerData) {
+    protected void writeTrainers(List<Trainer> trainerData) {
         Iterator<Trainer> allTrainers = trainerData.iterator();
         try {
             NARCArchive trainers = this.readNARC(romEntry.getString("TrainerData"));
@@ -1345,7 +1393,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
 
             // Get current movesets in case we need to reset them for certain
             // trainer mons.
-            Map<Pokemon, List<MoveLearnt>> movesets = this.getMovesLearnt();
+            Movesets movesets = this.getMovesLearnt();
 
             // empty entry
             trpokes.files.add(new byte[] { 0, 0, 0, 0, 0, 0, 0, 0 });
@@ -1411,28 +1459,22 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public Map<Pokemon, List<MoveLearnt>> getMovesLearnt() {
-        Map<Pokemon, List<MoveLearnt>> movesets = new TreeMap<Pokemon, List<MoveLearnt>>();
+    protected Movesets readMovesLearnt() {
+        Movesets movesets = new Movesets(pokemonList.subList(1, Gen4Constants.pokemonCount + 1), 20);
         try {
             NARCArchive movesLearnt = this.readNARC(romEntry.getString("PokemonMovesets"));
-            for (int i = 1; i <= Gen4Constants.pokemonCount; i++) {
-                Pokemon pkmn = pokes[i];
-                byte[] rom = movesLearnt.files.get(i);
+            for (int row = 0; row < movesets.size(); row++) {
+                byte[] rom = movesLearnt.files.get(movesets.getPokemon(row).number);
                 int moveDataLoc = 0;
-                List<MoveLearnt> learnt = new ArrayList<MoveLearnt>();
                 while ((rom[moveDataLoc] & 0xFF) != 0xFF || (rom[moveDataLoc + 1] & 0xFF) != 0xFF) {
                     int move = (rom[moveDataLoc] & 0xFF);
                     int level = (rom[moveDataLoc + 1] & 0xFE) >> 1;
                     if ((rom[moveDataLoc + 1] & 0x01) == 0x01) {
                         move += 256;
                     }
-                    MoveLearnt ml = new MoveLearnt();
-                    ml.level = level;
-                    ml.move = move;
-                    learnt.add(ml);
+                    movesets.add(row, level, move);
                     moveDataLoc += 2;
                 }
-                movesets.put(pkmn, learnt);
             }
         } catch (IOException e) {
             throw new RandomizerIOException(e);
@@ -1441,7 +1483,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public void setMovesLearnt(Map<Pokemon, List<MoveLearnt>> movesets) {
+    protected void writeMovesLearnt(Movesets movesets) {
         int[] extraLearnSets = new int[] { 7, 13, 13 };
         // Build up a new NARC
         NARCArchive movesLearnt = new NARCArchive();
@@ -1449,19 +1491,19 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
         byte[] blankSet = new byte[] { (byte) 0xFF, (byte) 0xFF, 0, 0 };
         movesLearnt.files.add(blankSet);
         for (int i = 1; i <= Gen4Constants.pokemonCount; i++) {
-            Pokemon pkmn = pokes[i];
-            List<MoveLearnt> learnt = movesets.get(pkmn);
-            int sizeNeeded = learnt.size() * 2 + 2;
+            int row = movesets.rowOf(pokes[i]);
+            int moveCount = movesets.count(row);
+            int sizeNeeded = moveCount * 2 + 2;
             if ((sizeNeeded % 4) != 0) {
                 sizeNeeded += 2;
             }
             byte[] moveset = new byte[sizeNeeded];
             int j = 0;
-            for (; j < learnt.size(); j++) {
-                MoveLearnt ml = learnt.get(j);
-                moveset[j * 2] = (byte) (ml.move & 0xFF);
-                int levelPart = (ml.level << 1) & 0xFE;
-                if (ml.move > 255) {
+            for (; j < moveCount; j++) {
+                int move = movesets.getMove(row, j);
+                moveset[j * 2] = (byte) (move & 0xFF);
+                int levelPart = (movesets.getLevel(row, j) << 1) & 0xFE;
+                if (move > 255) {
                     levelPart++;
                 }
                 moveset[j * 2 + 1] = (byte) levelPart;
@@ -1506,15 +1548,15 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
             return sp;
         }
         try {
-            NARCArchive scriptNARC = scriptNarc;
+            NARCArchive scriptNARC = scripts();
             for (StaticPokemon statP : romEntry.staticPokemon) {
                 sp.add(statP.getPokemon(this, scriptNARC));
             }
             if (romEntry.arrayEntries.containsKey("StaticPokemonTrades")) {
-                NARCArchive tradeNARC = this.readNARC(romEntry.getString("InGameTrades"));
+                String tradeNARC = romEntry.getString("InGameTrades");
                 int[] trades = romEntry.arrayEntries.get("StaticPokemonTrades");
                 for (int tradeNum : trades) {
-                    sp.add(pokes[readLong(tradeNARC.files.get(tradeNum), 0)]);
+                    sp.add(pokes[readLong(readNARCFile(tradeNARC, tradeNum), 0)]);
                 }
             }
             if (romEntry.getInt("MysteryEggOffset") > 0) {
@@ -1522,7 +1564,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
                 sp.add(pokes[ovOverlay[romEntry.getInt("MysteryEggOffset")] & 0xFF]);
             }
             if (romEntry.getInt("FossilTableOffset") > 0) {
-                byte[] ftData = arm9;
+                byte[] ftData = arm9();
                 int baseOffset = romEntry.getInt("FossilTableOffset");
                 if (romEntry.romType == Gen4Constants.Type_HGSS) {
                     ftData = readOverlay(romEntry.getInt("FossilTableOvlNumber"));
@@ -1552,7 +1594,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
         }
         try {
             Iterator<Pokemon> statics = staticPokemon.iterator();
-            NARCArchive scriptNARC = scriptNarc;
+            NARCArchive scriptNARC = scripts();
             for (StaticPokemon statP : romEntry.staticPokemon) {
                 statP.setPokemon(this, scriptNARC, statics.next());
             }
@@ -1600,7 +1642,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
                     // write to arm9
                     for (int f = 0; f < Gen4Constants.fossilCount; f++) {
                         int pokenum = statics.next().number;
-                        writeWord(arm9, baseOffset + 2 + f * 4, pokenum);
+                        writeWord(arm9(), baseOffset + 2 + f * 4, pokenum);
                     }
                 }
             }
@@ -1618,12 +1660,12 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
         } else {
             tmDataPrefix = Gen4Constants.hgssTMDataPrefix;
         }
-        int offset = find(arm9, tmDataPrefix);
+        int offset = find(arm9(), tmDataPrefix);
         if (offset > 0) {
             offset += tmDataPrefix.length() / 2; // because it was a prefix
             List<Integer> tms = new ArrayList<Integer>();
             for (int i = 0; i < Gen4Constants.tmCount; i++) {
-                tms.add(readWord(arm9, offset + i * 2));
+                tms.add(readWord(arm9(), offset + i * 2));
             }
             return tms;
         } else {
@@ -1639,13 +1681,13 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
         } else {
             tmDataPrefix = Gen4Constants.hgssTMDataPrefix;
         }
-        int offset = find(arm9, tmDataPrefix);
+        int offset = find(arm9(), tmDataPrefix);
         if (offset > 0) {
             offset += tmDataPrefix.length() / 2; // because it was a prefix
             offset += Gen4Constants.tmCount * 2; // TM data
             List<Integer> hms = new ArrayList<Integer>();
             for (int i = 0; i < Gen4Constants.hmCount; i++) {
-                hms.add(readWord(arm9, offset + i * 2));
+                hms.add(readWord(arm9(), offset + i * 2));
             }
             return hms;
         } else {
@@ -1661,11 +1703,11 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
         } else {
             tmDataPrefix = Gen4Constants.hgssTMDataPrefix;
         }
-        int offset = find(arm9, tmDataPrefix);
+        int offset = find(arm9(), tmDataPrefix);
         if (offset > 0) {
             offset += tmDataPrefix.length() / 2; // because it was a prefix
             for (int i = 0; i < Gen4Constants.tmCount; i++) {
-                writeWord(arm9, offset + i * 2, moveIndexes.get(i));
+                writeWord(arm9(), offset + i * 2, moveIndexes.get(i));
             }
 
             // Update TM item descriptions
@@ -1684,13 +1726,13 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
             if (romEntry.romType == Gen4Constants.Type_DP) {
                 baseOfPalettes = Gen4Constants.dpItemPalettesPrefix;
             }
-            int offsPals = find(arm9, baseOfPalettes);
+            int offsPals = find(arm9(), baseOfPalettes);
             if (offsPals > 0) {
                 // Write pals
                 for (int i = 0; i < Gen4Constants.tmCount; i++) {
                     Move m = this.moves[moveIndexes.get(i)];
                     int pal = this.typeTMPaletteNumber(m.type);
-                    writeWord(arm9, offsPals + i * 8 + 2, pal);
+                    writeWord(arm9(), offsPals + i * 8 + 2, pal);
                 }
             }
             // if we can't update the palettes its not a big deal...
@@ -1711,29 +1753,21 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public Map<Pokemon, boolean[]> getTMHMCompatibility() {
-        Map<Pokemon, boolean[]> compat = new TreeMap<Pokemon, boolean[]>();
-        for (int i = 1; i <= Gen4Constants.pokemonCount; i++) {
-            byte[] data = pokeNarc.files.get(i);
-            Pokemon pkmn = pokes[i];
-            boolean[] flags = new boolean[Gen4Constants.tmCount + Gen4Constants.hmCount + 1];
-            for (int j = 0; j < 13; j++) {
-                readByteIntoFlags(data, flags, j * 8 + 1, Gen4Constants.bsTMHMCompatOffset + j);
-            }
-            compat.put(pkmn, flags);
+    protected CompatibilityMatrix readTMHMCompatibility() {
+        CompatibilityMatrix compat = new CompatibilityMatrix(pokemonList.subList(1, Gen4Constants.pokemonCount + 1),
+                Gen4Constants.tmCount + Gen4Constants.hmCount);
+        for (int row = 0; row < compat.size(); row++) {
+            byte[] data = pokeNarc.files.get(compat.getPokemon(row).number);
+            compat.readBytes(row, data, Gen4Constants.bsTMHMCompatOffset, 13);
         }
         return compat;
     }
 
     @Override
-    public void setTMHMCompatibility(Map<Pokemon, boolean[]> compatData) {
-        for (Map.Entry<Pokemon, boolean[]> compatEntry : compatData.entrySet()) {
-            Pokemon pkmn = compatEntry.getKey();
-            boolean[] flags = compatEntry.getValue();
-            byte[] data = pokeNarc.files.get(pkmn.number);
-            for (int j = 0; j < 13; j++) {
-                data[Gen4Constants.bsTMHMCompatOffset + j] = getByteFromFlags(flags, j * 8 + 1);
-            }
+    protected void writeTMHMCompatibility(CompatibilityMatrix compatData) {
+        for (int row = 0; row < compatData.size(); row++) {
+            byte[] data = pokeNarc.files.get(compatData.getPokemon(row).number);
+            compatData.writeBytes(row, data, Gen4Constants.bsTMHMCompatOffset, 13);
         }
     }
 
@@ -1785,11 +1819,10 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public Map<Pokemon, boolean[]> getMoveTutorCompatibility() {
+    protected CompatibilityMatrix readMoveTutorCompatibility() {
         if (!hasMoveTutors()) {
-            return new TreeMap<Pokemon, boolean[]>();
+            return new CompatibilityMatrix(Collections.<Pokemon> emptyList(), 0);
         }
-        Map<Pokemon, boolean[]> compat = new TreeMap<Pokemon, boolean[]>();
         int amount = romEntry.getInt("MoveTutorCount");
         int baseOffset = romEntry.getInt("MoveTutorCompatOffset");
         int bytesPer = romEntry.getInt("MoveTutorCompatBytesCount");
@@ -1800,22 +1833,20 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
             } else {
                 mtcFile = readOverlay(romEntry.getInt("MoveTutorCompatOvlNumber"));
             }
-            for (int i = 1; i <= Gen4Constants.pokemonCount; i++) {
-                Pokemon pkmn = pokes[i];
-                boolean[] flags = new boolean[amount + 1];
-                for (int j = 0; j < bytesPer; j++) {
-                    readByteIntoFlags(mtcFile, flags, j * 8 + 1, baseOffset + (i - 1) * bytesPer + j);
-                }
-                compat.put(pkmn, flags);
+            CompatibilityMatrix compat = new CompatibilityMatrix(pokemonList.subList(1, Gen4Constants.pokemonCount + 1),
+                    amount);
+            for (int row = 0; row < compat.size(); row++) {
+                int i = compat.getPokemon(row).number;
+                compat.readBytes(row, mtcFile, baseOffset + (i - 1) * bytesPer, bytesPer);
             }
+            return compat;
         } catch (IOException e) {
             throw new RandomizerIOException(e);
         }
-        return compat;
     }
 
     @Override
-    public void setMoveTutorCompatibility(Map<Pokemon, boolean[]> compatData) {
+    protected void writeMoveTutorCompatibility(CompatibilityMatrix compatData) {
         if (!hasMoveTutors()) {
             return;
         }
@@ -1829,17 +1860,16 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
             } else {
                 mtcFile = readOverlay(romEntry.getInt("MoveTutorCompatOvlNumber"));
             }
-            for (Map.Entry<Pokemon, boolean[]> compatEntry : compatData.entrySet()) {
-                Pokemon pkmn = compatEntry.getKey();
-                boolean[] flags = compatEntry.getValue();
+            for (int row = 0; row < compatData.size(); row++) {
+                Pokemon pkmn = compatData.getPokemon(row);
                 for (int j = 0; j < bytesPer; j++) {
                     int offsHere = baseOffset + (pkmn.number - 1) * bytesPer + j;
                     if (j * 8 + 8 <= amount) {
                         // entirely new byte
-                        mtcFile[offsHere] = getByteFromFlags(flags, j * 8 + 1);
+                        mtcFile[offsHere] = (byte) compatData.getByte(row, j);
                     } else if (j * 8 < amount) {
                         // need some of the original byte
-                        int newByte = getByteFromFlags(flags, j * 8 + 1) & 0xFF;
+                        int newByte = compatData.getByte(row, j);
                         int oldByteParts = (mtcFile[offsHere] >>> (8 - amount + j * 8)) << (8 - amount + j * 8);
                         mtcFile[offsHere] = (byte) (newByte | oldByteParts);
                     }
@@ -1880,7 +1910,12 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
         PokeTextData pt = new PokeTextData(msgNarc.files.get(index));
         pt.decrypt();
         lastStringsCompressed = pt.compressFlag;
-        return new ArrayList<String>(pt.strlist);
+        return pt.strlist;
+    }
+
+    // one string of a message file, without decoding the rest
+    private String getString(int index, int entry) {
+        return PokeTextData.readString(msgNarc.files.get(index), entry);
     }
 
     private void setStrings(int index, List<String> newStrings) {
@@ -2000,7 +2035,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
 
     @Override
     public void removeTradeEvolutions(boolean changeMoveEvos) {
-        Map<Pokemon, List<MoveLearnt>> movesets = this.getMovesLearnt();
+        Movesets movesets = this.getMovesLearnt();
         log("--Removing Trade Evolutions--");
         Set<Evolution> extraEvolutions = new HashSet<Evolution>();
         for (Pokemon pkmn : pokes) {
@@ -2044,11 +2079,10 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
                         // read move
                         int move = evo.extraInfo;
                         int levelLearntAt = 1;
-                        for (MoveLearnt ml : movesets.get(evo.from)) {
-                            if (ml.move == move) {
-                                levelLearntAt = ml.level;
-                                break;
-                            }
+                        int row = movesets.rowOf(evo.from);
+                        int index = movesets.indexOf(row, move);
+                        if (index >= 0) {
+                            levelLearntAt = movesets.getLevel(row, index);
                         }
                         if (levelLearntAt == 1) {
                             // override for piloswine
@@ -2108,7 +2142,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
 
     @Override
     public List<String> getTrainerNames() {
-        List<String> tnames = new ArrayList<String>(getStrings(romEntry.getInt("TrainerNamesTextOffset")));
+        List<String> tnames = getStrings(romEntry.getInt("TrainerNamesTextOffset"));
         tnames.remove(0); // blank one
         for (int i = 0; i < tnames.size(); i++) {
             if (tnames.get(i).contains("\\and")) {
@@ -2230,7 +2264,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
         List<Integer> fieldItems = new ArrayList<Integer>();
         // normal items
         int scriptFile = romEntry.getInt("ItemBallsScriptOffset");
-        byte[] itemScripts = scriptNarc.files.get(scriptFile);
+        byte[] itemScripts = scripts().files.get(scriptFile);
         int offset = 0;
         int skipTableOffset = 0;
         int[] skipTable = romEntry.arrayEntries.get("ItemBallsSkip");
@@ -2261,7 +2295,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
         int hiTableOffset = romEntry.getInt("HiddenItemTableOffset");
         int hiTableLimit = romEntry.getInt("HiddenItemCount");
         for (int i = 0; i < hiTableLimit; i++) {
-            int item = readWord(arm9, hiTableOffset + i * 8);
+            int item = readWord(arm9(), hiTableOffset + i * 8);
             fieldItems.add(item);
         }
 
@@ -2273,7 +2307,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
 
         // normal items
         int scriptFile = romEntry.getInt("ItemBallsScriptOffset");
-        byte[] itemScripts = scriptNarc.files.get(scriptFile);
+        byte[] itemScripts = scripts().files.get(scriptFile);
         int offset = 0;
         int skipTableOffset = 0;
         int[] skipTable = romEntry.arrayEntries.get("ItemBallsSkip");
@@ -2304,7 +2338,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
         int hiTableLimit = romEntry.getInt("HiddenItemCount");
         for (int i = 0; i < hiTableLimit; i++) {
             int item = iterItems.next();
-            writeWord(arm9, hiTableOffset + i * 8, item);
+            writeWord(arm9(), hiTableOffset + i * 8, item);
         }
     }
 
@@ -2382,7 +2416,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public List<IngameTrade> getIngameTrades() {
+    protected List<IngameTrade> readIngameTrades() {
         List<IngameTrade> trades = new ArrayList<IngameTrade>();
         try {
             NARCArchive tradeNARC = this.readNARC(romEntry.getString("InGameTrades"));
@@ -2424,9 +2458,16 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public void setIngameTrades(List<IngameTrade> trades) {
+    protected boolean writesBack(Model model) {
+        // trades rewrite what the traders say about them too, which has to
+        // stay in step with the other text changes
+        return model != Model.INGAME_TRADES;
+    }
+
+    @Override
+    protected void writeIngameTrades(List<IngameTrade> trades) {
         int tradeOffset = 0;
-        List<IngameTrade> oldTrades = this.getIngameTrades();
+        List<IngameTrade> oldTrades = this.readIngameTrades();
         try {
             NARCArchive tradeNARC = this.readNARC(romEntry.getString("InGameTrades"));
             int[] spTrades = new int[0];
@@ -2611,22 +2652,22 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
             Pokemon player = randomPokemonLimited(255, false);
 
             if (opponent != null && player != null) {
-                arm9[opponentOffset] = (byte) opponent.number;
-                arm9[playerOffset] = (byte) player.number;
+                arm9()[opponentOffset] = (byte) opponent.number;
+                arm9()[playerOffset] = (byte) player.number;
             }
         } else {
             // Only opponent, but enough space for any mon
             Pokemon opponent = randomPokemonLimited(Integer.MAX_VALUE, false);
 
             if (opponent != null) {
-                writeLong(arm9, opponentOffset, opponent.number);
+                writeLong(arm9(), opponentOffset, opponent.number);
             }
         }
 
     }
 
     private void applyFastestText() {
-        genericIPSPatch(arm9, "FastestTextTweak");
+        genericIPSPatch(arm9(), "FastestTextTweak");
     }
 
     private boolean genericIPSPatch(byte[] data, String ctName) {
@@ -2662,7 +2703,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
     public BufferedImage getMascotImage() {
         try {
             Pokemon pk = randomPokemon();
-            NARCArchive pokespritesNARC = this.readNARC(romEntry.getString("PokemonGraphics"));
+            String pokespritesNARC = romEntry.getString("PokemonGraphics");
             int spriteIndex = pk.number * 6 + 2 + random.nextInt(2);
             int palIndex = pk.number * 6 + 4;
             if (random.nextInt(10) == 0) {
@@ -2671,10 +2712,10 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
             }
 
             // read sprite
-            byte[] rawSprite = pokespritesNARC.files.get(spriteIndex);
+            byte[] rawSprite = readNARCFile(pokespritesNARC, spriteIndex);
             if (rawSprite.length == 0) {
                 // Must use other gender form
-                rawSprite = pokespritesNARC.files.get(spriteIndex ^ 1);
+                rawSprite = readNARCFile(pokespritesNARC, spriteIndex ^ 1);
             }
             int[] spriteData = new int[3200];
             for (int i = 0; i < 3200; i++) {
@@ -2697,7 +2738,7 @@ public class Gen4RomHandler extends AbstractDSRomHandler {
                 }
             }
 
-            byte[] rawPalette = pokespritesNARC.files.get(palIndex);
+            byte[] rawPalette = readNARCFile(pokespritesNARC, palIndex);
 
             int[] palette = new int[16];
             for (int i = 1; i < 16; i++) {
@@ -30,6 +30,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -39,17 +40,20 @@ import java.util.Random;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.WeakHashMap;
 
 import pptxt.PPTxtHandler;
 
 import com.dabomstew.pkrandom.FileFunctions;
 import com.dabomstew.pkrandom.GFXFunctions;
+import com.dabomstew.pkrandom.LoadPlan;
 import com.dabomstew.pkrandom.MiscTweak;
 import com.dabomstew.pkrandom.RomFunctions;
 import com.dabomstew.pkrandom.constants.Gen5Constants;
 import com.dabomstew.pkrandom.constants.GlobalConstants;
 import com.dabomstew.pkrandom.exceptions.RandomizerIOException;
 import com.dabomstew.pkrandom.newnds.NARCArchive;
+import com.dabomstew.pkrandom.pokemon.CompatibilityMatrix;
 import com.dabomstew.pkrandom.pokemon.Encounter;
 import com.dabomstew.pkrandom.pokemon.EncounterSet;
 import com.dabomstew.pkrandom.pokemon.Evolution;
@@ -58,7 +62,7 @@ import com.dabomstew.pkrandom.pokemon.ExpCurve;
 import com.dabomstew.pkrandom.pokemon.IngameTrade;
 import com.dabomstew.pkrandom.pokemon.ItemList;
 import com.dabomstew.pkrandom.pokemon.Move;
-import com.dabomstew.pkrandom.pokemon.MoveLearnt;
+import com.dabomstew.pkrandom.pokemon.Movesets;
 import com.dabomstew.pkrandom.pokemon.Pokemon;
 import com.dabomstew.pkrandom.pokemon.Trainer;
 import com.dabomstew.pkrandom.pokemon.TrainerPokemon;
@@ -265,6 +269,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     private List<Pokemon> pokemonList;
     private Move[] moves;
     private RomEntry romEntry;
+    // null until first used, like storyTextNarc and scriptNarc
     private byte[] arm9;
     private List<String> abilityNames;
     private List<String> itemNames;
@@ -274,6 +279,12 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
 
     private NARCArchive pokeNarc, moveNarc, stringsNarc, storyTextNarc, scriptNarc;
 
+    private final PPTxtHandler textHandler = new PPTxtHandler();
+    // Text files already decoded, by their data. Files are never changed in
+    // place (setStrings puts a new array in the NARC), so an entry stays
+    // right for as long as its array is around.
+    private final Map<byte[], PPTxtHandler.TextFile> decodedTexts = new WeakHashMap<byte[], PPTxtHandler.TextFile>();
+
     @Override
     protected boolean detectNDSRom(String ndsCode) {
         return detectNDSRomInner(ndsCode);
@@ -299,20 +310,8 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     @Override
     protected void loadedROM(String romCode) {
         this.romEntry = entryFor(romCode);
-        try {
-            arm9 = readARM9();
-        } catch (IOException e) {
-            throw new RandomizerIOException(e);
-        }
         try {
             stringsNarc = readNARC(romEntry.getString("TextStrings"));
-            storyTextNarc = readNARC(romEntry.getString("TextStory"));
-        } catch (IOException e) {
-            throw new RandomizerIOException(e);
-        }
-
-        try {
-            scriptNarc = readNARC(romEntry.getString("Scripts"));
         } catch (IOException e) {
             throw new RandomizerIOException(e);
         }
@@ -328,6 +327,31 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
         nonBadItems = Gen5Constants.nonBadItems.copy();
     }
 
+    @Override
+    public RomHandler fork(Random random, PrintStream logStream) {
+        Gen5RomHandler copy = new Gen5RomHandler(random, logStream);
+        Map<NARCArchive, NARCArchive> narcs = copy.forkFrom(this);
+        copy.romEntry = romEntry;
+        copy.arm9 = arm9 == null ? null : arm9.clone();
+        copy.stringsNarc = narcs.get(stringsNarc);
+        copy.storyTextNarc = narcs.get(storyTextNarc);
+        copy.scriptNarc = narcs.get(scriptNarc);
+        copy.pokeNarc = narcs.get(pokeNarc);
+        copy.pokes = remapPokemon(pokes, copyPokemon(pokes));
+        copy.pokemonList = Arrays.asList(copy.pokes);
+        copy.moveNarc = narcs.get(moveNarc);
+        copy.moves = copyMoves(moves);
+        copy.abilityNames = new ArrayList<String>(abilityNames);
+        copy.itemNames = new ArrayList<String>(itemNames);
+        copy.loadedWildMapNames = loadedWildMapNames;
+        if (loadedWildMapNames) {
+            copy.wildMapNames = new HashMap<Integer, String>(wildMapNames);
+        }
+        copy.allowedItems = allowedItems.copy();
+        copy.nonBadItems = nonBadItems.copy();
+        return copy;
+    }
+
     private void loadPokemonStats() {
         try {
             pokeNarc = this.readNARC(romEntry.getString("PokemonStats"));
@@ -431,25 +455,81 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     protected void savingROM() {
         savePokemonStats();
         saveMoves();
+        // parts that were never loaded are unchanged
         try {
-            writeARM9(arm9);
+            if (arm9 != null) {
+                writeARM9(arm9);
+            }
         } catch (IOException e) {
             throw new RandomizerIOException(e);
         }
         try {
             writeNARC(romEntry.getString("TextStrings"), stringsNarc);
-            writeNARC(romEntry.getString("TextStory"), storyTextNarc);
+            if (storyTextNarc != null) {
+                writeNARC(romEntry.getString("TextStory"), storyTextNarc);
+            }
         } catch (IOException e) {
             throw new RandomizerIOException(e);
         }
 
         try {
-            writeNARC(romEntry.getString("Scripts"), scriptNarc);
+            if (scriptNarc != null) {
+                writeNARC(romEntry.getString("Scripts"), scriptNarc);
+            }
         } catch (IOException e) {
             throw new RandomizerIOException(e);
         }
     }
 
+    @Override
+    public void preload(LoadPlan plan) {
+        if (plan.needs(LoadPlan.Part.STARTERS) || plan.needs(LoadPlan.Part.STATIC_POKEMON)
+                || plan.needs(LoadPlan.Part.FIELD_ITEMS)) {
+            scripts();
+        }
+        if (plan.needs(LoadPlan.Part.STARTERS)) {
+            storyText();
+        }
+        if (plan.needs(LoadPlan.Part.TMS) || plan.needs(LoadPlan.Part.MISC_TWEAKS)) {
+            arm9();
+        }
+    }
+
+    // arm9, the story text and the scripts are loaded on first use, so a
+    // run that only changes trainers or wild Pokemon never decodes them
+    private byte[] arm9() {
+        if (arm9 == null) {
+            try {
+                arm9 = readARM9();
+            } catch (IOException e) {
+                throw new RandomizerIOException(e);
+            }
+        }
+        return arm9;
+    }
+
+    private NARCArchive storyText() {
+        if (storyTextNarc == null) {
+            try {
+                storyTextNarc = readNARC(romEntry.getString("TextStory"));
+            } catch (IOException e) {
+                throw new RandomizerIOException(e);
+            }
+        }
+        return storyTextNarc;
+    }
+
+    private NARCArchive scripts() {
+        if (scriptNarc == null) {
+            try {
+                scriptNarc = readNARC(romEntry.getString("Scripts"));
+            } catch (IOException e) {
+                throw new RandomizerIOException(e);
+            }
+        }
+        return scriptNarc;
+    }
+
     private void saveMoves() {
         for (int i = 1; i <= Gen5Constants.moveCount; i++) {
             byte[] data = moveNarc.files.get(i);
@@ -533,7 +613,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
 
     @Override
     public List<Pokemon> getStarters() {
-        NARCArchive scriptNARC = scriptNarc;
+        NARCArchive scriptNARC = scripts();
         List<Pokemon> starters = new ArrayList<Pokemon>();
         for (int i = 0; i < 3; i++) {
             OffsetWithinEntry[] thisStarter = romEntry.offsetArrayEntries.get("StarterOffsets" + (i + 1));
@@ -550,7 +630,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
 
         // Fix up starter offsets
         try {
-            NARCArchive scriptNARC = scriptNarc;
+            NARCArchive scriptNARC = scripts();
             for (int i = 0; i < 3; i++) {
                 int starter = newStarters.get(i).number;
                 OffsetWithinEntry[] thisStarter = romEntry.offsetArrayEntries.get("StarterOffsets" + (i + 1));
@@ -597,7 +677,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
 
             // Starter sprites
             NARCArchive starterNARC = this.readNARC(romEntry.getString("StarterGraphics"));
-            NARCArchive pokespritesNARC = this.readNARC(romEntry.getString("PokemonGraphics"));
+            String pokespritesNARC = romEntry.getString("PokemonGraphics");
             replaceStarterFiles(starterNARC, pokespritesNARC, 0, newStarters.get(0).number);
             replaceStarterFiles(starterNARC, pokespritesNARC, 1, newStarters.get(1).number);
             replaceStarterFiles(starterNARC, pokespritesNARC, 2, newStarters.get(2).number);
@@ -658,11 +738,11 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
         // do nothing
     }
 
-    private void replaceStarterFiles(NARCArchive starterNARC, NARCArchive pokespritesNARC, int starterIndex,
+    private void replaceStarterFiles(NARCArchive starterNARC, String pokespritesNARC, int starterIndex,
             int pokeNumber) throws IOException, InterruptedException {
-        starterNARC.files.set(starterIndex * 2, pokespritesNARC.files.get(pokeNumber * 20 + 18));
+        starterNARC.files.set(starterIndex * 2, readNARCFile(pokespritesNARC, pokeNumber * 20 + 18));
         // Get the picture...
-        byte[] compressedPic = pokespritesNARC.files.get(pokeNumber * 20);
+        byte[] compressedPic = readNARCFile(pokespritesNARC, pokeNumber * 20);
         // Decompress it with JavaDSDecmp
         byte[] uncompressedPic = DSDecmp.Decompress(compressedPic);
         starterNARC.files.set(12 + starterIndex, uncompressedPic);
@@ -674,7 +754,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public List<EncounterSet> getEncounters(boolean useTimeOfDay) {
+    protected List<EncounterSet> readEncounters(boolean useTimeOfDay) {
         if (!loadedWildMapNames) {
             loadWildMapNames();
         }
@@ -737,7 +817,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public void setEncounters(boolean useTimeOfDay, List<EncounterSet> encountersList) {
+    protected void writeEncounters(boolean useTimeOfDay, List<EncounterSet> encountersList) {
         try {
             NARCArchive encounterNARC = readNARC(romEntry.getString("WildPokemon"));
             Iterator<EncounterSet> encounters = encountersList.iterator();
@@ -959,7 +1039,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     private void loadWildMapNames() {
         try {
             wildMapNames = new HashMap<Integer, String>();
-            byte[] mapHeaderData = this.readNARC(romEntry.getString("MapTableFile")).files.get(0);
+            byte[] mapHeaderData = readNARCFile(romEntry.getString("MapTableFile"), 0);
             int numMapHeaders = mapHeaderData.length / 48;
             List<String> allMapNames = getStrings(false, romEntry.getInt("MapNamesTextOffset"));
             for (int map = 0; map < numMapHeaders; map++) {
@@ -986,7 +1066,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public List<Trainer> getTrainers() {
+    protected List<Trainer> readTrainers() {
         List<Trainer> allTrainers = new ArrayList<Trainer>();
         try {
             NARCArchive trainers = this.readNARC(romEntry.getString("TrainerData"));
@@ -1082,14 +1162,14 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public void setTrainers(List<Trainer> trainerData) {
+    protected void writeTrainers(List<Trainer> trainerData) {
         Iterator<Trainer> allTrainers = trainerData.iterator();
         try {
             NARCArchive trainers = this.readNARC(romEntry.getString("TrainerData"));
             NARCArchive trpokes = new NARCArchive();
             // Get current movesets in case we need to reset them for certain
             // trainer mons.
-            Map<Pokemon, List<MoveLearnt>> movesets = this.getMovesLearnt();
+            Movesets movesets = this.getMovesLearnt();
             // empty entry
             trpokes.files.add(new byte[] { 0, 0, 0, 0, 0, 0, 0, 0 });
             int trainernum = trainers.files.size();
@@ -1176,25 +1256,17 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public Map<Pokemon, List<MoveLearnt>> getMovesLearnt() {
-        Map<Pokemon, List<MoveLearnt>> movesets = new TreeMap<Pokemon, List<MoveLearnt>>();
+    protected Movesets readMovesLearnt() {
+        Movesets movesets = new Movesets(pokemonList.subList(1, Gen5Constants.pokemonCount + 1), 24);
         try {
             NARCArchive movesLearnt = this.readNARC(romEntry.getString("PokemonMovesets"));
-            for (int i = 1; i <= Gen5Constants.pokemonCount; i++) {
-                Pokemon pkmn = pokes[i];
-                byte[] movedata = movesLearnt.files.get(i);
+            for (int row = 0; row < movesets.size(); row++) {
+                byte[] movedata = movesLearnt.files.get(movesets.getPokemon(row).number);
                 int moveDataLoc = 0;
-                List<MoveLearnt> learnt = new ArrayList<MoveLearnt>();
                 while (readWord(movedata, moveDataLoc) != 0xFFFF || readWord(movedata, moveDataLoc + 2) != 0xFFFF) {
-                    int move = readWord(movedata, moveDataLoc);
-                    int level = readWord(movedata, moveDataLoc + 2);
-                    MoveLearnt ml = new MoveLearnt();
-                    ml.level = level;
-                    ml.move = move;
-                    learnt.add(ml);
+                    movesets.add(row, readWord(movedata, moveDataLoc + 2), readWord(movedata, moveDataLoc));
                     moveDataLoc += 4;
                 }
-                movesets.put(pkmn, learnt);
             }
         } catch (IOException e) {
             throw new RandomizerIOException(e);
@@ -1203,19 +1275,18 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public void setMovesLearnt(Map<Pokemon, List<MoveLearnt>> movesets) {
+    protected void writeMovesLearnt(Movesets movesets) {
         try {
             NARCArchive movesLearnt = readNARC(romEntry.getString("PokemonMovesets"));
             for (int i = 1; i <= Gen5Constants.pokemonCount; i++) {
-                Pokemon pkmn = pokes[i];
-                List<MoveLearnt> learnt = movesets.get(pkmn);
-                int sizeNeeded = learnt.size() * 4 + 4;
+                int row = movesets.rowOf(pokes[i]);
+                int moveCount = movesets.count(row);
+                int sizeNeeded = moveCount * 4 + 4;
                 byte[] moveset = new byte[sizeNeeded];
                 int j = 0;
-                for (; j < learnt.size(); j++) {
-                    MoveLearnt ml = learnt.get(j);
-                    writeWord(moveset, j * 4, ml.move);
-                    writeWord(moveset, j * 4 + 2, ml.level);
+                for (; j < moveCount; j++) {
+                    writeWord(moveset, j * 4, movesets.getMove(row, j));
+                    writeWord(moveset, j * 4 + 2, movesets.getLevel(row, j));
                 }
                 writeWord(moveset, j * 4, 0xFFFF);
                 writeWord(moveset, j * 4 + 2, 0xFFFF);
@@ -1257,7 +1328,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
         if (!romEntry.staticPokemonSupport) {
             return sp;
         }
-        NARCArchive scriptNARC = scriptNarc;
+        NARCArchive scriptNARC = scripts();
         for (StaticPokemon statP : romEntry.staticPokemon) {
             sp.add(statP.getPokemon(this, scriptNARC));
         }
@@ -1273,7 +1344,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
             return false;
         }
         Iterator<Pokemon> statics = staticPokemon.iterator();
-        NARCArchive scriptNARC = scriptNarc;
+        NARCArchive scriptNARC = scripts();
         for (StaticPokemon statP : romEntry.staticPokemon) {
             statP.setPokemon(this, scriptNARC, statics.next());
         }
@@ -1344,7 +1415,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     private void applyFastestText() {
-        genericIPSPatch(arm9, "FastestTextTweak");
+        genericIPSPatch(arm9(), "FastestTextTweak");
     }
 
     private boolean genericIPSPatch(byte[] data, String ctName) {
@@ -1364,18 +1435,18 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     @Override
     public List<Integer> getTMMoves() {
         String tmDataPrefix = Gen5Constants.tmDataPrefix;
-        int offset = find(arm9, tmDataPrefix);
+        int offset = find(arm9(), tmDataPrefix);
         if (offset > 0) {
             offset += Gen5Constants.tmDataPrefix.length() / 2; // because it was
                                                                // a prefix
             List<Integer> tms = new ArrayList<Integer>();
             for (int i = 0; i < Gen5Constants.tmBlockOneCount; i++) {
-                tms.add(readWord(arm9, offset + i * 2));
+                tms.add(readWord(arm9(), offset + i * 2));
             }
             // Skip past first 92 TMs and 6 HMs
             offset += (Gen5Constants.tmBlockOneCount + Gen5Constants.hmCount) * 2;
             for (int i = 0; i < (Gen5Constants.tmCount - Gen5Constants.tmBlockOneCount); i++) {
-                tms.add(readWord(arm9, offset + i * 2));
+                tms.add(readWord(arm9(), offset + i * 2));
             }
             return tms;
         } else {
@@ -1386,14 +1457,14 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     @Override
     public List<Integer> getHMMoves() {
         String tmDataPrefix = Gen5Constants.tmDataPrefix;
-        int offset = find(arm9, tmDataPrefix);
+        int offset = find(arm9(), tmDataPrefix);
         if (offset > 0) {
             offset += Gen5Constants.tmDataPrefix.length() / 2; // because it was
                                                                // a prefix
             offset += Gen5Constants.tmBlockOneCount * 2; // TM data
             List<Integer> hms = new ArrayList<Integer>();
             for (int i = 0; i < Gen5Constants.hmCount; i++) {
-                hms.add(readWord(arm9, offset + i * 2));
+                hms.add(readWord(arm9(), offset + i * 2));
             }
             return hms;
         } else {
@@ -1404,17 +1475,17 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     @Override
     public void setTMMoves(List<Integer> moveIndexes) {
         String tmDataPrefix = Gen5Constants.tmDataPrefix;
-        int offset = find(arm9, tmDataPrefix);
+        int offset = find(arm9(), tmDataPrefix);
         if (offset > 0) {
             offset += Gen5Constants.tmDataPrefix.length() / 2; // because it was
                                                                // a prefix
             for (int i = 0; i < Gen5Constants.tmBlockOneCount; i++) {
-                writeWord(arm9, offset + i * 2, moveIndexes.get(i));
+                writeWord(arm9(), offset + i * 2, moveIndexes.get(i));
             }
             // Skip past those 92 TMs and 6 HMs
             offset += (Gen5Constants.tmBlockOneCount + Gen5Constants.hmCount) * 2;
             for (int i = 0; i < (Gen5Constants.tmCount - Gen5Constants.tmBlockOneCount); i++) {
-                writeWord(arm9, offset + i * 2, moveIndexes.get(i + Gen5Constants.tmBlockOneCount));
+                writeWord(arm9(), offset + i * 2, moveIndexes.get(i + Gen5Constants.tmBlockOneCount));
             }
 
             // Update TM item descriptions
@@ -1438,20 +1509,20 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
             } else {
                 baseOfPalettes = Gen5Constants.bw2ItemPalettesPrefix;
             }
-            int offsPals = find(arm9, baseOfPalettes);
+            int offsPals = find(arm9(), baseOfPalettes);
             if (offsPals > 0) {
                 // Write pals
                 for (int i = 0; i < Gen5Constants.tmBlockOneCount; i++) {
                     int itmNum = Gen5Constants.tmBlockOneOffset + i;
                     Move m = this.moves[moveIndexes.get(i)];
                     int pal = this.typeTMPaletteNumber(m.type);
-                    writeWord(arm9, offsPals + itmNum * 4 + 2, pal);
+                    writeWord(arm9(), offsPals + itmNum * 4 + 2, pal);
                 }
                 for (int i = 0; i < (Gen5Constants.tmCount - Gen5Constants.tmBlockOneCount); i++) {
                     int itmNum = Gen5Constants.tmBlockTwoOffset + i;
                     Move m = this.moves[moveIndexes.get(i + Gen5Constants.tmBlockOneCount)];
                     int pal = this.typeTMPaletteNumber(m.type);
-                    writeWord(arm9, offsPals + itmNum * 4 + 2, pal);
+                    writeWord(arm9(), offsPals + itmNum * 4 + 2, pal);
                 }
             }
         } else {
@@ -1483,29 +1554,21 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public Map<Pokemon, boolean[]> getTMHMCompatibility() {
-        Map<Pokemon, boolean[]> compat = new TreeMap<Pokemon, boolean[]>();
-        for (int i = 1; i <= Gen5Constants.pokemonCount; i++) {
-            byte[] data = pokeNarc.files.get(i);
-            Pokemon pkmn = pokes[i];
-            boolean[] flags = new boolean[Gen5Constants.tmCount + Gen5Constants.hmCount + 1];
-            for (int j = 0; j < 13; j++) {
-                readByteIntoFlags(data, flags, j * 8 + 1, Gen5Constants.bsTMHMCompatOffset + j);
-            }
-            compat.put(pkmn, flags);
+    protected CompatibilityMatrix readTMHMCompatibility() {
+        CompatibilityMatrix compat = new CompatibilityMatrix(pokemonList.subList(1, Gen5Constants.pokemonCount + 1),
+                Gen5Constants.tmCount + Gen5Constants.hmCount);
+        for (int row = 0; row < compat.size(); row++) {
+            byte[] data = pokeNarc.files.get(compat.getPokemon(row).number);
+            compat.readBytes(row, data, Gen5Constants.bsTMHMCompatOffset, 13);
         }
         return compat;
     }
 
     @Override
-    public void setTMHMCompatibility(Map<Pokemon, boolean[]> compatData) {
-        for (Map.Entry<Pokemon, boolean[]> compatEntry : compatData.entrySet()) {
-            Pokemon pkmn = compatEntry.getKey();
-            boolean[] flags = compatEntry.getValue();
-            byte[] data = pokeNarc.files.get(pkmn.number);
-            for (int j = 0; j < 13; j++) {
-                data[Gen5Constants.bsTMHMCompatOffset + j] = getByteFromFlags(flags, j * 8 + 1);
-            }
+    protected void writeTMHMCompatibility(CompatibilityMatrix compatData) {
+        for (int row = 0; row < compatData.size(); row++) {
+            byte[] data = pokeNarc.files.get(compatData.getPokemon(row).number);
+            compatData.writeBytes(row, data, Gen5Constants.bsTMHMCompatOffset, 13);
         }
     }
 
@@ -1557,36 +1620,31 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public Map<Pokemon, boolean[]> getMoveTutorCompatibility() {
+    protected CompatibilityMatrix readMoveTutorCompatibility() {
         if (!hasMoveTutors()) {
-            return new TreeMap<Pokemon, boolean[]>();
+            return new CompatibilityMatrix(Collections.<Pokemon> emptyList(), 0);
         }
-        Map<Pokemon, boolean[]> compat = new TreeMap<Pokemon, boolean[]>();
+        CompatibilityMatrix compat = new CompatibilityMatrix(pokemonList.subList(1, Gen5Constants.pokemonCount + 1),
+                Gen5Constants.bw2MoveTutorCount);
         int[] countsPersonalOrder = new int[] { 15, 17, 13, 15 };
         int[] countsMoveOrder = new int[] { 13, 15, 15, 17 };
         int[] personalToMoveOrder = new int[] { 1, 3, 0, 2 };
-        for (int i = 1; i <= Gen5Constants.pokemonCount; i++) {
-            byte[] data = pokeNarc.files.get(i);
-            Pokemon pkmn = pokes[i];
-            boolean[] flags = new boolean[Gen5Constants.bw2MoveTutorCount + 1];
+        for (int row = 0; row < compat.size(); row++) {
+            byte[] data = pokeNarc.files.get(compat.getPokemon(row).number);
             for (int mt = 0; mt < 4; mt++) {
-                boolean[] mtflags = new boolean[countsPersonalOrder[mt] + 1];
-                for (int j = 0; j < 4; j++) {
-                    readByteIntoFlags(data, mtflags, j * 8 + 1, Gen5Constants.bsMTCompatOffset + mt * 4 + j);
-                }
                 int offsetOfThisData = 0;
                 for (int cmoIndex = 0; cmoIndex < personalToMoveOrder[mt]; cmoIndex++) {
                     offsetOfThisData += countsMoveOrder[cmoIndex];
                 }
-                System.arraycopy(mtflags, 1, flags, offsetOfThisData + 1, countsPersonalOrder[mt]);
+                int mtflags = readLong(data, Gen5Constants.bsMTCompatOffset + mt * 4);
+                compat.setBits(row, offsetOfThisData + 1, countsPersonalOrder[mt], mtflags);
             }
-            compat.put(pkmn, flags);
         }
         return compat;
     }
 
     @Override
-    public void setMoveTutorCompatibility(Map<Pokemon, boolean[]> compatData) {
+    protected void writeMoveTutorCompatibility(CompatibilityMatrix compatData) {
         if (!hasMoveTutors()) {
             return;
         }
@@ -1596,20 +1654,15 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
         int[] countsPersonalOrder = new int[] { 15, 17, 13, 15 };
         int[] countsMoveOrder = new int[] { 13, 15, 15, 17 };
         int[] personalToMoveOrder = new int[] { 1, 3, 0, 2 };
-        for (Map.Entry<Pokemon, boolean[]> compatEntry : compatData.entrySet()) {
-            Pokemon pkmn = compatEntry.getKey();
-            boolean[] flags = compatEntry.getValue();
-            byte[] data = pokeNarc.files.get(pkmn.number);
+        for (int row = 0; row < compatData.size(); row++) {
+            byte[] data = pokeNarc.files.get(compatData.getPokemon(row).number);
             for (int mt = 0; mt < 4; mt++) {
                 int offsetOfThisData = 0;
                 for (int cmoIndex = 0; cmoIndex < personalToMoveOrder[mt]; cmoIndex++) {
                     offsetOfThisData += countsMoveOrder[cmoIndex];
                 }
-                boolean[] mtflags = new boolean[countsPersonalOrder[mt] + 1];
-                System.arraycopy(flags, offsetOfThisData + 1, mtflags, 1, countsPersonalOrder[mt]);
-                for (int j = 0; j < 4; j++) {
-                    data[Gen5Constants.bsMTCompatOffset + mt * 4 + j] = getByteFromFlags(mtflags, j * 8 + 1);
-                }
+                long mtflags = compatData.getBits(row, offsetOfThisData + 1, countsPersonalOrder[mt]);
+                writeLong(data, Gen5Constants.bsMTCompatOffset + mt * 4, (int) mtflags);
             }
         }
     }
@@ -1633,18 +1686,27 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     private List<String> getStrings(boolean isStoryText, int index) {
-        NARCArchive baseNARC = isStoryText ? storyTextNarc : stringsNarc;
+        NARCArchive baseNARC = isStoryText ? storyText() : stringsNarc;
         byte[] rawFile = baseNARC.files.get(index);
-        return new ArrayList<String>(PPTxtHandler.readTexts(rawFile));
+        return new ArrayList<String>(decodeTexts(rawFile).getStrings());
     }
 
     private void setStrings(boolean isStoryText, int index, List<String> strings) {
-        NARCArchive baseNARC = isStoryText ? storyTextNarc : stringsNarc;
+        NARCArchive baseNARC = isStoryText ? storyText() : stringsNarc;
         byte[] oldRawFile = baseNARC.files.get(index);
-        byte[] newRawFile = PPTxtHandler.saveEntry(oldRawFile, strings);
+        byte[] newRawFile = textHandler.encode(oldRawFile, decodeTexts(oldRawFile), strings);
         baseNARC.files.set(index, newRawFile);
     }
 
+    private PPTxtHandler.TextFile decodeTexts(byte[] rawFile) {
+        PPTxtHandler.TextFile decoded = decodedTexts.get(rawFile);
+        if (decoded == null) {
+            decoded = textHandler.decode(rawFile);
+            decodedTexts.put(rawFile, decoded);
+        }
+        return decoded;
+    }
+
     @Override
     public String getROMName() {
         return "Pokemon " + romEntry.name;
@@ -1735,7 +1797,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
 
     @Override
     public void removeTradeEvolutions(boolean changeMoveEvos) {
-        Map<Pokemon, List<MoveLearnt>> movesets = this.getMovesLearnt();
+        Movesets movesets = this.getMovesLearnt();
         log("--Removing Trade Evolutions--");
         Set<Evolution> extraEvolutions = new HashSet<Evolution>();
         for (Pokemon pkmn : pokes) {
@@ -1746,11 +1808,10 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
                         // read move
                         int move = evo.extraInfo;
                         int levelLearntAt = 1;
-                        for (MoveLearnt ml : movesets.get(evo.from)) {
-                            if (ml.move == move) {
-                                levelLearntAt = ml.level;
-                                break;
-                            }
+                        int row = movesets.rowOf(evo.from);
+                        int index = movesets.indexOf(row, move);
+                        if (index >= 0) {
+                            levelLearntAt = movesets.getLevel(row, index);
                         }
                         if (levelLearntAt == 1) {
                             // override for piloswine
@@ -1961,7 +2022,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
         int setVarNormal = Gen5Constants.normalItemSetVarCommand;
         int setVarHidden = Gen5Constants.hiddenItemSetVarCommand;
 
-        byte[] itemScripts = scriptNarc.files.get(scriptFileNormal);
+        byte[] itemScripts = scripts().files.get(scriptFileNormal);
         int offset = 0;
         int skipTableOffset = 0;
         while (true) {
@@ -1989,7 +2050,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
         }
 
         // hidden items
-        byte[] hitemScripts = scriptNarc.files.get(scriptFileHidden);
+        byte[] hitemScripts = scripts().files.get(scriptFileHidden);
         offset = 0;
         skipTableOffset = 0;
         while (true) {
@@ -2030,7 +2091,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
         int setVarNormal = Gen5Constants.normalItemSetVarCommand;
         int setVarHidden = Gen5Constants.hiddenItemSetVarCommand;
 
-        byte[] itemScripts = scriptNarc.files.get(scriptFileNormal);
+        byte[] itemScripts = scripts().files.get(scriptFileNormal);
         int offset = 0;
         int skipTableOffset = 0;
         while (true) {
@@ -2058,7 +2119,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
         }
 
         // hidden items
-        byte[] hitemScripts = scriptNarc.files.get(scriptFileHidden);
+        byte[] hitemScripts = scripts().files.get(scriptFileHidden);
         offset = 0;
         skipTableOffset = 0;
         while (true) {
@@ -2175,7 +2236,7 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public List<IngameTrade> getIngameTrades() {
+    protected List<IngameTrade> readIngameTrades() {
         List<IngameTrade> trades = new ArrayList<IngameTrade>();
         try {
             NARCArchive tradeNARC = this.readNARC(romEntry.getString("InGameTrades"));
@@ -2212,7 +2273,13 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     }
 
     @Override
-    public void setIngameTrades(List<IngameTrade> trades) {
+    protected boolean writesBack(Model model) {
+        // trades share a text file with other strings that are set as we go
+        return model != Model.INGAME_TRADES;
+    }
+
+    @Override
+    protected void writeIngameTrades(List<IngameTrade> trades) {
         // info
         int tradeOffset = 0;
         try {
@@ -2322,17 +2389,17 @@ public class Gen5RomHandler extends AbstractDSRomHandler {
     public BufferedImage getMascotImage() {
         try {
             Pokemon pk = randomPokemon();
-            NARCArchive pokespritesNARC = this.readNARC(romEntry.getString("PokemonGraphics"));
+            String pokespritesNARC = romEntry.getString("PokemonGraphics");
 
             // First prepare the palette, it's the easy bit
-            byte[] rawPalette = pokespritesNARC.files.get(pk.number * 20 + 18);
+            byte[] rawPalette = readNARCFile(pokespritesNARC, pk.number * 20 + 18);
             int[] palette = new int[16];
             for (int i = 1; i < 16; i++) {
                 palette[i] = GFXFunctions.conv16BitColorToARGB(readWord(rawPalette, 40 + i * 2));
             }
 
             // Get the picture and uncompress it.
-            byte[] compressedPic = pokespritesNARC.files.get(pk.number * 20);
+            byte[] compressedPic = readNARCFile(pokespritesNARC, pk.number * 20);
             byte[] uncompressedPic = DSDecmp.Decompress(compressedPic);
 
             // Output to 64x144 tiled image to prepare for unscrambling
@@ -27,17 +27,19 @@ package com.dabomstew.pkrandom.romhandlers;
 import java.awt.image.BufferedImage;
 import java.io.PrintStream;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 
 import com.dabomstew.pkrandom.CustomNamesSet;
+import com.dabomstew.pkrandom.LoadPlan;
 import com.dabomstew.pkrandom.MiscTweak;
+import com.dabomstew.pkrandom.SpoilerLog;
+import com.dabomstew.pkrandom.pokemon.CompatibilityMatrix;
 import com.dabomstew.pkrandom.pokemon.EncounterSet;
 import com.dabomstew.pkrandom.pokemon.GenRestrictions;
 import com.dabomstew.pkrandom.pokemon.IngameTrade;
 import com.dabomstew.pkrandom.pokemon.ItemList;
 import com.dabomstew.pkrandom.pokemon.Move;
-import com.dabomstew.pkrandom.pokemon.MoveLearnt;
+import com.dabomstew.pkrandom.pokemon.Movesets;
 import com.dabomstew.pkrandom.pokemon.Pokemon;
 import com.dabomstew.pkrandom.pokemon.Trainer;
 import com.dabomstew.pkrandom.pokemon.Type;
@@ -62,10 +64,23 @@ public interface RomHandler {
 
     public String loadedFilename();
 
+    // Creates a copy of the loaded ROM that can be randomized and saved on its
+    // own, without loading the ROM file again. Only call this on a handler
+    // that has not been randomized; it must stay unmodified while its forks
+    // are in use.
+    public RomHandler fork(Random random, PrintStream log);
+
+    // Loads the parts of the ROM that plan says will be needed now, instead of
+    // when they're first used. Call it before forking so the forks share them.
+    public void preload(LoadPlan plan);
+
     // Log stuff
 
     public void setLog(PrintStream logStream);
 
+    // Receives typed records of the changes the handler logs; may be null
+    public void setSpoilerLog(SpoilerLog spoilerLog);
+
     // Get a List of Pokemon objects in this game.
     // 0 = null 1-whatever = the Pokemon.
     public List<Pokemon> getPokemon();
@@ -204,9 +219,9 @@ public interface RomHandler {
 
     // Randomizer: moves learnt
 
-    public Map<Pokemon, List<MoveLearnt>> getMovesLearnt();
+    public Movesets getMovesLearnt();
 
-    public void setMovesLearnt(Map<Pokemon, List<MoveLearnt>> movesets);
+    public void setMovesLearnt(Movesets movesets);
 
     public List<Integer> getMovesBannedFromLevelup();
 
@@ -246,18 +261,18 @@ public interface RomHandler {
     public int getHMCount();
 
     /**
-     * Get TM/HM compatibility data from this rom. The result should contain a
-     * boolean array for each Pokemon indexed as such:
+     * Get TM/HM compatibility data from this rom. The result has a row for
+     * each Pokemon and its machines are numbered as such:
      * 
-     * 0: blank (false) / 1 - (getTMCount()) : TM compatibility /
+     * 1 - (getTMCount()) : TM compatibility /
      * (getTMCount()+1) - (getTMCount()+getHMCount()) - HM compatibility
      * 
      * @return
      */
 
-    public Map<Pokemon, boolean[]> getTMHMCompatibility();
+    public CompatibilityMatrix getTMHMCompatibility();
 
-    public void setTMHMCompatibility(Map<Pokemon, boolean[]> compatData);
+    public void setTMHMCompatibility(CompatibilityMatrix compatData);
 
     public void randomizeTMHMCompatibility(boolean preferSameType);
 
@@ -281,9 +296,9 @@ public interface RomHandler {
 
     public void randomizeMoveTutorMoves(boolean noBroken, boolean preserveField, double goodDamagingProbability);
 
-    public Map<Pokemon, boolean[]> getMoveTutorCompatibility();
+    public CompatibilityMatrix getMoveTutorCompatibility();
 
-    public void setMoveTutorCompatibility(Map<Pokemon, boolean[]> compatData);
+    public void setMoveTutorCompatibility(CompatibilityMatrix compatData);
 
     public void randomizeMoveTutorCompatibility(boolean preferSameType);
 
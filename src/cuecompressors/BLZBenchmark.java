@@ -0,0 +1,82 @@
+package cuecompressors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import com.dabomstew.pkrandom.FileFunctions;
+
+/*----------------------------------------------------------------------------*/
+/*--  BLZBenchmark.java - times BLZFastEncoder against BLZCoder on real     --*/
+/*--                      (decompressed) arm9 and overlay images.           --*/
+/*--                                                                        --*/
+/*--  Part of "Universal Pokemon Randomizer" by Dabomstew                   --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+public class BLZBenchmark {
+
+    // Usage: BLZBenchmark [-best] [-arm9] [-runs N] file [file ...]
+    // The files are decompressed images, e.g. arm9.bin / overlay_XXXX from a
+    // randomizer tmp folder.
+    public static void main(String[] args) throws IOException {
+        boolean best = false, arm9 = false;
+        int runs = 5;
+        int first = 0;
+        while (first < args.length && args[first].startsWith("-")) {
+            if (args[first].equals("-best")) {
+                best = true;
+            } else if (args[first].equals("-arm9")) {
+                arm9 = true;
+            } else if (args[first].equals("-runs")) {
+                runs = Integer.parseInt(args[++first]);
+            }
+            first++;
+        }
+        if (first == args.length) {
+            System.err.println("Usage: BLZBenchmark [-best] [-arm9] [-runs N] file [file ...]");
+            System.exit(1);
+        }
+
+        PrintStream console = System.out;
+        // BLZCoder prints a line per encode
+        PrintStream quiet = new PrintStream(new ByteArrayOutputStream());
+        for (int i = first; i < args.length; i++) {
+            byte[] data = FileFunctions.readFileFullyIntoBuffer(args[i]);
+            long legacyTotal = 0, fastTotal = 0;
+            boolean identical = true;
+            // one extra run to warm up, not counted
+            for (int run = 0; run <= runs; run++) {
+                System.setOut(quiet);
+                long start = System.nanoTime();
+                byte[] legacy = new BLZCoder(null).BLZ_EncodePub(data, arm9, best, args[i]);
+                long mid = System.nanoTime();
+                byte[] fast = BLZFastEncoder.encode(data, arm9, best);
+                long end = System.nanoTime();
+                System.setOut(console);
+                if (run > 0) {
+                    legacyTotal += mid - start;
+                    fastTotal += end - mid;
+                }
+                identical &= Arrays.equals(legacy, fast);
+            }
+            System.out.printf("%s (%d bytes): legacy %.1fms, fast %.1fms, %.1fx%s%n", args[i], data.length,
+                    legacyTotal / 1e6 / runs, fastTotal / 1e6 / runs, (double) legacyTotal / Math.max(1, fastTotal),
+                    identical ? "" : " - OUTPUT DIFFERS");
+        }
+    }
+
+}
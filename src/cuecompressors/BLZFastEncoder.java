@@ -0,0 +1,206 @@
+package cuecompressors;
+
+/*----------------------------------------------------------------------------*/
+/*--  BLZFastEncoder.java - Bottom LZ encoding with a hash chain search.    --*/
+/*--                        Gives exactly the same output as BLZCoder.      --*/
+/*--  Based on blz.c - Copyright (C) 2011 CUE                               --*/
+/*--                                                                        --*/
+/*--  Ported to Java by Dabomstew under the terms of the GPL:               --*/
+/*--                                                                        --*/
+/*--  This program is free software: you can redistribute it and/or modify  --*/
+/*--  it under the terms of the GNU General Public License as published by  --*/
+/*--  the Free Software Foundation, either version 3 of the License, or     --*/
+/*--  (at your option) any later version.                                   --*/
+/*--                                                                        --*/
+/*--  This program is distributed in the hope that it will be useful,       --*/
+/*--  but WITHOUT ANY WARRANTY; without even the implied warranty of        --*/
+/*--  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the          --*/
+/*--  GNU General Public License for more details.                          --*/
+/*--                                                                        --*/
+/*--  You should have received a copy of the GNU General Public License     --*/
+/*--  along with this program. If not, see <http://www.gnu.org/licenses/>.  --*/
+/*----------------------------------------------------------------------------*/
+
+public class BLZFastEncoder {
+
+    private static final int BLZ_THRESHOLD = 2;
+    private static final int BLZ_N = 0x1002;
+    private static final int BLZ_F = 0x12;
+
+    private static final int HASH_BITS = 16;
+
+    // Same as new BLZCoder(null).BLZ_EncodePub(data, arm9, best, ...), minus
+    // the console output.
+    public static byte[] encode(byte[] data, boolean arm9, boolean best) {
+        int rawLen = data.length;
+
+        // BLZ works backwards from the end of the file
+        byte[] raw = new byte[rawLen];
+        for (int i = 0; i < rawLen; i++) {
+            raw[i] = data[rawLen - 1 - i];
+        }
+
+        int rawEnd = rawLen;
+        if (arm9) {
+            // the first 0x4000 bytes of an arm9 stay uncompressed
+            rawEnd -= 0x4000;
+        }
+
+        byte[] pak = new byte[rawLen + ((rawLen + 7) / 8) + 11];
+        MatchFinder finder = new MatchFinder(raw, rawEnd);
+        int pakPos = 0, rawPos = 0, flg = 0, mask = 0;
+        int pakTmp = 0, rawTmp = rawLen;
+
+        while (rawPos < rawEnd) {
+            if ((mask >>>= 1) == 0) {
+                pak[(flg = pakPos++)] = 0;
+                mask = 0x80;
+            }
+
+            int lenBest = finder.search(rawPos);
+            int posBest = finder.distance;
+
+            // LZ-CUE optimization
+            if (best && lenBest > BLZ_THRESHOLD && rawPos + lenBest < rawEnd) {
+                int lenNext = finder.search(rawPos + lenBest);
+                int lenPost = finder.search(rawPos + 1);
+                if (lenNext <= BLZ_THRESHOLD) {
+                    lenNext = 1;
+                }
+                if (lenPost <= BLZ_THRESHOLD) {
+                    lenPost = 1;
+                }
+                if (lenBest + lenNext <= 1 + lenPost) {
+                    lenBest = 1;
+                }
+            }
+
+            pak[flg] = (byte) (pak[flg] << 1);
+            if (lenBest > BLZ_THRESHOLD) {
+                rawPos += lenBest;
+                pak[flg] |= 1;
+                pak[pakPos++] = (byte) (((lenBest - (BLZ_THRESHOLD + 1)) << 4) | ((posBest - 3) >>> 8));
+                pak[pakPos++] = (byte) ((posBest - 3) & 0xFF);
+            } else {
+                pak[pakPos++] = raw[rawPos++];
+            }
+
+            if (pakPos + rawLen - rawPos < pakTmp + rawTmp) {
+                pakTmp = pakPos;
+                rawTmp = rawLen - rawPos;
+            }
+        }
+
+        while ((mask > 0) && (mask != 1)) {
+            mask >>>= 1;
+            pak[flg] = (byte) (pak[flg] << 1);
+        }
+
+        int pakLen = pakPos;
+
+        if (pakTmp == 0 || (rawLen + 4 < ((pakTmp + rawTmp + 3) & 0xFFFFFFFC) + 8)) {
+            // not worth compressing: raw data followed by an empty footer
+            // (BLZCoder never finishes on input like this)
+            int outLen = ((rawLen + 3) & ~3) + 4;
+            byte[] out = new byte[outLen];
+            System.arraycopy(data, 0, out, 0, rawLen);
+            return out;
+        }
+
+        // untouched start of the file, the compressed part (inverted back)
+        // and then the footer
+        int hdrLen = 8;
+        int outPos = rawTmp + pakTmp;
+        while (((outPos + hdrLen - 8) & 3) > 0) {
+            hdrLen++;
+        }
+        byte[] out = new byte[outPos + hdrLen];
+        System.arraycopy(data, 0, out, 0, rawTmp);
+        for (int i = 0; i < pakTmp; i++) {
+            out[rawTmp + i] = pak[pakTmp - 1 - i];
+        }
+        while ((outPos & 3) > 0) {
+            out[outPos++] = (byte) 0xFF;
+        }
+        int encLen = pakTmp;
+        int incLen = rawLen - pakTmp - rawTmp;
+        writeUnsigned(out, outPos, encLen + hdrLen);
+        outPos += 3;
+        out[outPos++] = (byte) hdrLen;
+        writeUnsigned(out, outPos, incLen - hdrLen);
+        return out;
+    }
+
+    private static void writeUnsigned(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value & 0xFF);
+        buffer[offset + 1] = (byte) ((value >> 8) & 0xFF);
+        buffer[offset + 2] = (byte) ((value >> 16) & 0xFF);
+        buffer[offset + 3] = (byte) ((value >> 24) & 0x7F);
+    }
+
+    // Finds the same match BLZCoder.SEARCH would: the longest one, and the
+    // closest of those. Every position is chained to the previous position
+    // starting with the same 3 bytes (give or take hash collisions), so only
+    // those need checking, nearest first.
+    private static class MatchFinder {
+
+        private final byte[] buf;
+        private final int end;
+        private final int[] prev;
+        public int distance;
+
+        public MatchFinder(byte[] buf, int end) {
+            this.buf = buf;
+            this.end = end;
+            int count = Math.max(0, end - BLZ_THRESHOLD);
+            prev = new int[count];
+            int[] head = new int[1 << HASH_BITS];
+            for (int i = 0; i < head.length; i++) {
+                head[i] = -1;
+            }
+            for (int pos = 0; pos < count; pos++) {
+                int hash = hash(pos);
+                prev[pos] = head[hash];
+                head[hash] = pos;
+            }
+        }
+
+        private int hash(int pos) {
+            int key = ((buf[pos] & 0xFF) << 16) | ((buf[pos + 1] & 0xFF) << 8) | (buf[pos + 2] & 0xFF);
+            return (key * 0x9E3779B1) >>> (32 - HASH_BITS);
+        }
+
+        // returns the match length, BLZ_THRESHOLD if there's no usable match
+        public int search(int raw) {
+            int best = BLZ_THRESHOLD;
+            if (end - raw <= BLZ_THRESHOLD) {
+                return best;
+            }
+            int max = Math.min(raw, BLZ_N);
+            int limit = Math.min(BLZ_F, end - raw);
+            for (int cand = prev[raw]; cand >= 0; cand = prev[cand]) {
+                int pos = raw - cand;
+                if (pos > max) {
+                    break;
+                }
+                if (pos < 3) {
+                    continue;
+                }
+                int cap = Math.min(limit, pos);
+                int len = 0;
+                while (len < cap && buf[raw + len] == buf[cand + len]) {
+                    len++;
+                }
+                if (len > best) {
+                    distance = pos;
+                    best = len;
+                    if (best == BLZ_F) {
+                        break;
+                    }
+                }
+            }
+            return best;
+        }
+    }
+
+}
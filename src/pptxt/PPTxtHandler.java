@@ -8,231 +8,218 @@ package pptxt;
 
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import com.dabomstew.pkrandom.FileFunctions;
+import com.dabomstew.pkrandom.TextTable;
 
+// A PPTxtHandler only keeps scratch buffers, so each thread needs its own
+// (each Gen5RomHandler has one), but handlers never share any state. What
+// saving needs from the original file (each entry's key and unknown) is kept
+// in the TextFile that decode returns, so a file that was decoded once can be
+// written back without being read again.
 public class PPTxtHandler {
 
-    public static Map<String, String> pokeToText = new HashMap<String, String>();
-    public static Map<String, String> textToPoke = new HashMap<String, String>();
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 
-    public static Pattern pokeToTextPattern, textToPokePattern;
+    // Generation5.tbl: special characters <-> their \[name] or symbol. No
+    // token is a prefix of another, so longest match finds what the old regex
+    // pass over the whole string did.
+    private static final TextTable table = new TextTable(0x10000, -1);
+
+    // chars that decode as themselves rather than as \xNNNN
+    private static final long[] printable = new long[0x10000 / 64];
 
     static {
         try {
-            Scanner sc = new Scanner(FileFunctions.openConfig("Generation5.tbl"), "UTF-8");
-            while (sc.hasNextLine()) {
-                String q = sc.nextLine();
-                if (!q.trim().isEmpty()) {
-                    String[] r = q.split("=", 2);
-                    if (r[1].endsWith("\r\n")) {
-                        r[1] = r[1].substring(0, r[1].length() - 2);
-                    }
-                    pokeToText.put(Character.toString((char) Integer.parseInt(r[0], 16)), r[1].replace("\\", "\\\\")
-                            .replace("$", "\\$"));
-                    textToPoke.put(r[1], "\\\\x" + r[0]);
-                }
-            }
-            sc.close();
-            pokeToTextPattern = makePattern(pokeToText.keySet());
-            textToPokePattern = makePattern(textToPoke.keySet());
+            table.readTable("Generation5");
         } catch (FileNotFoundException e) {
         }
+        for (int c = 21; c <= 0xFFF0; c++) {
+            if (Character.UnicodeBlock.of(c) != null) {
+                printable[c >>> 6] |= 1L << c;
+            }
+        }
+    }
+
+    /**
+     * A decoded text file: its strings, plus the encryption key of each
+     * entry's first char and the unknown word stored with each entry, which
+     * saving reuses.
+     */
+    public static class TextFile {
+
+        private final List<String> strings;
+        private final int[] keys;
+        private final int[] unknowns;
+
+        private TextFile(List<String> strings, int[] keys, int[] unknowns) {
+            this.strings = Collections.unmodifiableList(strings);
+            this.keys = keys;
+            this.unknowns = unknowns;
+        }
+
+        public List<String> getStrings() {
+            return strings;
+        }
+    }
+
+    // scratch space for the entry being decoded/encoded
+    private char[] codes = new char[256];
+    private char[] uncomp = new char[512];
+    private final StringBuilder string = new StringBuilder();
+
+    /**
+     * Take a byte-array corresponding to a NARC entry and build a list of
+     * strings against the gen5 text encryption. Decompresses as appropriate.
+     *
+     * @param ds
+     *            The data from this msg.narc entry
+     * @return The list of strings
+     */
+    public static List<String> readTexts(byte[] ds) {
+        return new ArrayList<String>(new PPTxtHandler().decode(ds).getStrings());
     }
 
-    public static Pattern makePattern(Iterable<String> tokens) {
-        String patternStr = "("
-                + implode(tokens, "|").replace("\\", "\\\\").replace("[", "\\[").replace("]", "\\]")
-                        .replace("(", "\\(").replace(")", "\\)") + ")";
-        return Pattern.compile(patternStr);
+    /**
+     * Write newStrings to the text datafile originalData; see encode.
+     * Decodes originalData first, use encode directly if it already was.
+     */
+    public static byte[] saveEntry(byte[] originalData, List<String> text) {
+        PPTxtHandler handler = new PPTxtHandler();
+        return handler.encode(originalData, handler.decode(originalData), text);
     }
 
-    public static String implode(Iterable<String> tokens, String sep) {
-        StringBuilder sb = new StringBuilder();
-        boolean first = true;
-        for (String token : tokens) {
-            if (!first) {
-                sb.append(sep);
+    /**
+     * Decode a msg.narc entry (only the first section, which holds the text
+     * in all but the Japanese releases).
+     *
+     * @param ds
+     *            The data from this msg.narc entry
+     * @return The strings, with what's needed to save the entry again
+     */
+    public TextFile decode(byte[] ds) {
+        int numSections = readWord(ds, 0);
+        int numEntries = readWord(ds, 2);
+        List<String> strings = new ArrayList<String>(numEntries);
+        int[] keys = new int[numEntries];
+        int[] unknowns = new int[numEntries];
+        if (numSections > 0) {
+            int sectionOffset = readLong(ds, 12);
+            int pos = sectionOffset + 4;
+            int[] tableOffsets = new int[numEntries];
+            int[] characterCount = new int[numEntries];
+            for (int j = 0; j < numEntries; j++) {
+                tableOffsets[j] = readLong(ds, pos);
+                characterCount[j] = readWord(ds, pos + 4);
+                unknowns[j] = readWord(ds, pos + 6);
+                pos += 8;
+            }
+            for (int j = 0; j < numEntries; j++) {
+                int count = characterCount[j];
+                if (codes.length < count) {
+                    codes = new char[Math.max(count, codes.length * 2)];
+                }
+                pos = sectionOffset + tableOffsets[j];
+                for (int k = 0; k < count; k++) {
+                    codes[k] = (char) readWord(ds, pos);
+                    pos += 2;
+                }
+                // each entry is decrypted from its end, where the key is
+                // known from the 0xFFFF terminator
+                if (count > 0) {
+                    int key = codes[count - 1] ^ 0xFFFF;
+                    for (int k = count - 1; k >= 0; k--) {
+                        codes[k] ^= key;
+                        if (k == 0) {
+                            keys[j] = key;
+                        }
+                        key = ((key >>> 3) | (key << 13)) & 0xffff;
+                    }
+                }
+                char[] text = codes;
+                if (count > 0 && codes[0] == 0xF100) {
+                    count = decompress(codes, count);
+                    text = uncomp;
+                }
+                strings.add(makeString(text, count));
             }
-            sb.append(token);
-            first = false;
         }
-        return sb.toString();
+        return new TextFile(strings, keys, unknowns);
+    }
+
+    private String makeString(char[] text, int count) {
+        string.setLength(0);
+        for (int k = 0; k < count; k++) {
+            int c = text[k];
+            if (c == 0xFFFF) {
+                continue;
+            }
+            if ((printable[c >>> 6] & (1L << c)) != 0) {
+                String token = table.token(c);
+                if (token != null) {
+                    string.append(token);
+                } else {
+                    string.append((char) c);
+                }
+            } else {
+                string.append("\\x").append(HEX_DIGITS[(c >> 12) & 0xF]).append(HEX_DIGITS[(c >> 8) & 0xF])
+                        .append(HEX_DIGITS[(c >> 4) & 0xF]).append(HEX_DIGITS[c & 0xF]);
+            }
+        }
+        return string.toString();
     }
 
     /**
      * Decompress the words given into chars according to 9bits per char format
      * Based off poketext's implementation of the same in gen4, but uses all 16
      * bits per word as opposed to 15
-     * 
+     *
      * @param chars
-     *            List of words, beginning with [F100] which is skipped.
-     * @return Decompressed list of integers corresponding to characters
+     *            Words, beginning with [F100] which is skipped.
+     * @param count
+     *            How many words there are.
+     * @return How many chars were decompressed into uncomp
      */
-    private static List<Integer> decompress(List<Integer> chars) {
-        List<Integer> uncomp = new ArrayList<Integer>();
+    private int decompress(char[] chars, int count) {
+        // 16 bits a word, so fewer than two 9-bit chars each
+        if (uncomp.length < count * 2) {
+            uncomp = new char[count * 2];
+        }
+        int length = 0;
         int j = 1;
         int shift1 = 0;
         int trans = 0;
-        while (true) {
-            int tmp = chars.get(j);
-            tmp = tmp >> shift1;
-            int tmp1 = tmp;
+        while (j < count) {
+            int tmp1;
             if (shift1 >= 0x10) {
                 shift1 -= 0x10;
                 if (shift1 > 0) {
-                    tmp1 = (trans | ((chars.get(j) << (9 - shift1)) & 0x1FF));
+                    tmp1 = (trans | ((chars[j] << (9 - shift1)) & 0x1FF));
                     if ((tmp1 & 0xFF) == 0xFF) {
                         break;
                     }
                     if (tmp1 != 0x0 && tmp1 != 0x1) {
-                        uncomp.add(tmp1);
+                        uncomp[length++] = (char) tmp1;
                     }
                 }
             } else {
-                tmp1 = ((chars.get(j) >> shift1) & 0x1FF);
+                tmp1 = ((chars[j] >> shift1) & 0x1FF);
                 if ((tmp1 & 0xFF) == 0xFF) {
                     break;
                 }
                 if (tmp1 != 0x0 && tmp1 != 0x1) {
-                    uncomp.add(tmp1);
+                    uncomp[length++] = (char) tmp1;
                 }
                 shift1 += 9;
                 if (shift1 < 0x10) {
-                    trans = ((chars.get(j) >> shift1) & 0x1FF);
+                    trans = ((chars[j] >> shift1) & 0x1FF);
                     shift1 += 9;
                 }
                 j += 1;
             }
         }
-        return uncomp;
-    }
-
-    private static List<Integer> lastKeys;
-    private static List<Integer> lastUnknowns;
-
-    /**
-     * Take a byte-array corresponding to a NARC entry and build a list of
-     * strings against the gen5 text encryption. Decompresses as appropriate.
-     * 
-     * @param ds
-     *            The data from this msg.narc entry
-     * @return The list of strings
-     */
-
-    public static List<String> readTexts(byte[] ds) {
-        int pos = 0;
-        int i = 0;
-        lastKeys = new ArrayList<Integer>();
-        lastUnknowns = new ArrayList<Integer>();
-        List<String> strings = new ArrayList<String>();
-        int numSections, numEntries, tmpCharCount, tmpUnknown, tmpChar;
-        int tmpOffset;
-        int[] sizeSections = new int[] { 0, 0, 0 };
-        int[] sectionOffset = new int[] { 0, 0, 0 };
-        Map<Integer, List<Integer>> tableOffsets = new HashMap<Integer, List<Integer>>();
-        Map<Integer, List<Integer>> characterCount = new HashMap<Integer, List<Integer>>();
-        Map<Integer, List<Integer>> unknown = new HashMap<Integer, List<Integer>>();
-        Map<Integer, List<List<Integer>>> encText = new HashMap<Integer, List<List<Integer>>>();
-        Map<Integer, List<List<String>>> decText = new HashMap<Integer, List<List<String>>>();
-        String string = "";
-        int key;
-
-        numSections = readWord(ds, 0);
-        numEntries = readWord(ds, 2);
-        sizeSections[0] = readLong(ds, 4);
-        // unk1 = readLong(ds, 8);
-        pos += 12;
-        if (numSections > i) {
-            for (int z = 0; z < numSections; z++) {
-                sectionOffset[z] = readLong(ds, pos);
-                pos += 4;
-            }
-            pos = sectionOffset[i];
-            sizeSections[i] = readLong(ds, pos);
-            pos += 4;
-            tableOffsets.put(i, new ArrayList<Integer>());
-            characterCount.put(i, new ArrayList<Integer>());
-            unknown.put(i, new ArrayList<Integer>());
-            encText.put(i, new ArrayList<List<Integer>>());
-            decText.put(i, new ArrayList<List<String>>());
-            for (int j = 0; j < numEntries; j++) {
-                tmpOffset = readLong(ds, pos);
-                pos += 4;
-                tmpCharCount = readWord(ds, pos);
-                pos += 2;
-                tmpUnknown = readWord(ds, pos);
-                pos += 2;
-                tableOffsets.get(i).add(tmpOffset);
-                characterCount.get(i).add(tmpCharCount);
-                unknown.get(i).add(tmpUnknown);
-                lastUnknowns.add(tmpUnknown);
-            }
-            for (int j = 0; j < numEntries; j++) {
-                List<Integer> tmpEncChars = new ArrayList<Integer>();
-                pos = sectionOffset[i] + tableOffsets.get(i).get(j);
-                for (int k = 0; k < characterCount.get(i).get(j); k++) {
-                    tmpChar = readWord(ds, pos);
-                    pos += 2;
-                    tmpEncChars.add(tmpChar);
-                }
-                encText.get(i).add(tmpEncChars);
-                key = encText.get(i).get(j).get(characterCount.get(i).get(j) - 1) ^ 0xFFFF;
-                for (int k = characterCount.get(i).get(j) - 1; k >= 0; k--) {
-                    encText.get(i).get(j).set(k, (encText.get(i).get(j).get(k).intValue()) ^ key);
-                    if (k == 0) {
-                        lastKeys.add(key);
-                    }
-                    key = ((key >>> 3) | (key << 13)) & 0xffff;
-                }
-                if (encText.get(i).get(j).get(0) == 0xF100) {
-                    encText.get(i).set(j, decompress(encText.get(i).get(j)));
-                    characterCount.get(i).set(j, encText.get(i).get(j).size());
-                }
-                List<String> chars = new ArrayList<String>();
-                string = "";
-                for (int k = 0; k < characterCount.get(i).get(j); k++) {
-                    if (encText.get(i).get(j).get(k) == 0xFFFF) {
-                        chars.add("\\xFFFF");
-                    } else {
-                        if (encText.get(i).get(j).get(k) > 20 && encText.get(i).get(j).get(k) <= 0xFFF0
-                                && Character.UnicodeBlock.of(encText.get(i).get(j).get(k)) != null) {
-                            chars.add("" + ((char) encText.get(i).get(j).get(k).intValue()));
-                        } else {
-                            String num = String.format("%04X", encText.get(i).get(j).get(k));
-                            chars.add("\\x" + num);
-                        }
-                        string += chars.get(k);
-                    }
-                }
-                strings.add(string);
-                decText.get(i).add(chars);
-            }
-        }
-
-        // Parse strings against the table
-        for (int sn = 0; sn < strings.size(); sn++) {
-            strings.set(sn, bulkReplace(strings.get(sn), pokeToTextPattern, pokeToText));
-        }
-        return strings;
-    }
-
-    private static String bulkReplace(String string, Pattern pattern, Map<String, String> replacements) {
-        Matcher matcher = pattern.matcher(string);
-
-        StringBuffer sb = new StringBuffer();
-        while (matcher.find()) {
-            matcher.appendReplacement(sb, replacements.get(matcher.group(1)));
-        }
-        matcher.appendTail(sb);
-
-        return sb.toString();
+        return length;
     }
 
     /**
@@ -240,133 +227,138 @@ public class PPTxtHandler {
      * only one in most releases BUT japanese). Return the resulting binary as a
      * byte-array. Will never use the [F100] compression, even if the original
      * file used it.
-     * 
+     *
      * @param originalData
-     *            The original file, to copy stuff like unknowns.
+     *            The original file, to copy the other sections from.
+     * @param decoded
+     *            originalData decoded, for the keys and unknowns.
      * @param text
      *            The new data.
      * @return The file to write back to the NARC.
      */
-    public static byte[] saveEntry(byte[] originalData, List<String> text) {
-
-        // Parse strings against the reverse table
-        for (int sn = 0; sn < text.size(); sn++) {
-            text.set(sn, bulkReplace(text.get(sn), textToPokePattern, textToPoke));
-        }
-
-        // Make sure we have the original unknowns etc
-        readTexts(originalData);
-
-        // Start getting stuff
-        int numSections, numEntries;
-        int[] sizeSections = new int[] { 0, 0, 0 };
-        int[] sectionOffset = new int[] { 0, 0, 0 };
-        int[] newsizeSections = new int[] { 0, 0, 0 };
-        int[] newsectionOffset = new int[] { 0, 0, 0 };
-
-        // Data-Stream
+    public byte[] encode(byte[] originalData, TextFile decoded, List<String> text) {
         byte[] ds = originalData;
-        int pos = 0;
-
-        numSections = readWord(ds, 0);
-        numEntries = readWord(ds, 2);
-        sizeSections[0] = readLong(ds, 4);
-        // unk1 readLong(ds, 8);
-        pos += 12;
+        int numSections = readWord(ds, 0);
+        int numEntries = readWord(ds, 2);
 
         if (text.size() < numEntries) {
             System.err.println("Can't do anything due to too few lines");
             return originalData;
-        } else {
-            byte[] newEntry = makeSection(text, numEntries);
-            for (int z = 0; z < numSections; z++) {
-                sectionOffset[z] = readLong(ds, pos);
-                pos += 4;
-            }
-            for (int z = 0; z < numSections; z++) {
-                pos = sectionOffset[z];
-                sizeSections[z] = readLong(ds, pos);
-                pos += 4;
-            }
-            newsizeSections[0] = newEntry.length;
-
-            byte[] newData = new byte[ds.length - sizeSections[0] + newsizeSections[0]];
-            System.arraycopy(ds, 0, newData, 0, Math.min(ds.length, newData.length));
-            writeLong(newData, 4, newsizeSections[0]);
-            if (numSections == 2) {
-                newsectionOffset[1] = newsizeSections[0] + sectionOffset[0];
-                writeLong(newData, 0x10, newsectionOffset[1]);
-            }
-            System.arraycopy(newEntry, 0, newData, sectionOffset[0], newEntry.length);
-            if (numSections == 2) {
-                System.arraycopy(ds, sectionOffset[1], newData, newsectionOffset[1], sizeSections[1]);
-            }
-            return newData;
         }
-    }
 
-    private static byte[] makeSection(List<String> strings, int numEntries) {
-        List<List<Integer>> data = new ArrayList<List<Integer>>();
-        int size = 0;
-        int offset = 4 + 8 * numEntries;
-        int charCount;
+        // every entry's encrypted words go into codes back to back
+        int[] ends = new int[numEntries];
+        int total = 0;
         for (int i = 0; i < numEntries; i++) {
-            data.add(parseString(strings.get(i), i));
-            size += (data.get(i).size() * 2);
+            total = parseString(text.get(i), decoded.keys[i], total);
+            ends[i] = total;
         }
-        if (size % 4 == 2) {
-            size += 2;
-            int tmpKey = lastKeys.get(numEntries - 1);
-            for (int i = 0; i < data.get(numEntries - 1).size(); i++) {
+        if (numEntries > 0 && total % 2 == 1) {
+            // pad the section to a multiple of 4 with an extra terminator
+            int last = numEntries - 1;
+            int tmpKey = decoded.keys[last];
+            for (int i = ends[last] - (last == 0 ? 0 : ends[last - 1]); i > 0; i--) {
                 tmpKey = ((tmpKey << 3) | (tmpKey >> 13)) & 0xFFFF;
             }
-            data.get(numEntries - 1).add(0xFFFF ^ tmpKey);
+            ensureCodes(total + 1);
+            codes[total++] = (char) (0xFFFF ^ tmpKey);
+            ends[last] = total;
+        }
+
+        int[] sizeSections = new int[] { 0, 0, 0 };
+        int[] sectionOffset = new int[] { 0, 0, 0 };
+        int pos = 12;
+        for (int z = 0; z < numSections; z++) {
+            sectionOffset[z] = readLong(ds, pos);
+            pos += 4;
+        }
+        for (int z = 0; z < numSections; z++) {
+            sizeSections[z] = readLong(ds, sectionOffset[z]);
+        }
+        int newSize = 4 + 8 * numEntries + total * 2;
+
+        byte[] newData = new byte[ds.length - sizeSections[0] + newSize];
+        System.arraycopy(ds, 0, newData, 0, Math.min(ds.length, newData.length));
+        writeLong(newData, 4, newSize);
+        int newSecondOffset = 0;
+        if (numSections == 2) {
+            newSecondOffset = newSize + sectionOffset[0];
+            writeLong(newData, 0x10, newSecondOffset);
         }
-        size += offset;
-        byte[] section = new byte[size];
-        int pos = 0;
-        writeLong(section, pos, size);
+
+        // the new first section, straight into place
+        pos = sectionOffset[0];
+        writeLong(newData, pos, newSize);
         pos += 4;
+        int offset = 4 + 8 * numEntries;
         for (int i = 0; i < numEntries; i++) {
-            charCount = data.get(i).size();
-            writeLong(section, pos, offset);
-            pos += 4;
-            writeWord(section, pos, charCount);
-            pos += 2;
-            writeWord(section, pos, lastUnknowns.get(i));
+            int charCount = ends[i] - (i == 0 ? 0 : ends[i - 1]);
+            writeLong(newData, pos, offset);
+            writeWord(newData, pos + 4, charCount);
+            writeWord(newData, pos + 6, decoded.unknowns[i]);
+            pos += 8;
+            offset += charCount * 2;
+        }
+        for (int i = 0; i < total; i++) {
+            writeWord(newData, pos, codes[i]);
             pos += 2;
-            offset += (charCount * 2);
         }
-        for (int i = 0; i < numEntries; i++) {
-            for (int word : data.get(i)) {
-                writeWord(section, pos, word);
-                pos += 2;
-            }
+
+        if (numSections == 2) {
+            System.arraycopy(ds, sectionOffset[1], newData, newSecondOffset, sizeSections[1]);
         }
-        return section;
+        return newData;
     }
 
-    private static List<Integer> parseString(String string, int entry_id) {
-        List<Integer> chars = new ArrayList<Integer>();
-        for (int i = 0; i < string.length(); i++) {
-            if (string.charAt(i) != '\\') {
-                chars.add((int) string.charAt(i));
+    // Encodes string into codes from start, encrypted starting with key,
+    // followed by a terminator; returns where it ended.
+    private int parseString(String string, int key, int start) {
+        int length = string.length();
+        // never more codes than chars, plus the terminator
+        ensureCodes(start + length + 1);
+        int size = start;
+        for (int i = 0; i < length; i++) {
+            int match = table.match(string, i);
+            if (match >= 0) {
+                codes[size++] = (char) match;
+                i += (match >>> 16) - 1;
+            } else if (string.charAt(i) != '\\') {
+                codes[size++] = string.charAt(i);
             } else {
-                if (((i + 2) < string.length()) && string.charAt(i + 2) == '{') {
-                    chars.add((int) string.charAt(i));
+                if (((i + 2) < length) && string.charAt(i + 2) == '{') {
+                    codes[size++] = string.charAt(i);
                 } else {
-                    chars.add(Integer.parseInt(string.substring(i + 2, i + 6), 16));
+                    codes[size++] = (char) parseHex(string, i + 2);
                     i += 5;
                 }
             }
         }
-        chars.add(0xFFFF);
-        int key = lastKeys.get(entry_id);
-        for (int i = 0; i < chars.size(); i++) {
-            chars.set(i, (chars.get(i) ^ key) & 0xFFFF);
+        codes[size++] = 0xFFFF;
+        for (int i = start; i < size; i++) {
+            codes[i] ^= key;
             key = ((key << 3) | (key >>> 13)) & 0xFFFF;
         }
-        return chars;
+        return size;
+    }
+
+    private void ensureCodes(int size) {
+        if (codes.length < size) {
+            char[] grown = new char[Math.max(size, codes.length * 2)];
+            System.arraycopy(codes, 0, grown, 0, codes.length);
+            codes = grown;
+        }
+    }
+
+    private static int parseHex(String text, int pos) {
+        int value = 0;
+        for (int i = pos; i < pos + 4; i++) {
+            int digit = Character.digit(text.charAt(i), 16);
+            if (digit < 0) {
+                throw new NumberFormatException("For input string: \"" + text.substring(pos, pos + 4) + "\"");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
     }
 
     private static int readWord(byte[] data, int offset) {
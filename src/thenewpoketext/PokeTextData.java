@@ -11,15 +11,33 @@ import java.util.Arrays;
 import java.util.List;
 
 public class PokeTextData {
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
     private byte[] data;
+    private boolean decrypted;
     public List<PointerEntry> ptrlist;
     public List<String> strlist;
     public boolean compressFlag;
 
+    // scratch space for the entry being decoded, reused between entries
+    private char[] chars = new char[64];
+    private char[] uncomp = new char[128];
+    private final StringBuilder string = new StringBuilder();
+
     public PokeTextData(byte[] data) {
         this.data = Arrays.copyOf(data, data.length);
     }
 
+    private PokeTextData(byte[] data, boolean copy) {
+        this.data = copy ? Arrays.copyOf(data, data.length) : data;
+    }
+
+    // Decodes entry index of an encrypted message file, leaving the file
+    // alone; for when only a string or two of a file are needed.
+    public static String readString(byte[] data, int index) {
+        return new PokeTextData(data, false).getString(index);
+    }
+
     public byte[] get() {
         return data;
     }
@@ -49,15 +67,15 @@ public class PokeTextData {
         DecyptPtrs(read16(0), read16(2), 4);
         this.ptrlist = CreatePtrList(read16(0), 4);
 
-        this.strlist = new ArrayList<String>();
-
         int num = read16(0);
+        this.strlist = new ArrayList<String>(num);
 
         for (int i = 0; i < num; i++) {
             PointerEntry entry = this.ptrlist.get(i);
             DecyptTxt(entry.getChars(), i + 1, entry.getPtr());
-            this.strlist.add(MakeString(entry.getChars(), entry.getPtr()));
+            this.strlist.add(MakeString(entry.getChars(), entry.getPtr(), false, 0));
         }
+        decrypted = true;
     }
 
     public void encrypt() {
@@ -69,6 +87,27 @@ public class PokeTextData {
         }
 
         DecyptPtrs(read16(0), read16(2), 4);
+        decrypted = false;
+    }
+
+    public int count() {
+        return read16(0);
+    }
+
+    // Decodes one entry, whether or not the file has been decrypted yet
+    public String getString(int index) {
+        int sdidx = 4 + index * 8;
+        int ptr = read32(sdidx);
+        int count = read32(sdidx + 4);
+        int key = 0;
+        if (!decrypted) {
+            int key2 = (((read16(2) * 0x2FD) & 0xFFFF) * (index + 1)) & 0xFFFF;
+            int realkey = key2 | (key2 << 16);
+            ptr ^= realkey;
+            count ^= realkey;
+            key = (0x91BD3 * (index + 1)) & 0xFFFF;
+        }
+        return MakeString(count, ptr, !decrypted, key);
     }
 
     private void DecyptPtrs(int count, int key, int sdidx) {
@@ -85,7 +124,7 @@ public class PokeTextData {
     }
 
     private List<PointerEntry> CreatePtrList(int count, int sdidx) {
-        List<PointerEntry> ptrlist = new ArrayList<PointerEntry>();
+        List<PointerEntry> ptrlist = new ArrayList<PointerEntry>(count);
         for (int i = 0; i < count; i++) {
             ptrlist.add(new PointerEntry(read32(sdidx), read32(sdidx + 4)));
             sdidx += 8;
@@ -104,68 +143,88 @@ public class PokeTextData {
 
     }
 
-    private String MakeString(int count, int idx) {
-        StringBuilder string = new StringBuilder();
-        List<Integer> chars = new ArrayList<Integer>();
-        List<Integer> uncomp = new ArrayList<Integer>();
+    // key is the first char's text key, if the entry is still encrypted
+    private String MakeString(int count, int idx, boolean encrypted, int key) {
+        if (chars.length < count) {
+            chars = new char[Math.max(count, chars.length * 2)];
+        }
         for (int i = 0; i < count; i++) {
-            chars.add(read16(idx));
+            if (encrypted) {
+                chars[i] = (char) (read16(idx) ^ key);
+                key = (key + 0x493D) & 0xFFFF;
+            } else {
+                chars[i] = (char) read16(idx);
+            }
             idx += 2;
         }
 
-        if (chars.get(0) == 0xF100) {
+        char[] text = chars;
+        int length = count;
+        if (count > 0 && chars[0] == 0xF100) {
             compressFlag = true;
+            // every 16-bit unit holds 15 bits, so at most two 9-bit chars
+            if (uncomp.length < count * 2) {
+                uncomp = new char[count * 2];
+            }
+            length = 0;
             int j = 1;
             int shift1 = 0;
             int trans = 0;
-            while (true) {
-                int tmp = chars.get(j);
-                tmp = tmp >> shift1;
-                int tmp1 = tmp;
+            while (j < count) {
+                int tmp1;
                 if (shift1 >= 0xF) {
                     shift1 -= 0xF;
                     if (shift1 > 0) {
-                        tmp1 = (trans | ((chars.get(j) << (9 - shift1)) & 0x1FF));
+                        tmp1 = (trans | ((chars[j] << (9 - shift1)) & 0x1FF));
                         if (tmp1 == 0x1FF) {
                             break;
                         }
-                        uncomp.add(tmp1);
+                        uncomp[length++] = (char) tmp1;
                     }
                 } else {
-                    tmp1 = ((chars.get(j) >> shift1) & 0x1FF);
+                    tmp1 = ((chars[j] >> shift1) & 0x1FF);
                     if (tmp1 == 0x1FF) {
                         break;
                     }
-                    uncomp.add(tmp1);
+                    uncomp[length++] = (char) tmp1;
                     shift1 += 9;
                     if (shift1 < 0xF) {
-                        trans = ((chars.get(j) >> shift1) & 0x1FF);
+                        trans = ((chars[j] >> shift1) & 0x1FF);
                         shift1 += 9;
                     }
                     j += 1;
                 }
             }
-            chars = uncomp;
+            text = uncomp;
         }
+
+        string.setLength(0);
         int i = 0;
-        for (int c = 0; c < chars.size(); c++) {
-            int currChar = chars.get(i);
-            if (UnicodeParser.tb[currChar] != null) {
-                string.append(UnicodeParser.tb[currChar]);
+        while (i < length) {
+            int currChar = text[i];
+            String token = UnicodeParser.table.token(currChar);
+            if (token != null) {
+                string.append(token);
             } else {
                 if (currChar == 0xFFFE) {
+                    if (i + 2 >= length) {
+                        break;
+                    }
                     i++;
-                    string.append("\\v" + String.format("%04X", chars.get(i)));
+                    string.append("\\v");
+                    appendHex(text[i]);
                     i++;
-                    int total = chars.get(i);
-                    for (int z = 0; z < total; z++) {
+                    int total = text[i];
+                    for (int z = 0; z < total && i + 1 < length; z++) {
                         i++;
-                        string.append("\\z" + String.format("%04X", chars.get(i)));
+                        string.append("\\z");
+                        appendHex(text[i]);
                     }
                 } else if (currChar == 0xFFFF) {
                     break;
                 } else {
-                    string.append("\\x" + String.format("%04X", chars.get(i)));
+                    string.append("\\x");
+                    appendHex(currChar);
                 }
             }
             i++;
@@ -173,6 +232,11 @@ public class PokeTextData {
         return string.toString();
     }
 
+    private void appendHex(int value) {
+        string.append(HEX_DIGITS[(value >> 12) & 0xF]).append(HEX_DIGITS[(value >> 8) & 0xF])
+                .append(HEX_DIGITS[(value >> 4) & 0xF]).append(HEX_DIGITS[value & 0xF]);
+    }
+
     public void SetKey(int key) {
         write16(key, 2);
     }
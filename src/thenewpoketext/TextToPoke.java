@@ -6,181 +6,159 @@ package thenewpoketext;
 /*--  Ported to Java and bugfixed/customized by Dabomstew                   --*/
 /*----------------------------------------------------------------------------*/
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public class TextToPoke {
 
     public static byte[] MakeFile(List<String> textarr, boolean compressed) {
-        int base = textarr.size() * 8 + 4;
-        List<PointerEntry> ptrtable = new ArrayList<PointerEntry>();
-        List<List<Integer>> rawdata = new ArrayList<List<Integer>>();
-        for (int i = 0; i < textarr.size(); i++) {
-            List<Integer> data = ToCode(textarr.get(i), compressed);
-            int l = data.size();
-            ptrtable.add(new PointerEntry(base, l));
-            rawdata.add(data);
-            base += l * 2;
+        // every entry's codes go into one buffer, so the file can be made at
+        // its final size in one go
+        int count = textarr.size();
+        CodeBuffer codes = new CodeBuffer(count * 16 + 16);
+        int[] ends = new int[count];
+        for (int i = 0; i < count; i++) {
+            ToCode(textarr.get(i), compressed, codes);
+            ends[i] = codes.size;
         }
 
-        List<Integer> hdr = Arrays.asList(textarr.size(), 0);
-
-        return join(wordListToBarr(hdr), pointerListToBarr(ptrtable), listOfWordListToBarr(rawdata));
+        int base = count * 8 + 4;
+        byte[] file = new byte[base + codes.size * 2];
+        write16(file, 0, count);
+        write16(file, 2, 0);
+        int start = 0;
+        int ptr = base;
+        for (int i = 0; i < count; i++) {
+            int l = ends[i] - start;
+            write32(file, 4 + i * 8, ptr);
+            write32(file, 8 + i * 8, l);
+            ptr += l * 2;
+            start = ends[i];
+        }
+        for (int i = 0; i < codes.size; i++) {
+            write16(file, base + i * 2, codes.data[i]);
+        }
+        return file;
     }
 
-    private static List<Integer> ToCode(String text, boolean compressed) {
-        List<Integer> data = new ArrayList<Integer>();
-        while (text.length() != 0) {
-            int i = Math.max(0, 6 - text.length());
-            if (text.charAt(0) == '\\') {
-                if (text.charAt(1) == 'x') {
-                    data.add(Integer.parseInt(text.substring(2, 6), 16));
-                    text = text.substring(6);
-                } else if (text.charAt(1) == 'v') {
+    private static void ToCode(String text, boolean compressed, CodeBuffer data) {
+        int start = data.size;
+        int length = text.length();
+        int pos = 0;
+        while (pos < length) {
+            if (text.charAt(pos) == '\\') {
+                char kind = text.charAt(pos + 1);
+                if (kind == 'x') {
+                    data.add(parseHex(text, pos + 2));
+                    pos += 6;
+                } else if (kind == 'v') {
                     data.add(0xFFFE);
-                    data.add(Integer.parseInt(text.substring(2, 6), 16));
-                    text = text.substring(6);
-                } else if (text.charAt(1) == 'z') {
-                    List<Integer> var = new ArrayList<Integer>();
+                    data.add(parseHex(text, pos + 2));
+                    pos += 6;
+                } else if (kind == 'z') {
+                    // the count goes first, so leave room for it
+                    int countAt = data.size;
+                    data.add(0);
                     int w = 0;
-                    while (text.length() != 0) {
-                        if (text.charAt(0) == '\\' && text.charAt(1) == 'z') {
-                            w++;
-                            var.add(Integer.parseInt(text.substring(2, 6), 16));
-                            text = text.substring(6);
-                        } else {
-                            break;
-                        }
+                    while (pos < length && text.charAt(pos) == '\\' && text.charAt(pos + 1) == 'z') {
+                        w++;
+                        data.add(parseHex(text, pos + 2));
+                        pos += 6;
                     }
-                    data.add(w);
-                    data.addAll(var);
-                } else if (text.charAt(1) == 'n') {
+                    data.data[countAt] = (char) w;
+                } else if (kind == 'n') {
                     data.add(0xE000);
-                    text = text.substring(2);
-                } else if (text.charAt(1) == 'p') {
+                    pos += 2;
+                } else if (kind == 'p') {
                     data.add(0x25BC);
-                    text = text.substring(2);
-                } else if (text.charAt(1) == 'l') {
+                    pos += 2;
+                } else if (kind == 'l') {
                     data.add(0x25BD);
-                    text = text.substring(2);
-                } else if (text.substring(1, 4).equals("and")) {
+                    pos += 2;
+                } else if (text.startsWith("and", pos + 1)) {
                     data.add(0x1C2);
-                    text = text.substring(4);
+                    pos += 4;
                 } else {
-                    System.out.printf("unknown escape: %s\n", text.substring(1, 2));
-                    text = text.substring(2);
+                    System.out.printf("unknown escape: %s\n", text.substring(pos + 1, pos + 2));
+                    pos += 2;
                 }
             } else {
-                while (!(UnicodeParser.d.containsKey(text.substring(0, 6 - i)) || (i == 6))) {
-                    i++;
-                }
-                if (i == 6) {
-                    System.out.printf("Char not found %s(%d)", text.substring(0, 1), text.charAt(0));
-                    text = text.substring(1);
+                int match = UnicodeParser.table.match(text, pos);
+                if (match < 0) {
+                    System.out.printf("Char not found %s(%d)", text.substring(pos, pos + 1), (int) text.charAt(pos));
+                    pos++;
                 } else {
-                    data.add(UnicodeParser.d.get(text.substring(0, 6 - i)));
-                    text = text.substring(6 - i);
+                    data.add(match & 0xFFFF);
+                    pos += match >>> 16;
                 }
             }
         }
         if (compressed) {
-            if (data.size() % 5 != 0 || data.size() == 0) {
+            if ((data.size - start) % 5 != 0 || data.size == start) {
                 data.add(0x1FF);
             }
-            byte[] bits = new byte[data.size() * 9];
-            int bc = 0;
-            for (int i = 0; i < data.size(); i++) {
-                for (int j = 0; j < 9; j++) {
-                    bits[bc++] = (byte) ((data.get(i) >> j) & 1);
-                }
-            }
-            int tmp_uint16 = 0;
-            data.clear();
+            // pack the 9-bit codes 15 bits to a word, after the raw codes,
+            // then move them down over them
+            int end = data.size;
             data.add(0xF100);
-            for (int i = 0; i < bits.length; i++) {
-                if (i % 15 == 0 && i != 0) {
-                    data.add(tmp_uint16);
-                    tmp_uint16 = 0;
+            int word = 0;
+            int used = 0;
+            for (int i = start; i < end; i++) {
+                int code = data.data[i];
+                for (int j = 0; j < 9; j++) {
+                    if (used == 15) {
+                        data.add(word);
+                        word = 0;
+                        used = 0;
+                    }
+                    word |= ((code >> j) & 1) << used;
+                    used++;
                 }
-                tmp_uint16 |= (bits[i] << (i % 15));
             }
-            data.add(tmp_uint16);
+            data.add(word);
+            System.arraycopy(data.data, end, data.data, start, data.size - end);
+            data.size = start + data.size - end;
         }
         data.add(0xFFFF);
-        return data;
     }
 
-    private static byte[] join(byte[]... args) {
-        int tlen = 0;
-        for (byte[] arr : args) {
-            tlen += arr.length;
-        }
-        byte[] barr = new byte[tlen];
-        int offs = 0;
-        for (byte[] arr : args) {
-            System.arraycopy(arr, 0, barr, offs, arr.length);
-            offs += arr.length;
+    private static int parseHex(String text, int pos) {
+        int value = 0;
+        for (int i = pos; i < pos + 4; i++) {
+            int digit = Character.digit(text.charAt(i), 16);
+            if (digit < 0) {
+                throw new NumberFormatException("For input string: \"" + text.substring(pos, pos + 4) + "\"");
+            }
+            value = (value << 4) | digit;
         }
-        return barr;
+        return value;
     }
 
-    private static byte[] wordListToBarr(List<Integer> list) {
-        byte[] barr = new byte[list.size() * 2];
-        int l = list.size();
-        for (int i = 0; i < l; i++) {
-            barr[i * 2] = (byte) (list.get(i) & 0xFF);
-            barr[i * 2 + 1] = (byte) ((list.get(i) >> 8) & 0xFF);
-        }
-        return barr;
+    private static void write16(byte[] data, int ofs, int d) {
+        data[ofs] = (byte) (d & 0xFF);
+        data[ofs + 1] = (byte) ((d >> 8) & 0xFF);
     }
 
-    private static byte[] pointerListToBarr(List<PointerEntry> ptrList) {
-        byte[] data = new byte[ptrList.size() * 8];
-        int l = ptrList.size();
-        for (int i = 0; i < l; i++) {
-            int ofs = i * 8;
-            PointerEntry ent = ptrList.get(i);
-            data[ofs] = (byte) (ent.ptr & 0xFF);
-            data[ofs + 1] = (byte) ((ent.ptr >> 8) & 0xFF);
-            data[ofs + 2] = (byte) ((ent.ptr >> 16) & 0xFF);
-            data[ofs + 3] = (byte) ((ent.ptr >> 24) & 0xFF);
-            data[ofs + 4] = (byte) (ent.chars & 0xFF);
-            data[ofs + 5] = (byte) ((ent.chars >> 8) & 0xFF);
-            data[ofs + 6] = (byte) ((ent.chars >> 16) & 0xFF);
-            data[ofs + 7] = (byte) ((ent.chars >> 24) & 0xFF);
-        }
-        return data;
+    private static void write32(byte[] data, int ofs, int d) {
+        write16(data, ofs, d);
+        write16(data, ofs + 2, d >>> 16);
     }
 
-    private static byte[] listOfWordListToBarr(List<List<Integer>> list) {
-        int tlen = 0;
-        for (List<Integer> subList : list) {
-            tlen += subList.size() * 2;
-        }
-        byte[] barr = new byte[tlen];
-        int offs = 0;
-        int l1 = list.size();
-        for (int j = 0; j < l1; j++) {
-            List<Integer> slist = list.get(j);
-            int l2 = slist.size();
-            for (int i = 0; i < l2; i++) {
-                barr[offs] = (byte) (slist.get(i) & 0xFF);
-                barr[offs + 1] = (byte) ((slist.get(i) >> 8) & 0xFF);
-                offs += 2;
-            }
-        }
-        return barr;
-    }
+    private static class CodeBuffer {
 
-    private static class PointerEntry {
+        private char[] data;
+        private int size;
 
-        private int ptr;
-        private int chars;
+        public CodeBuffer(int capacity) {
+            data = new char[capacity];
+        }
 
-        public PointerEntry(int ptr, int chars) {
-            this.ptr = ptr;
-            this.chars = chars;
+        public void add(int code) {
+            if (size == data.length) {
+                char[] grown = new char[data.length * 2];
+                System.arraycopy(data, 0, grown, 0, size);
+                data = grown;
+            }
+            data[size++] = (char) code;
         }
     }
 
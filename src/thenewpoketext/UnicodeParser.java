@@ -7,32 +7,16 @@ package thenewpoketext;
 /*----------------------------------------------------------------------------*/
 
 import java.io.FileNotFoundException;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Scanner;
 
-import com.dabomstew.pkrandom.FileFunctions;
+import com.dabomstew.pkrandom.TextTable;
 
 public class UnicodeParser {
 
-    public static String[] tb = new String[65536];
-    public static Map<String, Integer> d = new HashMap<String, Integer>();
+    public static final TextTable table = new TextTable(0x10000, -1);
 
     static {
         try {
-            Scanner sc = new Scanner(FileFunctions.openConfig("Generation4.tbl"), "UTF-8");
-            while (sc.hasNextLine()) {
-                String q = sc.nextLine();
-                if (!q.trim().isEmpty()) {
-                    String[] r = q.split("=", 2);
-                    if (r[1].endsWith("\r\n")) {
-                        r[1] = r[1].substring(0, r[1].length() - 2);
-                    }
-                    tb[Integer.parseInt(r[0], 16)] = r[1];
-                    d.put(r[1], Integer.parseInt(r[0], 16));
-                }
-            }
-            sc.close();
+            table.readTable("Generation4");
         } catch (FileNotFoundException e) {
         }
     }